@@ -0,0 +1,24 @@
+package fr.vergne.data.access;
+
+/**
+ * A {@link ReactiveReadAccess} is both an {@link ActiveReadAccess} and a
+ * {@link PassiveReadAccess} with an additional guarantee: the value returned
+ * by {@link #get()} never changes without the registered
+ * {@link ValueListener}s being notified. Consequently, a user which needs to
+ * know whether the value has changed does not need to call {@link #get()}
+ * and compare the values: as long as no notification has been received, the
+ * value is the same.<br/>
+ * <br/>
+ * An implementation which notifies only some of its changes, or which
+ * computes its value on the fly when {@link #get()} is called, should not
+ * implement this interface, even if it implements both
+ * {@link ActiveReadAccess} and {@link PassiveReadAccess}.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ * @param <Value>
+ */
+public interface ReactiveReadAccess<Value> extends ActiveReadAccess<Value>,
+		PassiveReadAccess<Value> {
+
+}
@@ -0,0 +1,27 @@
+package fr.vergne.data.access;
+
+/**
+ * A {@link VersionedReadAccess} is an {@link ActiveReadAccess} which stamps
+ * its value with a version. The version increases each time a value is
+ * assigned, so a user which has kept the version of the value it has read
+ * can know whether the value has been assigned since by comparing the
+ * versions, without calling {@link #get()} nor comparing the values. This is
+ * particularly interesting for the values which are expensive to compare,
+ * like big collections.<br/>
+ * <br/>
+ * Notice that a different version does not mean a different value: the same
+ * value can have been assigned again. However, the same version always means
+ * the same value.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ * @param <Value>
+ */
+public interface VersionedReadAccess<Value> extends ActiveReadAccess<Value> {
+	/**
+	 * 
+	 * @return the version of the current value, which increases each time a
+	 *         value is assigned
+	 */
+	public long version();
+}
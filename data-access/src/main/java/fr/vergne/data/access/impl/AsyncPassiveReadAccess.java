@@ -0,0 +1,347 @@
+package fr.vergne.data.access.impl;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.util.ListenerRegistry;
+
+/**
+ * This {@link AsyncPassiveReadAccess} is the asynchronous counterpart of the
+ * {@link SimplePassiveReadAccess}: {@link #notifyValueListeners(Object)} does
+ * not call the {@link ValueListener}s, it only queues the value for each of
+ * them and returns. The {@link ValueListener}s are called later by the
+ * {@link Executor} provided at construction, so a slow {@link ValueListener}
+ * does not slow down the notifier nor the other {@link ValueListener}s.<br/>
+ * <br/>
+ * Each {@link ValueListener} has its own bounded queue, which is drained by a
+ * single task at a time. Consequently, each {@link ValueListener} receives
+ * the values in the order they have been notified (when they are notified by
+ * a single thread) and is never called concurrently, while different
+ * {@link ValueListener}s can be called in parallel if the {@link Executor}
+ * allows it. When the queue of a {@link ValueListener} is full, the
+ * {@link OverflowPolicy} tells what to do with the new value. When a
+ * {@link ValueListener} is removed, the values still queued for it are
+ * discarded. When a {@link ValueListener} throws an exception, it is logged
+ * and the {@link ValueListener} keeps receiving the next values.<br/>
+ * <br/>
+ * The {@link Executor} can be any {@link Executor}, including a pool of
+ * threads shared with other notifiers. On the JDKs supporting them,
+ * {@link #createVirtualThreadExecutor()} provides one virtual thread per
+ * task, which is cheap enough for a large number of {@link ValueListener}s.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class AsyncPassiveReadAccess<Value> implements PassiveReadAccess<Value> {
+
+	/**
+	 * The default capacity of the queue of each {@link ValueListener}.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	/**
+	 * The maximal number of values provided to a {@link ValueListener} by a
+	 * single task, so a busy {@link ValueListener} does not monopolize a
+	 * thread of the {@link Executor}.
+	 */
+	private static final int DRAIN_BATCH = 64;
+	/**
+	 * The queues do not accept <code>null</code>, so this object replaces it.
+	 */
+	private static final Object NULL = new Object();
+	private static final Logger LOGGER = Logger
+			.getLogger(AsyncPassiveReadAccess.class.getName());
+
+	private final Executor executor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ConcurrentMap<ValueListener<Value>, Mailbox> mailboxes = new ConcurrentHashMap<ValueListener<Value>, Mailbox>();
+	private final ListenerRegistry<Mailbox> registry = new ListenerRegistry<Mailbox>(
+			Mailbox.class);
+	private final ListenerRegistry<ValueListener<Value>> listeners = new ListenerRegistry<ValueListener<Value>>(
+			ValueListener.class);
+
+	/**
+	 * An {@link OverflowPolicy} tells what to do when a value is notified
+	 * while the queue of a {@link ValueListener} is full.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Block the notifier until the {@link ValueListener} has consumed
+		 * enough values. No value is lost, but the notifier is slowed down to
+		 * the pace of the slowest {@link ValueListener}. If the notifier is
+		 * interrupted while waiting, the value is not queued for this
+		 * {@link ValueListener} and the interruption status of the thread is
+		 * restored.
+		 */
+		BLOCK,
+		/**
+		 * Discard the oldest value queued to make room for the new one, which
+		 * suits {@link ValueListener}s interested in the most recent values.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Discard the new value, which suits {@link ValueListener}s
+		 * interested in the first values.
+		 */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Create an {@link AsyncPassiveReadAccess} with queues of
+	 * {@link #DEFAULT_CAPACITY} which block the notifier when they are full.
+	 *
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 */
+	public AsyncPassiveReadAccess(Executor executor) {
+		this(executor, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 *
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 * @param capacity
+	 *            the maximal number of values queued for each
+	 *            {@link ValueListener}
+	 * @param policy
+	 *            the {@link OverflowPolicy} to apply when the queue of a
+	 *            {@link ValueListener} is full
+	 */
+	public AsyncPassiveReadAccess(Executor executor, int capacity,
+			OverflowPolicy policy) {
+		if (executor == null) {
+			throw new NullPointerException("No executor provided.");
+		} else if (policy == null) {
+			throw new NullPointerException("No overflow policy provided.");
+		} else if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"The capacity should be positive: " + capacity);
+		} else {
+			this.executor = executor;
+			this.capacity = capacity;
+			this.policy = policy;
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link Executor} calling the {@link ValueListener}s
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 *
+	 * @return the maximal number of values queued for each
+	 *         {@link ValueListener}
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 *
+	 * @return the {@link OverflowPolicy} applied when the queue of a
+	 *         {@link ValueListener} is full
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+
+	@Override
+	public synchronized void addValueListener(ValueListener<Value> listener) {
+		if (listeners.add(listener)) {
+			Mailbox mailbox = new Mailbox(listener);
+			mailboxes.put(listener, mailbox);
+			registry.add(mailbox);
+		} else {
+			// already registered
+		}
+	}
+
+	/**
+	 * The {@link ValueListener}s cannot be added or removed through this
+	 * {@link Collection}, since each of them needs its own queue: use
+	 * {@link #addValueListener(ValueListener)} and
+	 * {@link #removeValueListener(ValueListener)} instead.
+	 */
+	@Override
+	public Collection<ValueListener<Value>> getValueListeners() {
+		return Collections.unmodifiableCollection(listeners);
+	}
+
+	@Override
+	public synchronized void removeValueListener(ValueListener<Value> listener) {
+		if (listeners.remove(listener)) {
+			Mailbox mailbox = mailboxes.remove(listener);
+			registry.remove(mailbox);
+			mailbox.close();
+		} else {
+			// not registered
+		}
+	}
+
+	/**
+	 * Queue the value given in argument for each {@link ValueListener}, which
+	 * will receive it asynchronously. Unless the {@link OverflowPolicy} is
+	 * {@link OverflowPolicy#BLOCK} and a queue is full, this method returns
+	 * without waiting for any {@link ValueListener}.
+	 *
+	 * @param value
+	 *            the value to send to the listeners
+	 * @throws RejectedExecutionException
+	 *             if the {@link Executor} does not accept the task which
+	 *             should call a {@link ValueListener}
+	 */
+	public void notifyValueListeners(Value value) {
+		Object item = value == null ? NULL : value;
+		for (Mailbox mailbox : registry.getSnapshot()) {
+			mailbox.post(item);
+		}
+	}
+
+	/**
+	 * Create an {@link ExecutorService} which starts a new virtual thread for
+	 * each task. Virtual threads are only available from Java 21, so on older
+	 * JDKs it falls back on a pool of daemon threads, created on demand and
+	 * reused when available.
+	 *
+	 * @return an {@link ExecutorService} suited for calling many
+	 *         {@link ValueListener}s in parallel
+	 */
+	public static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * A {@link Mailbox} stores the values waiting for a given
+	 * {@link ValueListener} and, as a task, provides them to it. The
+	 * {@link #scheduled} flag ensures that at most one task is submitted at a
+	 * time for a given {@link Mailbox}, which preserves the order of the
+	 * values.
+	 */
+	private class Mailbox implements Runnable {
+
+		private final ValueListener<Value> listener;
+		private final BlockingQueue<Object> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private volatile boolean closed = false;
+
+		public Mailbox(ValueListener<Value> listener) {
+			this.listener = listener;
+			this.queue = new ArrayBlockingQueue<Object>(capacity);
+		}
+
+		public void post(Object item) {
+			switch (policy) {
+			case BLOCK:
+				try {
+					queue.put(item);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(item)) {
+					queue.poll();
+				}
+				break;
+			case DROP_NEWEST:
+				if (queue.offer(item)) {
+					// queued
+				} else {
+					return;
+				}
+				break;
+			default:
+				throw new RuntimeException("Unmanaged policy: " + policy);
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					throw e;
+				}
+			} else {
+				// the running task will take the value
+			}
+		}
+
+		public void close() {
+			closed = true;
+			queue.clear();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < DRAIN_BATCH && !closed; i++) {
+					Object item = queue.poll();
+					if (item == null) {
+						break;
+					} else {
+						Value value = item == NULL ? null : (Value) item;
+						try {
+							listener.valueGenerated(value);
+						} catch (RuntimeException e) {
+							LOGGER.log(Level.WARNING, "Listener " + listener
+									+ " failed on value " + value, e);
+						}
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				if (queue.isEmpty() || closed) {
+					// nothing more to provide
+				} else {
+					try {
+						schedule();
+					} catch (RejectedExecutionException e) {
+						// left unscheduled, the next post schedules it again
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,15 +1,17 @@
 package fr.vergne.data.access.impl;
 
 import java.util.Collection;
-import java.util.HashSet;
 
 import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.util.ListenerRegistry;
 
 /**
  * This {@link SimplePassiveReadAccess} implements the minimal needs to manage
  * the {@link ValueListener}s of a {@link PassiveReadAccess}. It implements the
  * necessary controls and can be reused in other implementations to reduce the
- * effort.
+ * effort. The {@link ValueListener}s are stored in a {@link ListenerRegistry},
+ * so they are notified in their registration order and they can be added or
+ * removed at any time, even during a notification.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
@@ -17,15 +19,12 @@ import fr.vergne.data.access.PassiveReadAccess;
  */
 public class SimplePassiveReadAccess<Value> implements PassiveReadAccess<Value> {
 
-	private final Collection<ValueListener<Value>> listeners = new HashSet<ValueListener<Value>>();
+	private final ListenerRegistry<ValueListener<Value>> listeners = new ListenerRegistry<ValueListener<Value>>(
+			ValueListener.class);
 
 	@Override
 	public void addValueListener(ValueListener<Value> listener) {
-		if (listener == null) {
-			throw new NullPointerException("No listener provided");
-		} else {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 	}
 
 	@Override
@@ -45,7 +44,7 @@ public class SimplePassiveReadAccess<Value> implements PassiveReadAccess<Value>
 	 *            the value to send to the listeners
 	 */
 	public void notifyValueListeners(Value value) {
-		for (ValueListener<Value> listener : listeners) {
+		for (ValueListener<Value> listener : listeners.getSnapshot()) {
 			listener.valueGenerated(value);
 		}
 	}
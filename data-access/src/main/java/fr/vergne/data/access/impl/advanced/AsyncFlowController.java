@@ -0,0 +1,98 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveWriteAccess;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess.OverflowPolicy;
+import fr.vergne.data.access.impl.SimplePassiveWriteAccess;
+
+/**
+ * An {@link AsyncFlowController} is a {@link FlowController} which does not
+ * wait for its {@link ValueListener}s: {@link #transfer()} retrieves the
+ * value from the {@link ValueGenerator} in the calling thread, queues it for
+ * each {@link ValueListener} and returns, while an {@link Executor} provides
+ * the value to the {@link ValueListener}s.<br/>
+ * <br/>
+ * Each {@link ValueListener} receives the values in the order they have been
+ * transferred and is never called concurrently. The number of values waiting
+ * for a given {@link ValueListener} is bounded, and the
+ * {@link OverflowPolicy} tells what to do when this bound is reached. Please
+ * refer to {@link AsyncPassiveReadAccess} for the details.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class AsyncFlowController<Value> extends SimplePassiveWriteAccess<Value>
+		implements PassiveWriteAccess<Value>, PassiveReadAccess<Value> {
+
+	private final AsyncPassiveReadAccess<Value> readers;
+
+	/**
+	 * Create an {@link AsyncFlowController} which blocks {@link #transfer()}
+	 * when a {@link ValueListener} has
+	 * {@link AsyncPassiveReadAccess#DEFAULT_CAPACITY} values waiting.
+	 *
+	 * @param generator
+	 *            the {@link ValueGenerator} which provides the values to
+	 *            transfer to the {@link ValueListener}s
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 */
+	public AsyncFlowController(ValueGenerator<Value> generator,
+			Executor executor) {
+		this(generator, executor, AsyncPassiveReadAccess.DEFAULT_CAPACITY,
+				OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 *
+	 * @param generator
+	 *            the {@link ValueGenerator} which provides the values to
+	 *            transfer to the {@link ValueListener}s
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 * @param capacity
+	 *            the maximal number of values waiting for each
+	 *            {@link ValueListener}
+	 * @param policy
+	 *            the {@link OverflowPolicy} to apply when a
+	 *            {@link ValueListener} has too many values waiting
+	 */
+	public AsyncFlowController(ValueGenerator<Value> generator,
+			Executor executor, int capacity, OverflowPolicy policy) {
+		super(generator);
+		readers = new AsyncPassiveReadAccess<Value>(executor, capacity, policy);
+	}
+
+	@Override
+	public void addValueListener(ValueListener<Value> listener) {
+		readers.addValueListener(listener);
+	}
+
+	@Override
+	public Collection<ValueListener<Value>> getValueListeners() {
+		return readers.getValueListeners();
+	}
+
+	@Override
+	public void removeValueListener(ValueListener<Value> listener) {
+		readers.removeValueListener(listener);
+	}
+
+	/**
+	 * Retrieve the value from the {@link ValueGenerator} and queue it for the
+	 * registered {@link ValueListener}s. If no {@link ValueListener} is
+	 * registered, nothing happen to preserve performance.
+	 */
+	public void transfer() {
+		if (readers.getValueListeners().isEmpty()) {
+			// no need to retrieve the value
+		} else {
+			readers.notifyValueListeners(getValueGenerator().generateValue());
+		}
+	}
+}
@@ -0,0 +1,593 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveWriteAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+/**
+ * An {@link AsyncLastInstantComputer} is the asynchronous counterpart of the
+ * {@link LastInstantComputer}, made for slow {@link Computer}s. Its
+ * {@link #get()} never waits for a computation: it returns the last output
+ * computed and, if the inputs have changed since, it triggers a new
+ * computation in the background, through the {@link Executor} provided at
+ * construction. Thus, the output returned can be stale, but the threads
+ * calling {@link #get()} are never blocked by the {@link Computer}. Before
+ * the first computation completes, {@link #get()} returns <code>null</code>.
+ * When an up-to-date output is needed, {@link #getFresh()} provides a
+ * {@link Future} of it.<br/>
+ * <br/>
+ * At most one computation runs at a time and at most one more is planned,
+ * whatever the number of calls: the calls made while a computation is
+ * planned reuse it. If the inputs change while an output is being computed,
+ * this computation is superseded: its thread is interrupted, so a
+ * {@link Computer} checking {@link Thread#interrupted()} can stop early, and
+ * its output is ignored in favour of the planned computation.<br/>
+ * <br/>
+ * Like for the {@link ConcurrentLastInstantComputer}, the sources are read by
+ * the threads calling {@link #get()} to know whether the output is up to
+ * date, so they should be thread-safe. A computation reads its inputs while
+ * holding the lock of the sources, but computes without it: setting the
+ * sources or the {@link Computer} does not wait for the running computation,
+ * it only makes its output outdated.<br/>
+ * <br/>
+ * If the {@link Executor} rejects a computation, {@link #get()} still returns
+ * the last output computed and the {@link Future}s waiting for this
+ * computation fail with the {@link RejectedExecutionException}. The
+ * computation is requested again at the next call, so it is performed once
+ * the {@link Executor} accepts it.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class AsyncLastInstantComputer<Value> implements ActiveReadAccess<Value> {
+
+	/**
+	 * The {@link LastInstantComputer} managing the sources and the
+	 * {@link Computer}, only accessed while holding the {@link #lock}.
+	 */
+	private final LastInstantComputer<Value> computer = new LastInstantComputer<Value>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Executor executor;
+	/**
+	 * Incremented each time a source or the {@link Computer} is set, so a
+	 * {@link Snapshot} made before is not considered anymore.
+	 */
+	private volatile int modifications = 0;
+	/**
+	 * The state of the last computation completed, <code>null</code> if no
+	 * computation has completed yet.
+	 */
+	private volatile Snapshot<Value> published = null;
+	/**
+	 * The inputs of the computation running, <code>null</code> if the
+	 * {@link Computer} is not running.
+	 */
+	private volatile Snapshot<Value> computing = null;
+	/**
+	 * The {@link Refresh} running and the one planned after it, both guarded
+	 * by the monitor of {@link #tasks}.
+	 */
+	private final Object tasks = new Object();
+	private Refresh running = null;
+	private Refresh pending = null;
+
+	/**
+	 * Create an {@link AsyncLastInstantComputer} without any {@link Computer}
+	 * ( <code>null</code>). Be sure to set a {@link Computer} before to call
+	 * its {@link #get()} method.
+	 *
+	 * @param executor
+	 *            the {@link Executor} running the computations
+	 */
+	public AsyncLastInstantComputer(Executor executor) {
+		this(null, executor);
+	}
+
+	/**
+	 *
+	 * @param computer
+	 *            the {@link Computer} to use
+	 * @param executor
+	 *            the {@link Executor} running the computations
+	 */
+	public AsyncLastInstantComputer(Computer<Value> computer, Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("No executor provided.");
+		} else {
+			this.executor = executor;
+			setComputer(computer);
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link Executor} running the computations
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, ActiveReadAccess)
+	 */
+	public void setSource(Object key, ActiveReadAccess<?> source) {
+		lock.lock();
+		try {
+			computer.setSource(key, source);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, ReactiveReadAccess)
+	 */
+	public void setSource(Object key, ReactiveReadAccess<?> source) {
+		setSource(key, (ActiveReadAccess<?>) source);
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, PassiveReadAccess)
+	 */
+	public ActiveReadAccess<?> setSource(Object key, PassiveReadAccess<?> source) {
+		lock.lock();
+		try {
+			ActiveReadAccess<?> wrapper = computer.setSource(key, source);
+			modifications++;
+			return wrapper;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, PassiveWriteAccess)
+	 */
+	public ActiveReadAccess<?> setSource(Object key,
+			PassiveWriteAccess<?> source) {
+		lock.lock();
+		try {
+			ActiveReadAccess<?> wrapper = computer.setSource(key, source);
+			modifications++;
+			return wrapper;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getSource(Object)
+	 */
+	public ActiveReadAccess<?> getSource(Object key) {
+		lock.lock();
+		try {
+			return computer.getSource(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Contrary to {@link LastInstantComputer#getAllSources()}, the
+	 * {@link Map} returned is a copy, so it is not affected by the sources
+	 * set afterwards.
+	 *
+	 * @return all the registered sources
+	 */
+	public Map<Object, ActiveReadAccess<?>> getAllSources() {
+		lock.lock();
+		try {
+			return Collections
+					.unmodifiableMap(new HashMap<Object, ActiveReadAccess<?>>(
+							computer.getAllSources()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#removeSource(Object)
+	 */
+	public void removeSource(Object key) {
+		lock.lock();
+		try {
+			computer.removeSource(key);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setComputer(Computer)
+	 */
+	public void setComputer(Computer<Value> computer) {
+		lock.lock();
+		try {
+			this.computer.setComputer(computer);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getComputer()
+	 */
+	public Computer<Value> getComputer() {
+		lock.lock();
+		try {
+			return computer.getComputer();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the last output computed, without waiting for any computation.
+	 * If the inputs have changed since this output has been computed, a new
+	 * computation is triggered in the background, unless one is already
+	 * running on the current inputs or planned.
+	 *
+	 * @return the last output computed, <code>null</code> if no computation
+	 *         has completed yet
+	 */
+	@Override
+	public Value get() {
+		Snapshot<Value> current = published;
+		if (isUpToDate(current)) {
+			// nothing to compute
+		} else {
+			requestRefresh(null);
+		}
+		return current == null ? null : current.output;
+	}
+
+	/**
+	 * Provide the output corresponding to the current inputs. If the last
+	 * output computed is up to date, the {@link Future} returned is already
+	 * done. Otherwise, it is done once a computation started after this call
+	 * completes. If this computation fails, the {@link Future} provides the
+	 * exception thrown, and if the {@link Executor} rejects it, the
+	 * {@link Future} provides the {@link RejectedExecutionException}.
+	 *
+	 * @return the {@link Future} of the up-to-date output
+	 */
+	public Future<Value> getFresh() {
+		Snapshot<Value> current = published;
+		Result<Value> result = new Result<Value>();
+		if (isUpToDate(current)) {
+			result.complete(current.output);
+		} else {
+			requestRefresh(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Ensure that a computation on the current inputs is running or planned.
+	 *
+	 * @param result
+	 *            the {@link Result} to complete with the output computed,
+	 *            <code>null</code> if none
+	 */
+	private void requestRefresh(Result<Value> result) {
+		Snapshot<Value> inFlight = computing;
+		boolean inFlightUpToDate = isUpToDate(inFlight);
+		synchronized (tasks) {
+			Refresh refresh;
+			boolean idle = running == null;
+			if (idle) {
+				running = new Refresh();
+				refresh = running;
+			} else if (pending != null) {
+				refresh = pending;
+			} else if (inFlightUpToDate && computing == inFlight) {
+				refresh = running;
+			} else {
+				pending = new Refresh();
+				if (inFlight == null) {
+					// not computing yet, let it finish its checks
+				} else {
+					// superseded
+					running.cancel(pending);
+				}
+				refresh = pending;
+			}
+			if (result == null) {
+				// nobody waiting
+			} else {
+				refresh.results.add(result);
+			}
+			if (idle) {
+				start(running);
+			} else {
+				// already started or started after the running one
+			}
+		}
+	}
+
+	/**
+	 * Start a {@link Refresh}, the monitor of {@link #tasks} being held. If
+	 * the {@link Executor} rejects it, its {@link Result}s fail and nothing
+	 * runs anymore, so the next request starts a new {@link Refresh}.
+	 */
+	private void start(Refresh refresh) {
+		try {
+			executor.execute(refresh);
+		} catch (RejectedExecutionException e) {
+			running = null;
+			refresh.fail(e);
+		}
+	}
+
+	private boolean isUpToDate(Snapshot<Value> snapshot) {
+		if (snapshot == null || snapshot.modifications != modifications) {
+			return false;
+		} else {
+			ActiveReadAccess<?>[] sources = snapshot.sources;
+			Object[] inputs = snapshot.inputs;
+			for (int i = 0; i < sources.length; i++) {
+				if (same(inputs[i], sources[i].get())) {
+					// no change
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Read the current inputs from the sources of the {@link #computer}, the
+	 * {@link #lock} being held.
+	 */
+	private Map<Object, Object> readInputs() {
+		Map<Object, Object> inputs = new HashMap<Object, Object>();
+		for (Entry<Object, ActiveReadAccess<?>> entry : computer
+				.getAllSources().entrySet()) {
+			inputs.put(entry.getKey(), entry.getValue().get());
+		}
+		return inputs;
+	}
+
+	/**
+	 * Create a {@link Snapshot} of the sources of the {@link #computer} with
+	 * the given inputs, the {@link #lock} being held.
+	 */
+	private Snapshot<Value> createSnapshot(int modifications,
+			Map<Object, Object> lastInputs, Value output) {
+		Map<Object, ActiveReadAccess<?>> allSources = computer.getAllSources();
+		ActiveReadAccess<?>[] sources = new ActiveReadAccess<?>[allSources
+				.size()];
+		Object[] inputs = new Object[sources.length];
+		int index = 0;
+		for (Entry<Object, ActiveReadAccess<?>> entry : allSources.entrySet()) {
+			sources[index] = entry.getValue();
+			inputs[index] = lastInputs.get(entry.getKey());
+			index++;
+		}
+		return new Snapshot<Value>(modifications, sources, inputs, output);
+	}
+
+	private boolean same(Object a, Object b) {
+		return a == b || a != null && a.equals(b);
+	}
+
+	/**
+	 * A {@link Refresh} is a background computation. It reads the inputs
+	 * while holding the {@link AsyncLastInstantComputer#lock}, computes the
+	 * output without it if the inputs differ from the last computation, and
+	 * publishes the result for {@link #get()} and the {@link Result}s waiting
+	 * for it.
+	 */
+	private class Refresh implements Runnable {
+
+		/**
+		 * The {@link Result}s to complete, guarded by the monitor of
+		 * {@link AsyncLastInstantComputer#tasks}.
+		 */
+		private final List<Result<Value>> results = new LinkedList<Result<Value>>();
+		/**
+		 * The thread running this {@link Refresh} and whether it has been
+		 * superseded, guarded by the monitor of
+		 * {@link AsyncLastInstantComputer#tasks}.
+		 */
+		private Thread thread = null;
+		private boolean cancelled = false;
+
+		@Override
+		public void run() {
+			try {
+				synchronized (tasks) {
+					if (cancelled) {
+						return;
+					} else {
+						thread = Thread.currentThread();
+					}
+				}
+				Snapshot<Value> snapshot;
+				try {
+					Computer<Value> function;
+					Map<Object, Object> inputs;
+					Snapshot<Value> read;
+					lock.lock();
+					try {
+						function = computer.getComputer();
+						inputs = readInputs();
+						read = createSnapshot(modifications, inputs, null);
+					} finally {
+						lock.unlock();
+					}
+					Snapshot<Value> last = published;
+					if (last != null && last.modifications == read.modifications
+							&& sameInputs(last, read)) {
+						snapshot = last;
+					} else {
+						computing = read;
+						try {
+							Value output = function.compute(Collections
+									.unmodifiableMap(inputs));
+							snapshot = new Snapshot<Value>(read.modifications,
+									read.sources, read.inputs, output);
+						} finally {
+							computing = null;
+						}
+					}
+				} catch (RuntimeException e) {
+					fail(e);
+					return;
+				}
+				complete(snapshot);
+			} finally {
+				synchronized (tasks) {
+					thread = null;
+				}
+				// don't leave a cancellation to the next task of the thread
+				Thread.interrupted();
+				finish();
+			}
+		}
+
+		/**
+		 * Compare the inputs of two {@link Snapshot}s having the same
+		 * modifications, thus the same sources in the same order.
+		 */
+		private boolean sameInputs(Snapshot<Value> a, Snapshot<Value> b) {
+			for (int i = 0; i < a.inputs.length; i++) {
+				if (same(a.inputs[i], b.inputs[i])) {
+					// no change
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Supersede this {@link Refresh} by another one, which takes the
+		 * {@link Result}s of this one. The monitor of
+		 * {@link AsyncLastInstantComputer#tasks} should be held.
+		 */
+		public void cancel(Refresh replacement) {
+			cancelled = true;
+			replacement.results.addAll(results);
+			results.clear();
+			if (thread == null) {
+				// not running the computer
+			} else {
+				thread.interrupt();
+			}
+		}
+
+		private void complete(Snapshot<Value> snapshot) {
+			List<Result<Value>> completed;
+			synchronized (tasks) {
+				if (cancelled) {
+					// results transferred to the replacement
+					return;
+				} else {
+					published = snapshot;
+					completed = new LinkedList<Result<Value>>(results);
+					results.clear();
+				}
+			}
+			for (Result<Value> result : completed) {
+				result.complete(snapshot.output);
+			}
+		}
+
+		public void fail(Exception exception) {
+			List<Result<Value>> failed;
+			synchronized (tasks) {
+				if (cancelled) {
+					// results transferred to the replacement
+					return;
+				} else {
+					failed = new LinkedList<Result<Value>>(results);
+					results.clear();
+				}
+			}
+			for (Result<Value> result : failed) {
+				result.fail(exception);
+			}
+		}
+
+		/**
+		 * Start the planned {@link Refresh}, if any.
+		 */
+		private void finish() {
+			synchronized (tasks) {
+				running = pending;
+				pending = null;
+				if (running == null) {
+					// nothing planned
+				} else {
+					start(running);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A {@link Result} is the {@link Future} provided by {@link #getFresh()},
+	 * completed by the {@link Refresh} computing the output.
+	 */
+	private static class Result<Value> extends FutureTask<Value> {
+
+		public Result() {
+			super(new Callable<Value>() {
+
+				@Override
+				public Value call() throws Exception {
+					throw new IllegalStateException(
+							"Completed by a computation.");
+				}
+			});
+		}
+
+		public void complete(Value output) {
+			set(output);
+		}
+
+		public void fail(Exception exception) {
+			setException(exception);
+		}
+	}
+
+	/**
+	 * The immutable state of a computation: the sources used, the inputs they
+	 * provided and the output computed from them.
+	 */
+	private static class Snapshot<Value> {
+		private final int modifications;
+		private final ActiveReadAccess<?>[] sources;
+		private final Object[] inputs;
+		private final Value output;
+
+		public Snapshot(int modifications, ActiveReadAccess<?>[] sources,
+				Object[] inputs, Value output) {
+			this.modifications = modifications;
+			this.sources = sources;
+			this.inputs = inputs;
+			this.output = output;
+		}
+	}
+}
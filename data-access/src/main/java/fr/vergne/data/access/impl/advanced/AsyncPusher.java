@@ -0,0 +1,60 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.Executor;
+
+import fr.vergne.data.access.ActiveWriteAccess;
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess;
+
+/**
+ * An {@link AsyncPusher} is a {@link Pusher} which does not wait for its
+ * {@link ValueListener}s: {@link #set(Object)} queues the value for each of
+ * them and returns, while an {@link Executor} provides the values to the
+ * {@link ValueListener}s. Thus, the time spent in {@link #set(Object)} does
+ * not depend on how long the {@link ValueListener}s take to process the
+ * values.<br/>
+ * <br/>
+ * Each {@link ValueListener} receives the values in the order they have been
+ * set and is never called concurrently. The number of values waiting for a
+ * given {@link ValueListener} is bounded, and the {@link OverflowPolicy}
+ * tells what to do when this bound is reached. Please refer to
+ * {@link AsyncPassiveReadAccess} for the details.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class AsyncPusher<Value> extends AsyncPassiveReadAccess<Value> implements
+		ActiveWriteAccess<Value>, PassiveReadAccess<Value> {
+
+	/**
+	 * Create an {@link AsyncPusher} which blocks {@link #set(Object)} when a
+	 * {@link ValueListener} has {@link #DEFAULT_CAPACITY} values waiting.
+	 *
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 */
+	public AsyncPusher(Executor executor) {
+		super(executor);
+	}
+
+	/**
+	 *
+	 * @param executor
+	 *            the {@link Executor} calling the {@link ValueListener}s
+	 * @param capacity
+	 *            the maximal number of values waiting for each
+	 *            {@link ValueListener}
+	 * @param policy
+	 *            the {@link OverflowPolicy} to apply when a
+	 *            {@link ValueListener} has too many values waiting
+	 */
+	public AsyncPusher(Executor executor, int capacity, OverflowPolicy policy) {
+		super(executor, capacity, policy);
+	}
+
+	@Override
+	public void set(Value value) {
+		notifyValueListeners(value);
+	}
+}
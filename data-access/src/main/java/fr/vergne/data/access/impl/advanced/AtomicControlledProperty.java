@@ -0,0 +1,202 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.ActiveWriteAccess;
+
+/**
+ * An {@link AtomicControlledProperty}, like a {@link ControlledProperty},
+ * emulates a property which can be read and written on demand. However, it
+ * can be shared between several threads without external locking: a value
+ * written through {@link #set(Object)} by a thread is visible to any thread
+ * calling {@link #get()} afterwards, together with everything the writer did
+ * before to write it.<br/>
+ * <br/>
+ * In addition to the basic {@link #get()} and {@link #set(Object)}, it
+ * provides atomic read-modify-write operations, namely
+ * {@link #compareAndSet(Object, Object)}, {@link #getAndSet(Object)},
+ * {@link #updateAndGet(Updater)} and {@link #accumulateAndGet(Object, Accumulator)}
+ * . They never block and, when several threads update the property at the
+ * same time, none of the updates is lost: the ones which conflict are simply
+ * retried on the latest value.<br/>
+ * <br/>
+ * Like {@link java.util.concurrent.atomic.AtomicReference}, the comparisons
+ * are made on the identity of the values (<code>==</code>), not on their
+ * {@link Object#equals(Object)} method.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class AtomicControlledProperty<Value> implements
+		ActiveWriteAccess<Value>, ActiveReadAccess<Value> {
+
+	private final AtomicReference<Value> value;
+
+	/**
+	 * Create the {@link AtomicControlledProperty} with a <code>null</code>
+	 * value.
+	 */
+	public AtomicControlledProperty() {
+		this(null);
+	}
+
+	/**
+	 * Create the {@link AtomicControlledProperty} with a given value.
+	 *
+	 * @param initialValue
+	 *            the value to set on creation
+	 */
+	public AtomicControlledProperty(Value initialValue) {
+		value = new AtomicReference<Value>(initialValue);
+	}
+
+	@Override
+	public Value get() {
+		return value.get();
+	}
+
+	@Override
+	public void set(Value value) {
+		this.value.lazySet(value);
+		valueSet(value);
+	}
+
+	/**
+	 * Set the value only if the current one is the expected one.
+	 *
+	 * @param expectedValue
+	 *            the value that the property should have
+	 * @param newValue
+	 *            the value to set
+	 * @return <code>true</code> if the value has been set, <code>false</code>
+	 *         if the current value was not the expected one
+	 */
+	public boolean compareAndSet(Value expectedValue, Value newValue) {
+		if (value.compareAndSet(expectedValue, newValue)) {
+			valueSet(newValue);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @param newValue
+	 *            the value to set
+	 * @return the value replaced by the new one
+	 */
+	public Value getAndSet(Value newValue) {
+		Value oldValue = value.getAndSet(newValue);
+		valueSet(newValue);
+		return oldValue;
+	}
+
+	/**
+	 * Replace the current value by the one computed by the {@link Updater}.
+	 * If another thread changes the value in the meantime, the
+	 * {@link Updater} is called again on the new value, so it should not have
+	 * side effects.
+	 *
+	 * @param updater
+	 *            the {@link Updater} computing the new value
+	 * @return the new value
+	 */
+	public Value updateAndGet(Updater<Value> updater) {
+		while (true) {
+			Value oldValue = value.get();
+			Value newValue = updater.update(oldValue);
+			if (value.compareAndSet(oldValue, newValue)) {
+				valueSet(newValue);
+				return newValue;
+			} else {
+				// changed in the meantime, retry
+			}
+		}
+	}
+
+	/**
+	 * Replace the current value by the one computed by the {@link Accumulator}
+	 * , which combines the current value with the given one. If another thread
+	 * changes the value in the meantime, the {@link Accumulator} is called
+	 * again on the new value, so it should not have side effects.
+	 *
+	 * @param operand
+	 *            the value to combine with the current one
+	 * @param accumulator
+	 *            the {@link Accumulator} computing the new value
+	 * @return the new value
+	 */
+	public Value accumulateAndGet(Value operand, Accumulator<Value> accumulator) {
+		while (true) {
+			Value oldValue = value.get();
+			Value newValue = accumulator.accumulate(oldValue, operand);
+			if (value.compareAndSet(oldValue, newValue)) {
+				valueSet(newValue);
+				return newValue;
+			} else {
+				// changed in the meantime, retry
+			}
+		}
+	}
+
+	/**
+	 * This method is called each time a write actually happened, once the new
+	 * value is visible through {@link #get()}. It is not called for the
+	 * attempts which failed, like a {@link #compareAndSet(Object, Object)}
+	 * returning <code>false</code> or the retries of
+	 * {@link #updateAndGet(Updater)}. It does nothing by default, and can be
+	 * overridden to react to the modifications of the property.<br/>
+	 * <br/>
+	 * {@link #set(Object)} stores the value with an ordered write, which can
+	 * be reordered with the volatile reads done here, so an override relying
+	 * on this order should also override {@link #set(Object)}.
+	 *
+	 * @param value
+	 *            the value which has been set
+	 */
+	protected void valueSet(Value value) {
+		// nothing to do
+	}
+
+	/**
+	 * An {@link Updater} computes the new value of an
+	 * {@link AtomicControlledProperty} from its current value.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Value>
+	 */
+	public static interface Updater<Value> {
+		/**
+		 *
+		 * @param value
+		 *            the current value of the property
+		 * @return the new value of the property
+		 */
+		public Value update(Value value);
+	}
+
+	/**
+	 * An {@link Accumulator} computes the new value of an
+	 * {@link AtomicControlledProperty} by combining its current value with
+	 * another one.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Value>
+	 */
+	public static interface Accumulator<Value> {
+		/**
+		 *
+		 * @param value
+		 *            the current value of the property
+		 * @param operand
+		 *            the value to combine with
+		 * @return the new value of the property
+		 */
+		public Value accumulate(Value value, Value operand);
+	}
+}
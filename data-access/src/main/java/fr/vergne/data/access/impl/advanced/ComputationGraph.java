@@ -0,0 +1,503 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.VersionedReadAccess;
+
+/**
+ * A {@link ComputationGraph} evaluates a set of {@link LastInstantComputer}s
+ * which use each other as sources, like the cells of a spreadsheet. Chaining
+ * {@link LastInstantComputer}s directly works, but each {@link #get()} on the
+ * last one checks the whole graph recursively, and a
+ * {@link LastInstantComputer} used by several others is checked once for each
+ * of them. A {@link ComputationGraph} avoids it:
+ * <ul>
+ * <li>each {@link LastInstantComputer} added to the graph becomes a
+ * {@link Node}, which stores its last output;</li>
+ * <li>when a {@link LastInstantComputer} of the graph uses another one as a
+ * source, this source is replaced by the {@link Node} of the other one, so
+ * reading it does not trigger any check nor computation;</li>
+ * <li>{@link #propagate()} updates the {@link Node}s in a topological
+ * order, such that a {@link Node} is updated only once all the {@link Node}s
+ * it depends on have been updated. Consequently, each
+ * {@link LastInstantComputer} is checked at most once per propagation, only
+ * the ones having a changed input recompute their output, and none of them
+ * computes with a mix of old and new inputs.</li>
+ * <li>{@link #propagate()} checks only the dirty part of the graph: the
+ * {@link Node}s notified by one of their {@link ReactiveReadAccess} sources
+ * since the last propagation, the {@link Node}s which need to be polled
+ * (because they have a source which is not a {@link ReactiveReadAccess} or a
+ * time policy, like a maximum age), and the {@link Node}s depending on a
+ * {@link Node} which output has changed during the propagation. The other
+ * {@link LastInstantComputer}s are not even checked.</li>
+ * </ul>
+ * The {@link Node}s are {@link ReactiveReadAccess} and
+ * {@link VersionedReadAccess} sources, so the {@link LastInstantComputer}s
+ * using them are not read nor recomputed as long as they do not change.
+ * Between two propagations, they provide the outputs of the last propagation,
+ * even if the sources outside the graph have changed in the meantime.<br/>
+ * <br/>
+ * The graph is analysed at the first propagation following the addition or
+ * the removal of a {@link LastInstantComputer}. If a source of a
+ * {@link LastInstantComputer} of the graph is set directly, or if its time
+ * policies are changed, {@link #rebuild()} should be called to consider it.
+ * Like the {@link LastInstantComputer}, a
+ * {@link ComputationGraph} is not thread-safe.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ComputationGraph {
+
+	/**
+	 * The {@link Node}s of the graph, identified by their
+	 * {@link LastInstantComputer}. The identity is used because any source,
+	 * whatever its {@link Object#equals(Object)}, is looked up in this
+	 * {@link Map}.
+	 */
+	private final Map<LastInstantComputer<?>, Node<?>> nodes = new IdentityHashMap<LastInstantComputer<?>, Node<?>>();
+	/**
+	 * The {@link Node}s in a topological order, <code>null</code> if the
+	 * graph needs to be analysed again.
+	 */
+	private List<Node<?>> order = null;
+	/**
+	 * The {@link Node}s notified by one of their sources since the last
+	 * propagation. Sources may notify from other threads, hence the
+	 * concurrent {@link Queue}.
+	 */
+	private final Queue<Node<?>> notified = new ConcurrentLinkedQueue<Node<?>>();
+	/**
+	 * The {@link Node}s which are checked at each propagation because they
+	 * cannot be notified of all their changes.
+	 */
+	private final List<Node<?>> polled = new ArrayList<Node<?>>();
+
+	/**
+	 * Add a {@link LastInstantComputer} to this {@link ComputationGraph}. Its
+	 * output will be computed at the next {@link #propagate()}.
+	 *
+	 * @param computer
+	 *            the {@link LastInstantComputer} to add
+	 * @return the {@link Node} providing the output of the
+	 *         {@link LastInstantComputer}
+	 * @throws NullPointerException
+	 *             if no {@link LastInstantComputer} is provided
+	 */
+	@SuppressWarnings("unchecked")
+	public <Value> Node<Value> add(LastInstantComputer<Value> computer) {
+		if (computer == null) {
+			throw new NullPointerException("No computer provided.");
+		} else if (nodes.containsKey(computer)) {
+			return (Node<Value>) nodes.get(computer);
+		} else {
+			Node<Value> node = new Node<Value>(computer);
+			nodes.put(computer, node);
+			order = null;
+			return node;
+		}
+	}
+
+	/**
+	 * Remove a {@link LastInstantComputer} from this {@link ComputationGraph}.
+	 * The {@link LastInstantComputer}s of the graph using it as a source use
+	 * it directly again, and the sources it uses are restored in the same
+	 * way.
+	 *
+	 * @param computer
+	 *            the {@link LastInstantComputer} to remove
+	 */
+	public void remove(LastInstantComputer<?> computer) {
+		Node<?> removed = nodes.remove(computer);
+		if (removed == null) {
+			// not in the graph
+		} else {
+			removed.unwireAll();
+			removed.index = -1;
+			for (Node<?> node : nodes.values()) {
+				node.unwire(removed);
+			}
+			order = null;
+		}
+	}
+
+	/**
+	 *
+	 * @param computer
+	 *            a {@link LastInstantComputer} of this {@link ComputationGraph}
+	 * @return the {@link Node} providing its output, <code>null</code> if it
+	 *         is not in this {@link ComputationGraph}
+	 */
+	@SuppressWarnings("unchecked")
+	public <Value> Node<Value> getNode(LastInstantComputer<Value> computer) {
+		return (Node<Value>) nodes.get(computer);
+	}
+
+	/**
+	 *
+	 * @return the {@link Node}s of this {@link ComputationGraph}
+	 */
+	public Collection<Node<?>> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	/**
+	 * Analyse the graph again at the next {@link #propagate()}. This method
+	 * should be called when the sources of a {@link LastInstantComputer} of
+	 * the graph are set directly, for instance to use another
+	 * {@link LastInstantComputer} of the graph.
+	 */
+	public void rebuild() {
+		order = null;
+	}
+
+	/**
+	 * Update the output of the dirty {@link Node}s, in the order of their
+	 * dependencies. Each dirty {@link LastInstantComputer} is checked once,
+	 * and only the ones having a changed input recompute their output. The
+	 * {@link Node}s depending on a changed output become dirty in turn, the
+	 * other ones are not visited.
+	 *
+	 * @throws IllegalStateException
+	 *             if the {@link LastInstantComputer}s depend on each other in
+	 *             a cycle
+	 */
+	public void propagate() {
+		BitSet dirty;
+		if (order == null) {
+			order = analyse();
+			dirty = new BitSet(order.size());
+			dirty.set(0, order.size());
+		} else {
+			dirty = new BitSet(order.size());
+		}
+		for (Node<?> node = notified.poll(); node != null; node = notified
+				.poll()) {
+			node.pending.set(false);
+			if (node.index < 0) {
+				// removed from the graph
+			} else {
+				dirty.set(node.index);
+			}
+		}
+		for (Node<?> node : polled) {
+			dirty.set(node.index);
+		}
+
+		int index = dirty.nextSetBit(0);
+		try {
+			while (index >= 0) {
+				Node<?> node = order.get(index);
+				if (node.update()) {
+					for (Node<?> downstream : node.downstreams) {
+						dirty.set(downstream.index);
+					}
+				} else {
+					// same output, the downstream nodes stay clean
+				}
+				index = dirty.nextSetBit(index + 1);
+			}
+		} finally {
+			// check the remaining nodes at the next propagation
+			for (; index >= 0; index = dirty.nextSetBit(index + 1)) {
+				order.get(index).notifyDirty();
+			}
+		}
+	}
+
+	/**
+	 * Replace the sources which are {@link LastInstantComputer}s of the graph
+	 * by their {@link Node}s and sort the {@link Node}s topologically, based
+	 * on Kahn's algorithm. Each {@link Node} is given its index in this
+	 * order and its downstream {@link Node}s, and the {@link Node}s to poll
+	 * are listed.
+	 *
+	 * @return the {@link Node}s in the order they should be updated
+	 */
+	private List<Node<?>> analyse() {
+		for (Node<?> node : nodes.values()) {
+			node.wire();
+			node.downstreams.clear();
+		}
+		for (Node<?> node : nodes.values()) {
+			node.watch();
+		}
+
+		Map<Node<?>, Integer> remaining = new HashMap<Node<?>, Integer>();
+		LinkedList<Node<?>> ready = new LinkedList<Node<?>>();
+		for (Node<?> node : nodes.values()) {
+			Collection<Node<?>> upstreams = node.getUpstreams();
+			remaining.put(node, upstreams.size());
+			for (Node<?> upstream : upstreams) {
+				upstream.downstreams.add(node);
+			}
+			if (upstreams.isEmpty()) {
+				ready.add(node);
+			} else {
+				// wait for its upstreams
+			}
+		}
+
+		List<Node<?>> sorted = new ArrayList<Node<?>>(nodes.size());
+		while (!ready.isEmpty()) {
+			Node<?> node = ready.removeFirst();
+			node.index = sorted.size();
+			sorted.add(node);
+			for (Node<?> downstream : node.downstreams) {
+				int count = remaining.get(downstream) - 1;
+				remaining.put(downstream, count);
+				if (count == 0) {
+					ready.add(downstream);
+				} else {
+					// wait for its other upstreams
+				}
+			}
+		}
+
+		if (sorted.size() < nodes.size()) {
+			throw new IllegalStateException(
+					"Some computers depend on each other in a cycle.");
+		} else {
+			polled.clear();
+			for (Node<?> node : sorted) {
+				if (node.polled) {
+					polled.add(node);
+				} else {
+					// checked only when notified
+				}
+			}
+			return sorted;
+		}
+	}
+
+	/**
+	 * A {@link Node} provides the output computed by a
+	 * {@link LastInstantComputer} of a {@link ComputationGraph} during the
+	 * last {@link ComputationGraph#propagate()}. It is also the source used
+	 * by the other {@link LastInstantComputer}s of the graph in place of this
+	 * {@link LastInstantComputer}.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Value>
+	 */
+	public class Node<Value> implements ReactiveReadAccess<Value>,
+			VersionedReadAccess<Value> {
+
+		private final LastInstantComputer<Value> computer;
+		private final ReactiveControlledProperty<Value> output = new ReactiveControlledProperty<Value>();
+		/**
+		 * The {@link Node}s replacing the sources of the
+		 * {@link LastInstantComputer}, identified by the keys of these
+		 * sources.
+		 */
+		private final Map<Object, Node<?>> upstreams = new HashMap<Object, Node<?>>();
+		/**
+		 * The {@link Node}s using this {@link Node} as a source.
+		 */
+		private final List<Node<?>> downstreams = new ArrayList<Node<?>>();
+		/**
+		 * The sources outside the graph which notify this {@link Node}.
+		 */
+		private final List<ReactiveReadAccess<Object>> watched = new ArrayList<ReactiveReadAccess<Object>>();
+		private final ValueListener<Object> watcher = new ValueListener<Object>() {
+
+			@Override
+			public void valueGenerated(Object value) {
+				notifyDirty();
+			}
+		};
+		/**
+		 * <code>true</code> if this {@link Node} is already in the queue of
+		 * the notified {@link Node}s.
+		 */
+		private final AtomicBoolean pending = new AtomicBoolean(false);
+		/**
+		 * The position of this {@link Node} in the topological order,
+		 * negative if it is not in the graph anymore.
+		 */
+		private int index = -1;
+		/**
+		 * <code>true</code> if this {@link Node} should be checked at each
+		 * propagation.
+		 */
+		private boolean polled = false;
+
+		private Node(LastInstantComputer<Value> computer) {
+			this.computer = computer;
+		}
+
+		/**
+		 *
+		 * @return the {@link LastInstantComputer} computing the output of
+		 *         this {@link Node}
+		 */
+		public LastInstantComputer<Value> getComputer() {
+			return computer;
+		}
+
+		/**
+		 *
+		 * @return the output computed during the last propagation
+		 */
+		@Override
+		public Value get() {
+			return output.get();
+		}
+
+		@Override
+		public long version() {
+			return output.version();
+		}
+
+		@Override
+		public void addValueListener(ValueListener<Value> listener) {
+			output.addValueListener(listener);
+		}
+
+		@Override
+		public Collection<ValueListener<Value>> getValueListeners() {
+			return output.getValueListeners();
+		}
+
+		@Override
+		public void removeValueListener(ValueListener<Value> listener) {
+			output.removeValueListener(listener);
+		}
+
+		/**
+		 * Update the output of this {@link Node}.
+		 *
+		 * @return <code>true</code> if the output has changed
+		 */
+		private boolean update() {
+			Value value = computer.get();
+			Value previous = output.get();
+			if (value == previous || value != null && value.equals(previous)) {
+				// same output, don't disturb the downstream nodes
+				return false;
+			} else {
+				output.set(value);
+				return true;
+			}
+		}
+
+		private void notifyDirty() {
+			if (pending.compareAndSet(false, true)) {
+				notified.add(this);
+			} else {
+				// already waiting for the next propagation
+			}
+		}
+
+		private Collection<Node<?>> getUpstreams() {
+			return new HashSet<Node<?>>(upstreams.values());
+		}
+
+		/**
+		 * Replace the sources which are {@link LastInstantComputer}s of the
+		 * graph by their {@link Node}s and forget the {@link Node}s which are
+		 * not sources anymore.
+		 */
+		private void wire() {
+			for (Entry<Object, ActiveReadAccess<?>> entry : new HashMap<Object, ActiveReadAccess<?>>(
+					computer.getAllSources()).entrySet()) {
+				Object key = entry.getKey();
+				ActiveReadAccess<?> source = entry.getValue();
+				Node<?> upstream = nodes.get(source);
+				if (upstream == null) {
+					Node<?> previous = upstreams.get(key);
+					if (previous != null && previous != source) {
+						// source replaced by the user
+						upstreams.remove(key);
+					} else {
+						// not a source from the graph
+					}
+				} else {
+					computer.setSource(key, (ReactiveReadAccess<?>) upstream);
+					upstreams.put(key, upstream);
+				}
+			}
+			upstreams.keySet().retainAll(computer.getAllSources().keySet());
+		}
+
+		/**
+		 * Listen to the {@link ReactiveReadAccess} sources which are not
+		 * {@link Node}s of the graph, and decide whether this {@link Node}
+		 * should be polled because some of its changes cannot be notified.
+		 */
+		@SuppressWarnings("unchecked")
+		private void watch() {
+			unwatch();
+			polled = computer.getMaxAge(TimeUnit.NANOSECONDS) >= 0
+					|| computer.getMinimumInterval(TimeUnit.NANOSECONDS) > 0
+					|| computer.getRefreshExecutor() != null;
+			for (ActiveReadAccess<?> source : computer.getAllSources().values()) {
+				if (upstreams.containsValue(source)) {
+					// changes come through the propagation
+				} else if (source instanceof ReactiveReadAccess) {
+					ReactiveReadAccess<Object> reactive = (ReactiveReadAccess<Object>) source;
+					reactive.addValueListener(watcher);
+					watched.add(reactive);
+				} else {
+					polled = true;
+				}
+			}
+		}
+
+		private void unwatch() {
+			for (ReactiveReadAccess<Object> source : watched) {
+				source.removeValueListener(watcher);
+			}
+			watched.clear();
+		}
+
+		/**
+		 * Restore the original source in place of an upstream {@link Node}.
+		 */
+		private void unwire(Node<?> upstream) {
+			for (Entry<Object, Node<?>> entry : new HashMap<Object, Node<?>>(
+					upstreams).entrySet()) {
+				if (entry.getValue() == upstream) {
+					Object key = entry.getKey();
+					if (computer.getSource(key) == upstream) {
+						computer.setSource(key, upstream.computer);
+					} else {
+						// source replaced by the user
+					}
+					upstreams.remove(key);
+				} else {
+					// keep this upstream
+				}
+			}
+		}
+
+		/**
+		 * Restore the original sources in place of all the upstream
+		 * {@link Node}s.
+		 */
+		private void unwireAll() {
+			unwatch();
+			for (Node<?> upstream : getUpstreams()) {
+				unwire(upstream);
+			}
+		}
+	}
+}
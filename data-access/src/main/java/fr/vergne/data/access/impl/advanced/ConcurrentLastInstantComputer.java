@@ -0,0 +1,429 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveWriteAccess;
+import fr.vergne.data.access.PropertyAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.ComputationObserver;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+/**
+ * A {@link ConcurrentLastInstantComputer} provides the features of a
+ * {@link LastInstantComputer}, with the same methods and the same behaviour,
+ * but it can be shared between several threads:
+ * <ul>
+ * <li>when no input nor the {@link Computer} has changed since the last
+ * computation, {@link #get()} returns the last output without taking any
+ * lock, so the threads reading the same output do not block each other;</li>
+ * <li>when a computation is required, only one thread runs the
+ * {@link Computer}. Depending on the {@link ContentionPolicy}, the other
+ * threads calling {@link #get()} in the meantime either wait for its output
+ * or immediately return the previous one;</li>
+ * <li>the sources and the {@link Computer} can be changed by any thread.</li>
+ * </ul>
+ * The sources themselves should be thread-safe, like an
+ * {@link AtomicControlledProperty}, because they are read by any thread
+ * calling {@link #get()}.<br/>
+ * <br/>
+ * To check that nothing has changed without lock, each computation records
+ * the sources, their inputs and the output in an immutable snapshot. A call
+ * to {@link #get()} reads each source of the snapshot and, if they all
+ * provide the recorded inputs and no source nor {@link Computer} has been set
+ * since, returns the recorded output. Otherwise, it takes the lock and
+ * delegates to a {@link LastInstantComputer}, which decides whether a new
+ * computation is actually needed.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class ConcurrentLastInstantComputer<Value> implements
+		ActiveReadAccess<Value> {
+
+	/**
+	 * The {@link LastInstantComputer} doing the actual job, only accessed
+	 * while holding the {@link #lock}.
+	 */
+	private final LastInstantComputer<Value> computer;
+	private final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * Incremented each time a source or the {@link Computer} is set, so a
+	 * {@link Snapshot} made before is not considered anymore.
+	 */
+	private volatile int modifications = 0;
+	/**
+	 * The state of the last computation, <code>null</code> if no computation
+	 * has been made yet.
+	 */
+	private volatile Snapshot<Value> snapshot = null;
+	private volatile ContentionPolicy policy = ContentionPolicy.WAIT_FOR_RESULT;
+
+	/**
+	 * A {@link ContentionPolicy} tells what a thread calling {@link #get()}
+	 * should do when another thread is computing the output.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static enum ContentionPolicy {
+		/**
+		 * Wait for the computation to finish and return its output.
+		 */
+		WAIT_FOR_RESULT,
+		/**
+		 * Return the output of the previous computation without waiting. If
+		 * no computation has been made yet, there is no previous output, so
+		 * the thread waits like with {@link #WAIT_FOR_RESULT}.
+		 */
+		RETURN_PREVIOUS_OUTPUT
+	}
+
+	/**
+	 * Create a {@link ConcurrentLastInstantComputer} without any
+	 * {@link Computer} ( <code>null</code>). Be sure to set a {@link Computer}
+	 * before to call its {@link #get()} method.
+	 */
+	public ConcurrentLastInstantComputer() {
+		this(null);
+	}
+
+	/**
+	 * Create a {@link ConcurrentLastInstantComputer} with a given
+	 * {@link Computer}.
+	 *
+	 * @param computer
+	 *            the {@link Computer} to use
+	 */
+	public ConcurrentLastInstantComputer(Computer<Value> computer) {
+		this(computer, Collections.<Object, PropertyAccess<?>> emptyMap()
+				.entrySet());
+	}
+
+	/**
+	 * Create a {@link ConcurrentLastInstantComputer} with a given
+	 * {@link Computer} and set of input sources.
+	 *
+	 * @param computer
+	 *            the {@link Computer} to use
+	 * @param sources
+	 *            the sources to use, each identified by a given key
+	 * @throws IllegalArgumentException
+	 *             if a source cannot be registered.
+	 */
+	public ConcurrentLastInstantComputer(Computer<Value> computer,
+			Iterable<Entry<Object, PropertyAccess<?>>> sources) {
+		this.computer = new LastInstantComputer<Value>(computer, sources);
+	}
+
+	/**
+	 *
+	 * @param policy
+	 *            the {@link ContentionPolicy} to apply when a thread calls
+	 *            {@link #get()} while another one is computing the output
+	 */
+	public void setContentionPolicy(ContentionPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("No policy provided.");
+		} else {
+			this.policy = policy;
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link ContentionPolicy} currently applied
+	 */
+	public ContentionPolicy getContentionPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, ActiveReadAccess)
+	 */
+	public void setSource(Object key, ActiveReadAccess<?> source) {
+		lock.lock();
+		try {
+			computer.setSource(key, source);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, ReactiveReadAccess)
+	 */
+	public void setSource(Object key, ReactiveReadAccess<?> source) {
+		setSource(key, (ActiveReadAccess<?>) source);
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, PassiveReadAccess)
+	 */
+	public ActiveReadAccess<?> setSource(Object key, PassiveReadAccess<?> source) {
+		lock.lock();
+		try {
+			ActiveReadAccess<?> wrapper = computer.setSource(key, source);
+			modifications++;
+			return wrapper;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setSource(Object, PassiveWriteAccess)
+	 */
+	public ActiveReadAccess<?> setSource(Object key,
+			PassiveWriteAccess<?> source) {
+		lock.lock();
+		try {
+			ActiveReadAccess<?> wrapper = computer.setSource(key, source);
+			modifications++;
+			return wrapper;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getSource(Object)
+	 */
+	public ActiveReadAccess<?> getSource(Object key) {
+		lock.lock();
+		try {
+			return computer.getSource(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setAllSources(Iterable)
+	 */
+	public void setAllSources(Iterable<Entry<Object, PropertyAccess<?>>> sources) {
+		lock.lock();
+		try {
+			computer.setAllSources(sources);
+		} finally {
+			modifications++;
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Contrary to {@link LastInstantComputer#getAllSources()}, the
+	 * {@link Map} returned is a copy, so it is not affected by the sources
+	 * set afterwards.
+	 *
+	 * @return all the registered sources
+	 */
+	public Map<Object, ActiveReadAccess<?>> getAllSources() {
+		lock.lock();
+		try {
+			return Collections
+					.unmodifiableMap(new HashMap<Object, ActiveReadAccess<?>>(
+							computer.getAllSources()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#removeSource(Object)
+	 */
+	public void removeSource(Object key) {
+		lock.lock();
+		try {
+			computer.removeSource(key);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setComputer(Computer)
+	 */
+	public void setComputer(Computer<Value> computer) {
+		lock.lock();
+		try {
+			this.computer.setComputer(computer);
+			modifications++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getComputer()
+	 */
+	public Computer<Value> getComputer() {
+		lock.lock();
+		try {
+			return computer.getComputer();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#setMemoCache(MemoCache)
+	 */
+	public void setMemoCache(MemoCache memoCache) {
+		lock.lock();
+		try {
+			computer.setMemoCache(memoCache);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getMemoCache()
+	 */
+	public MemoCache getMemoCache() {
+		lock.lock();
+		try {
+			return computer.getMemoCache();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The {@link ComputationObserver} is called while holding the lock, so
+	 * it is never called concurrently. The outputs returned without lock are
+	 * not notified.
+	 * 
+	 * @see LastInstantComputer#setObserver(ComputationObserver)
+	 */
+	public void setObserver(ComputationObserver<? super Value> observer) {
+		lock.lock();
+		try {
+			computer.setObserver(observer);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @see LastInstantComputer#getObserver()
+	 */
+	public ComputationObserver<? super Value> getObserver() {
+		lock.lock();
+		try {
+			return computer.getObserver();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the output value computed by this
+	 * {@link ConcurrentLastInstantComputer}. If nothing has changed since the
+	 * last computation, the last output is returned without locking.
+	 * Otherwise, only one thread computes the new output and the others wait
+	 * for it or return the previous output, depending on the
+	 * {@link ContentionPolicy}.
+	 */
+	@Override
+	public Value get() {
+		Snapshot<Value> current = snapshot;
+		if (isUpToDate(current)) {
+			return current.output;
+		} else if (current != null
+				&& policy == ContentionPolicy.RETURN_PREVIOUS_OUTPUT) {
+			if (lock.tryLock()) {
+				return computeLocked();
+			} else {
+				return current.output;
+			}
+		} else {
+			lock.lock();
+			return computeLocked();
+		}
+	}
+
+	/**
+	 * Compute the output, the {@link #lock} being already acquired. The lock
+	 * is released before to return.
+	 */
+	private Value computeLocked() {
+		try {
+			Snapshot<Value> current = snapshot;
+			if (isUpToDate(current)) {
+				// computed by another thread while waiting for the lock
+				return current.output;
+			} else {
+				Value output = computer.get();
+				snapshot = createSnapshot(output);
+				return output;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isUpToDate(Snapshot<Value> snapshot) {
+		if (snapshot == null || snapshot.modifications != modifications) {
+			return false;
+		} else {
+			ActiveReadAccess<?>[] sources = snapshot.sources;
+			Object[] inputs = snapshot.inputs;
+			for (int i = 0; i < sources.length; i++) {
+				if (same(inputs[i], sources[i].get())) {
+					// no change
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private Snapshot<Value> createSnapshot(Value output) {
+		Map<Object, ActiveReadAccess<?>> allSources = computer.getAllSources();
+		Map<Object, Object> lastInputs = computer.getLastInputs();
+		ActiveReadAccess<?>[] sources = new ActiveReadAccess<?>[allSources
+				.size()];
+		Object[] inputs = new Object[sources.length];
+		int index = 0;
+		for (Entry<Object, ActiveReadAccess<?>> entry : allSources.entrySet()) {
+			sources[index] = entry.getValue();
+			inputs[index] = lastInputs.get(entry.getKey());
+			index++;
+		}
+		return new Snapshot<Value>(modifications, sources, inputs, output);
+	}
+
+	private boolean same(Object a, Object b) {
+		return a == b || a != null && a.equals(b);
+	}
+
+	/**
+	 * The immutable state of a computation: the sources used, the inputs they
+	 * provided and the output computed from them.
+	 */
+	private static class Snapshot<Value> {
+		private final int modifications;
+		private final ActiveReadAccess<?>[] sources;
+		private final Object[] inputs;
+		private final Value output;
+
+		public Snapshot(int modifications, ActiveReadAccess<?>[] sources,
+				Object[] inputs, Value output) {
+			this.modifications = modifications;
+			this.sources = sources;
+			this.inputs = inputs;
+			this.output = output;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.impl.SimplePassiveReadAccess;
+
+/**
+ * A {@link ConflatingControlledProperty}, like a
+ * {@link ReactiveControlledProperty}, notifies its {@link ValueListener}s
+ * about the values written, but it is made for the properties which are
+ * written much more often than their {@link ValueListener}s need to know
+ * it. Writing a value does not notify the {@link ValueListener}s, it only
+ * stores the value and marks the property as dirty. The {@link ValueListener}s
+ * are notified later, during a drain, with the value of the property at that
+ * time. Thus, all the values written between two drains are conflated into a
+ * single notification with the most recent value, whatever the number of
+ * writes.<br/>
+ * <br/>
+ * A drain can be triggered explicitly with {@link #flush()}, for instance
+ * once per frame for a UI. If an {@link Executor} is provided, a drain is
+ * also submitted to it each time the property becomes dirty, so the
+ * {@link ValueListener}s are notified as soon as the {@link Executor} runs it
+ * without any other action. If the {@link Executor} rejects the drain, the
+ * write still succeeds and the property remains dirty until the next drain.<br/>
+ * <br/>
+ * Like an {@link AtomicControlledProperty}, which it extends, it can be
+ * written and read by several threads. The drains are serialized, so the
+ * {@link ValueListener}s are never called concurrently and never receive an
+ * older value after a newer one.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class ConflatingControlledProperty<Value> extends
+		AtomicControlledProperty<Value> implements PassiveReadAccess<Value> {
+
+	private final SimplePassiveReadAccess<Value> reader = new SimplePassiveReadAccess<Value>();
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	private final Executor executor;
+	/**
+	 * Tells that the last drain has been rejected by the {@link Executor}, so
+	 * the next write should submit one again.
+	 */
+	private volatile boolean rejected = false;
+	private final Runnable drain = new Runnable() {
+
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Create a {@link ConflatingControlledProperty} with a <code>null</code>
+	 * value, which notifies its {@link ValueListener}s only when
+	 * {@link #flush()} is called.
+	 */
+	public ConflatingControlledProperty() {
+		this(null, null);
+	}
+
+	/**
+	 * Create a {@link ConflatingControlledProperty} with a <code>null</code>
+	 * value, which notifies its {@link ValueListener}s through the given
+	 * {@link Executor}.
+	 *
+	 * @param executor
+	 *            the {@link Executor} running the drains, <code>null</code>
+	 *            to drain only through {@link #flush()}
+	 */
+	public ConflatingControlledProperty(Executor executor) {
+		this(null, executor);
+	}
+
+	/**
+	 * Create a {@link ConflatingControlledProperty} with a given value. The
+	 * initial value is not notified.
+	 *
+	 * @param initialValue
+	 *            the value to set on creation
+	 * @param executor
+	 *            the {@link Executor} running the drains, <code>null</code>
+	 *            to drain only through {@link #flush()}
+	 */
+	public ConflatingControlledProperty(Value initialValue, Executor executor) {
+		super(initialValue);
+		this.executor = executor;
+	}
+
+	/**
+	 *
+	 * @return the {@link Executor} running the drains, <code>null</code> if
+	 *         they run only through {@link #flush()}
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Unlike {@link AtomicControlledProperty#set(Object)}, the value is stored
+	 * with a volatile write, so it cannot be reordered with the check of the
+	 * dirty flag: either the writer marks the property dirty, or the drain
+	 * clearing the flag reads the new value.
+	 */
+	@Override
+	public void set(Value value) {
+		getAndSet(value);
+	}
+
+	@Override
+	protected void valueSet(Value value) {
+		// plain read first, to avoid a CAS on each write of a burst
+		if (!dirty.get() && dirty.compareAndSet(false, true) || rejected) {
+			submitDrain();
+		} else {
+			// a drain is already pending
+		}
+	}
+
+	/**
+	 * Submit a drain to the {@link Executor}, if any. If the {@link Executor}
+	 * rejects it, the property remains dirty, so the value is provided by the
+	 * next {@link #flush()} or by the drain submitted at the next write.
+	 */
+	private void submitDrain() {
+		if (executor == null) {
+			// wait for the next flush
+		} else {
+			rejected = false;
+			try {
+				executor.execute(drain);
+			} catch (RejectedExecutionException e) {
+				// the value is written, so keep it dirty rather than throwing
+				rejected = true;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if the property has been written since the
+	 *         last drain
+	 */
+	public boolean isDirty() {
+		return dirty.get();
+	}
+
+	/**
+	 * Drain the property in the calling thread: if it has been written since
+	 * the last drain, notify the {@link ValueListener}s with its current
+	 * value. Otherwise, nothing happens.
+	 *
+	 * @return <code>true</code> if the {@link ValueListener}s have been
+	 *         notified, <code>false</code> if the property was not dirty
+	 */
+	public boolean flush() {
+		synchronized (dirty) {
+			if (dirty.compareAndSet(true, false)) {
+				reader.notifyValueListeners(get());
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public void addValueListener(ValueListener<Value> listener) {
+		reader.addValueListener(listener);
+	}
+
+	@Override
+	public Collection<ValueListener<Value>> getValueListeners() {
+		return reader.getValueListeners();
+	}
+
+	@Override
+	public void removeValueListener(ValueListener<Value> listener) {
+		reader.removeValueListener(listener);
+	}
+}
@@ -2,22 +2,26 @@ package fr.vergne.data.access.impl.advanced;
 
 import fr.vergne.data.access.ActiveReadAccess;
 import fr.vergne.data.access.ActiveWriteAccess;
+import fr.vergne.data.access.VersionedReadAccess;
 
 /**
  * A {@link ControlledProperty} emulates a property which can be read and
  * written on demand, like any primitive variable. Thus it implements the
  * {@link ActiveWriteAccess} and {@link ActiveReadAccess} interfaces and uses a
  * single variable to store the value provided through {@link #set(Object)},
- * allowing an immediate access with {@link #get()}.
+ * allowing an immediate access with {@link #get()}. It also implements
+ * {@link VersionedReadAccess}, the version being incremented at each call of
+ * {@link #set(Object)}.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
  * @param <Value>
  */
 public class ControlledProperty<Value> implements ActiveWriteAccess<Value>,
-		ActiveReadAccess<Value> {
+		ActiveReadAccess<Value>, VersionedReadAccess<Value> {
 
 	private Value value;
+	private long version = 0;
 
 	/**
 	 * Create the {@link ControlledProperty} with a <code>null</code> value.
@@ -44,6 +48,12 @@ public class ControlledProperty<Value> implements ActiveWriteAccess<Value>,
 	@Override
 	public void set(Value value) {
 		this.value = value;
+		version++;
+	}
+
+	@Override
+	public long version() {
+		return version;
 	}
 
 }
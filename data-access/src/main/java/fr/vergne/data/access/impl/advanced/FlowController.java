@@ -1,11 +1,11 @@
 package fr.vergne.data.access.impl.advanced;
 
 import java.util.Collection;
-import java.util.HashSet;
 
 import fr.vergne.data.access.PassiveReadAccess;
 import fr.vergne.data.access.PassiveWriteAccess;
 import fr.vergne.data.access.impl.SimplePassiveWriteAccess;
+import fr.vergne.data.access.util.ListenerRegistry;
 
 /**
  * A {@link FlowController} aims at allowing a value, provided by a source, to
@@ -22,7 +22,8 @@ import fr.vergne.data.access.impl.SimplePassiveWriteAccess;
 public class FlowController<Value> extends SimplePassiveWriteAccess<Value>
 		implements PassiveWriteAccess<Value>, PassiveReadAccess<Value> {
 
-	private final Collection<ValueListener<Value>> readers = new HashSet<ValueListener<Value>>();
+	private final ListenerRegistry<ValueListener<Value>> readers = new ListenerRegistry<ValueListener<Value>>(
+			ValueListener.class);
 
 	/**
 	 * Create a {@link FlowController} without any {@link ValueGenerator}. Such
@@ -65,14 +66,17 @@ public class FlowController<Value> extends SimplePassiveWriteAccess<Value>
 	/**
 	 * Retrieve the value from the {@link ValueGenerator} and transfer it to the
 	 * registered {@link ValueListener}s. If no {@link ValueListener} is
-	 * registered, nothing happen to preserve performance.
+	 * registered, nothing happen to preserve performance. The
+	 * {@link ValueListener}s registered or removed during the transfer are
+	 * considered for the next transfer only.
 	 */
 	public void transfer() {
-		if (readers.isEmpty()) {
+		ValueListener<Value>[] snapshot = readers.getSnapshot();
+		if (snapshot.length == 0) {
 			// no need to retrieve the value
 		} else {
 			Value value = getValueGenerator().generateValue();
-			for (ValueListener<Value> reader : readers) {
+			for (ValueListener<Value> reader : snapshot) {
 				reader.valueGenerated(value);
 			}
 		}
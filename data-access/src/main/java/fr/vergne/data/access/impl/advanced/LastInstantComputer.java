@@ -1,17 +1,31 @@
 package fr.vergne.data.access.impl.advanced;
 
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.logging.Logger;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import fr.vergne.data.access.ActiveReadAccess;
 import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
 import fr.vergne.data.access.PassiveWriteAccess;
 import fr.vergne.data.access.PropertyAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.VersionedReadAccess;
 import fr.vergne.data.access.util.AccessFactory;
 
 /**
@@ -32,7 +46,26 @@ import fr.vergne.data.access.util.AccessFactory;
  * {@link ActiveReadAccess} version of the source, not necessarily the instance
  * you registered. If you want to know which {@link ActiveReadAccess}
  * corresponds to the source you have registered, the setSource() method returns
- * it.
+ * it.<br/>
+ * <br/>
+ * The sources which notify their changes, namely the
+ * {@link ReactiveReadAccess} and {@link PassiveReadAccess} sources, are not
+ * checked at each call: this {@link LastInstantComputer} registers a
+ * {@link ValueListener} on them to know when they change, so as long as none
+ * of them has notified a value, {@link #get()} only checks the other sources.
+ * When all the sources are such sources, {@link #get()} returns the last
+ * output without reading any source. Because these sources keep a reference
+ * to their {@link ValueListener}, a {@link LastInstantComputer} which is not
+ * used anymore should have its sources removed, otherwise it is kept in
+ * memory as long as its sources are.<br/>
+ * <br/>
+ * The {@link VersionedReadAccess} sources are checked through their version
+ * rather than their value: as long as the version is the one read for the
+ * last computation, the source is neither read nor compared, which is
+ * convenient for big values like collections. When the version changes, the
+ * new value is compared to the last one with {@link Object#equals(Object)},
+ * like the values of the other sources, so assigning an equal value does
+ * not lead to a new computation.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
@@ -40,18 +73,122 @@ import fr.vergne.data.access.util.AccessFactory;
  */
 public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 
-	private static final Logger logger = Logger
-			.getLogger(LastInstantComputer.class.getName());
+	private static final int INITIAL_CAPACITY = 8;
+
+	/*
+	 * Each source has a slot, which is its index in the arrays below. The
+	 * slots are kept dense: when a source is removed, the last slot is moved
+	 * in its place, so the sources are checked by a plain scan of the arrays.
+	 */
+	/**
+	 * The slots of the sources, identified by the keys of their inputs.
+	 */
+	private final Map<Object, Integer> slots = new HashMap<Object, Integer>();
+	/**
+	 * The number of slots used.
+	 */
+	private int size = 0;
+	/**
+	 * The keys of the inputs, by slot.
+	 */
+	private Object[] keys = new Object[INITIAL_CAPACITY];
+	/**
+	 * The sources to use to get the inputs to compute, by slot.
+	 */
+	private ActiveReadAccess<?>[] accesses = new ActiveReadAccess<?>[INITIAL_CAPACITY];
+	/**
+	 * The inputs used in the last computation, by slot.
+	 */
+	private Object[] values = new Object[INITIAL_CAPACITY];
+	/**
+	 * The versions of the {@link VersionedReadAccess} sources read for the
+	 * last computation, by slot. A version is relevant only if
+	 * {@link #versionKnown} tells so.
+	 */
+	private long[] versions = new long[INITIAL_CAPACITY];
+	/**
+	 * Tells, by slot, whether {@link #versions} contains the version of the
+	 * value in {@link #values}.
+	 */
+	private boolean[] versionKnown = new boolean[INITIAL_CAPACITY];
+	/**
+	 * The {@link Subscription}s to the sources which notify their changes, by
+	 * slot, <code>null</code> for the other sources.
+	 */
+	private Subscription[] subscriptions = new Subscription[INITIAL_CAPACITY];
+	/**
+	 * The slots of the sources which do not notify their changes, so which
+	 * need to be checked at each call of {@link #get()}. Only the first
+	 * {@link #polledCount} ones are relevant.
+	 */
+	private int[] polled = new int[INITIAL_CAPACITY];
+	private int polledCount = 0;
+	/**
+	 * The position of each slot in {@link #polled}, -1 if the source notifies
+	 * its changes.
+	 */
+	private int[] polledPositions = new int[INITIAL_CAPACITY];
+	/**
+	 * The non-<code>null</code> inputs of the last computation whose source
+	 * has been removed since, identified by their keys.
+	 */
+	private final Map<Object, Object> removedInputs = new HashMap<Object, Object>();
+	private final Map<Object, Object> removedInputsView = Collections
+			.unmodifiableMap(removedInputs);
+	/**
+	 * The changes of inputs since the last computation, filled only when the
+	 * {@link Computer} is an {@link IncrementalComputer} which can use them.
+	 */
+	private final List<InputChange> changes = new ArrayList<InputChange>();
+	private final List<InputChange> changesView = Collections
+			.unmodifiableList(changes);
+	/**
+	 * Tells whether {@link #values} are the inputs of {@link #lastOutput}. If
+	 * <code>false</code>, it means that the computation should be made.
+	 */
+	private boolean computed = false;
+	/**
+	 * The read-only view of the inputs provided to the {@link Computer}.
+	 */
+	private final Map<Object, Object> inputsView = new SlotView<Object>() {
+
+		@Override
+		protected Object valueAt(int slot) {
+			return values[slot];
+		}
+	};
+	/**
+	 * The read-only view of the sources provided by {@link #getAllSources()}.
+	 */
+	private final Map<Object, ActiveReadAccess<?>> sourcesView = new SlotView<ActiveReadAccess<?>>() {
 
+		@Override
+		protected ActiveReadAccess<?> valueAt(int slot) {
+			return accesses[slot];
+		}
+	};
 	/**
-	 * The sources to use to get the inputs to compute.
+	 * How the polled sources are read.
 	 */
-	private Map<Object, ActiveReadAccess<?>> sources = new HashMap<Object, ActiveReadAccess<?>>();
+	private final PollingStrategy polling = new PollingStrategy();
 	/**
-	 * The inputs used in the last computation. If <code>null</code>, it means
-	 * that the computation should be made.
+	 * The values read in parallel from the polled sources, by slot. They are
+	 * relevant only while {@link #prefetched} is <code>true</code>.
 	 */
-	private Map<Object, Object> lastInputs = null;
+	private Object[] fetched = new Object[INITIAL_CAPACITY];
+	private boolean prefetched = false;
+	/**
+	 * Tells whether a source which notifies its changes has notified one, or
+	 * if the sources have changed, since the last call of {@link #get()}. The
+	 * notifications can come from other threads, hence the volatile.
+	 */
+	private volatile boolean dirty = true;
+	/**
+	 * The {@link Subscription}s which have notified a change since the last
+	 * check of their source, as a lock-free stack linked through
+	 * {@link Subscription#next}, so only their sources are read.
+	 */
+	private final AtomicReference<Subscription> notified = new AtomicReference<Subscription>();
 	/**
 	 * The {@link Computer} used to compute the returned value of {@link #get()}
 	 * .
@@ -62,10 +199,29 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	 */
 	private Computer<Value> nextComputer = null;
 	/**
-	 * The last value computed based on {@link #lastInputs} and
-	 * {@link #nextComputer}.
+	 * The last value computed based on {@link #values} and
+	 * {@link #lastComputer}.
 	 */
 	private Value lastOutput;
+	/**
+	 * The {@link MemoCache} storing the outputs of previous inputs,
+	 * <code>null</code> if only the last output is remembered.
+	 */
+	private MemoCache memoCache = null;
+	/**
+	 * Tells whether the last output has been taken from the {@link #memoCache}
+	 * , reused at each computation to not allocate it.
+	 */
+	private final boolean[] cacheHit = new boolean[1];
+	/**
+	 * The {@link ComputationObserver} notified of what happens in
+	 * {@link #get()}, <code>null</code> if none.
+	 */
+	private ComputationObserver<? super Value> observer = null;
+	/**
+	 * The time-based rules deciding when the output is recomputed.
+	 */
+	private final TimePolicy<Value> timePolicy = new TimePolicy<Value>();
 	/**
 	 * The {@link AccessFactory} used to transform the inadapted sources into
 	 * {@link ActiveReadAccess} sources.
@@ -132,11 +288,32 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	public void setSource(Object key, ActiveReadAccess<?> source) {
 		if (source == null) {
 			throw new NullPointerException("No source provided.");
+		} else if (source instanceof ReactiveReadAccess) {
+			register(key, source, (ReactiveReadAccess<?>) source);
 		} else {
-			sources.put(key, source);
+			register(key, source, null);
 		}
 	}
 
+	/**
+	 * This method registers a source which is both an {@link ActiveReadAccess}
+	 * and a {@link PassiveReadAccess}, like a
+	 * {@link ReactiveControlledProperty}. It is equivalent to
+	 * {@link #setSource(Object, ActiveReadAccess)}: the source is registered
+	 * as is and, because it notifies its changes, it is read only when it has
+	 * notified a value.
+	 * 
+	 * @param key
+	 *            the key identifying the input
+	 * @param source
+	 *            the source of value for this input
+	 * @throws NullPointerException
+	 *             if the source is <code>null</code>
+	 */
+	public void setSource(Object key, ReactiveReadAccess<?> source) {
+		setSource(key, (ActiveReadAccess<?>) source);
+	}
+
 	/**
 	 * This method is a shortcut to {@link #setSource(Object, ActiveReadAccess)}
 	 * . It builds an {@link ActiveReadAccess} based on the
@@ -159,7 +336,7 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 		} else {
 			ActiveReadAccess<?> wrapper = FACTORY
 					.createActiveReadFromPassiveRead(source, null);
-			setSource(key, wrapper);
+			register(key, wrapper, source);
 			return wrapper;
 		}
 	}
@@ -187,11 +364,141 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 		} else {
 			ActiveReadAccess<?> wrapper = FACTORY
 					.createActiveReadFromPassiveWrite(source);
-			setSource(key, wrapper);
+			register(key, wrapper, null);
 			return wrapper;
 		}
 	}
 
+	/**
+	 * Register a source and, if it notifies its changes, subscribe to it.
+	 * 
+	 * @param key
+	 *            the key identifying the input
+	 * @param source
+	 *            the source of value for this input
+	 * @param notifier
+	 *            the {@link PassiveReadAccess} notifying the changes of the
+	 *            source, <code>null</code> if the source needs to be checked
+	 *            at each call of {@link #get()}
+	 */
+	private void register(Object key, ActiveReadAccess<?> source,
+			PassiveReadAccess<?> notifier) {
+		Integer existing = slots.get(key);
+		int slot;
+		if (existing == null) {
+			slot = addSlot(key);
+		} else {
+			slot = existing;
+			unsubscribe(slot);
+		}
+		accesses[slot] = source;
+		versionKnown[slot] = false;
+		if (notifier == null) {
+			addPolled(slot);
+		} else {
+			removePolled(slot);
+			Subscription subscription = new Subscription(this, key, notifier);
+			subscriptions[slot] = subscription;
+			// the new source has to be read
+			subscription.valueGenerated(null);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Create the slot of a new source. If an input with the same key has been
+	 * removed since the last computation, its value is restored, so setting
+	 * a source providing the same value does not lead to a re-computation.
+	 * 
+	 * @return the slot created
+	 */
+	private int addSlot(Object key) {
+		if (size == keys.length) {
+			int capacity = size * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			accesses = Arrays.copyOf(accesses, capacity);
+			values = Arrays.copyOf(values, capacity);
+			versions = Arrays.copyOf(versions, capacity);
+			versionKnown = Arrays.copyOf(versionKnown, capacity);
+			subscriptions = Arrays.copyOf(subscriptions, capacity);
+			polled = Arrays.copyOf(polled, capacity);
+			polledPositions = Arrays.copyOf(polledPositions, capacity);
+			fetched = Arrays.copyOf(fetched, capacity);
+		} else {
+			// enough space
+		}
+		int slot = size++;
+		keys[slot] = key;
+		values[slot] = removedInputs.remove(key);
+		polledPositions[slot] = -1;
+		slots.put(key, slot);
+		return slot;
+	}
+
+	/**
+	 * Remove the slot of a source by moving the last slot in its place.
+	 */
+	private void removeSlot(int slot) {
+		unsubscribe(slot);
+		removePolled(slot);
+		int last = --size;
+		if (slot == last) {
+			// nothing to move
+		} else {
+			keys[slot] = keys[last];
+			accesses[slot] = accesses[last];
+			values[slot] = values[last];
+			versions[slot] = versions[last];
+			versionKnown[slot] = versionKnown[last];
+			subscriptions[slot] = subscriptions[last];
+			int position = polledPositions[last];
+			polledPositions[slot] = position;
+			if (position < 0) {
+				// not polled
+			} else {
+				polled[position] = slot;
+			}
+			slots.put(keys[slot], slot);
+		}
+		keys[last] = null;
+		accesses[last] = null;
+		values[last] = null;
+		subscriptions[last] = null;
+		fetched[last] = null;
+	}
+
+	private void addPolled(int slot) {
+		if (polledPositions[slot] < 0) {
+			polled[polledCount] = slot;
+			polledPositions[slot] = polledCount;
+			polledCount++;
+		} else {
+			// already polled
+		}
+	}
+
+	private void removePolled(int slot) {
+		int position = polledPositions[slot];
+		if (position < 0) {
+			// not polled
+		} else {
+			int moved = polled[--polledCount];
+			polled[position] = moved;
+			polledPositions[moved] = position;
+			polledPositions[slot] = -1;
+		}
+	}
+
+	private void unsubscribe(int slot) {
+		Subscription subscription = subscriptions[slot];
+		if (subscription == null) {
+			// no subscription for this slot
+		} else {
+			subscriptions[slot] = null;
+			subscription.cancel();
+		}
+	}
+
 	/**
 	 * Provide the source registered to this {@link LastInstantComputer} for the
 	 * specified input. If you registered a source which was not an
@@ -205,7 +512,7 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	 * @return the source of value for this input
 	 */
 	public ActiveReadAccess<?> getSource(Object key) {
-		return sources.get(key);
+		return sourcesView.get(key);
 	}
 
 	/**
@@ -246,7 +553,7 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	 * @return all the registered sources
 	 */
 	public Map<Object, ActiveReadAccess<?>> getAllSources() {
-		return Collections.unmodifiableMap(sources);
+		return sourcesView;
 	}
 
 	/**
@@ -262,7 +569,19 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	 *            the key identifying the input to remove
 	 */
 	public void removeSource(Object key) {
-		sources.remove(key);
+		Integer slot = slots.remove(key);
+		if (slot == null) {
+			// no source for this key
+		} else {
+			Object lastValue = values[slot];
+			if (computed && lastValue != null) {
+				removedInputs.put(key, lastValue);
+			} else {
+				// equivalent to a null input
+			}
+			removeSlot(slot);
+		}
+		dirty = true;
 	}
 
 	/**
@@ -273,18 +592,17 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	 * output value is recomputed, it will be as if you did not change the
 	 * {@link Computer}.<br/>
 	 * <br/>
-	 * <b>ATTENTION:</b> the only valid {@link Computer}s are the deterministic
-	 * ones. If we provide the same inputs, it should return the same output. If
-	 * you want to use an undeterministic {@link Computer}, then you should
-	 * trick the {@link LastInstantComputer} to force it to recompute the value
-	 * each time you call the {@link #get()} method, for instance by registering
-	 * a source which always provide a different value.
+	 * <b>ATTENTION:</b> by default, the {@link Computer} is assumed to be
+	 * deterministic: if we provide the same inputs, it should return the same
+	 * output. If the {@link Computer} depends on more than its inputs, like the
+	 * current time or an external state, use {@link #setMaxAge(long, TimeUnit)}
+	 * to recompute the output once it is too old, possibly in the background
+	 * with {@link #setRefreshAhead(Executor, long, TimeUnit)}.
 	 * 
 	 * @param computer
 	 *            the {@link Computer} to use in order to compute the output
 	 *            value returned by {@link #get()}
 	 */
-	// TODO manage undeterministic computers
 	public void setComputer(Computer<Value> computer) {
 		this.nextComputer = computer;
 	}
@@ -298,6 +616,211 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 		return nextComputer;
 	}
 
+	/**
+	 * Set a {@link MemoCache} to remember the outputs of several inputs, not
+	 * only the last one. When the inputs change, the output is taken from the
+	 * {@link MemoCache} if it has already been computed for these inputs,
+	 * otherwise the {@link Computer} is called and its output is stored in
+	 * the {@link MemoCache}. The same {@link MemoCache} can be set on several
+	 * {@link LastInstantComputer}s, so they reuse the outputs computed by each
+	 * other with the same {@link Computer}.
+	 * 
+	 * @param memoCache
+	 *            the {@link MemoCache} to use, <code>null</code> to remember
+	 *            only the last output
+	 */
+	public void setMemoCache(MemoCache memoCache) {
+		this.memoCache = memoCache;
+	}
+
+	/**
+	 * 
+	 * @return the {@link MemoCache} used, <code>null</code> if only the last
+	 *         output is remembered
+	 */
+	public MemoCache getMemoCache() {
+		return memoCache;
+	}
+
+	/**
+	 * Set a {@link ComputationObserver} to know what happens when
+	 * {@link #get()} is called: which inputs have changed, why the output is
+	 * recomputed, how long it takes, etc. When no {@link ComputationObserver}
+	 * is set, nothing is measured nor notified, so it does not cost anything.
+	 * {@link LoggingComputationObserver} provides the usual logs.
+	 * 
+	 * @param observer
+	 *            the {@link ComputationObserver} to notify, <code>null</code>
+	 *            for none
+	 */
+	public void setObserver(ComputationObserver<? super Value> observer) {
+		this.observer = observer;
+	}
+
+	/**
+	 * 
+	 * @return the {@link ComputationObserver} notified, <code>null</code> if
+	 *         none
+	 */
+	public ComputationObserver<? super Value> getObserver() {
+		return observer;
+	}
+
+	/**
+	 * Read the polled sources in parallel. By default, {@link #get()} reads
+	 * the sources one after the other in the calling thread, so it takes as
+	 * long as all of them together. When the sources are slow, like
+	 * {@link Puller}s accessing files, they can be read in parallel through an
+	 * {@link Executor}, so {@link #get()} takes about as long as the slowest
+	 * of them. Only the sources which do not notify their changes and are not
+	 * {@link VersionedReadAccess} are concerned, the other ones being read
+	 * only when they change. The comparison of the values and the
+	 * computation remain in the calling thread, which waits for all the
+	 * sources to be read. If the {@link Executor} rejects a task, the source
+	 * is read in the calling thread. The calling thread also reads the
+	 * sources that the {@link Executor} has not started to read yet, so
+	 * {@link #get()} can be called from a thread of the same
+	 * {@link Executor} without waiting for the tasks queued behind it.<br/>
+	 * <br/>
+	 * Reading the sources in parallel has a cost, so it is done only if there
+	 * is enough sources to read. For sources which are individually slow, the
+	 * threshold can be as low as 1.
+	 * 
+	 * @param executor
+	 *            the {@link Executor} reading the sources, <code>null</code>
+	 *            to read them in the calling thread
+	 * @param threshold
+	 *            the minimal number of polled sources to read them in
+	 *            parallel
+	 */
+	public void setParallelPolling(Executor executor, int threshold) {
+		polling.setParallelPolling(executor, threshold);
+	}
+
+	/**
+	 * 
+	 * @return the {@link Executor} reading the polled sources in parallel,
+	 *         <code>null</code> if they are read in the calling thread
+	 */
+	public Executor getPollingExecutor() {
+		return polling.getExecutor();
+	}
+
+	/**
+	 * 
+	 * @return the minimal number of polled sources to read them in parallel
+	 */
+	public int getParallelPollingThreshold() {
+		return polling.getThreshold();
+	}
+
+	/**
+	 * Set the maximal age of the output. By default, the output is reused as
+	 * long as the inputs and the {@link Computer} do not change, which is
+	 * valid only for a deterministic {@link Computer}. For a {@link Computer}
+	 * depending on more than its inputs, like an aggregate of time-dependent
+	 * data, the output can be recomputed once it is older than a given age,
+	 * even if the inputs have not changed. The age is counted from the start
+	 * of the computation. A {@link MemoCache}, if any, is not used to
+	 * recompute an expired output, since it would provide the same output.
+	 * 
+	 * @param maxAge
+	 *            the maximal age of the output, 0 to recompute it at each call
+	 *            of {@link #get()}, negative for no expiry (the default)
+	 * @param unit
+	 *            the {@link TimeUnit} of the max age
+	 */
+	public void setMaxAge(long maxAge, TimeUnit unit) {
+		timePolicy.setMaxAge(maxAge, unit);
+	}
+
+	/**
+	 * 
+	 * @param unit
+	 *            the {@link TimeUnit} to use
+	 * @return the maximal age of the output, negative if the output does not
+	 *         expire
+	 */
+	public long getMaxAge(TimeUnit unit) {
+		return timePolicy.getMaxAge(unit);
+	}
+
+	/**
+	 * Recompute the output in the background before it expires. Once the
+	 * output is close enough to its max age (cf.
+	 * {@link #setMaxAge(long, TimeUnit)}), the next call of {@link #get()}
+	 * returns it as usual but also asks the {@link Executor} to compute a new
+	 * one with the same inputs. A call of {@link #get()} made after this
+	 * computation takes the new output, so the calling threads don't wait for
+	 * the computation as long as the refresh completes before the expiry. If
+	 * the inputs or the {@link Computer} change meanwhile, the new output is
+	 * ignored. The {@link Computer} is then called by the threads of the
+	 * {@link Executor}, so it should support it. If the refresh fails, or if
+	 * the {@link Executor} rejects it, the output is recomputed once expired.
+	 * 
+	 * @param executor
+	 *            the {@link Executor} recomputing the output,
+	 *            <code>null</code> to recompute it once expired (the default)
+	 * @param before
+	 *            how long before the expiry the output should be recomputed
+	 * @param unit
+	 *            the {@link TimeUnit} of the delay
+	 * @throws IllegalArgumentException
+	 *             if the delay is negative
+	 */
+	public void setRefreshAhead(Executor executor, long before, TimeUnit unit) {
+		timePolicy.setRefreshAhead(executor, before, unit);
+	}
+
+	/**
+	 * 
+	 * @return the {@link Executor} recomputing the output before its expiry,
+	 *         <code>null</code> if it is recomputed once expired
+	 */
+	public Executor getRefreshExecutor() {
+		return timePolicy.getRefreshExecutor();
+	}
+
+	/**
+	 * 
+	 * @param unit
+	 *            the {@link TimeUnit} to use
+	 * @return how long before the expiry the output is recomputed
+	 */
+	public long getRefreshAhead(TimeUnit unit) {
+		return timePolicy.getRefreshAhead(unit);
+	}
+
+	/**
+	 * Set a minimal time between two computations. Once an output has been
+	 * computed, {@link #get()} returns it without checking the sources until
+	 * this interval has elapsed, even if the inputs change meanwhile. It
+	 * bounds the number of computations when the inputs change often and a
+	 * slightly outdated output is acceptable. Changing the {@link Computer}
+	 * still leads to a computation.
+	 * 
+	 * @param interval
+	 *            the minimal time between two computations, 0 for none (the
+	 *            default)
+	 * @param unit
+	 *            the {@link TimeUnit} of the interval
+	 * @throws IllegalArgumentException
+	 *             if the interval is negative
+	 */
+	public void setMinimumInterval(long interval, TimeUnit unit) {
+		timePolicy.setMinimumInterval(interval, unit);
+	}
+
+	/**
+	 * 
+	 * @param unit
+	 *            the {@link TimeUnit} to use
+	 * @return the minimal time between two computations
+	 */
+	public long getMinimumInterval(TimeUnit unit) {
+		return timePolicy.getMinimumInterval(unit);
+	}
+
 	/**
 	 * Return the output value computed by this {@link LastInstantComputer}. If
 	 * the computation has already been made due to a previous call and nothing
@@ -309,26 +832,84 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 	public Value get() {
 		if (nextComputer == null) {
 			throw new IllegalStateException("No computer set.");
+		} else if (polling.isParallel(polledCount)
+				&& !isWithinMinimumInterval(timePolicy.now())) {
+			polling.fetch(polled, polledCount, accesses, fetched);
+			prefetched = true;
+			try {
+				return update();
+			} finally {
+				prefetched = false;
+			}
+		} else {
+			return update();
+		}
+	}
+
+	/**
+	 * 
+	 * @param now
+	 *            the current time, in nanoseconds
+	 * @return <code>true</code> if the last output should be reused without
+	 *         checking the sources, because the minimum interval is not
+	 *         passed yet
+	 */
+	private boolean isWithinMinimumInterval(long now) {
+		return timePolicy.isWithinMinimumInterval(now) && computed
+				&& nextComputer.equals(lastComputer);
+	}
+
+	/**
+	 * Check the sources and, if required, compute the output.
+	 * 
+	 * @return the output corresponding to the current inputs
+	 */
+	private Value update() {
+		long now = timePolicy.now();
+		if (computed) {
+			adoptRefresh();
+		} else {
+			// no output to replace
+		}
+		if (isWithinMinimumInterval(now) || computed
+				&& nextComputer.equals(lastComputer) && !dirty
+				&& !hasPolledInputChanged() && !timePolicy.isExpired(now)) {
+			lastComputer = nextComputer;
+			timePolicy.refreshAheadIfNeeded(now, lastComputer, inputsView);
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				observer.outputReused(lastOutput);
+			}
+			return lastOutput;
 		} else {
-			// can compute
+			// something may have changed, check all the sources
 		}
+		/*
+		 * Clean before to read the sources, so a notification occurring while
+		 * reading them is considered at the next call.
+		 */
+		dirty = false;
 
-		boolean requireComputation = false;
+		RecomputeReason reason = null;
 
-		logger.fine("Cheking first computation...");
-		if (lastInputs == null) {
+		if (!computed) {
 			// never computed before, need to compute it
-			lastInputs = new HashMap<Object, Object>();
-			requireComputation = true;
+			Arrays.fill(values, 0, size, null);
+			Arrays.fill(versionKnown, 0, size, false);
+			removedInputs.clear();
+			reason = RecomputeReason.FIRST_COMPUTATION;
 		} else {
 			// do not lead to re-computation
 		}
-		logger.fine("Recompute? " + requireComputation);
 
-		logger.fine("Cheking different computer...");
 		if (!nextComputer.equals(lastComputer)) {
 			// same inputs could imply a different output, need to compute it
-			requireComputation = true;
+			if (reason == null) {
+				reason = RecomputeReason.COMPUTER_CHANGED;
+			} else {
+				// keep the first reason
+			}
 			/*
 			 * The assignment is done out of the condition because it should be
 			 * done also if the equal() returns true but not == (equivalent but
@@ -338,70 +919,418 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 			// do not lead to re-computation
 		}
 		lastComputer = nextComputer;
-		logger.fine("Recompute? " + requireComputation);
 
-		logger.fine("Cheking input updates...");
-		for (Entry<Object, ActiveReadAccess<?>> entry : sources.entrySet()) {
-			Object key = entry.getKey();
-			ActiveReadAccess<?> source = entry.getValue();
-			Object lastValue = lastInputs.get(key);
-			Object newValue = source.get();
-			if (same(lastValue, newValue)) {
-				// do not lead to re-computation
-			} else {
-				logger.finest("New value for " + key + ": " + lastValue
-						+ " -> " + newValue);
-				lastInputs.put(key, newValue);
-				requireComputation = true;
+		/*
+		 * The changes are needed only if the output can be updated rather
+		 * than recomputed from scratch.
+		 */
+		boolean incremental = reason == null
+				&& lastComputer instanceof IncrementalComputer
+				&& memoCache == null;
+		changes.clear();
+		boolean changed = false;
+		Subscription subscription = notified.getAndSet(null);
+		if (reason == RecomputeReason.FIRST_COMPUTATION) {
+			// no input known, read all of them
+			while (subscription != null) {
+				subscription = subscription.pop();
+			}
+			for (int slot = 0; slot < size; slot++) {
+				changed |= checkInput(slot, incremental);
+			}
+		} else {
+			// only the polled sources and the notified ones may have changed
+			for (int i = 0; i < polledCount; i++) {
+				changed |= checkInput(polled[i], incremental);
 			}
+			while (subscription != null) {
+				Subscription current = subscription;
+				subscription = current.pop();
+				Integer slot = slots.get(current.key);
+				if (slot != null && subscriptions[slot] == current) {
+					changed |= checkInput(slot, incremental);
+				} else {
+					// source removed or replaced since
+				}
+			}
+		}
+		if (changed && reason == null) {
+			reason = RecomputeReason.INPUT_CHANGED;
+		} else {
+			// no change or computation already required
+		}
+
+		if (reason == null && hasRemovedNonNullInput()) {
+			reason = RecomputeReason.INPUT_REMOVED;
+		} else {
+			// no removal or computation already required
+		}
+
+		if (reason == null && timePolicy.isExpired(now)) {
+			reason = RecomputeReason.EXPIRED;
+		} else {
+			// still valid or computation already required
 		}
-		logger.fine("Recompute? " + requireComputation);
 
-		logger.fine("Cheking inputs removal...");
-		if (!requireComputation) {
-			Collection<Object> removedKeys = new LinkedList<Object>(
-					lastInputs.keySet());
-			removedKeys.removeAll(sources.keySet());
-			logger.fine("Removed keys: " + removedKeys);
-			if (removedKeys.isEmpty()) {
-				// do not lead to re-computation
+		if (reason != null) {
+			// if the computation fails, the inputs won't match the output
+			computed = false;
+			long start = observer == null ? 0 : System.nanoTime();
+			boolean memoized = memoCache != null
+					&& reason != RecomputeReason.EXPIRED;
+			if (memoized) {
+				lastOutput = memoCache.compute(lastComputer, inputsView,
+						cacheHit);
+			} else if (incremental && reason != RecomputeReason.EXPIRED) {
+				lastOutput = ((IncrementalComputer<Value>) lastComputer)
+						.update(lastOutput, changesView, removedInputsView,
+								inputsView);
 			} else {
-				requireComputation = !wereAllNullInputs(removedKeys);
+				lastOutput = lastComputer.compute(inputsView);
+			}
+			removedInputs.clear();
+			changes.clear();
+			computed = true;
+			timePolicy.outputComputed(now);
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				observer.outputComputed(lastOutput, reason, System.nanoTime()
+						- start, memoized && cacheHit[0]);
 			}
 		} else {
-			// computation already required, don't make further checks
+			timePolicy.refreshAheadIfNeeded(now, lastComputer, inputsView);
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				observer.outputReused(lastOutput);
+			}
 		}
-		logger.fine("Recompute? " + requireComputation);
+		return lastOutput;
+	}
 
-		if (requireComputation) {
-			lastInputs.keySet().retainAll(sources.keySet());
-			logger.info("Computing with: " + lastInputs);
-			lastOutput = lastComputer.compute(lastInputs);
-			logger.info("New output: " + lastOutput);
+	/**
+	 * Replace the last output by the one computed in the background on the
+	 * same inputs, if any. The output is only replaced here, so checking
+	 * whether it is fresh has no side effect.
+	 */
+	private void adoptRefresh() {
+		TimePolicy.Refresh<Value> done = timePolicy.takeRefresh(lastComputer);
+		if (done == null) {
+			// nothing to take
 		} else {
-			logger.info("No need to recompute, return the old output: "
-					+ lastOutput);
+			lastOutput = done.getOutput();
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				observer.outputComputed(lastOutput, RecomputeReason.EXPIRED,
+						done.getDuration(), false);
+			}
 		}
-		return lastOutput;
 	}
 
-	private boolean wereAllNullInputs(Collection<Object> keys) {
-		for (Object key : keys) {
-			Object value = lastInputs.get(key);
-			logger.finest("Last input for " + key + ": " + value);
-			if (value == null) {
-				// still null
+	/**
+	 * This method provides the inputs used for the last computation, so the
+	 * ones corresponding to the last output returned by {@link #get()}. It is
+	 * only meant to be read just after a call to {@link #get()}, by the
+	 * classes building on this {@link LastInstantComputer}.
+	 * 
+	 * @return the inputs of the last computation, <code>null</code> if no
+	 *         computation has been made yet
+	 */
+	Map<Object, Object> getLastInputs() {
+		return computed ? inputsView : null;
+	}
+
+	/**
+	 * Check whether the source provides a different input than for the last
+	 * computation and, if it is the case, store the new input and, if the
+	 * output is updated incrementally, the change.
+	 * 
+	 * @param slot
+	 *            the slot of the source
+	 * @param incremental
+	 *            <code>true</code> if the change should be remembered
+	 * @return <code>true</code> if the input has changed
+	 */
+	private boolean checkInput(int slot, boolean incremental) {
+		Object lastValue = values[slot];
+		if (updateInput(slot)) {
+			if (incremental) {
+				changes.add(new InputChange(keys[slot], lastValue,
+						values[slot]));
 			} else {
+				// recomputed from scratch
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Check whether the source provides a different input than for the last
+	 * computation and, if it is the case, store the new input.
+	 * 
+	 * @param slot
+	 *            the slot of the source
+	 * @return <code>true</code> if the input has changed
+	 */
+	private boolean updateInput(int slot) {
+		ActiveReadAccess<?> source = accesses[slot];
+		Object lastValue = values[slot];
+		Object newValue;
+		boolean changed;
+		if (source instanceof VersionedReadAccess) {
+			long version = ((VersionedReadAccess<?>) source).version();
+			if (versionKnown[slot] && versions[slot] == version) {
+				// same version, so same value, no need to read it
 				return false;
+			} else {
+				versions[slot] = version;
+				versionKnown[slot] = true;
+			}
+			newValue = source.get();
+			// a new version can provide an equal value
+			changed = !same(lastValue, newValue);
+		} else {
+			newValue = prefetched && polledPositions[slot] >= 0 ? fetched[slot]
+					: source.get();
+			changed = !same(lastValue, newValue);
+		}
+
+		if (changed) {
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				observer.inputChanged(keys[slot], lastValue, newValue);
 			}
+			values[slot] = newValue;
+		} else {
+			// keep the last input
+		}
+		return changed;
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if a source which does not notify its changes
+	 *         provides a different input than for the last computation
+	 */
+	private boolean hasPolledInputChanged() {
+		for (int i = 0; i < polledCount; i++) {
+			int slot = polled[i];
+			ActiveReadAccess<?> source = accesses[slot];
+			if (source instanceof VersionedReadAccess) {
+				if (versionKnown[slot]
+						&& versions[slot] == ((VersionedReadAccess<?>) source)
+								.version()) {
+					// no change
+				} else {
+					return true;
+				}
+			} else if (same(values[slot], prefetched ? fetched[slot] : source
+					.get())) {
+				// no change
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removing a source which was providing a <code>null</code> value is
+	 * equivalent to keep it, because a missing input is <code>null</code> too.
+	 * Thus, only the removal of a non-<code>null</code> input requires a
+	 * re-computation.
+	 * 
+	 * @return <code>true</code> if an input used in the last computation is
+	 *         not provided anymore and was not <code>null</code>
+	 */
+	private boolean hasRemovedNonNullInput() {
+		if (removedInputs.isEmpty()) {
+			return false;
+		} else {
+			if (observer == null) {
+				// nothing to notify
+			} else {
+				for (Entry<Object, Object> entry : removedInputs.entrySet()) {
+					observer.inputRemoved(entry.getKey(), entry.getValue());
+				}
+			}
+			return true;
 		}
-		return true;
 	}
 
 	private boolean same(Object a, Object b) {
 		return a == b || a != null && a.equals(b);
 	}
 
+	/**
+	 * A {@link SlotView} is a read-only {@link Map} over the slots, which
+	 * provides for each key the content of its slot in one of the arrays.
+	 */
+	private abstract class SlotView<V> extends AbstractMap<Object, V> {
+
+		protected abstract V valueAt(int slot);
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return slots.containsKey(key);
+		}
+
+		@Override
+		public V get(Object key) {
+			Integer slot = slots.get(key);
+			return slot == null ? null : valueAt(slot);
+		}
+
+		@Override
+		public Set<Entry<Object, V>> entrySet() {
+			return new AbstractSet<Entry<Object, V>>() {
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public Iterator<Entry<Object, V>> iterator() {
+					return new SlotIterator<Entry<Object, V>>() {
+
+						@Override
+						protected Entry<Object, V> itemAt(int slot) {
+							return new SimpleImmutableEntry<Object, V>(
+									keys[slot], valueAt(slot));
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public Collection<V> values() {
+			return new AbstractCollection<V>() {
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public Iterator<V> iterator() {
+					return new SlotIterator<V>() {
+
+						@Override
+						protected V itemAt(int slot) {
+							return valueAt(slot);
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * A {@link SlotIterator} goes through the slots in their order.
+	 */
+	private abstract class SlotIterator<Item> implements Iterator<Item> {
+
+		private int next = 0;
+
+		protected abstract Item itemAt(int slot);
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Item next() {
+			if (next < size) {
+				return itemAt(next++);
+			} else {
+				throw new NoSuchElementException();
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Read-only view.");
+		}
+	}
+
+	/**
+	 * A {@link Subscription} is the {@link ValueListener} registered on a
+	 * source which notifies its changes. It only marks its
+	 * {@link LastInstantComputer} as dirty and pushes itself on its stack of
+	 * notified {@link Subscription}s, the new value being read at the next
+	 * call of {@link #get()}. A {@link Subscription} is pushed at most once
+	 * until it is popped, so the stack does not grow with the notifications
+	 * and no allocation is made. It is static, so the {@link Subscription}s
+	 * can be stored in an array.
+	 */
+	private static class Subscription implements ValueListener<Object> {
+
+		private final LastInstantComputer<?> computer;
+		private final Object key;
+		private final PassiveReadAccess<Object> notifier;
+		private final AtomicBoolean pushed = new AtomicBoolean(false);
+		/**
+		 * The next {@link Subscription} in the stack of notified ones.
+		 */
+		private Subscription next = null;
+
+		@SuppressWarnings("unchecked")
+		public Subscription(LastInstantComputer<?> computer, Object key,
+				PassiveReadAccess<?> notifier) {
+			this.computer = computer;
+			this.key = key;
+			this.notifier = (PassiveReadAccess<Object>) notifier;
+			this.notifier.addValueListener(this);
+		}
+
+		@Override
+		public void valueGenerated(Object value) {
+			if (pushed.compareAndSet(false, true)) {
+				AtomicReference<Subscription> stack = computer.notified;
+				Subscription top;
+				do {
+					top = stack.get();
+					next = top;
+				} while (!stack.compareAndSet(top, this));
+			} else {
+				// already waiting to be checked
+			}
+			computer.dirty = true;
+		}
+
+		/**
+		 * Remove this {@link Subscription} from the stack it has been taken
+		 * from, so a new notification pushes it again. It should be called
+		 * before to read the source, so a change occurring meanwhile is not
+		 * missed.
+		 * 
+		 * @return the next {@link Subscription} of the stack
+		 */
+		public Subscription pop() {
+			Subscription following = next;
+			next = null;
+			pushed.set(false);
+			return following;
+		}
+
+		public void cancel() {
+			notifier.removeValueListener(this);
+		}
+	}
+
 	/**
 	 * A {@link Computer} aims at computing the output value of a
 	 * {@link LastInstantComputer} based on some input values provided by the
@@ -424,4 +1353,197 @@ public class LastInstantComputer<Value> implements ActiveReadAccess<Value> {
 		 */
 		public Value compute(Map<Object, Object> inputs);
 	}
+
+	/**
+	 * An {@link IncrementalComputer} is a {@link Computer} able to update its
+	 * previous output based on the changes of the inputs, rather than
+	 * computing it from all the inputs. For instance, a sum over many inputs
+	 * can subtract the old values and add the new ones, so its cost depends on
+	 * the number of changes rather than on the number of inputs.<br/>
+	 * <br/>
+	 * The {@link LastInstantComputer} calls
+	 * {@link #update(Object, List, Map, Map)} when only inputs have changed
+	 * since the last computation, and {@link #compute(Map)} otherwise: for
+	 * the first computation, when the {@link Computer} has changed, when the
+	 * output has expired, or when a {@link MemoCache} is used. Because a
+	 * missing input is equivalent to a <code>null</code> one, an added input
+	 * is provided as a change from <code>null</code>, an input changed to
+	 * <code>null</code> as a change to <code>null</code>, and removing a
+	 * <code>null</code> input is not provided at all. When the output cannot
+	 * be updated, for instance when the minimum of the inputs is removed, the
+	 * implementation can simply return {@link #compute(Map)} on the inputs
+	 * provided.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 * @param <Value>
+	 */
+	public static interface IncrementalComputer<Value> extends Computer<Value> {
+		/**
+		 * This method should return the output value which corresponds to
+		 * the current inputs, knowing the output of the previous inputs and
+		 * what has changed since. The collections provided are read-only and
+		 * valid only during this call.
+		 * 
+		 * @param output
+		 *            the output of the previous inputs
+		 * @param changes
+		 *            the inputs which have a different value than for the
+		 *            previous output
+		 * @param removedInputs
+		 *            the non-<code>null</code> inputs used for the previous
+		 *            output which are not provided anymore, identified by
+		 *            their keys
+		 * @param inputs
+		 *            all the current inputs, identified by their keys
+		 * @return the output value corresponding to the current inputs
+		 */
+		public Value update(Value output, List<InputChange> changes,
+				Map<Object, Object> removedInputs, Map<Object, Object> inputs);
+	}
+
+	/**
+	 * An {@link InputChange} describes an input having a different value than
+	 * for the previous output of an {@link IncrementalComputer}.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 */
+	public static class InputChange {
+		private final Object key;
+		private final Object oldValue;
+		private final Object newValue;
+
+		public InputChange(Object key, Object oldValue, Object newValue) {
+			this.key = key;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		/**
+		 * 
+		 * @return the key identifying the input
+		 */
+		public Object getKey() {
+			return key;
+		}
+
+		/**
+		 * 
+		 * @return the value used for the previous output
+		 */
+		public Object getOldValue() {
+			return oldValue;
+		}
+
+		/**
+		 * 
+		 * @return the value to use for the new output
+		 */
+		public Object getNewValue() {
+			return newValue;
+		}
+
+		@Override
+		public String toString() {
+			return key + ": " + oldValue + " -> " + newValue;
+		}
+	}
+
+	/**
+	 * A {@link RecomputeReason} tells why a {@link LastInstantComputer} has
+	 * recomputed its output. When several reasons apply, the first one in the
+	 * order of declaration is provided.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 */
+	public static enum RecomputeReason {
+		/**
+		 * No output has been computed yet, or the last computation has
+		 * failed.
+		 */
+		FIRST_COMPUTATION,
+		/**
+		 * The {@link Computer} has changed since the last computation.
+		 */
+		COMPUTER_CHANGED,
+		/**
+		 * At least one input has a different value than for the last
+		 * computation.
+		 */
+		INPUT_CHANGED,
+		/**
+		 * An input which was not <code>null</code> has been removed.
+		 */
+		INPUT_REMOVED,
+		/**
+		 * The inputs have not changed but the output is older than the max
+		 * age, or it has been recomputed in the background before to be.
+		 */
+		EXPIRED
+	}
+
+	/**
+	 * A {@link ComputationObserver} is notified of what happens in the
+	 * {@link #get()} method of a {@link LastInstantComputer}, for instance to
+	 * log or to measure it. It is called by the thread calling {@link #get()}
+	 * , so it should be fast.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 * @param <Value>
+	 */
+	public static interface ComputationObserver<Value> {
+		/**
+		 * Called when an input has a different value than for the last
+		 * computation. All the changed inputs are notified before the
+		 * computation.
+		 * 
+		 * @param key
+		 *            the key identifying the input
+		 * @param oldValue
+		 *            the value used for the last computation
+		 * @param newValue
+		 *            the value to use for the next computation
+		 */
+		public void inputChanged(Object key, Object oldValue, Object newValue);
+
+		/**
+		 * Called when an input used in the last computation has been removed
+		 * and its value was not <code>null</code>.
+		 * 
+		 * @param key
+		 *            the key identifying the input
+		 * @param oldValue
+		 *            the value used for the last computation
+		 */
+		public void inputRemoved(Object key, Object oldValue);
+
+		/**
+		 * Called when the output has been computed.
+		 * 
+		 * @param output
+		 *            the new output
+		 * @param reason
+		 *            the reason of the computation
+		 * @param durationNanos
+		 *            the time spent computing the output, in nanoseconds
+		 * @param cacheHit
+		 *            <code>true</code> if the output has been taken from the
+		 *            {@link MemoCache} rather than computed by the
+		 *            {@link Computer}
+		 */
+		public void outputComputed(Value output, RecomputeReason reason,
+				long durationNanos, boolean cacheHit);
+
+		/**
+		 * Called when nothing has changed, so the last output is returned
+		 * without computation.
+		 * 
+		 * @param output
+		 *            the last output
+		 */
+		public void outputReused(Value output);
+	}
 }
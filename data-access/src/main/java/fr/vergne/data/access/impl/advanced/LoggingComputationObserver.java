@@ -0,0 +1,96 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.ComputationObserver;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.RecomputeReason;
+
+/**
+ * A {@link LoggingComputationObserver} logs what happens in a
+ * {@link LastInstantComputer} through a {@link Logger}. The computations are
+ * logged at the {@link Level#FINE} level, with their reason, their output and
+ * their duration, and the details (input changes, output reused) at the
+ * {@link Level#FINEST} level. The messages are built only if the
+ * {@link Logger} accepts their level, so the inputs and outputs are not
+ * stringified otherwise.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class LoggingComputationObserver<Value> implements
+		ComputationObserver<Value> {
+
+	private final Logger logger;
+
+	/**
+	 * Create a {@link LoggingComputationObserver} using the {@link Logger}
+	 * named after {@link LastInstantComputer}.
+	 */
+	public LoggingComputationObserver() {
+		this(Logger.getLogger(LastInstantComputer.class.getName()));
+	}
+
+	/**
+	 *
+	 * @param logger
+	 *            the {@link Logger} to use
+	 */
+	public LoggingComputationObserver(Logger logger) {
+		if (logger == null) {
+			throw new NullPointerException("No logger provided.");
+		} else {
+			this.logger = logger;
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link Logger} used
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+
+	@Override
+	public void inputChanged(Object key, Object oldValue, Object newValue) {
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("New value for " + key + ": " + oldValue + " -> "
+					+ newValue);
+		} else {
+			// don't build the message
+		}
+	}
+
+	@Override
+	public void inputRemoved(Object key, Object oldValue) {
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("Removed input: " + key);
+		} else {
+			// don't build the message
+		}
+	}
+
+	@Override
+	public void outputComputed(Value output, RecomputeReason reason,
+			long durationNanos, boolean cacheHit) {
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("New output (" + reason + ", "
+					+ (cacheHit ? "from cache" : durationNanos + " ns")
+					+ "): " + output);
+		} else {
+			// don't build the message
+		}
+	}
+
+	@Override
+	public void outputReused(Value output) {
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("No need to recompute, return the old output: "
+					+ output);
+		} else {
+			// don't build the message
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+/**
+ * A {@link MemoCache} stores the outputs computed by {@link Computer}s for
+ * given inputs, so computing again the same inputs with the same
+ * {@link Computer} returns the stored output instead of calling the
+ * {@link Computer}. While a {@link LastInstantComputer} only remembers its
+ * last inputs, a {@link MemoCache} set on it remembers several of them, which
+ * is useful when the inputs switch between a few sets of values. A
+ * {@link MemoCache} can also be shared by several {@link LastInstantComputer}
+ * s, so those using the same {@link Computer} with the same inputs compute
+ * their output only once.<br/>
+ * <br/>
+ * The outputs are identified by the {@link Computer} and the inputs, both
+ * compared with {@link Object#equals(Object)}. The inputs are copied when an
+ * output is stored, but not the values themselves, so they should not be
+ * modified afterwards. The same applies to the {@link Computer}s, which
+ * should be deterministic.<br/>
+ * <br/>
+ * A {@link MemoCache} is bounded: once it stores as many outputs as its
+ * capacity, storing a new one removes another one, chosen by the
+ * {@link EvictionPolicy}. It is thread-safe, but the {@link Computer}s are
+ * called outside of its lock, so two threads computing the same missing
+ * output may both call the {@link Computer}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class MemoCache {
+
+	/**
+	 * The number of accesses, relative to the capacity, after which the
+	 * frequencies of {@link EvictionPolicy#LFU} are halved.
+	 */
+	private static final int AGING_PERIOD = 10;
+
+	private final int capacity;
+	private final EvictionPolicy policy;
+	/**
+	 * The stored outputs, from the least recently used to the most recently
+	 * used.
+	 */
+	private final LinkedHashMap<Key, Memo> memos;
+	/**
+	 * For {@link EvictionPolicy#LFU}, the keys of the stored outputs grouped
+	 * by frequency, each group from the least recently used to the most
+	 * recently used, so the output to evict is found in constant time.
+	 */
+	private final Map<Integer, LinkedHashSet<Key>> frequencies = new HashMap<Integer, LinkedHashSet<Key>>();
+	private int minimumFrequency = 0;
+	private int accesses = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * An {@link EvictionPolicy} tells which output to remove from a full
+	 * {@link MemoCache} to store a new one.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static enum EvictionPolicy {
+		/**
+		 * Remove the least recently used output, which suits the inputs
+		 * coming back after a short time. The eviction is done in constant
+		 * time.
+		 */
+		LRU,
+		/**
+		 * Remove the least frequently used output, the least recently used
+		 * one among them, which suits a few inputs coming back often among
+		 * many others used once. The eviction is done in constant time. The
+		 * frequencies are halved periodically, so an output used often a
+		 * long time ago is eventually removed.
+		 */
+		LFU
+	}
+
+	/**
+	 * Create a {@link MemoCache} applying {@link EvictionPolicy#LRU}.
+	 *
+	 * @param capacity
+	 *            the maximal number of outputs stored
+	 */
+	public MemoCache(int capacity) {
+		this(capacity, EvictionPolicy.LRU);
+	}
+
+	/**
+	 *
+	 * @param capacity
+	 *            the maximal number of outputs stored
+	 * @param policy
+	 *            the {@link EvictionPolicy} to apply when the
+	 *            {@link MemoCache} is full
+	 */
+	public MemoCache(int capacity, EvictionPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("No eviction policy provided.");
+		} else if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"The capacity should be positive: " + capacity);
+		} else {
+			this.capacity = capacity;
+			this.policy = policy;
+			this.memos = new LinkedHashMap<Key, Memo>(16, 0.75f, true);
+		}
+	}
+
+	/**
+	 *
+	 * @return the maximal number of outputs stored
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 *
+	 * @return the {@link EvictionPolicy} applied when the {@link MemoCache} is
+	 *         full
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Provide the output of the {@link Computer} for the given inputs. If it
+	 * is stored in this {@link MemoCache}, it is returned without calling the
+	 * {@link Computer}. Otherwise, the {@link Computer} is called and its
+	 * output is stored before to be returned. If the {@link Computer} throws
+	 * an exception, nothing is stored.
+	 *
+	 * @param computer
+	 *            the {@link Computer} to use
+	 * @param inputs
+	 *            the inputs to provide to the {@link Computer}
+	 * @return the output corresponding to the inputs
+	 */
+	public <Value> Value compute(Computer<Value> computer,
+			Map<Object, Object> inputs) {
+		return compute(computer, inputs, null);
+	}
+
+	/**
+	 * Same as {@link #compute(Computer, Map)}, but tells whether the output
+	 * has been found in this {@link MemoCache}.
+	 * 
+	 * @param hit
+	 *            the array to set the hit in, <code>null</code> to ignore it
+	 */
+	@SuppressWarnings("unchecked")
+	<Value> Value compute(Computer<Value> computer,
+			Map<Object, Object> inputs, boolean[] hit) {
+		Key key = new Key(computer, inputs);
+		synchronized (this) {
+			Memo memo = memos.get(key);
+			if (memo == null) {
+				misses++;
+			} else {
+				hits++;
+				if (policy == EvictionPolicy.LFU) {
+					increaseFrequency(memo);
+				} else {
+					// the access order is enough
+				}
+				if (hit == null) {
+					// not requested
+				} else {
+					hit[0] = true;
+				}
+				return (Value) memo.output;
+			}
+		}
+		if (hit == null) {
+			// not requested
+		} else {
+			hit[0] = false;
+		}
+
+		Value output = computer.compute(inputs);
+		key = key.copy();
+		synchronized (this) {
+			if (memos.containsKey(key)) {
+				// stored by another thread in the meantime
+			} else {
+				if (memos.size() == capacity) {
+					evict();
+				} else {
+					// enough space
+				}
+				Memo memo = new Memo(key, output);
+				memos.put(key, memo);
+				if (policy == EvictionPolicy.LFU) {
+					groupOf(memo.frequency).add(key);
+					minimumFrequency = memo.frequency;
+					countAccess();
+				} else {
+					// the access order is enough
+				}
+			}
+		}
+		return output;
+	}
+
+	private void evict() {
+		switch (policy) {
+		case LRU:
+			Iterator<Memo> iterator = memos.values().iterator();
+			iterator.next();
+			iterator.remove();
+			break;
+		case LFU:
+			// the new output stored afterwards updates the minimum
+			LinkedHashSet<Key> group = frequencies.get(minimumFrequency);
+			Iterator<Key> keys = group.iterator();
+			Key evicted = keys.next();
+			keys.remove();
+			if (group.isEmpty()) {
+				frequencies.remove(minimumFrequency);
+			} else {
+				// other outputs with the same frequency
+			}
+			memos.remove(evicted);
+			break;
+		default:
+			throw new RuntimeException("Unmanaged policy: " + policy);
+		}
+		evictions++;
+	}
+
+	private void increaseFrequency(Memo memo) {
+		LinkedHashSet<Key> group = frequencies.get(memo.frequency);
+		group.remove(memo.key);
+		if (group.isEmpty()) {
+			frequencies.remove(memo.frequency);
+			if (minimumFrequency == memo.frequency) {
+				minimumFrequency++;
+			} else {
+				// other outputs are less frequent
+			}
+		} else {
+			// other outputs with the same frequency
+		}
+		memo.frequency++;
+		groupOf(memo.frequency).add(memo.key);
+		countAccess();
+	}
+
+	private LinkedHashSet<Key> groupOf(int frequency) {
+		LinkedHashSet<Key> group = frequencies.get(frequency);
+		if (group == null) {
+			group = new LinkedHashSet<Key>();
+			frequencies.put(frequency, group);
+		} else {
+			// existing group
+		}
+		return group;
+	}
+
+	/**
+	 * Halve all the frequencies once enough accesses have been made, so the
+	 * past accesses weigh less than the recent ones. It goes through all the
+	 * outputs, but only once every {@link #AGING_PERIOD} times the capacity,
+	 * so it costs a constant time per access on average.
+	 */
+	private void countAccess() {
+		if (++accesses < AGING_PERIOD * capacity) {
+			// not enough accesses to age the frequencies
+		} else {
+			accesses = 0;
+			frequencies.clear();
+			minimumFrequency = Integer.MAX_VALUE;
+			// from the least recently used to keep this order in the groups
+			for (Memo memo : memos.values()) {
+				memo.frequency = Math.max(1, memo.frequency / 2);
+				groupOf(memo.frequency).add(memo.key);
+				minimumFrequency = Math.min(minimumFrequency, memo.frequency);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of outputs currently stored
+	 */
+	public synchronized int getSize() {
+		return memos.size();
+	}
+
+	/**
+	 * Remove all the outputs stored. The statistics are not reset.
+	 */
+	public synchronized void clear() {
+		memos.clear();
+		frequencies.clear();
+		accesses = 0;
+	}
+
+	/**
+	 *
+	 * @return the number of outputs returned without calling the
+	 *         {@link Computer}
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 *
+	 * @return the number of outputs which had to be computed
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 *
+	 * @return the number of outputs removed to store new ones
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counts to zero.
+	 */
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * The identifier of a stored output. Its hash code is computed once,
+	 * because the inputs may be numerous.
+	 */
+	private static class Key {
+		private final Computer<?> computer;
+		private final Map<Object, Object> inputs;
+		private final int hashCode;
+
+		public Key(Computer<?> computer, Map<Object, Object> inputs) {
+			this(computer, inputs, 31 * computer.hashCode() + inputs.hashCode());
+		}
+
+		private Key(Computer<?> computer, Map<Object, Object> inputs,
+				int hashCode) {
+			this.computer = computer;
+			this.inputs = inputs;
+			this.hashCode = hashCode;
+		}
+
+		/**
+		 *
+		 * @return a {@link Key} which does not change with the inputs given to
+		 *         this one
+		 */
+		public Key copy() {
+			return new Key(computer, new HashMap<Object, Object>(inputs),
+					hashCode);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			} else if (obj instanceof Key) {
+				Key other = (Key) obj;
+				return hashCode == other.hashCode
+						&& computer.equals(other.computer)
+						&& inputs.equals(other.inputs);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static class Memo {
+		private final Key key;
+		private final Object output;
+		private int frequency = 1;
+
+		public Memo(Key key, Object output) {
+			this.key = key;
+			this.output = output;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.VersionedReadAccess;
+
+/**
+ * A {@link PollingStrategy} tells how a {@link LastInstantComputer} reads the
+ * sources it polls: one after the other in the calling thread, or in
+ * parallel through an {@link Executor} once there are enough of them (cf.
+ * {@link LastInstantComputer#setParallelPolling(Executor, int)}).
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+class PollingStrategy {
+
+	/**
+	 * The {@link Executor} reading the polled sources in parallel,
+	 * <code>null</code> to read them in the calling thread.
+	 */
+	private Executor executor = null;
+	/**
+	 * The minimal number of polled sources to read them in parallel.
+	 */
+	private int threshold = 1;
+
+	public void setParallelPolling(Executor executor, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException(
+					"The threshold should be positive: " + threshold);
+		} else {
+			this.executor = executor;
+			this.threshold = threshold;
+		}
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 *
+	 * @param polledCount
+	 *            the number of polled sources
+	 * @return <code>true</code> if the sources should be read in parallel
+	 */
+	public boolean isParallel(int polledCount) {
+		return executor != null && polledCount >= threshold;
+	}
+
+	/**
+	 * Read in parallel the polled sources which are not
+	 * {@link VersionedReadAccess} and store their values in the given array.
+	 * This method returns once all of them have been read.
+	 *
+	 * @param polled
+	 *            the slots of the polled sources
+	 * @param polledCount
+	 *            the number of relevant slots in <code>polled</code>
+	 * @param accesses
+	 *            the sources, by slot
+	 * @param fetched
+	 *            the array receiving the values read, by slot
+	 * @throws RuntimeException
+	 *             if a source has thrown one
+	 */
+	public void fetch(int[] polled, int polledCount,
+			ActiveReadAccess<?>[] accesses, final Object[] fetched) {
+		final CountDownLatch latch = new CountDownLatch(polledCount);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		List<Runnable> tasks = new ArrayList<Runnable>(polledCount);
+		for (int i = 0; i < polledCount; i++) {
+			final int slot = polled[i];
+			final ActiveReadAccess<?> source = accesses[slot];
+			if (source instanceof VersionedReadAccess) {
+				// read only if the version changes
+				latch.countDown();
+			} else {
+				final AtomicBoolean started = new AtomicBoolean(false);
+				Runnable task = new Runnable() {
+
+					@Override
+					public void run() {
+						if (started.compareAndSet(false, true)) {
+							try {
+								fetched[slot] = source.get();
+							} catch (RuntimeException e) {
+								failure.compareAndSet(null, e);
+							} finally {
+								latch.countDown();
+							}
+						} else {
+							// already run by the caller or the executor
+						}
+					}
+				};
+				tasks.add(task);
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					task.run();
+				}
+			}
+		}
+		/*
+		 * Run the tasks not started yet, rather than waiting for them, so
+		 * the caller does not wait for a task queued behind itself when it
+		 * runs in a thread of the executor.
+		 */
+		for (Runnable task : tasks) {
+			task.run();
+		}
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				// the sources are being read, wait for them anyway
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		} else {
+			// nothing to restore
+		}
+
+		if (failure.get() == null) {
+			// all the sources have been read
+		} else {
+			throw failure.get();
+		}
+	}
+}
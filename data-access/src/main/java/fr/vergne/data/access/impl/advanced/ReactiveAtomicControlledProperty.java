@@ -0,0 +1,74 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collection;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.util.ListenerRegistry;
+
+/**
+ * A {@link ReactiveAtomicControlledProperty} is to the
+ * {@link AtomicControlledProperty} what the {@link ReactiveControlledProperty}
+ * is to the {@link ControlledProperty}: it notifies the registered
+ * {@link ValueListener}s each time a value is written. Only the writes which
+ * actually happened are notified: a {@link #compareAndSet(Object, Object)}
+ * which fails or the retries of {@link #updateAndGet(Updater)} do not lead to
+ * any notification.<br/>
+ * <br/>
+ * The notification occurs in the thread which has written the value, after
+ * the write. Consequently, when several threads write concurrently, the
+ * {@link ValueListener}s may receive the values in a different order than
+ * they have been written. If they need the latest value, they should call
+ * {@link #get()} rather than relying on the notified one.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class ReactiveAtomicControlledProperty<Value> extends
+		AtomicControlledProperty<Value> implements PassiveReadAccess<Value>,
+		ReactiveReadAccess<Value> {
+
+	private final ListenerRegistry<ValueListener<Value>> listeners = new ListenerRegistry<ValueListener<Value>>(
+			ValueListener.class);
+
+	/**
+	 * Create the {@link ReactiveAtomicControlledProperty} with a
+	 * <code>null</code> value.
+	 */
+	public ReactiveAtomicControlledProperty() {
+		super();
+	}
+
+	/**
+	 * Create the {@link ReactiveAtomicControlledProperty} with a given value.
+	 *
+	 * @param initialValue
+	 *            the value to set on creation
+	 */
+	public ReactiveAtomicControlledProperty(Value initialValue) {
+		super(initialValue);
+	}
+
+	@Override
+	protected void valueSet(Value value) {
+		for (ValueListener<Value> listener : listeners.getSnapshot()) {
+			listener.valueGenerated(value);
+		}
+	}
+
+	@Override
+	public void addValueListener(ValueListener<Value> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public Collection<ValueListener<Value>> getValueListeners() {
+		return listeners;
+	}
+
+	@Override
+	public void removeValueListener(ValueListener<Value> listener) {
+		listeners.remove(listener);
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Collection;
 
 import fr.vergne.data.access.ActiveReadAccess;
 import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
 import fr.vergne.data.access.impl.SimplePassiveReadAccess;
 
 /**
@@ -22,9 +23,10 @@ import fr.vergne.data.access.impl.SimplePassiveReadAccess;
  * @param <Value>
  */
 public class ReactiveControlledProperty<Value> extends
-		ControlledProperty<Value> implements PassiveReadAccess<Value> {
+		ControlledProperty<Value> implements PassiveReadAccess<Value>,
+		ReactiveReadAccess<Value> {
 
-	private final PassiveReadAccess<Value> reader = new SimplePassiveReadAccess<Value>();
+	private final SimplePassiveReadAccess<Value> reader = new SimplePassiveReadAccess<Value>();
 
 	/**
 	 * Create the {@link ReactiveControlledProperty} with a <code>null</code>
@@ -56,9 +58,7 @@ public class ReactiveControlledProperty<Value> extends
 			 * At this state, no listener has to be to notified anyway.
 			 */
 		} else {
-			for (ValueListener<Value> listener : reader.getValueListeners()) {
-				listener.valueGenerated(value);
-			}
+			reader.notifyValueListeners(value);
 		}
 	}
 
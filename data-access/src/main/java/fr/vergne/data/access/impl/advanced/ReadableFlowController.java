@@ -1,6 +1,8 @@
 package fr.vergne.data.access.impl.advanced;
 
 import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.ReactiveReadAccess;
+import fr.vergne.data.access.VersionedReadAccess;
 import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
 
 /**
@@ -11,16 +13,19 @@ import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
  * has not been called, the value returned by {@link #get()} is
  * <code>null</code>. The main difference with {@link CheckableFlowController}
  * is that the {@link #get()} method provides the last value transferred to the
- * targets instead of the current value of the source.
+ * targets instead of the current value of the source. The version provided
+ * by {@link #version()} is incremented at each transfer.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
  * @param <Value>
  */
 public class ReadableFlowController<Value> extends FlowController<Value>
-		implements ActiveReadAccess<Value> {
+		implements ActiveReadAccess<Value>, ReactiveReadAccess<Value>,
+		VersionedReadAccess<Value> {
 
 	private Value lastValue = null;
+	private long version = 0;
 
 	/**
 	 * Create a {@link ReadableFlowController} without any
@@ -47,6 +52,7 @@ public class ReadableFlowController<Value> extends FlowController<Value>
 			@Override
 			public void valueGenerated(Value value) {
 				lastValue = value;
+				version++;
 			}
 		});
 	}
@@ -58,4 +64,9 @@ public class ReadableFlowController<Value> extends FlowController<Value>
 	public Value get() {
 		return lastValue;
 	}
+
+	@Override
+	public long version() {
+		return version;
+	}
 }
@@ -0,0 +1,247 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+/**
+ * A {@link TimePolicy} gathers the time-based rules of a
+ * {@link LastInstantComputer}: the maximal age of its output, the refresh of
+ * this output in the background before it expires, and the minimal interval
+ * between two checks of the sources. It remembers when the last output has
+ * been computed, and it runs the {@link Refresh}es, which the
+ * {@link LastInstantComputer} adopts through {@link #takeRefresh(Computer)}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+class TimePolicy<Value> {
+
+	/**
+	 * The maximal age of the output, in nanoseconds, negative if the output
+	 * does not expire.
+	 */
+	private long maxAge = -1;
+	/**
+	 * The minimal time between two checks of the sources, in nanoseconds.
+	 */
+	private long minimumInterval = 0;
+	/**
+	 * The {@link Executor} recomputing the output before it expires,
+	 * <code>null</code> to recompute it once expired.
+	 */
+	private Executor refreshExecutor = null;
+	/**
+	 * How long before the expiry the output is recomputed by the
+	 * {@link #refreshExecutor}, in nanoseconds.
+	 */
+	private long refreshAhead = 0;
+	/**
+	 * The time at which the last output has been computed, in the scale of
+	 * {@link System#nanoTime()}. It is maintained only if a time policy is
+	 * set.
+	 */
+	private long computedAt = 0;
+	/**
+	 * Incremented at each new output, so a {@link Refresh} knows whether it
+	 * has been made on the inputs of the last output.
+	 */
+	private int generation = 0;
+	/**
+	 * The {@link Refresh} made in the background, <code>null</code> if none.
+	 */
+	private volatile Refresh<Value> refresh = null;
+
+	public void setMaxAge(long maxAge, TimeUnit unit) {
+		this.maxAge = maxAge < 0 ? -1 : unit.toNanos(maxAge);
+	}
+
+	public long getMaxAge(TimeUnit unit) {
+		return maxAge < 0 ? -1 : unit.convert(maxAge, TimeUnit.NANOSECONDS);
+	}
+
+	public void setRefreshAhead(Executor executor, long before, TimeUnit unit) {
+		if (before < 0) {
+			throw new IllegalArgumentException(
+					"The delay should not be negative: " + before);
+		} else {
+			this.refreshExecutor = executor;
+			this.refreshAhead = unit.toNanos(before);
+		}
+	}
+
+	public Executor getRefreshExecutor() {
+		return refreshExecutor;
+	}
+
+	public long getRefreshAhead(TimeUnit unit) {
+		return unit.convert(refreshAhead, TimeUnit.NANOSECONDS);
+	}
+
+	public void setMinimumInterval(long interval, TimeUnit unit) {
+		if (interval < 0) {
+			throw new IllegalArgumentException(
+					"The interval should not be negative: " + interval);
+		} else {
+			this.minimumInterval = unit.toNanos(interval);
+		}
+	}
+
+	public long getMinimumInterval(TimeUnit unit) {
+		return unit.convert(minimumInterval, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 *
+	 * @return the current time, in the scale of {@link System#nanoTime()}, or
+	 *         0 if no rule depends on it
+	 */
+	public long now() {
+		return maxAge < 0 && minimumInterval == 0 ? 0 : System.nanoTime();
+	}
+
+	/**
+	 *
+	 * @param now
+	 *            the current time, in the scale of {@link System#nanoTime()}
+	 * @return <code>true</code> if the minimal interval since the last
+	 *         computation is not passed yet
+	 */
+	public boolean isWithinMinimumInterval(long now) {
+		return minimumInterval > 0 && now - computedAt < minimumInterval;
+	}
+
+	/**
+	 *
+	 * @param now
+	 *            the current time, in the scale of {@link System#nanoTime()}
+	 * @return <code>true</code> if the last output is too old to be reused
+	 */
+	public boolean isExpired(long now) {
+		return maxAge >= 0 && now - computedAt >= maxAge;
+	}
+
+	/**
+	 * Record a new output.
+	 *
+	 * @param now
+	 *            the time at which its computation has started
+	 */
+	public void outputComputed(long now) {
+		computedAt = now;
+		generation++;
+	}
+
+	/**
+	 * Take the {@link Refresh} completed in the background, if any. It is
+	 * returned only if it has succeeded on the inputs of the last output with
+	 * the given {@link Computer}, in which case its output becomes the last
+	 * output. Otherwise, it is dropped and the output is recomputed once
+	 * expired.
+	 *
+	 * @param computer
+	 *            the {@link Computer} of the last output
+	 * @return the {@link Refresh} providing the new output, <code>null</code>
+	 *         if none
+	 */
+	public Refresh<Value> takeRefresh(Computer<Value> computer) {
+		Refresh<Value> done = refresh;
+		if (done == null || !done.done) {
+			return null;
+		} else {
+			refresh = null;
+			if (done.succeeded && done.generation == generation
+					&& done.computer.equals(computer)) {
+				outputComputed(done.startedAt);
+				return done;
+			} else {
+				// obsolete or failed, recompute when expired
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Start a {@link Refresh} if the last output is about to expire and none
+	 * is running yet.
+	 *
+	 * @param now
+	 *            the current time, in the scale of {@link System#nanoTime()}
+	 * @param computer
+	 *            the {@link Computer} of the last output
+	 * @param inputs
+	 *            the inputs of the last output, copied if a {@link Refresh}
+	 *            is started
+	 */
+	public void refreshAheadIfNeeded(long now, Computer<Value> computer,
+			Map<Object, Object> inputs) {
+		if (refreshExecutor == null || maxAge < 0 || refresh != null
+				|| now - computedAt < maxAge - refreshAhead) {
+			// no refresh required
+		} else {
+			Refresh<Value> task = new Refresh<Value>(computer,
+					new HashMap<Object, Object>(inputs), generation);
+			refresh = task;
+			try {
+				refreshExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// recompute when expired
+				refresh = null;
+			}
+		}
+	}
+
+	/**
+	 * A {@link Refresh} computes in the background a new output on a copy of
+	 * the inputs of the last output, so it can replace it before it expires.
+	 * The result is read by the thread calling
+	 * {@link LastInstantComputer#get()} once {@link #done} is
+	 * <code>true</code>.
+	 */
+	static class Refresh<Value> implements Runnable {
+
+		private final Computer<Value> computer;
+		private final Map<Object, Object> inputs;
+		private final int generation;
+		private Value output;
+		private boolean succeeded = false;
+		private long startedAt;
+		private long duration;
+		private volatile boolean done = false;
+
+		public Refresh(Computer<Value> computer, Map<Object, Object> inputs,
+				int generation) {
+			this.computer = computer;
+			this.inputs = Collections.unmodifiableMap(inputs);
+			this.generation = generation;
+		}
+
+		@Override
+		public void run() {
+			startedAt = System.nanoTime();
+			try {
+				output = computer.compute(inputs);
+				succeeded = true;
+			} catch (RuntimeException e) {
+				// the computation made once expired will throw it
+			} finally {
+				duration = System.nanoTime() - startedAt;
+				done = true;
+			}
+		}
+
+		public Value getOutput() {
+			return output;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package fr.vergne.data.access.util;
+
+import java.lang.reflect.Array;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link ListenerRegistry} stores the listeners registered to a notifier,
+ * whatever their type. The listeners are stored in an immutable array which is
+ * replaced atomically each time a listener is added or removed. Consequently:
+ * <ul>
+ * <li>a notification is a simple loop over the array returned by
+ * {@link #getSnapshot()}, which does not allocate anything;</li>
+ * <li>a listener can be added or removed while a notification is running,
+ * even by a listener being notified or by another thread, without any
+ * {@link java.util.ConcurrentModificationException}: the running notification
+ * continues with the listeners it started with;</li>
+ * <li>the listeners are always provided in the order they have been
+ * registered.</li>
+ * </ul>
+ * Like a {@link java.util.Set}, a listener already registered (based on
+ * {@link Object#equals(Object)}) is not registered again. The registration
+ * costs a copy of the array, so this {@link ListenerRegistry} is designed for
+ * listeners which are registered much less often than they are notified.<br/>
+ * <br/>
+ * As a {@link java.util.Collection}, it can be directly returned by the
+ * methods providing the registered listeners. Its iterators work on a
+ * snapshot too.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Listener>
+ *            the type of listener to store
+ */
+public class ListenerRegistry<Listener> extends AbstractCollection<Listener> {
+
+	private final Listener[] empty;
+	private final AtomicReference<Listener[]> listeners;
+
+	/**
+	 * Create an empty {@link ListenerRegistry}.
+	 *
+	 * @param listenerClass
+	 *            the class of listener to store, used to build the arrays
+	 *            returned by {@link #getSnapshot()}
+	 */
+	@SuppressWarnings("unchecked")
+	public ListenerRegistry(Class<? super Listener> listenerClass) {
+		empty = (Listener[]) Array.newInstance(listenerClass, 0);
+		listeners = new AtomicReference<Listener[]>(empty);
+	}
+
+	/**
+	 * This method provides the listeners to notify. The array returned is
+	 * never modified by this {@link ListenerRegistry}, which creates a new one
+	 * for each modification, so it can be iterated safely. However, it is
+	 * shared with the other callers, so it should not be modified either.
+	 *
+	 * @return the listeners currently registered, in their registration order
+	 */
+	public Listener[] getSnapshot() {
+		return listeners.get();
+	}
+
+	/**
+	 *
+	 * @param listener
+	 *            the listener to register
+	 * @return <code>true</code> if the listener has been registered,
+	 *         <code>false</code> if it was already registered
+	 * @throws NullPointerException
+	 *             if the listener is <code>null</code>
+	 */
+	@Override
+	public boolean add(Listener listener) {
+		if (listener == null) {
+			throw new NullPointerException("No listener provided");
+		} else {
+			while (true) {
+				Listener[] current = listeners.get();
+				if (indexOf(current, listener) >= 0) {
+					return false;
+				} else {
+					Listener[] next = Arrays.copyOf(current, current.length + 1);
+					next[current.length] = listener;
+					if (listeners.compareAndSet(current, next)) {
+						return true;
+					} else {
+						// modified in the meantime, retry
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param listener
+	 *            the listener to unregister
+	 * @return <code>true</code> if the listener has been unregistered,
+	 *         <code>false</code> if it was not registered
+	 */
+	@Override
+	public boolean remove(Object listener) {
+		while (true) {
+			Listener[] current = listeners.get();
+			int index = indexOf(current, listener);
+			if (index < 0) {
+				return false;
+			} else {
+				Listener[] next = Arrays.copyOf(empty, current.length - 1);
+				System.arraycopy(current, 0, next, 0, index);
+				System.arraycopy(current, index + 1, next, index, next.length
+						- index);
+				if (listeners.compareAndSet(current, next)) {
+					return true;
+				} else {
+					// modified in the meantime, retry
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean contains(Object listener) {
+		return indexOf(listeners.get(), listener) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		listeners.set(empty);
+	}
+
+	@Override
+	public int size() {
+		return listeners.get().length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return listeners.get().length == 0;
+	}
+
+	@Override
+	public Iterator<Listener> iterator() {
+		final Listener[] snapshot = listeners.get();
+		return new Iterator<Listener>() {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < snapshot.length;
+			}
+
+			@Override
+			public Listener next() {
+				if (hasNext()) {
+					return snapshot[next++];
+				} else {
+					throw new NoSuchElementException();
+				}
+			}
+
+			@Override
+			public void remove() {
+				if (next == 0) {
+					throw new IllegalStateException("next() not called yet");
+				} else {
+					ListenerRegistry.this.remove(snapshot[next - 1]);
+				}
+			}
+		};
+	}
+
+	private static int indexOf(Object[] array, Object item) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i].equals(item)) {
+				return i;
+			} else {
+				// continue searching
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,383 @@
+package fr.vergne.data.access.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess.OverflowPolicy;
+
+public class AsyncPassiveReadAccessTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static class Recorder implements ValueListener<Integer> {
+
+		final List<Integer> values = Collections
+				.synchronizedList(new LinkedList<Integer>());
+		private final CountDownLatch expected;
+
+		public Recorder(int expectedCount) {
+			expected = new CountDownLatch(expectedCount);
+		}
+
+		@Override
+		public void valueGenerated(Integer value) {
+			values.add(value);
+			expected.countDown();
+		}
+
+		public void await() throws InterruptedException {
+			assertTrue(expected.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * A {@link ValueListener} which waits to be released before to consume
+	 * the values.
+	 */
+	private static class BlockedRecorder extends Recorder {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		public BlockedRecorder(int expectedCount) {
+			super(expectedCount);
+		}
+
+		@Override
+		public void valueGenerated(Integer value) {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			super.valueGenerated(value);
+		}
+	}
+
+	@Test
+	public void testListenerManagement() {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		Recorder recorder1 = new Recorder(0);
+		Recorder recorder2 = new Recorder(0);
+		assertEquals(0, access.getValueListeners().size());
+
+		access.addValueListener(recorder1);
+		access.addValueListener(recorder1);
+		assertEquals(1, access.getValueListeners().size());
+
+		access.addValueListener(recorder2);
+		assertEquals(2, access.getValueListeners().size());
+		assertTrue(access.getValueListeners().contains(recorder1));
+		assertTrue(access.getValueListeners().contains(recorder2));
+
+		access.removeValueListener(recorder1);
+		assertEquals(1, access.getValueListeners().size());
+		assertFalse(access.getValueListeners().contains(recorder1));
+
+		access.removeValueListener(recorder1);
+		assertEquals(1, access.getValueListeners().size());
+	}
+
+	@Test
+	public void testValuesReceivedInOrder() throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		int count = 10000;
+		Recorder recorder1 = new Recorder(count);
+		Recorder recorder2 = new Recorder(count);
+		access.addValueListener(recorder1);
+		access.addValueListener(recorder2);
+
+		List<Integer> expected = new LinkedList<Integer>();
+		for (int i = 0; i < count; i++) {
+			Integer value = i % 100 == 0 ? null : i;
+			expected.add(value);
+			access.notifyValueListeners(value);
+		}
+
+		recorder1.await();
+		recorder2.await();
+		assertEquals(expected, recorder1.values);
+		assertEquals(expected, recorder2.values);
+	}
+
+	@Test
+	public void testSlowListenerDoesNotDelayOthers()
+			throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		BlockedRecorder slow = new BlockedRecorder(3);
+		Recorder fast = new Recorder(3);
+		access.addValueListener(slow);
+		access.addValueListener(fast);
+
+		access.notifyValueListeners(1);
+		access.notifyValueListeners(2);
+		access.notifyValueListeners(3);
+		fast.await();
+		assertEquals(Arrays.asList(1, 2, 3), fast.values);
+		assertEquals(0, slow.values.size());
+
+		slow.release.countDown();
+		slow.await();
+		assertEquals(Arrays.asList(1, 2, 3), slow.values);
+	}
+
+	@Test
+	public void testDropNewestPolicy() throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor, 2, OverflowPolicy.DROP_NEWEST);
+		BlockedRecorder recorder = new BlockedRecorder(3);
+		access.addValueListener(recorder);
+
+		access.notifyValueListeners(1);
+		assertTrue(recorder.started.await(10, TimeUnit.SECONDS));
+		for (int i = 2; i <= 10; i++) {
+			access.notifyValueListeners(i);
+		}
+
+		recorder.release.countDown();
+		recorder.await();
+		Thread.sleep(100);
+		assertEquals(Arrays.asList(1, 2, 3), recorder.values);
+	}
+
+	@Test
+	public void testDropOldestPolicy() throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor, 2, OverflowPolicy.DROP_OLDEST);
+		BlockedRecorder recorder = new BlockedRecorder(3);
+		access.addValueListener(recorder);
+
+		access.notifyValueListeners(1);
+		assertTrue(recorder.started.await(10, TimeUnit.SECONDS));
+		for (int i = 2; i <= 10; i++) {
+			access.notifyValueListeners(i);
+		}
+
+		recorder.release.countDown();
+		recorder.await();
+		Thread.sleep(100);
+		assertEquals(Arrays.asList(1, 9, 10), recorder.values);
+	}
+
+	@Test
+	public void testBlockPolicy() throws InterruptedException {
+		final AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor, 2, OverflowPolicy.BLOCK);
+		BlockedRecorder recorder = new BlockedRecorder(10);
+		access.addValueListener(recorder);
+
+		access.notifyValueListeners(1);
+		assertTrue(recorder.started.await(10, TimeUnit.SECONDS));
+		final CountDownLatch notified = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 2; i <= 10; i++) {
+					access.notifyValueListeners(i);
+				}
+				notified.countDown();
+			}
+		});
+		producer.start();
+		assertFalse(notified.await(200, TimeUnit.MILLISECONDS));
+
+		recorder.release.countDown();
+		assertTrue(notified.await(10, TimeUnit.SECONDS));
+		recorder.await();
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10),
+				recorder.values);
+	}
+
+	@Test
+	public void testRemovedListenerNotNotifiedAnymore()
+			throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		BlockedRecorder recorder = new BlockedRecorder(1);
+		access.addValueListener(recorder);
+
+		access.notifyValueListeners(1);
+		assertTrue(recorder.started.await(10, TimeUnit.SECONDS));
+		access.notifyValueListeners(2);
+		access.removeValueListener(recorder);
+		access.notifyValueListeners(3);
+
+		recorder.release.countDown();
+		recorder.await();
+		Thread.sleep(100);
+		assertEquals(Arrays.asList(1), recorder.values);
+	}
+
+	@Test
+	public void testFailingListenerKeepsReceivingValues()
+			throws InterruptedException {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		final Recorder recorder = new Recorder(3);
+		access.addValueListener(new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				recorder.valueGenerated(value);
+				if (value == 1) {
+					throw new RuntimeException("Failure");
+				} else {
+					// no failure
+				}
+			}
+		});
+
+		Logger logger = Logger.getLogger(AsyncPassiveReadAccess.class
+				.getName());
+		final List<LogRecord> records = Collections
+				.synchronizedList(new LinkedList<LogRecord>());
+		Handler handler = new Handler() {
+
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		};
+		logger.addHandler(handler);
+		logger.setUseParentHandlers(false);
+		try {
+			access.notifyValueListeners(1);
+			access.notifyValueListeners(2);
+			access.notifyValueListeners(3);
+			recorder.await();
+		} finally {
+			logger.removeHandler(handler);
+			logger.setUseParentHandlers(true);
+		}
+		assertEquals(Arrays.asList(1, 2, 3), recorder.values);
+		assertEquals(1, records.size());
+		assertEquals("Failure", records.get(0).getThrown().getMessage());
+	}
+
+	@Test
+	public void testRejectedRescheduleLeftToNextNotification()
+			throws InterruptedException {
+		final List<Runnable> tasks = new LinkedList<Runnable>();
+		final boolean[] rejecting = { false };
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				new Executor() {
+
+					@Override
+					public void execute(Runnable command) {
+						if (rejecting[0]) {
+							throw new RejectedExecutionException();
+						} else {
+							tasks.add(command);
+						}
+					}
+				});
+		Recorder recorder = new Recorder(100);
+		access.addValueListener(recorder);
+		for (int i = 0; i < 100; i++) {
+			access.notifyValueListeners(i);
+		}
+		assertEquals(1, tasks.size());
+
+		rejecting[0] = true;
+		tasks.remove(0).run();
+		assertTrue(recorder.values.size() < 100);
+		assertTrue(tasks.isEmpty());
+
+		rejecting[0] = false;
+		access.notifyValueListeners(100);
+		while (!tasks.isEmpty()) {
+			tasks.remove(0).run();
+		}
+		recorder.await();
+		assertEquals(101, recorder.values.size());
+	}
+
+	@Test
+	public void testVirtualThreadExecutor() throws InterruptedException {
+		ExecutorService virtualExecutor = AsyncPassiveReadAccess
+				.createVirtualThreadExecutor();
+		try {
+			AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+					virtualExecutor);
+			Recorder recorder = new Recorder(100);
+			access.addValueListener(recorder);
+			for (int i = 0; i < 100; i++) {
+				access.notifyValueListeners(i);
+			}
+			recorder.await();
+			assertEquals(100, recorder.values.size());
+		} finally {
+			virtualExecutor.shutdown();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testListenersNotModifiableThroughCollection() {
+		AsyncPassiveReadAccess<Integer> access = new AsyncPassiveReadAccess<Integer>(
+				executor);
+		access.getValueListeners().add(new Recorder(1));
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new AsyncPassiveReadAccess<Integer>(null);
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+		try {
+			new AsyncPassiveReadAccess<Integer>(executor, 10, null);
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+		try {
+			new AsyncPassiveReadAccess<Integer>(executor, 0,
+					OverflowPolicy.BLOCK);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
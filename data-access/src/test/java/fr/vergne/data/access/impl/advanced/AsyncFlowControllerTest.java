@@ -0,0 +1,65 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
+
+public class AsyncFlowControllerTest {
+
+	@Test
+	public void testTransfer() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final int[] source = { 0 };
+			final int[] generations = { 0 };
+			AsyncFlowController<Integer> controller = new AsyncFlowController<Integer>(
+					new ValueGenerator<Integer>() {
+
+						@Override
+						public Integer generateValue() {
+							generations[0]++;
+							return source[0];
+						}
+					}, executor);
+
+			controller.transfer();
+			assertEquals(0, generations[0]);
+
+			final List<Integer> values = Collections
+					.synchronizedList(new LinkedList<Integer>());
+			final CountDownLatch received = new CountDownLatch(3);
+			controller.addValueListener(new ValueListener<Integer>() {
+
+				@Override
+				public void valueGenerated(Integer value) {
+					values.add(value);
+					received.countDown();
+				}
+			});
+
+			source[0] = 1;
+			controller.transfer();
+			source[0] = 2;
+			controller.transfer();
+			source[0] = 3;
+			controller.transfer();
+			assertEquals(3, generations[0]);
+			assertTrue(received.await(10, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList(1, 2, 3), values);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
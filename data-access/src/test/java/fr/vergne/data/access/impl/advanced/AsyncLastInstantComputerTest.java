@@ -0,0 +1,343 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+public class AsyncLastInstantComputerTest {
+
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static Computer<Integer> createSumComputer(
+			final AtomicInteger computations) {
+		return new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				computations.incrementAndGet();
+				int sum = 0;
+				for (Object input : inputs.values()) {
+					sum += (Integer) input;
+				}
+				return sum;
+			}
+		};
+	}
+
+	@Test
+	public void testGetReturnsNullBeforeFirstComputation() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return 3;
+					}
+				}, executor);
+
+		assertNull(computer.get());
+		release.countDown();
+		assertEquals(3, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+		assertEquals(3, (Object) computer.get());
+	}
+
+	@Test
+	public void testGetReturnsStaleOutputWhileRecomputing() throws Exception {
+		final ControlledProperty<Integer> source = new ControlledProperty<Integer>(
+				1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						Integer value = (Integer) inputs.get("a");
+						if (value == 2) {
+							started.countDown();
+							try {
+								release.await();
+							} catch (InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+						} else {
+							// compute immediately
+						}
+						return value * 10;
+					}
+				}, executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+		assertEquals(10, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+
+		source.set(2);
+		assertEquals(10, (Object) computer.get());
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		assertEquals(10, (Object) computer.get());
+		assertEquals(10, (Object) computer.get());
+
+		release.countDown();
+		assertEquals(20, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+		assertEquals(20, (Object) computer.get());
+	}
+
+	@Test
+	public void testNoRecomputeWhenInputsUnchanged() throws Exception {
+		AtomicInteger computations = new AtomicInteger();
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				createSumComputer(computations), executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+		assertEquals(1, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 100; i++) {
+			assertEquals(1, (Object) computer.get());
+		}
+		assertTrue(computer.getFresh().isDone());
+		assertEquals(1, computations.get());
+	}
+
+	@Test
+	public void testRefreshesDeduplicated() throws Exception {
+		final AtomicInteger computations = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						computations.incrementAndGet();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return (Integer) inputs.get("a");
+					}
+				}, executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+
+		Future<Integer> first = computer.getFresh();
+		for (int i = 0; i < 100; i++) {
+			computer.get();
+		}
+		Future<Integer> second = computer.getFresh();
+		release.countDown();
+		assertEquals(1, (Object) first.get(1, TimeUnit.SECONDS));
+		assertEquals(1, (Object) second.get(1, TimeUnit.SECONDS));
+		assertEquals(1, computations.get());
+	}
+
+	@Test
+	public void testGetFreshReflectsChangesMadeBeforeTheCall() throws Exception {
+		AtomicInteger computations = new AtomicInteger();
+		ControlledProperty<Integer> a = new ControlledProperty<Integer>(1);
+		ControlledProperty<Integer> b = new ControlledProperty<Integer>(2);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				createSumComputer(computations), executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) a);
+		computer.setSource("b", (ActiveReadAccess<Integer>) b);
+		assertEquals(3, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+
+		a.set(10);
+		assertEquals(12, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+		b.set(20);
+		assertEquals(30, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+		computer.removeSource("a");
+		assertEquals(20, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSupersededComputationCancelled() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger interruptions = new AtomicInteger();
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						Integer value = (Integer) inputs.get("a");
+						if (value == 1) {
+							started.countDown();
+							try {
+								Thread.sleep(10000);
+							} catch (InterruptedException e) {
+								interruptions.incrementAndGet();
+								throw new RuntimeException(e);
+							}
+						} else {
+							// compute immediately
+						}
+						return value;
+					}
+				}, executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+
+		Future<Integer> superseded = computer.getFresh();
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		source.set(2);
+		Future<Integer> fresh = computer.getFresh();
+
+		assertEquals(2, (Object) fresh.get(1, TimeUnit.SECONDS));
+		assertEquals(2, (Object) superseded.get(1, TimeUnit.SECONDS));
+		assertEquals(1, interruptions.get());
+		assertEquals(2, (Object) computer.get());
+	}
+
+	@Test
+	public void testComputationFailureProvidedByFuture() throws Exception {
+		final RuntimeException failure = new RuntimeException("test");
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						throw failure;
+					}
+				}, executor);
+
+		try {
+			computer.getFresh().get(1, TimeUnit.SECONDS);
+			fail("No exception thrown");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertNull(computer.get());
+	}
+
+	@Test
+	public void testComputerChangeTriggersRecompute() throws Exception {
+		AtomicInteger computations = new AtomicInteger();
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(3);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				createSumComputer(computations), executor);
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+		assertEquals(3, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+
+		Computer<Integer> doubler = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return 2 * (Integer) inputs.get("a");
+			}
+		};
+		computer.setComputer(doubler);
+		assertSame(doubler, computer.getComputer());
+		assertEquals(6, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRejectedComputationReportedThroughFuture()
+			throws Exception {
+		final AtomicBoolean accepting = new AtomicBoolean(true);
+		AtomicInteger computations = new AtomicInteger();
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				createSumComputer(computations), new Executor() {
+
+					@Override
+					public void execute(Runnable command) {
+						if (accepting.get()) {
+							executor.execute(command);
+						} else {
+							throw new RejectedExecutionException();
+						}
+					}
+				});
+		computer.setSource("a", (ActiveReadAccess<Integer>) source);
+		assertEquals(1, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+
+		accepting.set(false);
+		source.set(2);
+		assertEquals(1, (Object) computer.get());
+		assertEquals(1, (Object) computer.get());
+		try {
+			computer.getFresh().get(1, TimeUnit.SECONDS);
+			fail("No exception thrown");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(1, computations.get());
+
+		accepting.set(true);
+		assertEquals(2, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+		assertEquals(2, (Object) computer.get());
+	}
+
+	@Test
+	public void testSourcesAccessibleDuringComputation() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AsyncLastInstantComputer<Integer> computer = new AsyncLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return (Integer) inputs.get("a");
+					}
+				}, executor);
+		computer.setSource("a",
+				(ActiveReadAccess<Integer>) new ControlledProperty<Integer>(1));
+		Future<Integer> first = computer.getFresh();
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> setting = other.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					computer.setSource("a",
+							(ActiveReadAccess<Integer>) new ControlledProperty<Integer>(
+									2));
+				}
+			});
+			setting.get(1, TimeUnit.SECONDS);
+		} finally {
+			other.shutdownNow();
+			release.countDown();
+		}
+		assertEquals(1, (Object) first.get(1, TimeUnit.SECONDS));
+		assertEquals(2, (Object) computer.getFresh().get(1, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullExecutorRejected() {
+		new AsyncLastInstantComputer<Integer>(null);
+	}
+}
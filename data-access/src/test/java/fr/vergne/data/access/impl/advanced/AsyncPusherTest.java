@@ -0,0 +1,81 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+
+public class AsyncPusherTest {
+
+	@Test
+	public void testSetNotifications() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final List<Integer> values = Collections
+					.synchronizedList(new LinkedList<Integer>());
+			final CountDownLatch received = new CountDownLatch(4);
+			ValueListener<Integer> listener = new ValueListener<Integer>() {
+
+				@Override
+				public void valueGenerated(Integer value) {
+					values.add(value);
+					received.countDown();
+				}
+			};
+
+			AsyncPusher<Integer> pusher = new AsyncPusher<Integer>(executor);
+			pusher.set(0);
+			pusher.addValueListener(listener);
+			pusher.set(3);
+			pusher.set(-10);
+			pusher.set(null);
+			pusher.set(1);
+			assertTrue(received.await(10, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList(3, -10, null, 1), values);
+
+			pusher.removeValueListener(listener);
+			pusher.set(2);
+			Thread.sleep(100);
+			assertEquals(Arrays.asList(3, -10, null, 1), values);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSetDoesNotWaitForListeners() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch release = new CountDownLatch(1);
+			AsyncPusher<Integer> pusher = new AsyncPusher<Integer>(executor);
+			pusher.addValueListener(new ValueListener<Integer>() {
+
+				@Override
+				public void valueGenerated(Integer value) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+
+			for (int i = 0; i < 100; i++) {
+				pusher.set(i);
+			}
+			release.countDown();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.impl.advanced.AtomicControlledProperty.Accumulator;
+import fr.vergne.data.access.impl.advanced.AtomicControlledProperty.Updater;
+
+public class AtomicControlledPropertyTest {
+
+	private static final Updater<Integer> INCREMENT = new Updater<Integer>() {
+
+		@Override
+		public Integer update(Integer value) {
+			return value + 1;
+		}
+	};
+
+	private static final Accumulator<Integer> SUM = new Accumulator<Integer>() {
+
+		@Override
+		public Integer accumulate(Integer value, Integer operand) {
+			return value + operand;
+		}
+	};
+
+	@Test
+	public void testSetGetAlignment() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>();
+
+		property.set(3);
+		assertEquals(3, (Object) property.get());
+
+		property.set(-60);
+		assertEquals(-60, (Object) property.get());
+
+		property.set(null);
+		assertEquals(null, (Object) property.get());
+
+		property.set(0);
+		assertEquals(0, (Object) property.get());
+	}
+
+	@Test
+	public void testNullValueOnImplicitCreation() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>();
+		assertNull(property.get());
+	}
+
+	@Test
+	public void testInitialValue() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>(
+				5);
+		assertEquals(5, (Object) property.get());
+	}
+
+	@Test
+	public void testCompareAndSet() {
+		String a = "a";
+		String b = "b";
+		AtomicControlledProperty<String> property = new AtomicControlledProperty<String>(
+				a);
+
+		assertFalse(property.compareAndSet(b, b));
+		assertSame(a, property.get());
+
+		assertTrue(property.compareAndSet(a, b));
+		assertSame(b, property.get());
+
+		// equal but not the same
+		assertFalse(property.compareAndSet(new String("b"), a));
+		assertSame(b, property.get());
+	}
+
+	@Test
+	public void testGetAndSet() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>(
+				1);
+
+		assertEquals(1, (Object) property.getAndSet(2));
+		assertEquals(2, (Object) property.get());
+
+		assertEquals(2, (Object) property.getAndSet(null));
+		assertEquals(null, (Object) property.get());
+	}
+
+	@Test
+	public void testUpdateAndGet() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>(
+				1);
+
+		assertEquals(2, (Object) property.updateAndGet(INCREMENT));
+		assertEquals(2, (Object) property.get());
+
+		assertEquals(3, (Object) property.updateAndGet(INCREMENT));
+		assertEquals(3, (Object) property.get());
+	}
+
+	@Test
+	public void testAccumulateAndGet() {
+		AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>(
+				1);
+
+		assertEquals(6, (Object) property.accumulateAndGet(5, SUM));
+		assertEquals(6, (Object) property.get());
+
+		assertEquals(-4, (Object) property.accumulateAndGet(-10, SUM));
+		assertEquals(-4, (Object) property.get());
+	}
+
+	@Test
+	public void testNoLostUpdateWithConcurrentWriters() throws InterruptedException {
+		final AtomicControlledProperty<Integer> property = new AtomicControlledProperty<Integer>(
+				0);
+		final int threadsCount = 4;
+		final int updatesCount = 10000;
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int t = 0; t < threadsCount; t++) {
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < updatesCount; i++) {
+						property.updateAndGet(INCREMENT);
+						property.accumulateAndGet(1, SUM);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(2 * threadsCount * updatesCount, (Object) property.get());
+	}
+}
@@ -0,0 +1,343 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.impl.advanced.ComputationGraph.Node;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+public class ComputationGraphTest {
+
+	private static class CountingComputer implements Computer<Integer> {
+
+		private final int factor;
+		private int count = 0;
+
+		public CountingComputer(int factor) {
+			this.factor = factor;
+		}
+
+		@Override
+		public Integer compute(Map<Object, Object> inputs) {
+			count++;
+			int sum = 0;
+			for (Object input : inputs.values()) {
+				sum += (Integer) input;
+			}
+			return sum * factor;
+		}
+	}
+
+	@Test
+	public void testAddReturnsSameNodeForSameComputer() {
+		ComputationGraph graph = new ComputationGraph();
+		LastInstantComputer<Integer> computer = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		Node<Integer> node = graph.add(computer);
+		assertSame(node, graph.add(computer));
+		assertSame(node, graph.getNode(computer));
+		assertSame(computer, node.getComputer());
+		assertEquals(1, graph.getNodes().size());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testAddWithoutComputerRejected() {
+		new ComputationGraph().add(null);
+	}
+
+	@Test
+	public void testNodeProvidesOutputOfLastPropagation() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		LastInstantComputer<Integer> computer = new LastInstantComputer<Integer>(
+				new CountingComputer(10));
+		computer.setSource("x", source);
+
+		ComputationGraph graph = new ComputationGraph();
+		Node<Integer> node = graph.add(computer);
+		assertNull(node.get());
+
+		graph.propagate();
+		assertEquals(10, (Object) node.get());
+
+		source.set(2);
+		assertEquals(10, (Object) node.get());
+		graph.propagate();
+		assertEquals(20, (Object) node.get());
+	}
+
+	@Test
+	public void testDiamondComputedOnceInDependencyOrder() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		CountingComputer a = new CountingComputer(1);
+		CountingComputer b = new CountingComputer(2);
+		CountingComputer c = new CountingComputer(3);
+		final int[] glitches = { 0 };
+		CountingComputer d = new CountingComputer(1) {
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				// b = 2a and c = 3a, so both should come from the same a
+				int fromB = (Integer) inputs.get("b") / 2;
+				int fromC = (Integer) inputs.get("c") / 3;
+				if (fromB != fromC) {
+					glitches[0]++;
+				} else {
+					// consistent inputs
+				}
+				return super.compute(inputs);
+			}
+		};
+		LastInstantComputer<Integer> computerA = new LastInstantComputer<Integer>(
+				a);
+		LastInstantComputer<Integer> computerB = new LastInstantComputer<Integer>(
+				b);
+		LastInstantComputer<Integer> computerC = new LastInstantComputer<Integer>(
+				c);
+		LastInstantComputer<Integer> computerD = new LastInstantComputer<Integer>(
+				d);
+		computerA.setSource("x", source);
+		computerB.setSource("a", computerA);
+		computerC.setSource("a", computerA);
+		computerD.setSource("b", computerB);
+		computerD.setSource("c", computerC);
+
+		// added in reverse order to check the sorting
+		ComputationGraph graph = new ComputationGraph();
+		Node<Integer> nodeD = graph.add(computerD);
+		graph.add(computerC);
+		graph.add(computerB);
+		graph.add(computerA);
+
+		graph.propagate();
+		assertEquals(5, (Object) nodeD.get());
+		assertEquals(1, a.count);
+		assertEquals(1, b.count);
+		assertEquals(1, c.count);
+		assertEquals(1, d.count);
+
+		for (int i = 2; i < 10; i++) {
+			source.set(i);
+			graph.propagate();
+			assertEquals(5 * i, (Object) nodeD.get());
+			assertEquals(i, a.count);
+			assertEquals(i, b.count);
+			assertEquals(i, c.count);
+			assertEquals(i, d.count);
+		}
+		assertEquals(0, glitches[0]);
+	}
+
+	@Test
+	public void testOnlyDirtyNodesRecomputed() {
+		ControlledProperty<Integer> source1 = new ControlledProperty<Integer>(1);
+		ControlledProperty<Integer> source2 = new ControlledProperty<Integer>(1);
+		CountingComputer a1 = new CountingComputer(1);
+		CountingComputer b1 = new CountingComputer(1);
+		CountingComputer a2 = new CountingComputer(1);
+		CountingComputer b2 = new CountingComputer(1);
+		LastInstantComputer<Integer> computerA1 = new LastInstantComputer<Integer>(
+				a1);
+		LastInstantComputer<Integer> computerB1 = new LastInstantComputer<Integer>(
+				b1);
+		LastInstantComputer<Integer> computerA2 = new LastInstantComputer<Integer>(
+				a2);
+		LastInstantComputer<Integer> computerB2 = new LastInstantComputer<Integer>(
+				b2);
+		computerA1.setSource("x", source1);
+		computerB1.setSource("a", computerA1);
+		computerA2.setSource("x", source2);
+		computerB2.setSource("a", computerA2);
+
+		ComputationGraph graph = new ComputationGraph();
+		graph.add(computerA1);
+		graph.add(computerB1);
+		graph.add(computerA2);
+		graph.add(computerB2);
+		graph.propagate();
+		graph.propagate();
+		assertEquals(1, a1.count);
+		assertEquals(1, b1.count);
+		assertEquals(1, a2.count);
+		assertEquals(1, b2.count);
+
+		source1.set(2);
+		graph.propagate();
+		assertEquals(2, a1.count);
+		assertEquals(2, b1.count);
+		assertEquals(1, a2.count);
+		assertEquals(1, b2.count);
+	}
+
+	private static class CheckedComputer extends LastInstantComputer<Integer> {
+
+		private int checks = 0;
+
+		public CheckedComputer(Computer<Integer> computer) {
+			super(computer);
+		}
+
+		@Override
+		public Integer get() {
+			checks++;
+			return super.get();
+		}
+	}
+
+	@Test
+	public void testCleanNodesNeverChecked() {
+		ReactiveControlledProperty<Integer> source1 = new ReactiveControlledProperty<Integer>(
+				1);
+		ReactiveControlledProperty<Integer> source2 = new ReactiveControlledProperty<Integer>(
+				1);
+		CheckedComputer computerA1 = new CheckedComputer(new CountingComputer(1));
+		CheckedComputer computerB1 = new CheckedComputer(new CountingComputer(1));
+		CheckedComputer computerA2 = new CheckedComputer(new CountingComputer(1));
+		CheckedComputer computerB2 = new CheckedComputer(new CountingComputer(1));
+		computerA1.setSource("x", source1);
+		computerB1.setSource("a", computerA1);
+		computerA2.setSource("x", source2);
+		computerB2.setSource("a", computerA2);
+
+		ComputationGraph graph = new ComputationGraph();
+		graph.add(computerA1);
+		Node<Integer> nodeB1 = graph.add(computerB1);
+		graph.add(computerA2);
+		graph.add(computerB2);
+		graph.propagate();
+		computerA1.checks = 0;
+		computerB1.checks = 0;
+		computerA2.checks = 0;
+		computerB2.checks = 0;
+
+		graph.propagate();
+		assertEquals(0, computerA1.checks);
+		assertEquals(0, computerB1.checks);
+		assertEquals(0, computerA2.checks);
+		assertEquals(0, computerB2.checks);
+
+		source1.set(2);
+		graph.propagate();
+		assertEquals(2, (Object) nodeB1.get());
+		assertEquals(1, computerA1.checks);
+		assertEquals(1, computerB1.checks);
+		assertEquals(0, computerA2.checks);
+		assertEquals(0, computerB2.checks);
+	}
+
+	@Test
+	public void testNonReactiveSourcesPolled() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		CheckedComputer computer = new CheckedComputer(new CountingComputer(1));
+		computer.setSource("x", source);
+
+		ComputationGraph graph = new ComputationGraph();
+		Node<Integer> node = graph.add(computer);
+		graph.propagate();
+		graph.propagate();
+		assertEquals(2, computer.checks);
+
+		source.set(2);
+		graph.propagate();
+		assertEquals(2, (Object) node.get());
+	}
+
+	@Test
+	public void testUnchangedOutputDoesNotRecomputeDownstream() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		CountingComputer a = new CountingComputer(0);
+		CountingComputer b = new CountingComputer(1);
+		LastInstantComputer<Integer> computerA = new LastInstantComputer<Integer>(
+				a);
+		LastInstantComputer<Integer> computerB = new LastInstantComputer<Integer>(
+				b);
+		computerA.setSource("x", source);
+		computerB.setSource("a", computerA);
+
+		ComputationGraph graph = new ComputationGraph();
+		graph.add(computerA);
+		graph.add(computerB);
+		graph.propagate();
+
+		source.set(2);
+		graph.propagate();
+		assertEquals(2, a.count);
+		assertEquals(1, b.count);
+	}
+
+	@Test
+	public void testCycleRejected() {
+		LastInstantComputer<Integer> computerA = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		LastInstantComputer<Integer> computerB = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		computerA.setSource("b", computerB);
+		computerB.setSource("a", computerA);
+
+		ComputationGraph graph = new ComputationGraph();
+		graph.add(computerA);
+		graph.add(computerB);
+		try {
+			graph.propagate();
+			fail("No exception thrown.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRemoveRestoresSources() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		LastInstantComputer<Integer> computerA = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		LastInstantComputer<Integer> computerB = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		computerA.setSource("x", source);
+		computerB.setSource("a", computerA);
+
+		ComputationGraph graph = new ComputationGraph();
+		Node<Integer> nodeA = graph.add(computerA);
+		graph.add(computerB);
+		graph.propagate();
+		assertSame(nodeA, computerB.getSource("a"));
+
+		graph.remove(computerA);
+		assertSame(computerA, computerB.getSource("a"));
+		assertNull(graph.getNode(computerA));
+
+		source.set(3);
+		graph.propagate();
+		assertEquals(3, (Object) graph.getNode(computerB).get());
+
+		graph.add(computerA);
+		graph.propagate();
+		graph.remove(computerB);
+		assertSame(computerA, computerB.getSource("a"));
+	}
+
+	@Test
+	public void testRebuildConsidersSourcesSetDirectly() {
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		CountingComputer a = new CountingComputer(1);
+		LastInstantComputer<Integer> computerA = new LastInstantComputer<Integer>(
+				a);
+		LastInstantComputer<Integer> computerB = new LastInstantComputer<Integer>(
+				new CountingComputer(1));
+		computerA.setSource("x", source);
+		computerB.setSource("y", new ControlledProperty<Integer>(0));
+
+		ComputationGraph graph = new ComputationGraph();
+		Node<Integer> nodeB = graph.add(computerB);
+		graph.add(computerA);
+		graph.propagate();
+		assertEquals(0, (Object) nodeB.get());
+
+		computerB.setSource("a", computerA);
+		graph.rebuild();
+		graph.propagate();
+		assertEquals(1, (Object) nodeB.get());
+		assertSame(graph.getNode(computerA), computerB.getSource("a"));
+		assertEquals(1, a.count);
+	}
+}
@@ -0,0 +1,236 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.impl.advanced.ConcurrentLastInstantComputer.ContentionPolicy;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+public class ConcurrentLastInstantComputerTest {
+
+	private static class Sum implements Computer<Integer> {
+
+		private final AtomicInteger computations = new AtomicInteger(0);
+
+		@Override
+		public Integer compute(Map<Object, Object> inputs) {
+			computations.incrementAndGet();
+			int sum = 0;
+			for (Object input : inputs.values()) {
+				sum += (Integer) input;
+			}
+			return sum;
+		}
+	}
+
+	@Test
+	public void testRecomputationOnlyWhenChanged() {
+		Sum sum = new Sum();
+		ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>(
+				sum);
+		AtomicControlledProperty<Integer> source1 = new AtomicControlledProperty<Integer>(
+				1);
+		AtomicControlledProperty<Integer> source2 = new AtomicControlledProperty<Integer>(
+				2);
+		access.setSource(1, source1);
+		access.setSource(2, source2);
+
+		assertEquals(3, (Object) access.get());
+		assertEquals(1, sum.computations.get());
+		assertEquals(3, (Object) access.get());
+		assertEquals(1, sum.computations.get());
+
+		source1.set(5);
+		assertEquals(7, (Object) access.get());
+		assertEquals(2, sum.computations.get());
+		assertEquals(7, (Object) access.get());
+		assertEquals(2, sum.computations.get());
+
+		source1.set(3);
+		source1.set(5);
+		assertEquals(7, (Object) access.get());
+		assertEquals(2, sum.computations.get());
+
+		access.removeSource(2);
+		assertEquals(5, (Object) access.get());
+		assertEquals(3, sum.computations.get());
+
+		access.setSource(3, new AtomicControlledProperty<Integer>(10));
+		assertEquals(15, (Object) access.get());
+		assertEquals(4, sum.computations.get());
+	}
+
+	@Test
+	public void testRecomputationWhenComputerChanged() {
+		ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>(
+				new Sum());
+		access.setSource(1, new AtomicControlledProperty<Integer>(1));
+		assertEquals(1, (Object) access.get());
+
+		access.setComputer(new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return -1;
+			}
+		});
+		assertEquals(-1, (Object) access.get());
+	}
+
+	@Test
+	public void testNoComputerException() {
+		ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>();
+		try {
+			access.get();
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testRecomputationAfterComputerFailure() {
+		final boolean[] fail = { true };
+		ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						if (fail[0]) {
+							throw new RuntimeException("Failure");
+						} else {
+							return 1;
+						}
+					}
+				});
+		access.setSource(1, new AtomicControlledProperty<Integer>(1));
+		try {
+			access.get();
+			fail("No exception thrown");
+		} catch (RuntimeException e) {
+		}
+
+		fail[0] = false;
+		assertEquals(1, (Object) access.get());
+	}
+
+	@Test
+	public void testSingleComputationForConcurrentCalls()
+			throws InterruptedException {
+		final int threadsCount = 8;
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger computations = new AtomicInteger(0);
+		final ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						computations.incrementAndGet();
+						started.countDown();
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return (Integer) inputs.get(1) * 2;
+					}
+				});
+		access.setSource(1, new AtomicControlledProperty<Integer>(21));
+
+		final Object[] outputs = new Object[threadsCount];
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int t = 0; t < threadsCount; t++) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					outputs[thread] = access.get();
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, computations.get());
+		for (Object output : outputs) {
+			assertEquals(42, output);
+		}
+	}
+
+	@Test
+	public void testPreviousOutputReturnedDuringComputation()
+			throws InterruptedException {
+		final CountDownLatch computing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						Integer input = (Integer) inputs.get(1);
+						if (input == 2) {
+							computing.countDown();
+							try {
+								release.await();
+							} catch (InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+						} else {
+							// compute immediately
+						}
+						return input * 10;
+					}
+				});
+		access.setContentionPolicy(ContentionPolicy.RETURN_PREVIOUS_OUTPUT);
+		AtomicControlledProperty<Integer> source = new AtomicControlledProperty<Integer>(
+				1);
+		access.setSource(1, source);
+		assertEquals(10, (Object) access.get());
+
+		source.set(2);
+		final Object[] output = { null };
+		Thread computer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				output[0] = access.get();
+			}
+		});
+		computer.start();
+		assertTrue(computing.await(10, TimeUnit.SECONDS));
+
+		assertEquals(10, (Object) access.get());
+
+		release.countDown();
+		computer.join();
+		assertEquals(20, output[0]);
+		assertEquals(20, (Object) access.get());
+	}
+
+	@Test
+	public void testContentionPolicy() {
+		ConcurrentLastInstantComputer<Integer> access = new ConcurrentLastInstantComputer<Integer>();
+		assertEquals(ContentionPolicy.WAIT_FOR_RESULT,
+				access.getContentionPolicy());
+		access.setContentionPolicy(ContentionPolicy.RETURN_PREVIOUS_OUTPUT);
+		assertEquals(ContentionPolicy.RETURN_PREVIOUS_OUTPUT,
+				access.getContentionPolicy());
+		try {
+			access.setContentionPolicy(null);
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+	}
+}
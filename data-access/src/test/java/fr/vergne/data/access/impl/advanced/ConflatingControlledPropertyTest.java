@@ -0,0 +1,235 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+
+public class ConflatingControlledPropertyTest {
+
+	private static class Recorder implements ValueListener<Integer> {
+		final List<Integer> values = Collections
+				.synchronizedList(new LinkedList<Integer>());
+
+		@Override
+		public void valueGenerated(Integer value) {
+			values.add(value);
+		}
+	}
+
+	@Test
+	public void testSetGet() {
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>();
+		assertNull(property.get());
+		property.set(3);
+		assertEquals(3, (Object) property.get());
+		property.set(null);
+		assertNull(property.get());
+
+		property = new ConflatingControlledProperty<Integer>(5, null);
+		assertEquals(5, (Object) property.get());
+	}
+
+	@Test
+	public void testWritesConflatedUntilFlush() {
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>();
+		Recorder recorder = new Recorder();
+		property.addValueListener(recorder);
+		assertFalse(property.isDirty());
+		assertFalse(property.flush());
+		assertEquals(0, recorder.values.size());
+
+		for (int i = 0; i < 1000; i++) {
+			property.set(i);
+		}
+		assertTrue(property.isDirty());
+		assertEquals(0, recorder.values.size());
+
+		assertTrue(property.flush());
+		assertFalse(property.isDirty());
+		assertEquals(Arrays.asList(999), recorder.values);
+
+		assertFalse(property.flush());
+		assertEquals(Arrays.asList(999), recorder.values);
+
+		property.set(1);
+		property.set(2);
+		assertTrue(property.flush());
+		assertEquals(Arrays.asList(999, 2), recorder.values);
+	}
+
+	@Test
+	public void testFailedCompareAndSetDoesNotMarkDirty() {
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>(
+				1, null);
+		assertFalse(property.compareAndSet(2, 3));
+		assertFalse(property.isDirty());
+		assertTrue(property.compareAndSet(1, 3));
+		assertTrue(property.isDirty());
+	}
+
+	@Test
+	public void testDrainSubmittedOncePerDirtyPeriod() {
+		final List<Runnable> tasks = new LinkedList<Runnable>();
+		Executor executor = new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		};
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>(
+				executor);
+		Recorder recorder = new Recorder();
+		property.addValueListener(recorder);
+
+		property.set(1);
+		property.set(2);
+		property.set(3);
+		assertEquals(1, tasks.size());
+
+		tasks.remove(0).run();
+		assertEquals(Arrays.asList(3), recorder.values);
+
+		property.set(4);
+		assertEquals(1, tasks.size());
+		property.flush();
+		assertEquals(Arrays.asList(3, 4), recorder.values);
+		tasks.remove(0).run();
+		assertEquals(Arrays.asList(3, 4), recorder.values);
+	}
+
+	@Test
+	public void testRejectedDrainKeepsValueDirty() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>(
+				executor);
+		Recorder recorder = new Recorder();
+		property.addValueListener(recorder);
+
+		property.set(1);
+		property.set(2);
+		assertEquals(2, (Object) property.get());
+		assertTrue(property.isDirty());
+
+		assertTrue(property.flush());
+		assertEquals(Arrays.asList(2), recorder.values);
+	}
+
+	@Test
+	public void testRejectedDrainSubmittedAgainAtNextWrite() {
+		final List<Runnable> tasks = new LinkedList<Runnable>();
+		final boolean[] rejecting = { true };
+		ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>(
+				new Executor() {
+
+					@Override
+					public void execute(Runnable command) {
+						if (rejecting[0]) {
+							throw new RejectedExecutionException();
+						} else {
+							tasks.add(command);
+						}
+					}
+				});
+		Recorder recorder = new Recorder();
+		property.addValueListener(recorder);
+
+		property.set(1);
+		assertTrue(tasks.isEmpty());
+		rejecting[0] = false;
+		property.set(2);
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertEquals(Arrays.asList(2), recorder.values);
+	}
+
+	@Test
+	public void testExecutorNotifiesLatestValue() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>(
+					executor);
+			final CountDownLatch last = new CountDownLatch(1);
+			final Recorder recorder = new Recorder();
+			property.addValueListener(new ValueListener<Integer>() {
+
+				@Override
+				public void valueGenerated(Integer value) {
+					recorder.valueGenerated(value);
+					if (value == 9999) {
+						last.countDown();
+					} else {
+						// wait for the last value
+					}
+				}
+			});
+
+			for (int i = 0; i < 10000; i++) {
+				property.set(i);
+			}
+			assertTrue(last.await(10, TimeUnit.SECONDS));
+
+			int previous = -1;
+			for (Integer value : recorder.values) {
+				assertTrue(value > previous);
+				previous = value;
+			}
+			assertTrue(recorder.values.size() <= 10000);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testLastValueNotifiedDespiteConcurrentDrains()
+			throws InterruptedException {
+		for (int round = 0; round < 1000; round++) {
+			final ConflatingControlledProperty<Integer> property = new ConflatingControlledProperty<Integer>();
+			Recorder recorder = new Recorder();
+			property.addValueListener(recorder);
+			final boolean[] stopped = { false };
+			Thread drainer = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while (true) {
+						synchronized (stopped) {
+							if (stopped[0]) {
+								return;
+							} else {
+								// drain again
+							}
+						}
+						property.flush();
+					}
+				}
+			});
+			drainer.start();
+			for (int i = 0; i < 100; i++) {
+				property.set(i);
+			}
+			synchronized (stopped) {
+				stopped[0] = true;
+			}
+			drainer.join();
+
+			property.flush();
+			assertEquals(99, (Object) recorder.values
+					.get(recorder.values.size() - 1));
+		}
+	}
+}
@@ -29,4 +29,22 @@ public class ControlledPropertyTest {
 		assertNull(property.get());
 	}
 
+	@Test
+	public void testVersionIncreasedAtEachSet() {
+		ControlledProperty<Integer> property = new ControlledProperty<Integer>();
+		long version = property.version();
+		assertEquals(version, property.version());
+
+		property.set(3);
+		assertTrue(property.version() > version);
+		version = property.version();
+
+		property.set(3);
+		assertTrue(property.version() > version);
+		version = property.version();
+
+		property.get();
+		assertEquals(version, property.version());
+	}
+
 }
@@ -38,4 +38,41 @@ public class FlowControllerTest {
 		assertTrue(source[0] == target[0]);
 	}
 
+	@Test
+	public void testListenersModifiedDuringTransfer() {
+		final FlowController<Integer> controller = new FlowController<Integer>(
+				new ValueGenerator<Integer>() {
+
+					@Override
+					public Integer generateValue() {
+						return 1;
+					}
+				});
+		final int[] counts = { 0, 0 };
+		final ValueListener<Integer> other = new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				counts[1]++;
+			}
+		};
+		controller.addValueListener(new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				counts[0]++;
+				controller.removeValueListener(this);
+				controller.addValueListener(other);
+			}
+		});
+
+		controller.transfer();
+		assertEquals(1, counts[0]);
+		assertEquals(0, counts[1]);
+
+		controller.transfer();
+		assertEquals(1, counts[0]);
+		assertEquals(1, counts[1]);
+	}
+
 }
@@ -0,0 +1,247 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+
+/**
+ * These tests check that the hot paths of the accesses do not allocate
+ * anything once the JVM is warmed up. The allocations are measured through
+ * the {@link com.sun.management.ThreadMXBean} of the current thread, so these
+ * tests are ignored on JVMs which do not support it.
+ */
+public class HotPathAllocationTest {
+
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int OPERATIONS = 100000;
+
+	private static final Integer[] VALUES = new Integer[1024];
+	static {
+		for (int i = 0; i < VALUES.length; i++) {
+			VALUES[i] = Integer.valueOf(i);
+		}
+	}
+
+	private com.sun.management.ThreadMXBean bean;
+
+	private static interface Operation {
+		public void run(int index);
+	}
+
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		bean = (com.sun.management.ThreadMXBean) threadBean;
+		assumeTrue(bean.isThreadAllocatedMemorySupported());
+		bean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Execute the {@link Operation} enough to have it compiled, then measure
+	 * the bytes allocated by the current thread over {@link #OPERATIONS}
+	 * executions.
+	 *
+	 * @return the average number of bytes allocated per execution
+	 */
+	private long measureBytesPerOperation(Operation operation) {
+		long threadId = Thread.currentThread().getId();
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			execute(operation);
+		}
+		long before = bean.getThreadAllocatedBytes(threadId);
+		execute(operation);
+		long after = bean.getThreadAllocatedBytes(threadId);
+		return (after - before) / OPERATIONS;
+	}
+
+	private void execute(Operation operation) {
+		for (int i = 0; i < OPERATIONS; i++) {
+			operation.run(i);
+		}
+	}
+
+	private static Integer value(int index) {
+		return VALUES[index & (VALUES.length - 1)];
+	}
+
+	private static <Value> ValueListener<Value> createListener(
+			final Object[] sink) {
+		return new ValueListener<Value>() {
+
+			@Override
+			public void valueGenerated(Value value) {
+				sink[0] = value;
+			}
+		};
+	}
+
+	@Test
+	public void testControlledPropertyGetSetDoesNotAllocate() {
+		final ControlledProperty<Integer> property = new ControlledProperty<Integer>();
+		final Object[] sink = { null };
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				property.set(value(index));
+				sink[0] = property.get();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testPusherSetDoesNotAllocate() {
+		final Pusher<Integer> pusher = new Pusher<Integer>();
+		Object[] sink = { null };
+		for (int i = 0; i < 10; i++) {
+			pusher.addValueListener(HotPathAllocationTest
+					.<Integer> createListener(sink));
+		}
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				pusher.set(value(index));
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testFlowControllerTransferDoesNotAllocate() {
+		final int[] counter = { 0 };
+		final FlowController<Integer> controller = new FlowController<Integer>(
+				new ValueGenerator<Integer>() {
+
+					@Override
+					public Integer generateValue() {
+						return value(counter[0]++);
+					}
+				});
+		Object[] sink = { null };
+		for (int i = 0; i < 10; i++) {
+			controller.addValueListener(HotPathAllocationTest
+					.<Integer> createListener(sink));
+		}
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				controller.transfer();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testLastInstantComputerGetWithoutChangeDoesNotAllocate() {
+		final LastInstantComputer<Integer> computer = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return inputs.size();
+					}
+				});
+		for (int i = 0; i < 100; i++) {
+			computer.setSource(i, new ControlledProperty<Integer>(value(i)));
+		}
+		final Object[] sink = { null };
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				sink[0] = computer.get();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testConcurrentLastInstantComputerGetWithoutChangeDoesNotAllocate() {
+		final ConcurrentLastInstantComputer<Integer> computer = new ConcurrentLastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return inputs.size();
+					}
+				});
+		for (int i = 0; i < 100; i++) {
+			computer.setSource(i, new AtomicControlledProperty<Integer>(
+					value(i)));
+		}
+		final Object[] sink = { null };
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				sink[0] = computer.get();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testLastInstantComputerGetWithReactiveSourcesDoesNotAllocate() {
+		final LastInstantComputer<Integer> computer = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return inputs.size();
+					}
+				});
+		for (int i = 0; i < 100; i++) {
+			computer.setSource(i, new ReactiveControlledProperty<Integer>(
+					value(i)));
+		}
+		final Object[] sink = { null };
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				sink[0] = computer.get();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+
+	@Test
+	public void testLastInstantComputerGetWithLoggingObserverDoesNotAllocate() {
+		final LastInstantComputer<Integer> computer = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return inputs.size();
+					}
+				});
+		for (int i = 0; i < 100; i++) {
+			computer.setSource(i, new ControlledProperty<Integer>(value(i)));
+		}
+		// the default level does not log the reused outputs
+		computer.setObserver(new LoggingComputationObserver<Integer>());
+		final Object[] sink = { null };
+		long bytes = measureBytesPerOperation(new Operation() {
+
+			@Override
+			public void run(int index) {
+				sink[0] = computer.get();
+			}
+		});
+		assertEquals(0, bytes);
+	}
+}
@@ -2,10 +2,22 @@ package fr.vergne.data.access.impl.advanced;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -15,7 +27,11 @@ import fr.vergne.data.access.PassiveWriteAccess;
 import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
 import fr.vergne.data.access.PropertyAccess;
 import fr.vergne.data.access.impl.SimplePassiveWriteAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.ComputationObserver;
 import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.IncrementalComputer;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.InputChange;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.RecomputeReason;
 
 public class LastInstantComputerTest {
 
@@ -453,6 +469,31 @@ public class LastInstantComputerTest {
 		assertFalse(isRecomputed[0]);
 	}
 
+	@Test
+	public void testNoRecomputationWhenEqualValueSet() {
+		LastInstantComputer<String> access = new LastInstantComputer<String>();
+		ControlledProperty<String> source = new ControlledProperty<String>("x");
+		access.setSource(1, source);
+		final int[] count = { 0 };
+		access.setComputer(new Computer<String>() {
+
+			@Override
+			public String compute(Map<Object, Object> inputs) {
+				count[0]++;
+				return (String) inputs.get(1);
+			}
+		});
+		assertEquals("x", access.get());
+
+		source.set(new String("x"));
+		assertEquals("x", access.get());
+		assertEquals(1, count[0]);
+
+		source.set("y");
+		assertEquals("y", access.get());
+		assertEquals(2, count[0]);
+	}
+
 	@Test
 	public void testNoRecomputationWhenSourceChangedButSameValue() {
 		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>();
@@ -703,4 +744,1033 @@ public class LastInstantComputerTest {
 		access.get();
 		assertEquals(0, keys.size());
 	}
+
+	@Test
+	public void testRecomputationAfterComputerFailure() {
+		final boolean[] fail = { true };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						if (fail[0]) {
+							throw new RuntimeException("Failure");
+						} else {
+							return 1;
+						}
+					}
+				});
+		access.setSource(1, new ControlledProperty<Integer>(1));
+		try {
+			access.get();
+			fail("No exception thrown");
+		} catch (RuntimeException e) {
+		}
+
+		fail[0] = false;
+		assertEquals(1, (Object) access.get());
+	}
+
+	@Test
+	public void testNotifyingSourcesNotReadWithoutNotification() {
+		final int[] reads = { 0 };
+		ReactiveControlledProperty<Integer> reactive = new ReactiveControlledProperty<Integer>(
+				1) {
+			@Override
+			public Integer get() {
+				reads[0]++;
+				return super.get();
+			}
+		};
+		Pusher<Integer> pusher = new Pusher<Integer>();
+		final int[] computations = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						computations[0]++;
+						Integer pushed = (Integer) inputs.get(2);
+						return (Integer) inputs.get(1)
+								+ (pushed == null ? 0 : pushed);
+					}
+				});
+		access.setSource(1, reactive);
+		access.setSource(2, pusher);
+
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, computations[0]);
+		reads[0] = 0;
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, (Object) access.get());
+		assertEquals(0, reads[0]);
+		assertEquals(1, computations[0]);
+
+		reactive.set(5);
+		reads[0] = 0;
+		assertEquals(5, (Object) access.get());
+		assertEquals(1, reads[0]);
+		assertEquals(2, computations[0]);
+
+		pusher.set(10);
+		assertEquals(15, (Object) access.get());
+		assertEquals(3, computations[0]);
+		assertEquals(15, (Object) access.get());
+		assertEquals(3, computations[0]);
+
+		reactive.set(6);
+		reactive.set(5);
+		assertEquals(15, (Object) access.get());
+		assertEquals(3, computations[0]);
+	}
+
+	@Test
+	public void testPolledSourcesStillReadAtEachCall() {
+		final int[] reads = { 0 };
+		final int[] value = { 1 };
+		ActiveReadAccess<Integer> polled = new ActiveReadAccess<Integer>() {
+			@Override
+			public Integer get() {
+				reads[0]++;
+				return value[0];
+			}
+		};
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return (Integer) inputs.get(1) + (Integer) inputs.get(2);
+					}
+				});
+		access.setSource(1, polled);
+		access.setSource(2, new ReactiveControlledProperty<Integer>(2));
+
+		assertEquals(3, (Object) access.get());
+		reads[0] = 0;
+		assertEquals(3, (Object) access.get());
+		assertEquals(1, reads[0]);
+
+		value[0] = 5;
+		assertEquals(7, (Object) access.get());
+	}
+
+	@Test
+	public void testSubscriptionCancelledWhenSourceRemovedOrReplaced() {
+		ReactiveControlledProperty<Integer> source1 = new ReactiveControlledProperty<Integer>(
+				1);
+		ReactiveControlledProperty<Integer> source2 = new ReactiveControlledProperty<Integer>(
+				2);
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>();
+		access.setSource(1, source1);
+		assertEquals(1, source1.getValueListeners().size());
+
+		access.setSource(1, source2);
+		assertEquals(0, source1.getValueListeners().size());
+		assertEquals(1, source2.getValueListeners().size());
+
+		access.setSource(2, source2);
+		assertEquals(2, source2.getValueListeners().size());
+
+		access.removeSource(1);
+		assertEquals(1, source2.getValueListeners().size());
+		access.removeSource(2);
+		assertEquals(0, source2.getValueListeners().size());
+	}
+
+	@Test
+	public void testVersionedSourcesReadOnlyWhenVersionChanges() {
+		final int[] equalsCalls = { 0 };
+		class Input {
+			@Override
+			public boolean equals(Object obj) {
+				equalsCalls[0]++;
+				return obj instanceof Input;
+			}
+
+			@Override
+			public int hashCode() {
+				return 0;
+			}
+		}
+		final int[] reads = { 0 };
+		ControlledProperty<Input> source = new ControlledProperty<Input>(
+				new Input()) {
+			@Override
+			public Input get() {
+				reads[0]++;
+				return super.get();
+			}
+		};
+		final int[] computations = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return ++computations[0];
+					}
+				});
+		access.setSource(1, source);
+
+		assertEquals(1, (Object) access.get());
+		reads[0] = 0;
+		assertEquals(1, (Object) access.get());
+		assertEquals(0, reads[0]);
+
+		// new version, so read, but equal value, so not recomputed
+		source.set(new Input());
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, reads[0]);
+		assertEquals(1, equalsCalls[0]);
+
+		reads[0] = 0;
+		assertEquals(1, (Object) access.get());
+		assertEquals(0, reads[0]);
+		assertEquals(1, equalsCalls[0]);
+	}
+
+	@Test
+	public void testMemoCacheAvoidsRecomputingPreviousInputs() {
+		final int[] computations = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						computations[0]++;
+						return (Integer) inputs.get(1) * 10;
+					}
+				});
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		access.setSource(1, source);
+		MemoCache cache = new MemoCache(2);
+		access.setMemoCache(cache);
+		assertSame(cache, access.getMemoCache());
+
+		for (int i = 0; i < 5; i++) {
+			source.set(1);
+			assertEquals(10, (Object) access.get());
+			source.set(2);
+			assertEquals(20, (Object) access.get());
+		}
+		assertEquals(2, computations[0]);
+		assertEquals(8, cache.getHitCount());
+	}
+
+	@Test
+	public void testMemoCacheSharedBetweenComputers() {
+		final int[] computations = { 0 };
+		Computer<Integer> computer = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				computations[0]++;
+				return (Integer) inputs.get(1) * 10;
+			}
+		};
+		MemoCache cache = new MemoCache(10);
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(3);
+		LastInstantComputer<Integer> access1 = new LastInstantComputer<Integer>(
+				computer);
+		access1.setSource(1, source);
+		access1.setMemoCache(cache);
+		LastInstantComputer<Integer> access2 = new LastInstantComputer<Integer>(
+				computer);
+		access2.setSource(1, source);
+		access2.setMemoCache(cache);
+
+		assertEquals(30, (Object) access1.get());
+		assertEquals(30, (Object) access2.get());
+		assertEquals(1, computations[0]);
+	}
+
+	@Test
+	public void testObserverNotifiedOfComputations() {
+		final LinkedList<String> events = new LinkedList<String>();
+		ComputationObserver<Integer> observer = new ComputationObserver<Integer>() {
+
+			@Override
+			public void inputChanged(Object key, Object oldValue,
+					Object newValue) {
+				events.add("changed " + key + " " + oldValue + " " + newValue);
+			}
+
+			@Override
+			public void inputRemoved(Object key, Object oldValue) {
+				events.add("removed " + key + " " + oldValue);
+			}
+
+			@Override
+			public void outputComputed(Integer output, RecomputeReason reason,
+					long durationNanos, boolean cacheHit) {
+				assertTrue(durationNanos >= 0);
+				events.add("computed " + output + " " + reason + " "
+						+ cacheHit);
+			}
+
+			@Override
+			public void outputReused(Integer output) {
+				events.add("reused " + output);
+			}
+		};
+		Computer<Integer> computer = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				int sum = 0;
+				for (Object input : inputs.values()) {
+					sum += (Integer) input;
+				}
+				return sum;
+			}
+		};
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				computer);
+		ControlledProperty<Integer> source1 = new ControlledProperty<Integer>(1);
+		ControlledProperty<Integer> source2 = new ControlledProperty<Integer>(2);
+		access.setSource("a", source1);
+		access.setSource("b", source2);
+		access.setObserver(observer);
+		assertSame(observer, access.getObserver());
+
+		access.get();
+		assertTrue(events.remove("changed a null 1"));
+		assertTrue(events.remove("changed b null 2"));
+		assertEquals("computed 3 FIRST_COMPUTATION false", events.removeFirst());
+		assertTrue(events.isEmpty());
+
+		access.get();
+		assertEquals("reused 3", events.removeFirst());
+		assertTrue(events.isEmpty());
+
+		source1.set(5);
+		access.get();
+		assertEquals("changed a 1 5", events.removeFirst());
+		assertEquals("computed 7 INPUT_CHANGED false", events.removeFirst());
+		assertTrue(events.isEmpty());
+
+		access.removeSource("b");
+		access.get();
+		assertEquals("removed b 2", events.removeFirst());
+		assertEquals("computed 5 INPUT_REMOVED false", events.removeFirst());
+		assertTrue(events.isEmpty());
+
+		access.setComputer(new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return -1;
+			}
+		});
+		access.get();
+		assertEquals("computed -1 COMPUTER_CHANGED false", events.removeFirst());
+		assertTrue(events.isEmpty());
+
+		access.setComputer(computer);
+		access.setMemoCache(new MemoCache(2));
+		source1.set(1);
+		access.get();
+		source1.set(5);
+		access.get();
+		source1.set(1);
+		access.get();
+		assertEquals("computed 1 COMPUTER_CHANGED false", events.get(1));
+		assertEquals("computed 5 INPUT_CHANGED false", events.get(3));
+		assertEquals("computed 1 INPUT_CHANGED true", events.get(5));
+
+		events.clear();
+		access.setObserver(null);
+		source1.set(3);
+		access.get();
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testInputsProvidedAsReadOnlyMap() {
+		final boolean[] rejected = { false };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						try {
+							inputs.put("b", 3);
+						} catch (UnsupportedOperationException e) {
+							rejected[0] = true;
+						}
+						return inputs.size();
+					}
+				});
+		access.setSource("a", new ControlledProperty<Integer>(1));
+		assertEquals(1, (Object) access.get());
+		assertTrue(rejected[0]);
+	}
+
+	@Test
+	public void testManySourcesAddedAndRemovedInAnyOrder() {
+		final Map<Object, Object> lastInputs = new HashMap<Object, Object>();
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						lastInputs.clear();
+						lastInputs.putAll(inputs);
+						int sum = 0;
+						for (Object input : inputs.values()) {
+							sum += input == null ? 0 : (Integer) input;
+						}
+						return sum;
+					}
+				});
+		Map<Object, Object> expected = new HashMap<Object, Object>();
+		Random random = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			access.setSource(i, new ReactiveControlledProperty<Integer>(i));
+			expected.put(i, i);
+		}
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 100; i++) {
+				int key = random.nextInt(1000);
+				if (random.nextBoolean()) {
+					access.removeSource(key);
+					expected.remove(key);
+				} else if (random.nextBoolean()) {
+					access.setSource(key, new ControlledProperty<Integer>(
+							-key));
+					expected.put(key, -key);
+				} else {
+					access.setSource(key, new Pusher<Integer>());
+					expected.put(key, null);
+				}
+			}
+			expected.values().removeAll(Collections.singleton(null));
+
+			int sum = 0;
+			for (Object value : expected.values()) {
+				sum += (Integer) value;
+			}
+			access.get();
+			lastInputs.values().removeAll(Collections.singleton(null));
+			assertEquals(expected, lastInputs);
+			assertEquals(sum, (Object) access.get());
+			for (Object key : expected.keySet()) {
+				assertEquals(expected.get(key), access.getSource(key).get());
+			}
+			assertEquals(access.getAllSources().size(), access
+					.getAllSources().entrySet().size());
+		}
+	}
+
+	private static ActiveReadAccess<Integer> createSlowSource(final int[] value,
+			final long delay, final Collection<Thread> readers) {
+		return new Puller<Integer>(new ValueGenerator<Integer>() {
+
+			@Override
+			public Integer generateValue() {
+				synchronized (readers) {
+					readers.add(Thread.currentThread());
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return value[0];
+			}
+		});
+	}
+
+	private static Computer<Integer> createSumComputer(
+			final Collection<Thread> computers) {
+		return new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				computers.add(Thread.currentThread());
+				int sum = 0;
+				for (Object input : inputs.values()) {
+					sum += (Integer) input;
+				}
+				return sum;
+			}
+		};
+	}
+
+	@Test
+	public void testParallelPollingReadsSourcesConcurrently() {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Collection<Thread> readers = new LinkedList<Thread>();
+			Collection<Thread> computers = new LinkedList<Thread>();
+			LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+					createSumComputer(computers));
+			int[][] values = new int[8][];
+			for (int i = 0; i < 8; i++) {
+				values[i] = new int[] { i };
+				access.setSource(i, createSlowSource(values[i], 100, readers));
+			}
+			access.setParallelPolling(executor, 2);
+			assertSame(executor, access.getPollingExecutor());
+			assertEquals(2, access.getParallelPollingThreshold());
+
+			long start = System.currentTimeMillis();
+			assertEquals(28, (Object) access.get());
+			assertTrue(System.currentTimeMillis() - start < 600);
+			// the caller can read the sources not started yet by the executor
+			assertTrue(new HashSet<Thread>(readers).size() > 1);
+			assertEquals(Collections.singletonList(Thread.currentThread()),
+					computers);
+
+			start = System.currentTimeMillis();
+			assertEquals(28, (Object) access.get());
+			assertTrue(System.currentTimeMillis() - start < 600);
+			assertEquals(1, computers.size());
+
+			values[3][0] = 10;
+			assertEquals(35, (Object) access.get());
+			assertEquals(2, computers.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelPollingFromSaturatedExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		try {
+			final LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+					createSumComputer(new LinkedList<Thread>()));
+			for (int i = 0; i < 4; i++) {
+				access.setSource(i, createSlowSource(new int[] { i }, 0,
+						new LinkedList<Thread>()));
+			}
+			access.setParallelPolling(executor, 2);
+
+			Future<Integer> result = executor.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() {
+					return access.get();
+				}
+			});
+			assertEquals(6, (Object) result.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelPollingSkippedWithinMinimumInterval() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Collection<Thread> readers = new LinkedList<Thread>();
+			LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+					createSumComputer(new LinkedList<Thread>()));
+			for (int i = 0; i < 4; i++) {
+				access.setSource(i, createSlowSource(new int[] { i }, 0, readers));
+			}
+			access.setParallelPolling(executor, 2);
+			access.setMinimumInterval(1, TimeUnit.HOURS);
+
+			assertEquals(6, (Object) access.get());
+			assertEquals(4, readers.size());
+			assertEquals(6, (Object) access.get());
+			assertEquals(6, (Object) access.get());
+			assertEquals(4, readers.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelPollingNotUsedBelowThreshold() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Collection<Thread> readers = new LinkedList<Thread>();
+			LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+					createSumComputer(new LinkedList<Thread>()));
+			access.setSource(1, createSlowSource(new int[] { 1 }, 0, readers));
+			access.setSource(2, createSlowSource(new int[] { 2 }, 0, readers));
+			access.setParallelPolling(executor, 3);
+
+			assertEquals(3, (Object) access.get());
+			assertEquals(Collections.singleton(Thread.currentThread()),
+					new HashSet<Thread>(readers));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelPollingFallsBackOnCallerWhenRejected() {
+		Collection<Thread> readers = new LinkedList<Thread>();
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createSumComputer(new LinkedList<Thread>()));
+		access.setSource(1, createSlowSource(new int[] { 1 }, 0, readers));
+		access.setSource(2, createSlowSource(new int[] { 2 }, 0, readers));
+		access.setParallelPolling(new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		}, 1);
+
+		assertEquals(3, (Object) access.get());
+		assertEquals(Collections.singleton(Thread.currentThread()),
+				new HashSet<Thread>(readers));
+	}
+
+	@Test
+	public void testParallelPollingPropagatesSourceFailure() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+					createSumComputer(new LinkedList<Thread>()));
+			access.setSource(1, new ActiveReadAccess<Integer>() {
+				@Override
+				public Integer get() {
+					throw new IllegalStateException("Failure");
+				}
+			});
+			access.setSource(2, createSlowSource(new int[] { 2 }, 0,
+					new LinkedList<Thread>()));
+			access.setParallelPolling(executor, 1);
+			try {
+				access.get();
+				fail("No exception thrown.");
+			} catch (IllegalStateException e) {
+				assertEquals("Failure", e.getMessage());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParallelPollingRejectsNonPositiveThreshold() {
+		new LastInstantComputer<Integer>().setParallelPolling(
+				Executors.newSingleThreadExecutor(), 0);
+	}
+
+	/**
+	 * Create a {@link Computer} which depends on more than its inputs: it
+	 * returns the number of times it has been called.
+	 */
+	private static Computer<Integer> createCountingComputer(final int[] count) {
+		return new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return ++count[0];
+			}
+		};
+	}
+
+	@Test
+	public void testMaxAgeRecomputesExpiredOutput() throws InterruptedException {
+		int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createCountingComputer(count));
+		access.setSource("a", (ActiveReadAccess<Integer>) new ControlledProperty<Integer>(
+				1));
+		final LinkedList<RecomputeReason> reasons = new LinkedList<RecomputeReason>();
+		access.setObserver(new ComputationObserver<Integer>() {
+
+			@Override
+			public void inputChanged(Object key, Object oldValue,
+					Object newValue) {
+				// not tested
+			}
+
+			@Override
+			public void inputRemoved(Object key, Object oldValue) {
+				// not tested
+			}
+
+			@Override
+			public void outputComputed(Integer output, RecomputeReason reason,
+					long durationNanos, boolean cacheHit) {
+				reasons.add(reason);
+			}
+
+			@Override
+			public void outputReused(Integer output) {
+				// not tested
+			}
+		});
+		access.setMaxAge(100, TimeUnit.MILLISECONDS);
+		assertEquals(100, access.getMaxAge(TimeUnit.MILLISECONDS));
+
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, (Object) access.get());
+		Thread.sleep(150);
+		assertEquals(2, (Object) access.get());
+		assertEquals(2, (Object) access.get());
+		assertEquals(
+				Arrays.asList(RecomputeReason.FIRST_COMPUTATION,
+						RecomputeReason.EXPIRED), reasons);
+	}
+
+	@Test
+	public void testZeroMaxAgeRecomputesAtEachCall() {
+		int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createCountingComputer(count));
+		access.setMaxAge(0, TimeUnit.MILLISECONDS);
+
+		assertEquals(1, (Object) access.get());
+		assertEquals(2, (Object) access.get());
+		assertEquals(3, (Object) access.get());
+
+		access.setMaxAge(-1, TimeUnit.MILLISECONDS);
+		assertEquals(-1, access.getMaxAge(TimeUnit.MILLISECONDS));
+		assertEquals(3, (Object) access.get());
+		assertEquals(3, (Object) access.get());
+	}
+
+	@Test
+	public void testMaxAgeBypassesMemoCache() {
+		int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createCountingComputer(count));
+		access.setMemoCache(new MemoCache(10));
+		access.setMaxAge(0, TimeUnit.MILLISECONDS);
+
+		assertEquals(1, (Object) access.get());
+		assertEquals(2, (Object) access.get());
+	}
+
+	@Test
+	public void testRefreshAheadReplacesOutputBeforeExpiry()
+			throws InterruptedException {
+		final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createCountingComputer(count));
+		access.setSource("a", (ActiveReadAccess<Integer>) new ControlledProperty<Integer>(
+				1));
+		access.setMaxAge(1, TimeUnit.HOURS);
+		access.setRefreshAhead(new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		}, 1, TimeUnit.HOURS);
+
+		assertEquals(1, (Object) access.get());
+		assertTrue(tasks.isEmpty());
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, tasks.size());
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, tasks.size());
+
+		tasks.removeFirst().run();
+		assertEquals(2, count[0]);
+		assertEquals(2, (Object) access.get());
+		assertEquals(2, count[0]);
+	}
+
+	@Test
+	public void testRefreshAheadIgnoredWhenInputsChanged() {
+		final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		final int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						count[0]++;
+						return (Integer) inputs.get("a") * 10 + count[0];
+					}
+				});
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		access.setSource("a", (ActiveReadAccess<Integer>) source);
+		access.setMaxAge(1, TimeUnit.HOURS);
+		access.setRefreshAhead(new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		}, 1, TimeUnit.HOURS);
+
+		assertEquals(11, (Object) access.get());
+		assertEquals(11, (Object) access.get());
+		assertEquals(1, tasks.size());
+		tasks.removeFirst().run();
+		source.set(2);
+		assertEquals(23, (Object) access.get());
+		assertEquals(23, (Object) access.get());
+	}
+
+	@Test
+	public void testMinimumIntervalDelaysRecomputation()
+			throws InterruptedException {
+		final int[] count = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new Computer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						count[0]++;
+						return (Integer) inputs.get("a");
+					}
+				});
+		ControlledProperty<Integer> source = new ControlledProperty<Integer>(1);
+		access.setSource("a", (ActiveReadAccess<Integer>) source);
+		access.setMinimumInterval(100, TimeUnit.MILLISECONDS);
+		assertEquals(100, access.getMinimumInterval(TimeUnit.MILLISECONDS));
+
+		assertEquals(1, (Object) access.get());
+		source.set(2);
+		assertEquals(1, (Object) access.get());
+		source.set(3);
+		assertEquals(1, (Object) access.get());
+		assertEquals(1, count[0]);
+
+		Thread.sleep(150);
+		assertEquals(3, (Object) access.get());
+		assertEquals(2, count[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinimumIntervalRejectsNegativeInterval() {
+		new LastInstantComputer<Integer>().setMinimumInterval(-1,
+				TimeUnit.SECONDS);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRefreshAheadRejectsNegativeDelay() {
+		new LastInstantComputer<Integer>().setRefreshAhead(
+				Executors.newSingleThreadExecutor(), -1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Create an {@link IncrementalComputer} summing its inputs, which counts
+	 * its full computations and its updates.
+	 */
+	private static IncrementalComputer<Integer> createIncrementalSum(
+			final int[] computations, final int[] updates) {
+		return new IncrementalComputer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				computations[0]++;
+				int sum = 0;
+				for (Object input : inputs.values()) {
+					sum += input == null ? 0 : (Integer) input;
+				}
+				return sum;
+			}
+
+			@Override
+			public Integer update(Integer output, List<InputChange> changes,
+					Map<Object, Object> removedInputs,
+					Map<Object, Object> inputs) {
+				updates[0]++;
+				int sum = output;
+				for (InputChange change : changes) {
+					Integer oldValue = (Integer) change.getOldValue();
+					Integer newValue = (Integer) change.getNewValue();
+					sum += (newValue == null ? 0 : newValue)
+							- (oldValue == null ? 0 : oldValue);
+				}
+				for (Object removed : removedInputs.values()) {
+					sum -= (Integer) removed;
+				}
+				return sum;
+			}
+		};
+	}
+
+	@Test
+	public void testIncrementalComputerUpdatesOutput() {
+		int[] computations = { 0 };
+		int[] updates = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createIncrementalSum(computations, updates));
+		ControlledProperty<Integer> a = new ControlledProperty<Integer>(1);
+		ControlledProperty<Integer> b = new ControlledProperty<Integer>(2);
+		ControlledProperty<Integer> c = new ControlledProperty<Integer>(3);
+		access.setSource("a", (ActiveReadAccess<Integer>) a);
+		access.setSource("b", (ActiveReadAccess<Integer>) b);
+
+		assertEquals(3, (Object) access.get());
+		assertEquals(1, computations[0]);
+		assertEquals(0, updates[0]);
+
+		a.set(10);
+		assertEquals(12, (Object) access.get());
+		access.setSource("c", (ActiveReadAccess<Integer>) c);
+		assertEquals(15, (Object) access.get());
+		access.removeSource("b");
+		assertEquals(13, (Object) access.get());
+		b.set(null);
+		access.setSource("b", (ActiveReadAccess<Integer>) b);
+		assertEquals(13, (Object) access.get());
+		b.set(5);
+		assertEquals(18, (Object) access.get());
+		assertEquals(18, (Object) access.get());
+
+		assertEquals(1, computations[0]);
+		assertEquals(4, updates[0]);
+	}
+
+	@Test
+	public void testIncrementalComputerReceivesChanges() {
+		final List<String> calls = new LinkedList<String>();
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new IncrementalComputer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						calls.add("compute " + new HashMap<Object, Object>(
+								inputs));
+						return 0;
+					}
+
+					@Override
+					public Integer update(Integer output,
+							List<InputChange> changes,
+							Map<Object, Object> removedInputs,
+							Map<Object, Object> inputs) {
+						calls.add("update " + output + " " + changes + " "
+								+ removedInputs);
+						return output + 1;
+					}
+				});
+		ControlledProperty<Integer> a = new ControlledProperty<Integer>(1);
+		ControlledProperty<Integer> b = new ControlledProperty<Integer>(2);
+		access.setSource("a", (ActiveReadAccess<Integer>) a);
+		access.setSource("b", (ActiveReadAccess<Integer>) b);
+
+		access.get();
+		a.set(3);
+		access.get();
+		access.removeSource("a");
+		b.set(4);
+		access.get();
+
+		assertEquals(Arrays.asList("compute {a=1, b=2}",
+				"update 0 [a: 1 -> 3] {}", "update 1 [b: 2 -> 4] {a=3}"),
+				calls);
+	}
+
+	@Test
+	public void testIncrementalComputerFallsBackOnFullComputation() {
+		int[] computations = { 0 };
+		int[] updates = { 0 };
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createIncrementalSum(computations, updates));
+		ControlledProperty<Integer> a = new ControlledProperty<Integer>(1);
+		access.setSource("a", (ActiveReadAccess<Integer>) a);
+		assertEquals(1, (Object) access.get());
+
+		access.setComputer(createIncrementalSum(computations, updates));
+		a.set(2);
+		assertEquals(2, (Object) access.get());
+		assertEquals(2, computations[0]);
+		assertEquals(0, updates[0]);
+
+		access.setMemoCache(new MemoCache(10));
+		a.set(3);
+		assertEquals(3, (Object) access.get());
+		assertEquals(3, computations[0]);
+		assertEquals(0, updates[0]);
+
+		access.setMemoCache(null);
+		access.setMaxAge(0, TimeUnit.MILLISECONDS);
+		assertEquals(3, (Object) access.get());
+		assertEquals(4, computations[0]);
+		assertEquals(0, updates[0]);
+	}
+
+	@Test
+	public void testIncrementalComputerRecomputesAfterFailure() {
+		final boolean[] fail = { false };
+		final int[] computations = { 0 };
+		final int[] updates = { 0 };
+		final IncrementalComputer<Integer> sum = createIncrementalSum(
+				computations, updates);
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				new IncrementalComputer<Integer>() {
+
+					@Override
+					public Integer compute(Map<Object, Object> inputs) {
+						return sum.compute(inputs);
+					}
+
+					@Override
+					public Integer update(Integer output,
+							List<InputChange> changes,
+							Map<Object, Object> removedInputs,
+							Map<Object, Object> inputs) {
+						if (fail[0]) {
+							throw new IllegalStateException("Failure");
+						} else {
+							return sum.update(output, changes, removedInputs,
+									inputs);
+						}
+					}
+				});
+		ControlledProperty<Integer> a = new ControlledProperty<Integer>(1);
+		access.setSource("a", (ActiveReadAccess<Integer>) a);
+		assertEquals(1, (Object) access.get());
+
+		fail[0] = true;
+		a.set(2);
+		try {
+			access.get();
+			fail("No exception thrown.");
+		} catch (IllegalStateException e) {
+			assertEquals("Failure", e.getMessage());
+		}
+
+		assertEquals(2, (Object) access.get());
+		assertEquals(2, computations[0]);
+		assertEquals(0, updates[0]);
+	}
+
+	@Test
+	public void testOnlyNotifiedReactiveSourcesRead() {
+		final int[] reads = new int[3];
+		List<ReactiveControlledProperty<Integer>> sources = new LinkedList<ReactiveControlledProperty<Integer>>();
+		LastInstantComputer<Integer> access = new LastInstantComputer<Integer>(
+				createIncrementalSum(new int[1], new int[1]));
+		for (int i = 0; i < reads.length; i++) {
+			final int index = i;
+			ReactiveControlledProperty<Integer> source = new ReactiveControlledProperty<Integer>(
+					i) {
+				@Override
+				public Integer get() {
+					reads[index]++;
+					return super.get();
+				}
+			};
+			sources.add(source);
+			access.setSource(i, source);
+		}
+		assertEquals(3, (Object) access.get());
+		assertEquals(Arrays.asList(1, 1, 1), toList(reads));
+
+		sources.get(1).set(10);
+		sources.get(1).set(11);
+		assertEquals(13, (Object) access.get());
+		assertEquals(Arrays.asList(1, 2, 1), toList(reads));
+
+		assertEquals(13, (Object) access.get());
+		assertEquals(Arrays.asList(1, 2, 1), toList(reads));
+	}
+
+	private static List<Integer> toList(int[] array) {
+		List<Integer> list = new LinkedList<Integer>();
+		for (int value : array) {
+			list.add(value);
+		}
+		return list;
+	}
 }
@@ -0,0 +1,95 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.RecomputeReason;
+
+public class LoggingComputationObserverTest {
+
+	private static Logger createLogger(final List<LogRecord> records) {
+		Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler() {
+
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		});
+		return logger;
+	}
+
+	@Test
+	public void testDefaultLoggerNamedAfterLastInstantComputer() {
+		LoggingComputationObserver<Integer> observer = new LoggingComputationObserver<Integer>();
+		assertEquals(LastInstantComputer.class.getName(), observer.getLogger()
+				.getName());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullLoggerRejected() {
+		new LoggingComputationObserver<Integer>(null);
+	}
+
+	@Test
+	public void testLevels() {
+		List<LogRecord> records = new LinkedList<LogRecord>();
+		Logger logger = createLogger(records);
+		logger.setLevel(Level.ALL);
+		LoggingComputationObserver<Integer> observer = new LoggingComputationObserver<Integer>(
+				logger);
+
+		observer.inputChanged("a", 1, 2);
+		observer.inputRemoved("b", 3);
+		observer.outputComputed(4, RecomputeReason.INPUT_CHANGED, 10, false);
+		observer.outputReused(4);
+
+		assertEquals(4, records.size());
+		assertEquals(Level.FINEST, records.get(0).getLevel());
+		assertEquals(Level.FINEST, records.get(1).getLevel());
+		assertEquals(Level.FINE, records.get(2).getLevel());
+		assertTrue(records.get(2).getMessage().contains("INPUT_CHANGED"));
+		assertEquals(Level.FINEST, records.get(3).getLevel());
+	}
+
+	@Test
+	public void testValuesNotStringifiedWhenLevelDisabled() {
+		List<LogRecord> records = new LinkedList<LogRecord>();
+		Logger logger = createLogger(records);
+		logger.setLevel(Level.INFO);
+		LoggingComputationObserver<Object> observer = new LoggingComputationObserver<Object>(
+				logger);
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				throw new RuntimeException("Should not be called");
+			}
+		};
+
+		observer.inputChanged("a", value, value);
+		observer.inputRemoved("b", value);
+		observer.outputComputed(value, RecomputeReason.INPUT_CHANGED, 10,
+				false);
+		observer.outputReused(value);
+		assertTrue(records.isEmpty());
+	}
+}
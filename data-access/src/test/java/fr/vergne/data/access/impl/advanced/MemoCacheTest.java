@@ -0,0 +1,201 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.access.impl.advanced.MemoCache.EvictionPolicy;
+
+public class MemoCacheTest {
+
+	private static class CountingComputer implements Computer<Integer> {
+
+		private int count = 0;
+
+		@Override
+		public Integer compute(Map<Object, Object> inputs) {
+			count++;
+			return (Integer) inputs.get("x") * 10;
+		}
+	}
+
+	private static Map<Object, Object> inputs(int x) {
+		Map<Object, Object> inputs = new HashMap<Object, Object>();
+		inputs.put("x", x);
+		return inputs;
+	}
+
+	@Test
+	public void testDefaultPolicyIsLRU() {
+		MemoCache cache = new MemoCache(3);
+		assertEquals(3, cache.getCapacity());
+		assertEquals(EvictionPolicy.LRU, cache.getEvictionPolicy());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonPositiveCapacityRejected() {
+		new MemoCache(0);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullPolicyRejected() {
+		new MemoCache(1, null);
+	}
+
+	@Test
+	public void testSameInputsComputedOnce() {
+		MemoCache cache = new MemoCache(3);
+		CountingComputer computer = new CountingComputer();
+		assertEquals(10, (Object) cache.compute(computer, inputs(1)));
+		assertEquals(20, (Object) cache.compute(computer, inputs(2)));
+		assertEquals(10, (Object) cache.compute(computer, inputs(1)));
+		assertEquals(20, (Object) cache.compute(computer, inputs(2)));
+		assertEquals(2, computer.count);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.getSize());
+	}
+
+	@Test
+	public void testStoredInputsNotAffectedByLaterChanges() {
+		MemoCache cache = new MemoCache(3);
+		CountingComputer computer = new CountingComputer();
+		Map<Object, Object> inputs = inputs(1);
+		cache.compute(computer, inputs);
+		inputs.put("x", 2);
+		assertEquals(20, (Object) cache.compute(computer, inputs));
+		assertEquals(10, (Object) cache.compute(computer, inputs(1)));
+		assertEquals(2, computer.count);
+	}
+
+	@Test
+	public void testDifferentComputersNotConfused() {
+		MemoCache cache = new MemoCache(3);
+		CountingComputer computer1 = new CountingComputer();
+		Computer<Integer> computer2 = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return -1;
+			}
+		};
+		assertEquals(10, (Object) cache.compute(computer1, inputs(1)));
+		assertEquals(-1, (Object) cache.compute(computer2, inputs(1)));
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	public void testNullOutputStored() {
+		MemoCache cache = new MemoCache(3);
+		final int[] count = { 0 };
+		Computer<Object> computer = new Computer<Object>() {
+
+			@Override
+			public Object compute(Map<Object, Object> inputs) {
+				count[0]++;
+				return null;
+			}
+		};
+		assertNull(cache.compute(computer, inputs(1)));
+		assertNull(cache.compute(computer, inputs(1)));
+		assertEquals(1, count[0]);
+	}
+
+	@Test
+	public void testFailureNotStored() {
+		MemoCache cache = new MemoCache(3);
+		Computer<Object> computer = new Computer<Object>() {
+
+			@Override
+			public Object compute(Map<Object, Object> inputs) {
+				throw new RuntimeException("Failure");
+			}
+		};
+		try {
+			cache.compute(computer, inputs(1));
+			fail("No exception thrown.");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testLRUEvictsLeastRecentlyUsed() {
+		MemoCache cache = new MemoCache(2, EvictionPolicy.LRU);
+		CountingComputer computer = new CountingComputer();
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(2));
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(3));
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3, computer.count);
+
+		cache.compute(computer, inputs(1));
+		assertEquals(3, computer.count);
+		cache.compute(computer, inputs(2));
+		assertEquals(4, computer.count);
+	}
+
+	@Test
+	public void testLFUEvictsLeastFrequentlyUsed() {
+		MemoCache cache = new MemoCache(2, EvictionPolicy.LFU);
+		CountingComputer computer = new CountingComputer();
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(2));
+		cache.compute(computer, inputs(3));
+		assertEquals(3, computer.count);
+		assertEquals(1, cache.getEvictionCount());
+
+		cache.compute(computer, inputs(1));
+		assertEquals(3, computer.count);
+		cache.compute(computer, inputs(3));
+		assertEquals(3, computer.count);
+		cache.compute(computer, inputs(2));
+		assertEquals(4, computer.count);
+	}
+
+	@Test
+	public void testLFUForgetsOldFrequencies() {
+		MemoCache cache = new MemoCache(2, EvictionPolicy.LFU);
+		CountingComputer computer = new CountingComputer();
+		for (int i = 0; i < 100; i++) {
+			cache.compute(computer, inputs(1));
+		}
+		assertEquals(1, computer.count);
+
+		for (int x = 2; x < 200; x++) {
+			cache.compute(computer, inputs(x));
+		}
+		cache.compute(computer, inputs(1));
+		assertEquals(200, computer.count);
+	}
+
+	@Test
+	public void testClearAndResetStatistics() {
+		MemoCache cache = new MemoCache(2);
+		CountingComputer computer = new CountingComputer();
+		cache.compute(computer, inputs(1));
+		cache.compute(computer, inputs(1));
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		cache.resetStatistics();
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+		assertEquals(0, cache.getEvictionCount());
+
+		cache.compute(computer, inputs(1));
+		assertEquals(2, computer.count);
+	}
+}
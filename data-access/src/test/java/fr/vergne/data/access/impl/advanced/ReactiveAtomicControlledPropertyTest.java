@@ -0,0 +1,152 @@
+package fr.vergne.data.access.impl.advanced;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.impl.advanced.AtomicControlledProperty.Accumulator;
+import fr.vergne.data.access.impl.advanced.AtomicControlledProperty.Updater;
+
+public class ReactiveAtomicControlledPropertyTest {
+
+	@Test
+	public void testSetNotifications() {
+		final List<Integer> notified = new LinkedList<Integer>();
+		ValueListener<Integer> listener = new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				notified.add(value);
+			}
+		};
+
+		ReactiveAtomicControlledProperty<Integer> property = new ReactiveAtomicControlledProperty<Integer>();
+		property.addValueListener(listener);
+
+		property.set(3);
+		assertEquals(3, (Object) property.get());
+		assertEquals(1, notified.size());
+		assertEquals(3, (Object) notified.get(0));
+
+		notified.clear();
+		property.set(null);
+		assertEquals(1, notified.size());
+		assertEquals(null, (Object) notified.get(0));
+
+		notified.clear();
+		property.removeValueListener(listener);
+		property.set(5);
+		assertEquals(0, notified.size());
+	}
+
+	@Test
+	public void testOnlySuccessfulWritesNotified() {
+		final List<Integer> notified = new LinkedList<Integer>();
+		Integer a = Integer.valueOf(1);
+		Integer b = Integer.valueOf(2);
+		ReactiveAtomicControlledProperty<Integer> property = new ReactiveAtomicControlledProperty<Integer>(
+				a);
+		property.addValueListener(new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				notified.add(value);
+			}
+		});
+
+		assertFalse(property.compareAndSet(b, b));
+		assertEquals(0, notified.size());
+
+		assertTrue(property.compareAndSet(a, b));
+		assertEquals(1, notified.size());
+		assertSame(b, notified.get(0));
+
+		notified.clear();
+		assertEquals(2, (Object) property.getAndSet(4));
+		assertEquals(1, notified.size());
+		assertEquals(4, (Object) notified.get(0));
+
+		notified.clear();
+		property.updateAndGet(new Updater<Integer>() {
+
+			@Override
+			public Integer update(Integer value) {
+				return value * 10;
+			}
+		});
+		assertEquals(1, notified.size());
+		assertEquals(40, (Object) notified.get(0));
+
+		notified.clear();
+		property.accumulateAndGet(2, new Accumulator<Integer>() {
+
+			@Override
+			public Integer accumulate(Integer value, Integer operand) {
+				return value + operand;
+			}
+		});
+		assertEquals(1, notified.size());
+		assertEquals(42, (Object) notified.get(0));
+	}
+
+	@Test
+	public void testOneNotificationPerConcurrentUpdate()
+			throws InterruptedException {
+		final AtomicInteger notifications = new AtomicInteger();
+		final ReactiveAtomicControlledProperty<Integer> property = new ReactiveAtomicControlledProperty<Integer>(
+				0);
+		property.addValueListener(new ValueListener<Integer>() {
+
+			@Override
+			public void valueGenerated(Integer value) {
+				notifications.incrementAndGet();
+			}
+		});
+		final Updater<Integer> increment = new Updater<Integer>() {
+
+			@Override
+			public Integer update(Integer value) {
+				return value + 1;
+			}
+		};
+
+		final int threadsCount = 4;
+		final int updatesCount = 10000;
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int t = 0; t < threadsCount; t++) {
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < updatesCount; i++) {
+						property.updateAndGet(increment);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(threadsCount * updatesCount, (Object) property.get());
+		assertEquals(threadsCount * updatesCount, notifications.get());
+	}
+
+	@Test
+	public void testAddNullListenerException() {
+		ReactiveAtomicControlledProperty<Integer> property = new ReactiveAtomicControlledProperty<Integer>();
+		try {
+			property.addValueListener(null);
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+	}
+}
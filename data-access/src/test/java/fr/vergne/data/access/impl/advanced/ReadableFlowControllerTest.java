@@ -39,4 +39,26 @@ public class ReadableFlowControllerTest {
 		assertEquals(source[0], controller.get());
 	}
 
+	@Test
+	public void testVersionIncreasedAtEachTransfer() {
+		ReadableFlowController<Integer> controller = new ReadableFlowController<Integer>(
+				new ValueGenerator<Integer>() {
+
+					@Override
+					public Integer generateValue() {
+						return 1;
+					}
+				});
+		long version = controller.version();
+		controller.get();
+		assertEquals(version, controller.version());
+
+		controller.transfer();
+		assertTrue(controller.version() > version);
+		version = controller.version();
+
+		controller.transfer();
+		assertTrue(controller.version() > version);
+	}
+
 }
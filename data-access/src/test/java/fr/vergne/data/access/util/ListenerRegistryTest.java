@@ -0,0 +1,175 @@
+package fr.vergne.data.access.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+
+public class ListenerRegistryTest {
+
+	private static class Listener implements ValueListener<Integer> {
+		@Override
+		public void valueGenerated(Integer value) {
+			// do nothing
+		}
+	}
+
+	@Test
+	public void testAddGetRemove() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		assertEquals(0, registry.size());
+		assertTrue(registry.isEmpty());
+		assertEquals(0, registry.getSnapshot().length);
+
+		Listener listener1 = new Listener();
+		assertTrue(registry.add(listener1));
+		assertEquals(1, registry.size());
+		assertTrue(registry.contains(listener1));
+
+		assertFalse(registry.add(listener1));
+		assertEquals(1, registry.size());
+
+		Listener listener2 = new Listener();
+		assertTrue(registry.add(listener2));
+		assertEquals(2, registry.size());
+		assertTrue(registry.contains(listener1));
+		assertTrue(registry.contains(listener2));
+
+		assertTrue(registry.remove(listener1));
+		assertEquals(1, registry.size());
+		assertFalse(registry.contains(listener1));
+		assertTrue(registry.contains(listener2));
+
+		assertFalse(registry.remove(listener1));
+		assertEquals(1, registry.size());
+
+		registry.clear();
+		assertEquals(0, registry.size());
+		assertFalse(registry.contains(listener2));
+	}
+
+	@Test
+	public void testRegistrationOrder() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		List<Listener> listeners = new LinkedList<Listener>();
+		for (int i = 0; i < 10; i++) {
+			Listener listener = new Listener();
+			listeners.add(listener);
+			registry.add(listener);
+		}
+		assertEquals(listeners, new LinkedList<ValueListener<Integer>>(registry));
+
+		registry.remove(listeners.remove(3));
+		registry.remove(listeners.remove(0));
+		registry.remove(listeners.remove(listeners.size() - 1));
+		ValueListener<Integer>[] snapshot = registry.getSnapshot();
+		assertEquals(listeners.size(), snapshot.length);
+		for (int i = 0; i < snapshot.length; i++) {
+			assertSame(listeners.get(i), snapshot[i]);
+		}
+	}
+
+	@Test
+	public void testSnapshotNotAffectedByModifications() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		Listener listener1 = new Listener();
+		Listener listener2 = new Listener();
+		registry.add(listener1);
+
+		ValueListener<Integer>[] snapshot = registry.getSnapshot();
+		registry.add(listener2);
+		registry.remove(listener1);
+		assertEquals(1, snapshot.length);
+		assertSame(listener1, snapshot[0]);
+	}
+
+	@Test
+	public void testModificationDuringIteration() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		Listener listener1 = new Listener();
+		Listener listener2 = new Listener();
+		Listener listener3 = new Listener();
+		registry.add(listener1);
+		registry.add(listener2);
+
+		List<ValueListener<Integer>> iterated = new LinkedList<ValueListener<Integer>>();
+		for (ValueListener<Integer> listener : registry) {
+			iterated.add(listener);
+			registry.remove(listener1);
+			registry.add(listener3);
+		}
+		assertEquals(2, iterated.size());
+		assertSame(listener1, iterated.get(0));
+		assertSame(listener2, iterated.get(1));
+		assertFalse(registry.contains(listener1));
+		assertTrue(registry.contains(listener2));
+		assertTrue(registry.contains(listener3));
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		Listener listener1 = new Listener();
+		Listener listener2 = new Listener();
+		registry.add(listener1);
+		registry.add(listener2);
+
+		Iterator<ValueListener<Integer>> iterator = registry.iterator();
+		iterator.next();
+		iterator.remove();
+		assertFalse(registry.contains(listener1));
+		assertTrue(registry.contains(listener2));
+	}
+
+	@Test
+	public void testAddNullListenerException() {
+		ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		try {
+			registry.add(null);
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+	}
+
+	@Test
+	public void testConcurrentRegistrations() throws InterruptedException {
+		final ListenerRegistry<ValueListener<Integer>> registry = new ListenerRegistry<ValueListener<Integer>>(
+				ValueListener.class);
+		final int threadsCount = 4;
+		final int listenersCount = 1000;
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int t = 0; t < threadsCount; t++) {
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < listenersCount; i++) {
+						Listener listener = new Listener();
+						registry.add(listener);
+						registry.add(new Listener());
+						registry.remove(listener);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(threadsCount * listenersCount, registry.size());
+	}
+}
@@ -0,0 +1,99 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the latency of reading a slow computation which
+ * inputs change at each read, when it is computed in the calling thread by a
+ * {@link LastInstantComputer} or in the background by an
+ * {@link AsyncLastInstantComputer}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncLastInstantComputerBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean async;
+
+	/**
+	 * The time spent by the {@link Computer}, in microseconds.
+	 */
+	@Param({ "100" })
+	public long computerLatency;
+
+	private ControlledProperty<Integer> source;
+	private ActiveReadAccess<Integer> computer;
+	private ExecutorService executor;
+	private int count = 0;
+
+	@Setup
+	public void setup() {
+		Computer<Integer> slowComputer = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS
+						.toNanos(computerLatency));
+				return (Integer) inputs.get("source");
+			}
+		};
+		source = new ControlledProperty<Integer>(Values.next(0));
+		if (async) {
+			executor = Executors.newSingleThreadExecutor();
+			AsyncLastInstantComputer<Integer> asyncComputer = new AsyncLastInstantComputer<Integer>(
+					slowComputer, executor);
+			asyncComputer.setSource("source",
+					(ActiveReadAccess<Integer>) source);
+			computer = asyncComputer;
+		} else {
+			LastInstantComputer<Integer> syncComputer = new LastInstantComputer<Integer>(
+					slowComputer);
+			syncComputer.setSource("source",
+					(ActiveReadAccess<Integer>) source);
+			computer = syncComputer;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (executor == null) {
+			// no executor to stop
+		} else {
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public Integer get() {
+		source.set(Values.next(count++));
+		return computer.get();
+	}
+}
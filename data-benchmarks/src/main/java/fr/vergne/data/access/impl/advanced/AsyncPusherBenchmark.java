@@ -0,0 +1,101 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess;
+import fr.vergne.data.access.impl.AsyncPassiveReadAccess.OverflowPolicy;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the latency of {@link Pusher#set(Object)} and
+ * {@link AsyncPusher#set(Object)} when the {@link ValueListener}s are slow,
+ * which is simulated by consuming {@link #listenerTokens} CPU tokens per
+ * notification. The {@link AsyncPusher} drops the oldest values when its
+ * listeners cannot follow, so its latency does not depend on them, while the
+ * latency of the {@link Pusher} grows with the number of listeners and their
+ * cost.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncPusherBenchmark {
+
+	@Param({ "1", "10" })
+	public int listeners;
+
+	@Param({ "0", "1000" })
+	public int listenerTokens;
+
+	private Pusher<Integer> pusher;
+	private AsyncPusher<Integer> asyncPusher;
+	private ExecutorService executor;
+	private int index;
+	/**
+	 * Written by the listeners, which run in other threads than the
+	 * benchmark for the {@link AsyncPusher}, so the {@link Blackhole} cannot
+	 * be used.
+	 */
+	private volatile Object sink;
+
+	@Setup
+	public void setup() {
+		executor = AsyncPassiveReadAccess.createVirtualThreadExecutor();
+		pusher = new Pusher<Integer>();
+		asyncPusher = new AsyncPusher<Integer>(executor,
+				AsyncPassiveReadAccess.DEFAULT_CAPACITY,
+				OverflowPolicy.DROP_OLDEST);
+		register(pusher);
+		register(asyncPusher);
+	}
+
+	private void register(PassiveReadAccess<Integer> access) {
+		for (int i = 0; i < listeners; i++) {
+			access.addValueListener(new ValueListener<Integer>() {
+
+				@Override
+				public void valueGenerated(Integer value) {
+					Blackhole.consumeCPU(listenerTokens);
+					sink = value;
+				}
+			});
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public void sync() {
+		pusher.set(Values.next(index++));
+	}
+
+	@Benchmark
+	public void async() {
+		asyncPusher.set(Values.next(index++));
+	}
+}
@@ -0,0 +1,61 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.impl.advanced.AtomicControlledProperty.Updater;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * Contrary to the other benchmarks, the property is shared by all the
+ * threads, so running it with several threads measures the contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtomicControlledPropertyBenchmark {
+
+	private static final Updater<Integer> NEXT = new Updater<Integer>() {
+
+		@Override
+		public Integer update(Integer value) {
+			return Values.next(value + 1);
+		}
+	};
+
+	private AtomicControlledProperty<Integer> property;
+
+	@Setup
+	public void setup() {
+		property = new AtomicControlledProperty<Integer>(Values.next(0));
+	}
+
+	@Benchmark
+	public Integer get() {
+		return property.get();
+	}
+
+	@Benchmark
+	public void set() {
+		property.set(Values.next(System.identityHashCode(Thread
+				.currentThread())));
+	}
+
+	@Benchmark
+	public Integer updateAndGet() {
+		return property.updateAndGet(NEXT);
+	}
+}
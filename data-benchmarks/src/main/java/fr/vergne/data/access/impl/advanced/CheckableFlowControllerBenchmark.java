@@ -0,0 +1,58 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
+import fr.vergne.data.benchmark.Listeners;
+import fr.vergne.data.benchmark.Values;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckableFlowControllerBenchmark {
+
+	@Param({ "0", "1", "10", "1000" })
+	public int listeners;
+
+	private CheckableFlowController<Integer> controller;
+	private int index;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		controller = new CheckableFlowController<Integer>(
+				new ValueGenerator<Integer>() {
+
+					@Override
+					public Integer generateValue() {
+						return Values.next(index++);
+					}
+				});
+		Listeners.register(controller, listeners, blackhole);
+	}
+
+	@Benchmark
+	public void transfer() {
+		controller.transfer();
+	}
+
+	@Benchmark
+	public Integer get() {
+		return controller.get();
+	}
+}
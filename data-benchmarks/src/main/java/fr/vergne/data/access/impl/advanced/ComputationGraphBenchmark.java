@@ -0,0 +1,133 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the update of a lattice of
+ * {@link LastInstantComputer}s after the change of a single source: the
+ * computers of the first layer read one source each, and each computer of the
+ * next layers reads two neighbour computers of the previous layer. With
+ * chained {@link LastInstantComputer}s, the outputs of the last layer are
+ * read directly, which checks the lattice recursively. With a
+ * {@link ComputationGraph}, the lattice is propagated once before to read the
+ * {@link ComputationGraph.Node}s of the last layer.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComputationGraphBenchmark {
+
+	public static enum Evaluation {
+		RECURSIVE, GRAPH
+	}
+
+	@Param
+	public Evaluation evaluation;
+
+	@Param({ "4", "8" })
+	public int layers;
+
+	@Param({ "16", "256" })
+	public int width;
+
+	private ControlledProperty<Integer>[] sources;
+	private ActiveReadAccess<?>[] outputs;
+	private ComputationGraph graph;
+	private int nextSource;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		Computer<Integer> sum = new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				int sum = 0;
+				for (Object value : inputs.values()) {
+					sum += (Integer) value;
+				}
+				return sum;
+			}
+		};
+
+		graph = new ComputationGraph();
+		sources = new ControlledProperty[width];
+		LastInstantComputer<Integer>[] layer = new LastInstantComputer[width];
+		for (int i = 0; i < width; i++) {
+			sources[i] = new ControlledProperty<Integer>(Values.next(i));
+			layer[i] = new LastInstantComputer<Integer>(sum);
+			layer[i].setSource(0, sources[i]);
+			graph.add(layer[i]);
+		}
+		for (int l = 1; l < layers; l++) {
+			LastInstantComputer<Integer>[] next = new LastInstantComputer[width];
+			for (int i = 0; i < width; i++) {
+				next[i] = new LastInstantComputer<Integer>(sum);
+				next[i].setSource(0, layer[i]);
+				next[i].setSource(1, layer[(i + 1) % width]);
+				graph.add(next[i]);
+			}
+			layer = next;
+		}
+
+		outputs = new ActiveReadAccess[width];
+		for (int i = 0; i < width; i++) {
+			switch (evaluation) {
+			case RECURSIVE:
+				outputs[i] = layer[i];
+				break;
+			case GRAPH:
+				outputs[i] = graph.getNode(layer[i]);
+				break;
+			default:
+				throw new RuntimeException("Unmanaged evaluation: "
+						+ evaluation);
+			}
+		}
+		if (evaluation == Evaluation.GRAPH) {
+			graph.propagate();
+		} else {
+			// the computers are not wired to the graph
+		}
+	}
+
+	@Benchmark
+	public void changeOneSource(Blackhole blackhole) {
+		ControlledProperty<Integer> source = sources[nextSource];
+		source.set(Values.next(source.get()));
+		nextSource = (nextSource + 1) % width;
+
+		if (evaluation == Evaluation.GRAPH) {
+			graph.propagate();
+		} else {
+			// the outputs check the computers by themselves
+		}
+		for (ActiveReadAccess<?> output : outputs) {
+			blackhole.consume(output.get());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark compares the {@link ConcurrentLastInstantComputer} with a
+ * {@link LastInstantComputer} protected by a single lock, when all the
+ * threads read the same output while nothing changes. The computer is shared
+ * by all the threads, so running it with several threads measures the
+ * contention.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentLastInstantComputerBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int sources;
+
+	private static final Computer<Integer> COMPUTER = new Computer<Integer>() {
+
+		@Override
+		public Integer compute(Map<Object, Object> inputs) {
+			return Values.next(inputs.size());
+		}
+	};
+
+	private ConcurrentLastInstantComputer<Integer> concurrent;
+	private LastInstantComputer<Integer> locked;
+
+	@Setup
+	public void setup() {
+		concurrent = new ConcurrentLastInstantComputer<Integer>(COMPUTER);
+		locked = new LastInstantComputer<Integer>(COMPUTER);
+		for (int i = 0; i < sources; i++) {
+			AtomicControlledProperty<Integer> source = new AtomicControlledProperty<Integer>(
+					Values.next(i));
+			concurrent.setSource(i, source);
+			locked.setSource(i, source);
+		}
+	}
+
+	@Benchmark
+	public Integer concurrent() {
+		return concurrent.get();
+	}
+
+	@Benchmark
+	public Integer locked() {
+		synchronized (locked) {
+			return locked.get();
+		}
+	}
+}
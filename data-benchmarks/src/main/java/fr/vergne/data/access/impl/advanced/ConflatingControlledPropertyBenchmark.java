@@ -0,0 +1,71 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.benchmark.Listeners;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark compares a burst of {@link #BURST} writes on a
+ * {@link ReactiveControlledProperty}, which notifies each of them, and on a
+ * {@link ConflatingControlledProperty} flushed once after the burst. The
+ * scores are given per write.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConflatingControlledPropertyBenchmark {
+
+	private static final int BURST = 1000;
+
+	@Param({ "1", "10", "1000" })
+	public int listeners;
+
+	private ReactiveControlledProperty<Integer> reactive;
+	private ConflatingControlledProperty<Integer> conflating;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		reactive = new ReactiveControlledProperty<Integer>();
+		conflating = new ConflatingControlledProperty<Integer>();
+		Listeners.register(reactive, listeners, blackhole);
+		Listeners.register(conflating, listeners, blackhole);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void reactive() {
+		for (int i = 0; i < BURST; i++) {
+			reactive.set(Values.next(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void conflating() {
+		for (int i = 0; i < BURST; i++) {
+			conflating.set(Values.next(i));
+		}
+		conflating.flush();
+	}
+}
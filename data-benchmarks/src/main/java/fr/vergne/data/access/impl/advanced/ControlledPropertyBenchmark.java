@@ -0,0 +1,43 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlledPropertyBenchmark {
+
+	private ControlledProperty<Integer> property;
+	private int index;
+
+	@Setup
+	public void setup() {
+		property = new ControlledProperty<Integer>(Values.next(0));
+	}
+
+	@Benchmark
+	public Integer get() {
+		return property.get();
+	}
+
+	@Benchmark
+	public void set() {
+		property.set(Values.next(index++));
+	}
+}
@@ -0,0 +1,105 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.IncrementalComputer;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.InputChange;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the cost of a sum over many inputs when one of them
+ * changes before each {@link LastInstantComputer#get()}, depending on whether
+ * the sum is computed from all the inputs or updated by an
+ * {@link IncrementalComputer}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalComputerBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean incremental;
+
+	@Param({ "100", "10000" })
+	public int sources;
+
+	private LastInstantComputer<Long> computer;
+	private ReactiveControlledProperty<Integer>[] properties;
+	private int count = 0;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		final Computer<Long> sum = new Computer<Long>() {
+
+			@Override
+			public Long compute(Map<Object, Object> inputs) {
+				long sum = 0;
+				for (Object input : inputs.values()) {
+					sum += (Integer) input;
+				}
+				return sum;
+			}
+		};
+		if (incremental) {
+			computer = new LastInstantComputer<Long>(
+					new IncrementalComputer<Long>() {
+
+						@Override
+						public Long compute(Map<Object, Object> inputs) {
+							return sum.compute(inputs);
+						}
+
+						@Override
+						public Long update(Long output,
+								List<InputChange> changes,
+								Map<Object, Object> removedInputs,
+								Map<Object, Object> inputs) {
+							long sum = output;
+							for (InputChange change : changes) {
+								sum += (Integer) change.getNewValue()
+										- (Integer) change.getOldValue();
+							}
+							return sum;
+						}
+					});
+		} else {
+			computer = new LastInstantComputer<Long>(sum);
+		}
+		properties = new ReactiveControlledProperty[sources];
+		for (int i = 0; i < sources; i++) {
+			properties[i] = new ReactiveControlledProperty<Integer>(
+					Values.next(i));
+			computer.setSource(i, properties[i]);
+		}
+		computer.get();
+	}
+
+	@Benchmark
+	public Long get() {
+		int index = count++ % sources;
+		properties[index].set(Values.next(count));
+		return computer.get();
+	}
+}
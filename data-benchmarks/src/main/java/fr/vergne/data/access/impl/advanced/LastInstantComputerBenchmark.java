@@ -0,0 +1,261 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.ActiveWriteAccess;
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveWriteAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.access.util.AccessFactory;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the cost of {@link LastInstantComputer#get()}
+ * depending on the number of sources, the fraction of them which changes
+ * between two calls, the kind of source registered and the level of the
+ * {@link Logger} of a {@link LoggingComputationObserver}, if any. The
+ * {@link #recompute()}
+ * benchmark provides the reference of a plain recomputation at each call, so
+ * comparing both shows where the cache stops to pay off. Run it with
+ * <code>-prof gc</code> (default with the BenchmarkRunner) to get the
+ * allocation per operation.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LastInstantComputerBenchmark {
+
+	public static enum SourceKind {
+		/**
+		 * {@link ControlledProperty} registered as an {@link ActiveReadAccess}.
+		 */
+		ACTIVE,
+		/**
+		 * {@link ReactiveControlledProperty}, which notifies its changes so
+		 * it is not read while it does not change.
+		 */
+		REACTIVE,
+		/**
+		 * {@link Pusher} registered as a {@link PassiveReadAccess}, so wrapped
+		 * by the {@link LastInstantComputer}.
+		 */
+		PASSIVE_READ,
+		/**
+		 * {@link FlowController} registered as a {@link PassiveWriteAccess},
+		 * so wrapped by the {@link LastInstantComputer}.
+		 */
+		PASSIVE_WRITE
+	}
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int sources;
+
+	/**
+	 * The average fraction of the sources changed between two calls.
+	 */
+	@Param({ "0", "0.01", "0.1", "1" })
+	public double changedFraction;
+
+	@Param
+	public SourceKind sourceKind;
+
+	/**
+	 * The level of the {@link Logger} of the
+	 * {@link LoggingComputationObserver}, NONE to not set any observer.
+	 */
+	@Param({ "NONE", "OFF", "INFO", "FINEST" })
+	public String logLevel;
+
+	/**
+	 * The amount of work done by the {@link Computer} in addition to summing
+	 * the inputs, in {@link Blackhole#consumeCPU(long)} tokens.
+	 */
+	@Param({ "0", "1000" })
+	public long computeTokens;
+
+	private LastInstantComputer<Integer> computer;
+	private ActiveWriteAccess<Integer>[] writers;
+	private int[] versions;
+	private double pendingChanges;
+	private int nextWriter;
+	private final Map<Object, Object> inputs = new HashMap<Object, Object>();
+
+	private Logger logger;
+	private Level previousLevel;
+	private Handler[] previousHandlers;
+	private boolean previousUseParentHandlers;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		computer = new LastInstantComputer<Integer>(new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				Blackhole.consumeCPU(computeTokens);
+				int sum = 0;
+				for (Object value : inputs.values()) {
+					sum += (Integer) value;
+				}
+				return sum;
+			}
+		});
+
+		AccessFactory factory = new AccessFactory();
+		writers = new ActiveWriteAccess[sources];
+		versions = new int[sources];
+		for (int i = 0; i < sources; i++) {
+			Integer initialValue = Values.next(0);
+			switch (sourceKind) {
+			case ACTIVE:
+				ControlledProperty<Integer> property = new ControlledProperty<Integer>(
+						initialValue);
+				computer.setSource(i, property);
+				writers[i] = property;
+				break;
+			case REACTIVE:
+				ReactiveControlledProperty<Integer> reactive = new ReactiveControlledProperty<Integer>(
+						initialValue);
+				computer.setSource(i, reactive);
+				writers[i] = reactive;
+				break;
+			case PASSIVE_READ:
+				Pusher<Integer> pusher = new Pusher<Integer>();
+				computer.setSource(i, pusher);
+				pusher.set(initialValue);
+				writers[i] = pusher;
+				break;
+			case PASSIVE_WRITE:
+				FlowController<Integer> controller = new FlowController<Integer>();
+				writers[i] = factory.createActiveWriteFromPassiveWrite(
+						controller, initialValue);
+				computer.setSource(i, (PassiveWriteAccess<Integer>) controller);
+				break;
+			default:
+				throw new RuntimeException("Unmanaged kind: " + sourceKind);
+			}
+		}
+		if (logLevel.equals("NONE")) {
+			// no observer
+		} else {
+			setupLogger();
+			computer.setObserver(new LoggingComputationObserver<Integer>(logger));
+		}
+		computer.get();
+	}
+
+	private void setupLogger() {
+		logger = Logger.getLogger(LastInstantComputer.class.getName());
+		previousLevel = logger.getLevel();
+		previousHandlers = logger.getHandlers();
+		previousUseParentHandlers = logger.getUseParentHandlers();
+		for (Handler handler : previousHandlers) {
+			logger.removeHandler(handler);
+		}
+		/*
+		 * The records are formatted but not printed, so we measure the cost of
+		 * the logging calls, not the cost of the console.
+		 */
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler() {
+
+			@Override
+			public void publish(LogRecord record) {
+				if (isLoggable(record)) {
+					record.getMessage();
+				} else {
+					// ignore
+				}
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		});
+		logger.setLevel(Level.parse(logLevel));
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (logger == null) {
+			// no logger to restore
+		} else {
+			for (Handler handler : logger.getHandlers()) {
+				logger.removeHandler(handler);
+			}
+			for (Handler handler : previousHandlers) {
+				logger.addHandler(handler);
+			}
+			logger.setUseParentHandlers(previousUseParentHandlers);
+			logger.setLevel(previousLevel);
+		}
+	}
+
+	/**
+	 * Change the values of as many sources as required to reach, on average,
+	 * the {@link #changedFraction}.
+	 */
+	private void changeSources() {
+		pendingChanges += changedFraction * sources;
+		while (pendingChanges >= 1) {
+			pendingChanges--;
+			int index = nextWriter;
+			nextWriter = (nextWriter + 1) % sources;
+			writers[index].set(Values.next(++versions[index]));
+		}
+	}
+
+	@Benchmark
+	public Integer get() {
+		changeSources();
+		return computer.get();
+	}
+
+	/**
+	 * Reference benchmark, where the sources are read and the output is
+	 * computed at each call, without any cache.
+	 */
+	@Benchmark
+	public Integer recompute() {
+		changeSources();
+		for (Entry<Object, ActiveReadAccess<?>> entry : computer
+				.getAllSources().entrySet()) {
+			inputs.put(entry.getKey(), entry.getValue().get());
+		}
+		return computer.getComputer().compute(inputs);
+	}
+}
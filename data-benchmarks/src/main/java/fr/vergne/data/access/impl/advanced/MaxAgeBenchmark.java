@@ -0,0 +1,103 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the latency of {@link LastInstantComputer#get()}
+ * for a time-dependent aggregate, which is recomputed at each call when no
+ * max age is acceptable, once expired otherwise, or ahead of its expiry in
+ * the background.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaxAgeBenchmark {
+
+	public static enum Policy {
+		ALWAYS, MAX_AGE, REFRESH_AHEAD
+	}
+
+	@Param({ "ALWAYS", "MAX_AGE", "REFRESH_AHEAD" })
+	public Policy policy;
+
+	/**
+	 * The number of values aggregated at each computation.
+	 */
+	@Param({ "10000" })
+	public int values;
+
+	private LastInstantComputer<Long> computer;
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() {
+		final int[] data = new int[values];
+		for (int i = 0; i < values; i++) {
+			data[i] = Values.next(i);
+		}
+		computer = new LastInstantComputer<Long>(new Computer<Long>() {
+
+			@Override
+			public Long compute(Map<Object, Object> inputs) {
+				long sum = System.currentTimeMillis();
+				for (int value : data) {
+					sum += value;
+				}
+				return sum;
+			}
+		});
+		computer.setSource("data", (ActiveReadAccess<Integer>) new ControlledProperty<Integer>(
+				values));
+		if (policy == Policy.ALWAYS) {
+			computer.setMaxAge(0, TimeUnit.MILLISECONDS);
+		} else {
+			computer.setMaxAge(10, TimeUnit.MILLISECONDS);
+		}
+		if (policy == Policy.REFRESH_AHEAD) {
+			executor = Executors.newSingleThreadExecutor();
+			computer.setRefreshAhead(executor, 2, TimeUnit.MILLISECONDS);
+		} else {
+			// recompute in the calling thread
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (executor == null) {
+			// no executor to stop
+		} else {
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public Long get() {
+		return computer.get();
+	}
+}
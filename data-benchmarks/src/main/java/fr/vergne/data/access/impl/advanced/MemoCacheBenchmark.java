@@ -0,0 +1,105 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.access.impl.advanced.MemoCache.EvictionPolicy;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures a {@link LastInstantComputer} whose single input
+ * cycles through a few values, like a toggling filter, with and without a
+ * {@link MemoCache}. Without it, each change recomputes the output. With it,
+ * the output is computed once per value as long as the values fit in the
+ * {@link MemoCache}, so the benchmark shows the cost of the lookup compared to
+ * the computation.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoCacheBenchmark {
+
+	public static enum Memoization {
+		NONE, LRU, LFU
+	}
+
+	@Param
+	public Memoization memoization;
+
+	/**
+	 * The number of values the input cycles through.
+	 */
+	@Param({ "2", "8" })
+	public int distinctInputs;
+
+	/**
+	 * The amount of work done by the {@link Computer}, in
+	 * {@link Blackhole#consumeCPU(long)} tokens.
+	 */
+	@Param({ "0", "1000" })
+	public long computeTokens;
+
+	private LastInstantComputer<Integer> computer;
+	private ControlledProperty<Integer> source;
+	private Integer[] values;
+	private int next;
+
+	@Setup
+	public void setup() {
+		computer = new LastInstantComputer<Integer>(new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				Blackhole.consumeCPU(computeTokens);
+				return (Integer) inputs.get(0) + 1;
+			}
+		});
+		source = new ControlledProperty<Integer>();
+		computer.setSource(0, source);
+		switch (memoization) {
+		case NONE:
+			break;
+		case LRU:
+			computer.setMemoCache(new MemoCache(8, EvictionPolicy.LRU));
+			break;
+		case LFU:
+			computer.setMemoCache(new MemoCache(8, EvictionPolicy.LFU));
+			break;
+		default:
+			throw new RuntimeException("Unmanaged memoization: "
+					+ memoization);
+		}
+
+		values = new Integer[distinctInputs];
+		for (int i = 0; i < distinctInputs; i++) {
+			values[i] = Values.next(i);
+		}
+	}
+
+	@Benchmark
+	public Integer toggle() {
+		source.set(values[next]);
+		next = (next + 1) % distinctInputs;
+		return computer.get();
+	}
+}
@@ -0,0 +1,104 @@
+package fr.vergne.data.access.impl.advanced;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
+import fr.vergne.data.access.impl.advanced.LastInstantComputer.Computer;
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark measures the latency of {@link LastInstantComputer#get()}
+ * when its sources are {@link Puller}s waiting for some time before to
+ * provide their value, like sources accessing files, depending on whether
+ * they are read in the calling thread or in parallel.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelPollingBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	@Param({ "4", "16" })
+	public int sources;
+
+	/**
+	 * The time spent by each source to provide its value, in microseconds.
+	 */
+	@Param({ "100" })
+	public long sourceLatency;
+
+	private LastInstantComputer<Integer> computer;
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() {
+		computer = new LastInstantComputer<Integer>(new Computer<Integer>() {
+
+			@Override
+			public Integer compute(Map<Object, Object> inputs) {
+				return inputs.size();
+			}
+		});
+		for (int i = 0; i < sources; i++) {
+			final Integer value = Values.next(i);
+			ActiveReadAccess<Integer> source = new Puller<Integer>(
+					new ValueGenerator<Integer>() {
+
+						@Override
+						public Integer generateValue() {
+							LockSupport.parkNanos(TimeUnit.MICROSECONDS
+									.toNanos(sourceLatency));
+							return value;
+						}
+					});
+			computer.setSource(i, source);
+		}
+		if (parallel) {
+			executor = Executors.newFixedThreadPool(sources);
+			computer.setParallelPolling(executor, 1);
+		} else {
+			// read in the calling thread
+		}
+		computer.get();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (executor == null) {
+			// no executor to stop
+		} else {
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public Integer get() {
+		return computer.get();
+	}
+}
@@ -0,0 +1,107 @@
+package fr.vergne.data.access.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.ActiveReadAccess;
+import fr.vergne.data.access.ActiveWriteAccess;
+import fr.vergne.data.access.PassiveWriteAccess.ValueGenerator;
+import fr.vergne.data.access.impl.SimplePassiveWriteAccess;
+import fr.vergne.data.access.impl.advanced.FlowController;
+import fr.vergne.data.access.impl.advanced.Pusher;
+import fr.vergne.data.benchmark.Listeners;
+import fr.vergne.data.benchmark.Values;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessFactoryBenchmark {
+
+	/**
+	 * The number of listeners registered on the passive read accesses, which
+	 * are notified when the adapters are used.
+	 */
+	@Param({ "0", "1", "10", "1000" })
+	public int listeners;
+
+	private Pusher<Integer> pusher;
+	private ActiveReadAccess<Integer> activeReadFromPassiveRead;
+	private FlowController<Integer> controller;
+	private ActiveWriteAccess<Integer> activeWriteFromPassiveWrite;
+	private ActiveReadAccess<Integer> activeReadFromPassiveWrite;
+	private ActiveWriteAccess<Integer> activeWriteFromPassiveRead;
+	private int index;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		AccessFactory factory = new AccessFactory();
+
+		pusher = new Pusher<Integer>();
+		Listeners.register(pusher, listeners, blackhole);
+		activeReadFromPassiveRead = factory.createActiveReadFromPassiveRead(
+				pusher, Values.next(0));
+		activeWriteFromPassiveRead = factory
+				.createActiveWriteFromPassiveRead(pusher);
+
+		controller = new FlowController<Integer>();
+		Listeners.register(controller, listeners, blackhole);
+		activeWriteFromPassiveWrite = factory
+				.createActiveWriteFromPassiveWrite(controller, Values.next(0));
+
+		activeReadFromPassiveWrite = factory
+				.createActiveReadFromPassiveWrite(new SimplePassiveWriteAccess<Integer>(
+						new ValueGenerator<Integer>() {
+
+							@Override
+							public Integer generateValue() {
+								return Values.next(index++);
+							}
+						}));
+	}
+
+	/**
+	 * Push a value through the {@link Pusher} and read it back through the
+	 * adapter, which is the complete round trip of this adapter.
+	 */
+	@Benchmark
+	public Integer activeReadFromPassiveRead() {
+		pusher.set(Values.next(index++));
+		return activeReadFromPassiveRead.get();
+	}
+
+	/**
+	 * Set a value through the adapter and transfer it through the
+	 * {@link FlowController}, which is the complete round trip of this
+	 * adapter.
+	 */
+	@Benchmark
+	public void activeWriteFromPassiveWrite() {
+		activeWriteFromPassiveWrite.set(Values.next(index++));
+		controller.transfer();
+	}
+
+	@Benchmark
+	public Integer activeReadFromPassiveWrite() {
+		return activeReadFromPassiveWrite.get();
+	}
+
+	@Benchmark
+	public void activeWriteFromPassiveRead() {
+		activeWriteFromPassiveRead.set(Values.next(index++));
+	}
+}
@@ -0,0 +1,158 @@
+package fr.vergne.data.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This {@link BenchmarkRunner} is the entry point of the benchmarks jar. It
+ * accepts the usual JMH command line (benchmark regex, <code>-prof gc</code>,
+ * <code>-rf json</code>, etc.) but, unless a thread count is explicitly given
+ * with <code>-t</code>, it runs the selected benchmarks once for each thread
+ * count listed in the <code>threads</code> system property (comma-separated,
+ * <code>1,4</code> by default). This way, a single call provides the numbers
+ * for both the single-threaded and the multi-threaded scenarios:
+ *
+ * <pre>
+ * java -Dthreads=1,2,4,8 -jar target/benchmarks.jar ConcurrentStorage
+ * </pre>
+ *
+ * Only the benchmarks sharing their state between the threads, namely the
+ * ones annotated with <code>@State(Scope.Benchmark)</code>, are run with
+ * several threads. The other ones measure components which are not
+ * thread-safe, so each thread works on its own state and running them with
+ * several threads would not measure any contention: they are run with a
+ * single thread only.<br/>
+ * <br/>
+ *
+ * If no profiler is requested with <code>-prof</code>, the {@link GCProfiler}
+ * is used, so the allocation per operation is always reported together with
+ * the throughput.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws CommandLineOptionException,
+			RunnerException {
+		Options commandLine = new CommandLineOptions(args);
+		if (commandLine.getProfilers().isEmpty()) {
+			commandLine = new OptionsBuilder().parent(commandLine)
+					.addProfiler(GCProfiler.class).build();
+		} else {
+			// use the requested profilers
+		}
+
+		if (commandLine.getThreads().hasValue()) {
+			new Runner(commandLine).run();
+		} else {
+			List<BenchmarkListEntry> benchmarks = readBenchmarks();
+			for (int threads : getThreadCounts()) {
+				ChainedOptionsBuilder builder = new OptionsBuilder().parent(
+						commandLine).threads(threads);
+				if (threads == 1) {
+					// all the benchmarks support a single thread
+				} else {
+					for (BenchmarkListEntry benchmark : benchmarks) {
+						if (isShared(benchmark)) {
+							// measure the contention
+						} else {
+							builder.exclude("^"
+									+ Pattern.quote(benchmark.getUsername())
+									+ "$");
+						}
+					}
+				}
+				Options options = builder.build();
+				if (isAnySelected(benchmarks, options)) {
+					new Runner(options).run();
+				} else {
+					// no shared benchmark selected for this thread count
+				}
+			}
+		}
+	}
+
+	private static List<BenchmarkListEntry> readBenchmarks() {
+		InputStream stream = BenchmarkRunner.class
+				.getResourceAsStream(BenchmarkList.BENCHMARK_LIST);
+		if (stream == null) {
+			throw new IllegalStateException("No benchmark list found.");
+		} else {
+			try {
+				try {
+					return BenchmarkList.readBenchmarkList(stream);
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(
+						"Cannot read the benchmark list.", e);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if the state of the benchmark class is shared
+	 *         by the threads
+	 */
+	private static boolean isShared(BenchmarkListEntry benchmark) {
+		try {
+			State state = Class.forName(benchmark.getUserClassQName())
+					.getAnnotation(State.class);
+			return state != null && state.value() == Scope.Benchmark;
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Apply the same selection as JMH: a benchmark is selected if its name
+	 * contains an include pattern, or if there is none, and no exclude
+	 * pattern.
+	 */
+	private static boolean isAnySelected(List<BenchmarkListEntry> benchmarks,
+			Options options) {
+		for (BenchmarkListEntry benchmark : benchmarks) {
+			String name = benchmark.getUsername();
+			boolean included = options.getIncludes().isEmpty();
+			for (String include : options.getIncludes()) {
+				included |= Pattern.compile(include).matcher(name).find();
+			}
+			for (String exclude : options.getExcludes()) {
+				included &= !Pattern.compile(exclude).matcher(name).find();
+			}
+			if (included) {
+				return true;
+			} else {
+				// check the next one
+			}
+		}
+		return false;
+	}
+
+	private static List<Integer> getThreadCounts() {
+		List<Integer> counts = new LinkedList<Integer>();
+		for (String count : System.getProperty("threads", "1,4").split(",")) {
+			counts.add(Integer.parseInt(count.trim()));
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,65 @@
+package fr.vergne.data.benchmark;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.access.PassiveReadAccess;
+import fr.vergne.data.access.PassiveReadAccess.ValueListener;
+
+/**
+ * {@link Listeners} provides the {@link ValueListener}s registered in the
+ * benchmarks. Each of them consumes the notified value into a
+ * {@link Blackhole}, so the notification cannot be optimized away, and they
+ * are all different instances, so they are all kept by the
+ * {@link PassiveReadAccess} they are registered to.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class Listeners {
+
+	/**
+	 *
+	 * @param count
+	 *            the number of {@link ValueListener}s to create
+	 * @param blackhole
+	 *            the {@link Blackhole} to feed with the notified values
+	 * @return the {@link ValueListener}s created
+	 */
+	public static <Value> List<ValueListener<Value>> create(int count,
+			final Blackhole blackhole) {
+		List<ValueListener<Value>> listeners = new LinkedList<ValueListener<Value>>();
+		for (int i = 0; i < count; i++) {
+			listeners.add(new ValueListener<Value>() {
+
+				@Override
+				public void valueGenerated(Value value) {
+					blackhole.consume(value);
+				}
+			});
+		}
+		return listeners;
+	}
+
+	/**
+	 * Register a given number of {@link ValueListener}s to a
+	 * {@link PassiveReadAccess}.
+	 *
+	 * @param access
+	 *            the {@link PassiveReadAccess} to register the
+	 *            {@link ValueListener}s to
+	 * @param count
+	 *            the number of {@link ValueListener}s to register
+	 * @param blackhole
+	 *            the {@link Blackhole} to feed with the notified values
+	 */
+	public static <Value> void register(PassiveReadAccess<Value> access,
+			int count, Blackhole blackhole) {
+		for (ValueListener<Value> listener : Listeners.<Value> create(count,
+				blackhole)) {
+			access.addValueListener(listener);
+		}
+	}
+}
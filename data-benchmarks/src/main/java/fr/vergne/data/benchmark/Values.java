@@ -0,0 +1,37 @@
+package fr.vergne.data.benchmark;
+
+/**
+ * {@link Values} provides pre-boxed values to use in the benchmarks, such that
+ * the boxing of the values is not part of the measurement. Benchmarks should
+ * cycle over them with {@link #next(int)} to avoid writing always the same
+ * value, which could be optimized away by the JIT.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class Values {
+
+	/**
+	 * The number of values available. It is a power of 2, so the cycling can
+	 * be done with a simple mask.
+	 */
+	public static final int COUNT = 1024;
+	private static final int MASK = COUNT - 1;
+	private static final Integer[] VALUES = new Integer[COUNT];
+	static {
+		for (int i = 0; i < COUNT; i++) {
+			VALUES[i] = Integer.valueOf(i);
+		}
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            any index, typically a counter incremented at each
+	 *            call
+	 * @return the pre-boxed value corresponding to this index
+	 */
+	public static Integer next(int index) {
+		return VALUES[index & MASK];
+	}
+}
@@ -0,0 +1,113 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark uses a {@link BoundedStorage} as a cache, loading the
+ * missing values, with keys following a skewed distribution close to
+ * the Zipf law: a few keys are requested very often, many are
+ * requested rarely. It reports the throughput and, through the hits and
+ * misses counters, the hit ratio. The LRU policy, implemented with a
+ * {@link LinkedHashMap}, is measured as a reference.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedStorageBenchmark {
+
+	private static final int UNIVERSE = 1000000;
+	private static final int REQUESTS = 1 << 20;
+
+	@Param({ "1000", "10000" })
+	public int maximum;
+
+	@Param({ "tinylfu", "lru" })
+	public String policy;
+
+	private int[] keys;
+	private int index;
+	private BoundedStorage<Integer> storage;
+	private Map<Integer, Object> lru;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(0);
+		keys = new int[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			// log-uniform distribution, which follows the Zipf law
+			keys[i] = (int) Math.pow(UNIVERSE, random.nextDouble()) - 1;
+		}
+		storage = new BoundedStorage<Integer>(maximum);
+		lru = new LinkedHashMap<Integer, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, Object> eldest) {
+				return size() > maximum;
+			}
+		};
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+		public long hits;
+		public long misses;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			hits = 0;
+			misses = 0;
+		}
+	}
+
+	@Benchmark
+	public Object load(Counters counters) {
+		index = (index + 1) & (REQUESTS - 1);
+		Integer key = keys[index];
+		Object value;
+		if (policy.equals("lru")) {
+			value = lru.get(key);
+		} else {
+			value = storage.get(key);
+		}
+		if (value == null) {
+			counters.misses++;
+			value = Values.next(key);
+			if (policy.equals("lru")) {
+				lru.put(key, value);
+			} else {
+				storage.set(key, value);
+			}
+		} else {
+			counters.hits++;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,129 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+
+/**
+ * This benchmark compares the use of a slow {@link SimpleStorage}, which
+ * waits a given latency at each call like a file-based storage, directly and
+ * through a {@link CachingStorage}. The reads are done on a fixed set of
+ * keys, so the {@link CachingStorage} serves them from memory once
+ * loaded, and its writes are flushed in the background.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingStorageBenchmark {
+
+	private static final int SIZE = 10000;
+
+	@Param({ "10", "100" })
+	public int latencyMicros;
+
+	private SlowStorage backing;
+	private CachingStorage<Integer> caching;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		backing = new SlowStorage(latencyMicros);
+		for (int i = 0; i < SIZE; i++) {
+			backing.set(i, Values.next(i));
+		}
+		caching = new CachingStorage<Integer>(backing, 10,
+				TimeUnit.MILLISECONDS, 1000);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		caching.close();
+	}
+
+	private int nextKey() {
+		index++;
+		if (index == SIZE) {
+			index = 0;
+		} else {
+			// keep the current index
+		}
+		return index;
+	}
+
+	@Benchmark
+	public Object getDirect() {
+		return backing.getAll(Collections.singletonList(nextKey()));
+	}
+
+	@Benchmark
+	public Object getCached() {
+		return caching.get(nextKey());
+	}
+
+	@Benchmark
+	public void setDirect() {
+		backing.setAll(Collections.singletonMap(nextKey(),
+				Values.next(index + 1)).entrySet());
+	}
+
+	@Benchmark
+	public void setCached() {
+		caching.set(nextKey(), Values.next(index + 1));
+	}
+
+	/**
+	 * A {@link SimpleStorage} which waits at each bulk call, which are the
+	 * ones used by the {@link CachingStorage}.
+	 */
+	private static class SlowStorage extends SimpleStorage<Integer> {
+		private final long latency;
+
+		public SlowStorage(int latencyMicros) {
+			this.latency = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+		}
+
+		@Override
+		public List<Object> getAll(List<? extends Integer> keys) {
+			LockSupport.parkNanos(latency);
+			return super.getAll(keys);
+		}
+
+		@Override
+		public void setAll(
+				Iterable<? extends Entry<? extends Integer, ? extends Object>> entries) {
+			LockSupport.parkNanos(latency);
+			super.setAll(entries);
+		}
+
+		@Override
+		public void removeAll(Collection<? extends Integer> keys) {
+			LockSupport.parkNanos(latency);
+			super.removeAll(keys);
+		}
+	}
+}
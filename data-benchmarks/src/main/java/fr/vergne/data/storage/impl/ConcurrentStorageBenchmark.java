@@ -0,0 +1,217 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.benchmark.Values;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+
+/**
+ * This benchmark compares the {@link ConcurrentStorage} with a
+ * {@link SimpleStorage} protected by a single lock, which is the usual way to
+ * share it between threads. The storage is shared by all the threads, so
+ * running it with several threads measures the contention.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentStorageBenchmark {
+
+	public static enum Implementation {
+		CONCURRENT, LOCKED_SIMPLE
+	}
+
+	@Param
+	public Implementation implementation;
+
+	@Param({ "10000" })
+	public int size;
+
+	@Param({ "0", "1" })
+	public int listeners;
+
+	private ModifiableStorage<Integer> storage;
+	private Integer[] keys;
+
+	/**
+	 * Each thread goes through the keys from its own starting point.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int index;
+
+		@Setup
+		public void setup(ConcurrentStorageBenchmark benchmark) {
+			index = System.identityHashCode(this) % benchmark.size;
+		}
+
+		public int next(int size) {
+			index++;
+			if (index == size) {
+				index = 0;
+			} else {
+				// keep the current index
+			}
+			return index;
+		}
+	}
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		switch (implementation) {
+		case CONCURRENT:
+			storage = new ConcurrentStorage<Integer>();
+			break;
+		case LOCKED_SIMPLE:
+			storage = new LockedStorage(new SimpleStorage<Integer>());
+			break;
+		default:
+			throw new RuntimeException("Unmanaged implementation: "
+					+ implementation);
+		}
+		for (int i = 0; i < listeners; i++) {
+			((ReactiveStorage<Integer>) storage)
+					.addOperationListener(new OperationListener<Integer>() {
+
+						@Override
+						public void entrySet(Integer key, Object oldValue,
+								Object newValue) {
+							blackhole.consume(oldValue);
+						}
+					});
+		}
+
+		keys = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = i;
+			storage.set(keys[i], Values.next(i));
+		}
+	}
+
+	@Benchmark
+	public Object get(Cursor cursor) {
+		return storage.get(keys[cursor.next(size)]);
+	}
+
+	@Benchmark
+	public void set(Cursor cursor) {
+		int index = cursor.next(size);
+		storage.set(keys[index], Values.next(index + 1));
+	}
+
+	/**
+	 * One write every 10 reads, which is closer to the usual workloads.
+	 */
+	@Benchmark
+	public Object mixed(Cursor cursor) {
+		int index = cursor.next(size);
+		if (index % 10 == 0) {
+			storage.set(keys[index], Values.next(index + 1));
+			return null;
+		} else {
+			return storage.get(keys[index]);
+		}
+	}
+
+	/**
+	 * A {@link SimpleStorage} which is accessed through a single lock.
+	 */
+	private static class LockedStorage implements ModifiableStorage<Integer>,
+			ReactiveStorage<Integer> {
+
+		private final SimpleStorage<Integer> storage;
+
+		public LockedStorage(SimpleStorage<Integer> storage) {
+			this.storage = storage;
+		}
+
+		@Override
+		public synchronized Set<Integer> getKeys() {
+			return storage.getKeys();
+		}
+
+		@Override
+		public synchronized Object get(Integer key) {
+			return storage.get(key);
+		}
+
+		@Override
+		public synchronized List<Object> getAll(
+				List<? extends Integer> keys) {
+			return storage.getAll(keys);
+		}
+
+		@Override
+		public synchronized Iterator<Entry<Integer, Object>> iterator() {
+			return storage.iterator();
+		}
+
+		@Override
+		public synchronized void set(Integer key, Object value) {
+			storage.set(key, value);
+		}
+
+		@Override
+		public synchronized void remove(Integer key) {
+			storage.remove(key);
+		}
+
+		@Override
+		public synchronized void setAll(
+				Iterable<? extends Entry<? extends Integer, ? extends Object>> entries) {
+			storage.setAll(entries);
+		}
+
+		@Override
+		public synchronized void removeAll(
+				Collection<? extends Integer> keys) {
+			storage.removeAll(keys);
+		}
+
+		@Override
+		public synchronized void clear() {
+			storage.clear();
+		}
+
+		@Override
+		public void addOperationListener(OperationListener<Integer> listener) {
+			storage.addOperationListener(listener);
+		}
+
+		@Override
+		public Collection<OperationListener<Integer>> getOperationListeners() {
+			return storage.getOperationListeners();
+		}
+
+		@Override
+		public void removeOperationListener(
+				OperationListener<Integer> listener) {
+			storage.removeOperationListener(listener);
+		}
+	}
+}
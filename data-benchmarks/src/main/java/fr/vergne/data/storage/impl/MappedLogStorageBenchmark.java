@@ -0,0 +1,115 @@
+package fr.vergne.data.storage.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+import fr.vergne.data.storage.codec.Codecs;
+
+/**
+ * This benchmark measures the operations of {@link MappedLogStorage}
+ * depending on the size of the storage: reading and writing values, and
+ * opening a directory which contains a log, which is what a restart costs.
+ * The log is compacted between the iterations, so it does not grow along the
+ * measurement.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class MappedLogStorageBenchmark {
+
+	@Param({ "10000", "1000000" })
+	public int size;
+
+	private File directory;
+	private MappedLogStorage<Integer> storage;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = File.createTempFile("mapped-log", "");
+		directory.delete();
+		storage = open();
+		for (int i = 0; i < size; i++) {
+			storage.set(i, Values.next(i));
+		}
+		storage.flush();
+	}
+
+	private MappedLogStorage<Integer> open() throws IOException {
+		return new MappedLogStorage<Integer>(directory, Codecs.INTEGER,
+				Codecs.checked(Integer.class, Codecs.INTEGER));
+	}
+
+	@Setup(Level.Iteration)
+	public void compact() {
+		storage.compact();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		storage.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private int nextKey() {
+		index++;
+		if (index == size) {
+			index = 0;
+		} else {
+			// keep the current index
+		}
+		return index;
+	}
+
+	@Benchmark
+	public Object get() {
+		return storage.get(nextKey());
+	}
+
+	@Benchmark
+	public void set() {
+		storage.set(nextKey(), Values.next(index + 1));
+	}
+
+	/**
+	 * Open the log of the storage, as done at each restart. Because it takes
+	 * some time for big logs, this benchmark is measured in single shots.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public int reopen() throws IOException {
+		storage.flush();
+		MappedLogStorage<Integer> reopened = open();
+		int count = reopened.getKeys().size();
+		reopened.close();
+		return count;
+	}
+}
@@ -0,0 +1,296 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.data.benchmark.Values;
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+
+/**
+ * This benchmark measures the operations of {@link SimpleStorage} depending on
+ * the size of the storage, the type of keys and the number of
+ * {@link OperationListener}s registered. The bulk operations work on batches
+ * of {@link #batch} random keys. The modifying operations restore the storage
+ * in the same operation, such that the size of the storage remains stable
+ * along the measurement. The biggest sizes need a few GB of heap, hence the
+ * fixed heap of the forked JVM. To remain in this heap with several threads,
+ * the keys are shared by all the threads, like the storage of the reading
+ * operations, while each thread has its own storage for the modifying
+ * operations, since {@link SimpleStorage} is not thread-safe.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class SimpleStorageBenchmark {
+
+	public static enum KeyType {
+		STRING, INTEGER, COMPOSITE
+	}
+
+	/**
+	 * Key made of several fields, like the identifiers often used in
+	 * business data.
+	 */
+	private static class CompositeKey {
+		private final String name;
+		private final int index;
+
+		public CompositeKey(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			} else if (obj instanceof CompositeKey) {
+				CompositeKey other = (CompositeKey) obj;
+				return index == other.index && name.equals(other.name);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + index;
+		}
+	}
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param
+	public KeyType keyType;
+
+	@Param({ "0", "1", "10" })
+	public int listeners;
+
+	/**
+	 * The number of keys used in each bulk operation.
+	 */
+	@Param({ "100" })
+	public int batch;
+
+	private static final int BATCHES = 16;
+
+	private Object[] keys;
+	private List<List<Object>> keyBatches;
+	private List<List<Entry<Object, Object>>> entryBatches;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		keys = new Object[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = createKey(i);
+		}
+
+		Random random = new Random(0);
+		keyBatches = new ArrayList<List<Object>>(BATCHES);
+		entryBatches = new ArrayList<List<Entry<Object, Object>>>(BATCHES);
+		for (int b = 0; b < BATCHES; b++) {
+			List<Object> keyBatch = new ArrayList<Object>(batch);
+			List<Entry<Object, Object>> entryBatch = new ArrayList<Entry<Object, Object>>(
+					batch);
+			for (int i = 0; i < batch; i++) {
+				int keyIndex = random.nextInt(size);
+				keyBatch.add(keys[keyIndex]);
+				entryBatch.add(new SimpleEntry<Object, Object>(keys[keyIndex],
+						Values.next(keyIndex)));
+			}
+			keyBatches.add(keyBatch);
+			entryBatches.add(entryBatch);
+		}
+	}
+
+	private Object createKey(int i) {
+		switch (keyType) {
+		case STRING:
+			return "key-" + i;
+		case INTEGER:
+			return Integer.valueOf(i);
+		case COMPOSITE:
+			return new CompositeKey("key-" + (i % 1000), i / 1000);
+		default:
+			throw new RuntimeException("Unmanaged key type: " + keyType);
+		}
+	}
+
+	private SimpleStorage<Object> createStorage(final Blackhole blackhole) {
+		SimpleStorage<Object> storage = new SimpleStorage<Object>();
+		fill(storage);
+		for (int i = 0; i < listeners; i++) {
+			storage.addOperationListener(new OperationListener<Object>() {
+
+				@Override
+				public void entrySet(Object key, Object oldValue,
+						Object newValue) {
+					blackhole.consume(newValue);
+				}
+			});
+		}
+		return storage;
+	}
+
+	private void fill(SimpleStorage<Object> storage) {
+		for (int i = 0; i < size; i++) {
+			storage.set(keys[i], Values.next(i));
+		}
+	}
+
+	/**
+	 * State providing the keys to use to each thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int index;
+
+		private Object nextKey(SimpleStorageBenchmark benchmark) {
+			index++;
+			if (index == benchmark.size) {
+				index = 0;
+			} else {
+				// keep the current index
+			}
+			return benchmark.keys[index];
+		}
+
+		private int nextBatch() {
+			return index++ & (BATCHES - 1);
+		}
+	}
+
+	/**
+	 * Storage shared by the threads, which is only read. Its
+	 * {@link OperationListener}s are never called, so they can share the
+	 * {@link Blackhole} of the setup.
+	 */
+	@State(Scope.Benchmark)
+	public static class SharedStorage {
+		private SimpleStorage<Object> storage;
+
+		@Setup(Level.Trial)
+		public void setup(SimpleStorageBenchmark benchmark, Blackhole blackhole) {
+			storage = benchmark.createStorage(blackhole);
+		}
+	}
+
+	/**
+	 * Storage dedicated to a thread, which modifies it.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadStorage {
+		private SimpleStorage<Object> storage;
+
+		@Setup(Level.Trial)
+		public void setup(SimpleStorageBenchmark benchmark, Blackhole blackhole) {
+			storage = benchmark.createStorage(blackhole);
+		}
+	}
+
+	@Benchmark
+	public Object get(SharedStorage shared, Cursor cursor) {
+		return shared.storage.get(cursor.nextKey(this));
+	}
+
+	@Benchmark
+	public void set(ThreadStorage local, Cursor cursor) {
+		local.storage.set(cursor.nextKey(this), Values.next(cursor.index + 1));
+	}
+
+	/**
+	 * Remove a key and set it back, so the size of the storage remains the
+	 * same.
+	 */
+	@Benchmark
+	public void remove(ThreadStorage local, Cursor cursor) {
+		Object key = cursor.nextKey(this);
+		Object value = local.storage.get(key);
+		local.storage.remove(key);
+		local.storage.set(key, value);
+	}
+
+	@Benchmark
+	public List<Object> getAll(SharedStorage shared, Cursor cursor) {
+		return shared.storage.getAll(keyBatches.get(cursor.nextBatch()));
+	}
+
+	@Benchmark
+	public void setAll(ThreadStorage local, Cursor cursor) {
+		local.storage.setAll(entryBatches.get(cursor.nextBatch()));
+	}
+
+	/**
+	 * Remove a batch of keys and set them back, so the size of the storage
+	 * remains the same.
+	 */
+	@Benchmark
+	public void removeAll(ThreadStorage local, Cursor cursor) {
+		int batchIndex = cursor.nextBatch();
+		local.storage.removeAll(keyBatches.get(batchIndex));
+		local.storage.setAll(entryBatches.get(batchIndex));
+	}
+
+	@Benchmark
+	public void iterate(SharedStorage shared, Blackhole blackhole) {
+		Iterator<Entry<Object, Object>> iterator = shared.storage.iterator();
+		while (iterator.hasNext()) {
+			blackhole.consume(iterator.next());
+		}
+	}
+
+	/**
+	 * State dedicated to {@link SimpleStorageBenchmark#clear(ClearState)}, which
+	 * needs a full storage at each invocation.
+	 */
+	@State(Scope.Thread)
+	public static class ClearState {
+		private SimpleStorage<Object> storage;
+
+		@Setup(Level.Invocation)
+		public void fill(SimpleStorageBenchmark benchmark, ThreadStorage local) {
+			// reuse the same storage, with the same listeners
+			storage = local.storage;
+			benchmark.fill(storage);
+		}
+	}
+
+	/**
+	 * Clear the full storage. Because the storage must be filled again before
+	 * each call, this benchmark is measured in single shots.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, batchSize = 1)
+	@Measurement(iterations = 20, batchSize = 1)
+	public void clear(ClearState state) {
+		state.storage.clear();
+	}
+}
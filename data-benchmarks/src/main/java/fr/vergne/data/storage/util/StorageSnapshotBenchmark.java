@@ -0,0 +1,133 @@
+package fr.vergne.data.storage.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+import fr.vergne.data.storage.codec.Codecs;
+import fr.vergne.data.storage.impl.SimpleStorage;
+
+/**
+ * This benchmark compares the time to write and read back the content of a
+ * {@link SimpleStorage} with a {@link StorageSnapshot} and with the Java
+ * serialization of its entries. Each operation is long, so they are measured
+ * in single shots.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class StorageSnapshotBenchmark {
+
+	@Param({ "10000", "1000000" })
+	public int size;
+
+	private SimpleStorage<Integer> storage;
+	private StorageSnapshot<Integer> snapshot;
+	private File snapshotFile;
+	private File serializedFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		storage = new SimpleStorage<Integer>();
+		for (int i = 0; i < size; i++) {
+			storage.set(i, Values.next(i));
+		}
+		snapshot = new StorageSnapshot<Integer>(Codecs.INTEGER,
+				Codecs.checked(Integer.class, Codecs.INTEGER));
+		snapshotFile = File.createTempFile("snapshot", ".bin");
+		serializedFile = File.createTempFile("serialized", ".bin");
+		snapshot();
+		serialize();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		snapshotFile.delete();
+		serializedFile.delete();
+	}
+
+	@Benchmark
+	public long snapshot() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+			return snapshot.snapshot(storage, channel);
+		} finally {
+			file.close();
+		}
+	}
+
+	@Benchmark
+	public SimpleStorage<Integer> restore() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+		try {
+			return snapshot.restore(file.getChannel());
+		} finally {
+			file.close();
+		}
+	}
+
+	@Benchmark
+	public void serialize() throws IOException {
+		HashMap<Integer, Object> map = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			map.put(entry.getKey(), entry.getValue());
+		}
+		ObjectOutputStream stream = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(serializedFile)));
+		try {
+			stream.writeObject(map);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Benchmark
+	public SimpleStorage<Integer> deserialize() throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream stream = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(serializedFile)));
+		try {
+			@SuppressWarnings("unchecked")
+			HashMap<Integer, Object> map = (HashMap<Integer, Object>) stream
+					.readObject();
+			SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+			restored.setAll(map.entrySet());
+			return restored;
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package fr.vergne.data.storage.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.vergne.data.benchmark.Values;
+import fr.vergne.data.storage.codec.Codecs;
+import fr.vergne.data.storage.impl.SimpleStorage;
+
+/**
+ * This benchmark measures the modifications of a {@link SimpleStorage} made
+ * durable by a {@link WriteAheadLog}, depending on the maximum number of
+ * records forced on the disk at once. A batch size of 1 corresponds to
+ * forcing each modification. The log is reset between the iterations, so it
+ * does not grow along the measurement.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+
+	private static final int SIZE = 10000;
+
+	@Param({ "1", "100", "10000" })
+	public int batch;
+
+	private File file;
+	private SimpleStorage<Integer> storage;
+	private WriteAheadLog<Integer> log;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("write-ahead", ".log");
+		log = new WriteAheadLog<Integer>(file, Codecs.INTEGER,
+				Codecs.checked(Integer.class, Codecs.INTEGER), 10,
+				TimeUnit.MILLISECONDS, batch);
+		storage = new SimpleStorage<Integer>();
+		storage.addOperationListener(log);
+	}
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		log.sync();
+		log.reset();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		log.close();
+		file.delete();
+	}
+
+	@Benchmark
+	public void set() {
+		index++;
+		if (index == SIZE) {
+			index = 0;
+		} else {
+			// keep the current index
+		}
+		storage.set(index, Values.next(index));
+	}
+}
@@ -0,0 +1,22 @@
+package fr.vergne.data.storage;
+
+/**
+ * A {@link StorageException} is thrown when a {@link DataStorage} cannot
+ * access the medium on which it stores its values, like a file. The methods
+ * of the {@link DataStorage}s do not declare any exception, so the original
+ * one, typically an {@link java.io.IOException}, is provided as the cause.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+@SuppressWarnings("serial")
+public class StorageException extends RuntimeException {
+
+	public StorageException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public StorageException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,56 @@
+package fr.vergne.data.storage.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Codec} translates values into bytes and back, so they can be
+ * written in files or sent through channels. The values are written and read
+ * directly in {@link ByteBuffer}s, which can be direct or mapped ones, to
+ * avoid intermediary copies. The length of the bytes is not written by the
+ * {@link Codec}: it is up to the user to store it, for instance as a prefix,
+ * and to provide it back to {@link #decode(ByteBuffer, int)}.<br/>
+ * <br/>
+ * {@link Codecs} provides the {@link Codec}s of the usual types.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public interface Codec<Value> {
+
+	/**
+	 *
+	 * @param value
+	 *            the value to encode
+	 * @return the number of bytes that {@link #encode(Object, ByteBuffer)}
+	 *         writes for this value
+	 */
+	public int size(Value value);
+
+	/**
+	 * Write the bytes of a value at the current position of a
+	 * {@link ByteBuffer}. The caller ensures that the {@link ByteBuffer} has
+	 * at least {@link #size(Object)} bytes remaining, and the position is
+	 * advanced by exactly this number of bytes.
+	 *
+	 * @param value
+	 *            the value to encode
+	 * @param buffer
+	 *            the {@link ByteBuffer} to write in
+	 */
+	public void encode(Value value, ByteBuffer buffer);
+
+	/**
+	 * Read a value from the bytes at the current position of a
+	 * {@link ByteBuffer}. The position is advanced by exactly the length
+	 * provided.
+	 *
+	 * @param buffer
+	 *            the {@link ByteBuffer} to read from
+	 * @param length
+	 *            the number of bytes of the value, as provided by
+	 *            {@link #size(Object)} when it was encoded
+	 * @return the value decoded
+	 */
+	public Value decode(ByteBuffer buffer, int length);
+}
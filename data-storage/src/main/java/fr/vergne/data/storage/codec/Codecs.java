@@ -0,0 +1,279 @@
+package fr.vergne.data.storage.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * {@link Codecs} provides the {@link Codec}s of the usual types. Unless
+ * specified otherwise, they are stateless, so they can be shared.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class Codecs {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Encode the {@link String}s in UTF-8. The size is computed from the
+	 * characters, so the {@link String} is not encoded twice.
+	 */
+	public static final Codec<String> STRING = new Codec<String>() {
+
+		@Override
+		public int size(String value) {
+			int size = 0;
+			int length = value.length();
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					size += 1;
+				} else if (c < 0x800) {
+					size += 2;
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					size += 4;
+					i++;
+				} else if (Character.isSurrogate(c)) {
+					// unpaired surrogate, replaced like String.getBytes()
+					size += 1;
+				} else {
+					size += 3;
+				}
+			}
+			return size;
+		}
+
+		@Override
+		public void encode(String value, ByteBuffer buffer) {
+			int length = value.length();
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					buffer.put((byte) c);
+				} else if (c < 0x800) {
+					buffer.put((byte) (0xC0 | c >> 6));
+					buffer.put((byte) (0x80 | c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int code = Character.toCodePoint(c, value.charAt(++i));
+					buffer.put((byte) (0xF0 | code >> 18));
+					buffer.put((byte) (0x80 | code >> 12 & 0x3F));
+					buffer.put((byte) (0x80 | code >> 6 & 0x3F));
+					buffer.put((byte) (0x80 | code & 0x3F));
+				} else if (Character.isSurrogate(c)) {
+					buffer.put((byte) '?');
+				} else {
+					buffer.put((byte) (0xE0 | c >> 12));
+					buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+					buffer.put((byte) (0x80 | c & 0x3F));
+				}
+			}
+		}
+
+		@Override
+		public String decode(ByteBuffer buffer, int length) {
+			if (buffer.hasArray()) {
+				int offset = buffer.arrayOffset() + buffer.position();
+				buffer.position(buffer.position() + length);
+				return new String(buffer.array(), offset, length, UTF_8);
+			} else {
+				return new String(read(buffer, length), UTF_8);
+			}
+		}
+	};
+
+	/**
+	 * Encode the {@link Integer}s on 4 bytes.
+	 */
+	public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+
+		@Override
+		public int size(Integer value) {
+			return 4;
+		}
+
+		@Override
+		public void encode(Integer value, ByteBuffer buffer) {
+			buffer.putInt(value);
+		}
+
+		@Override
+		public Integer decode(ByteBuffer buffer, int length) {
+			return buffer.getInt();
+		}
+	};
+
+	/**
+	 * Encode the {@link Long}s on 8 bytes.
+	 */
+	public static final Codec<Long> LONG = new Codec<Long>() {
+
+		@Override
+		public int size(Long value) {
+			return 8;
+		}
+
+		@Override
+		public void encode(Long value, ByteBuffer buffer) {
+			buffer.putLong(value);
+		}
+
+		@Override
+		public Long decode(ByteBuffer buffer, int length) {
+			return buffer.getLong();
+		}
+	};
+
+	/**
+	 * Encode the <code>byte[]</code> as is.
+	 */
+	public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+
+		@Override
+		public int size(byte[] value) {
+			return value.length;
+		}
+
+		@Override
+		public void encode(byte[] value, ByteBuffer buffer) {
+			buffer.put(value);
+		}
+
+		@Override
+		public byte[] decode(ByteBuffer buffer, int length) {
+			return read(buffer, length);
+		}
+	};
+
+	private Codecs() {
+		// only static members
+	}
+
+	/**
+	 * Provide a {@link Codec} using the Java serialization, for the values
+	 * which have no dedicated {@link Codec}. It is much slower and bigger than
+	 * a dedicated {@link Codec}, so it should be used as a last resort. The
+	 * {@link Codec} keeps the bytes serialized by {@link Codec#size(Object)}
+	 * until the next call, so {@link Codec#encode(Object, ByteBuffer)} does
+	 * not serialize the same value again right after. They are forgotten once
+	 * encoded, so a value modified and encoded again is serialized again.
+	 * Thus, it is not thread-safe.
+	 *
+	 * @return a new {@link Codec} using the Java serialization
+	 */
+	public static Codec<Object> serializable() {
+		return new Codec<Object>() {
+
+			/**
+			 * The value measured by the last call to {@link #size(Object)},
+			 * kept only until the next call.
+			 */
+			private Object sizedValue = null;
+			private byte[] sizedBytes = null;
+
+			@Override
+			public int size(Object value) {
+				byte[] bytes = serialize(value);
+				sizedValue = value;
+				sizedBytes = bytes;
+				return bytes.length;
+			}
+
+			@Override
+			public void encode(Object value, ByteBuffer buffer) {
+				byte[] bytes;
+				if (value == sizedValue && sizedBytes != null) {
+					bytes = sizedBytes;
+				} else {
+					bytes = serialize(value);
+				}
+				sizedValue = null;
+				sizedBytes = null;
+				buffer.put(bytes);
+			}
+
+			private byte[] serialize(Object value) {
+				if (value instanceof Serializable) {
+					try {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						ObjectOutputStream stream = new ObjectOutputStream(
+								bytes);
+						stream.writeObject(value);
+						stream.close();
+						return bytes.toByteArray();
+					} catch (IOException e) {
+						throw new IllegalArgumentException(
+								"Cannot serialize " + value, e);
+					}
+				} else {
+					throw new IllegalArgumentException("Not serializable: "
+							+ value);
+				}
+			}
+
+			@Override
+			public Object decode(ByteBuffer buffer, int length) {
+				try {
+					ObjectInputStream stream = new ObjectInputStream(
+							new ByteArrayInputStream(read(buffer, length)));
+					try {
+						return stream.readObject();
+					} finally {
+						stream.close();
+					}
+				} catch (IOException e) {
+					throw new IllegalArgumentException("Cannot deserialize",
+							e);
+				} catch (ClassNotFoundException e) {
+					throw new IllegalArgumentException("Cannot deserialize",
+							e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Adapt a {@link Codec} of a specific type to the values of a storage,
+	 * which are {@link Object}s. The values are checked when encoded, so a
+	 * value of another type is rejected rather than badly encoded.
+	 *
+	 * @param type
+	 *            the type of the values
+	 * @param codec
+	 *            the {@link Codec} of this type
+	 * @return the {@link Codec} accepting any {@link Object}
+	 */
+	public static <Value> Codec<Object> checked(final Class<Value> type,
+			final Codec<Value> codec) {
+		return new Codec<Object>() {
+
+			@Override
+			public int size(Object value) {
+				return codec.size(type.cast(value));
+			}
+
+			@Override
+			public void encode(Object value, ByteBuffer buffer) {
+				codec.encode(type.cast(value), buffer);
+			}
+
+			@Override
+			public Object decode(ByteBuffer buffer, int length) {
+				return codec.decode(buffer, length);
+			}
+		};
+	}
+
+	private static byte[] read(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
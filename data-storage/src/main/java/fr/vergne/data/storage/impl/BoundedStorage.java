@@ -0,0 +1,635 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import fr.vergne.data.access.util.ListenerRegistry;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+
+/**
+ * A {@link BoundedStorage} is a {@link ModifiableStorage} which keeps its
+ * content under a maximum weight, making it suited to be used as a cache. By
+ * default each entry weighs 1, so the maximum weight is a maximum number of
+ * entries, but a {@link Weigher} can be provided to give a weight to each
+ * entry, like an estimation of its memory footprint. When the total weight
+ * exceeds the maximum, entries are evicted until it is respected again.<br/>
+ * <br/>
+ * The entries to evict are chosen with the W-TinyLFU policy, which
+ * considers both how recently and how frequently each {@link Key} has been
+ * used. The new entries enter a small window, about 1% of the maximum weight,
+ * ordered from the least to the most recently used. The entries leaving the
+ * window compete with the least recently used entry of the main space for
+ * their place in it: the one used the most frequently stays, the other is
+ * evicted. The main space is itself split in a probation part, for the
+ * entries which have not been used since they entered it, and a protected
+ * part, about 80% of the main space, for the others, so an entry used once
+ * cannot evict an entry used regularly. The frequencies are estimated with a
+ * count-min sketch, which takes a few bits per entry and forgets the old uses
+ * progressively. Each operation takes a constant amortised time.
+ * <br/>
+ * <br/>
+ * The {@link OperationListener}s are notified of the evictions as removals,
+ * the new value being <code>null</code>. The {@link EvictionListener}s are
+ * also provided the {@link EvictionCause}, such that they can make the
+ * difference with an explicit removal. Like the {@link SimpleStorage}, a
+ * {@link BoundedStorage} is not thread-safe and its {@link OperationListener}s
+ * are stored in a {@link ListenerRegistry}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class BoundedStorage<Key> implements ModifiableStorage<Key>,
+		ReactiveStorage<Key> {
+
+	private final Map<Key, Node<Key>> map = new HashMap<Key, Node<Key>>();
+	private final ListenerRegistry<OperationListener<Key>> listeners = new ListenerRegistry<OperationListener<Key>>(
+			OperationListener.class);
+	private final Weigher<? super Key> weigher;
+	private final EvictionCause cause;
+	private final long maximumWeight;
+	private final long windowMaximum;
+	private final long protectedMaximum;
+	private final FrequencySketch sketch = new FrequencySketch();
+
+	private final NodeList<Key> window = new NodeList<Key>();
+	private final NodeList<Key> probation = new NodeList<Key>();
+	private final NodeList<Key> protectedList = new NodeList<Key>();
+	private long evictionCount = 0;
+
+	/**
+	 * Create a {@link BoundedStorage} containing at most a given number of
+	 * entries.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of entries
+	 */
+	public BoundedStorage(long maximumSize) {
+		this(maximumSize, new Weigher<Key>() {
+
+			@Override
+			public int weigh(Key key, Object value) {
+				return 1;
+			}
+		}, EvictionCause.SIZE);
+	}
+
+	/**
+	 * Create a {@link BoundedStorage} which weighs its entries with a
+	 * {@link Weigher}.
+	 *
+	 * @param maximumWeight
+	 *            the maximum total weight of the entries
+	 * @param weigher
+	 *            the {@link Weigher} of the entries
+	 */
+	public BoundedStorage(long maximumWeight, Weigher<? super Key> weigher) {
+		this(maximumWeight, weigher, EvictionCause.WEIGHT);
+	}
+
+	private BoundedStorage(long maximumWeight, Weigher<? super Key> weigher,
+			EvictionCause cause) {
+		if (maximumWeight < 0) {
+			throw new IllegalArgumentException("Negative maximum: "
+					+ maximumWeight);
+		} else if (weigher == null) {
+			throw new NullPointerException("No weigher provided");
+		} else {
+			this.maximumWeight = maximumWeight;
+			this.weigher = weigher;
+			this.cause = cause;
+			// at least one unit, so a new entry is not evicted by its own set
+			this.windowMaximum = maximumWeight == 0 ? 0 : Math.max(1,
+					maximumWeight / 100);
+			this.protectedMaximum = (maximumWeight - windowMaximum) * 8 / 10;
+			if (cause == EvictionCause.SIZE) {
+				// size the sketch for the maximum, up to a reasonable memory
+				sketch.ensureCapacity((int) Math.min(maximumWeight, 1 << 20));
+			} else {
+				// sized with the content
+			}
+		}
+	}
+
+	@Override
+	public Set<Key> getKeys() {
+		return Collections.unmodifiableSet(map.keySet());
+	}
+
+	/**
+	 * Return the value of a {@link Key}, which counts as a use of this
+	 * {@link Key} for the eviction policy, whether it has a value or not.
+	 */
+	@Override
+	public Object get(Key key) {
+		sketch.increment(key);
+		Node<Key> node = map.get(key);
+		if (node == null) {
+			return null;
+		} else {
+			onAccess(node);
+			return node.value;
+		}
+	}
+
+	@Override
+	public List<Object> getAll(List<? extends Key> keys) {
+		List<Object> values = new ArrayList<Object>(keys.size());
+		for (Key key : keys) {
+			values.add(get(key));
+		}
+		return values;
+	}
+
+	@Override
+	public void set(Key key, Object value) {
+		if (value == null) {
+			remove(key);
+		} else {
+			int weight = weigher.weigh(key, value);
+			if (weight < 0) {
+				throw new IllegalArgumentException("Negative weight for "
+						+ key + ": " + weight);
+			} else {
+				// valid weight
+			}
+			sketch.increment(key);
+			Node<Key> node = map.get(key);
+			Object oldValue;
+			if (node == null) {
+				oldValue = null;
+				node = new Node<Key>(key, value, weight);
+				map.put(key, node);
+				sketch.ensureCapacity(map.size());
+				window.addLast(node);
+			} else {
+				oldValue = node.value;
+				node.value = value;
+				node.list.weight += weight - node.weight;
+				node.weight = weight;
+				onAccess(node);
+			}
+			notifyListeners(key, oldValue, value);
+			evict();
+		}
+	}
+
+	@Override
+	public void remove(Key key) {
+		Node<Key> node = map.remove(key);
+		Object oldValue;
+		if (node == null) {
+			oldValue = null;
+		} else {
+			node.list.remove(node);
+			oldValue = node.value;
+		}
+		notifyListeners(key, oldValue, null);
+	}
+
+	@Override
+	public void setAll(
+			Iterable<? extends Entry<? extends Key, ? extends Object>> entries) {
+		for (Entry<? extends Key, ? extends Object> entry : entries) {
+			set(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends Key> keys) {
+		for (Key key : keys) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public void clear() {
+		removeAll(new LinkedList<Key>(getKeys()));
+	}
+
+	/**
+	 * Iterate over the entries, which does not count as a use of their
+	 * {@link Key}s. The entries cannot be modified through the
+	 * {@link Iterator}.
+	 */
+	@Override
+	public Iterator<Entry<Key, Object>> iterator() {
+		final Iterator<Node<Key>> iterator = map.values().iterator();
+		return new Iterator<Entry<Key, Object>>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Entry<Key, Object> next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @return the total weight of the entries
+	 */
+	public long getWeight() {
+		return window.weight + probation.weight + protectedList.weight;
+	}
+
+	/**
+	 *
+	 * @return the maximum total weight of the entries
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 *
+	 * @return the number of entries evicted so far
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public Collection<OperationListener<Key>> getOperationListeners() {
+		return listeners;
+	}
+
+	@Override
+	public void addOperationListener(OperationListener<Key> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeOperationListener(OperationListener<Key> listener) {
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners(Key key, Object oldValue, Object newValue) {
+		for (OperationListener<Key> listener : listeners.getSnapshot()) {
+			listener.entrySet(key, oldValue, newValue);
+		}
+	}
+
+	/**
+	 * Move a {@link Node} used to the most recent end of its list, promoting
+	 * it from the probation part to the protected one.
+	 */
+	private void onAccess(Node<Key> node) {
+		if (node.list == probation) {
+			probation.remove(node);
+			protectedList.addLast(node);
+			// demote the least recent protected entries to make some room
+			while (protectedList.weight > protectedMaximum
+					&& protectedList.first != node) {
+				probation.addLast(protectedList.remove(protectedList.first));
+			}
+		} else {
+			node.list.moveToLast(node);
+		}
+	}
+
+	/**
+	 * Move the entries exceeding the window to the main space, and evict the
+	 * entries exceeding the maximum weight.
+	 */
+	@SuppressWarnings("unchecked")
+	private void evict() {
+		List<Node<Key>> evicted = null;
+		while (window.weight > windowMaximum) {
+			Node<Key> candidate = window.remove(window.first);
+			Node<Key> loser = admit(candidate);
+			while (loser != null && loser != candidate) {
+				evicted = addEvicted(evicted, loser);
+				loser = admit(candidate);
+			}
+			if (loser == candidate) {
+				evicted = addEvicted(evicted, candidate);
+			} else {
+				probation.addLast(candidate);
+			}
+		}
+		// an entry which became heavier can exceed the maximum on its own
+		while (getWeight() > maximumWeight) {
+			Node<Key> victim = probation.first != null ? probation.first
+					: protectedList.first != null ? protectedList.first
+							: window.first;
+			victim.list.remove(victim);
+			map.remove(victim.key);
+			evicted = addEvicted(evicted, victim);
+		}
+		if (evicted == null) {
+			// no eviction
+		} else {
+			for (Node<Key> node : evicted) {
+				evictionCount++;
+				for (OperationListener<Key> listener : listeners.getSnapshot()) {
+					if (listener instanceof EvictionListener) {
+						((EvictionListener<Key>) listener).entryEvicted(
+								node.key, node.value, cause);
+					} else {
+						listener.entrySet(node.key, node.value, null);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decide whether a candidate leaving the window can enter the main space.
+	 * If the main space is full, the candidate competes with the least
+	 * recently used entry of the main space, the one with the lowest
+	 * frequency being removed.
+	 *
+	 * @return <code>null</code> if there is enough space for the candidate,
+	 *         otherwise the entry removed, which can be the candidate itself
+	 */
+	private Node<Key> admit(Node<Key> candidate) {
+		long mainWeight = probation.weight + protectedList.weight;
+		if (mainWeight + candidate.weight <= maximumWeight - windowMaximum
+				|| getWeight() + candidate.weight <= maximumWeight) {
+			return null;
+		} else {
+			Node<Key> victim = probation.first != null ? probation.first
+					: protectedList.first;
+			Node<Key> loser;
+			if (victim == null || candidate.weight > maximumWeight) {
+				loser = candidate;
+			} else if (sketch.frequency(candidate.key) > sketch
+					.frequency(victim.key)) {
+				loser = victim;
+			} else {
+				loser = candidate;
+			}
+			if (loser == candidate) {
+				// already out of the lists
+			} else {
+				loser.list.remove(loser);
+			}
+			map.remove(loser.key);
+			return loser;
+		}
+	}
+
+	private static <Key> List<Node<Key>> addEvicted(List<Node<Key>> evicted,
+			Node<Key> node) {
+		if (evicted == null) {
+			evicted = new LinkedList<Node<Key>>();
+		} else {
+			// list already created
+		}
+		evicted.add(node);
+		return evicted;
+	}
+
+	/**
+	 * A {@link Weigher} gives a weight to each entry of a
+	 * {@link BoundedStorage}, which is computed when the entry is set.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Key>
+	 */
+	public static interface Weigher<Key> {
+		/**
+		 *
+		 * @param key
+		 *            the {@link Key} of the entry
+		 * @param value
+		 *            the value of the entry, which is never <code>null</code>
+		 * @return the weight of the entry, zero or positive
+		 */
+		public int weigh(Key key, Object value);
+	}
+
+	/**
+	 * The reason why an entry has been evicted from a {@link BoundedStorage}.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static enum EvictionCause {
+		/**
+		 * The maximum number of entries is exceeded.
+		 */
+		SIZE,
+		/**
+		 * The maximum total weight of the entries is exceeded.
+		 */
+		WEIGHT
+	}
+
+	/**
+	 * An {@link EvictionListener} is an {@link OperationListener} which is
+	 * notified of the evictions through
+	 * {@link #entryEvicted(Object, Object, EvictionCause)} instead of
+	 * {@link #entrySet(Object, Object, Object)}.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Key>
+	 */
+	public static interface EvictionListener<Key> extends
+			OperationListener<Key> {
+		/**
+		 * This method is called when an entry is removed by the
+		 * {@link BoundedStorage} itself.
+		 *
+		 * @param key
+		 *            the {@link Key} evicted
+		 * @param value
+		 *            the value assigned to the {@link Key} before its eviction
+		 * @param cause
+		 *            the reason of the eviction
+		 */
+		public void entryEvicted(Key key, Object value, EvictionCause cause);
+	}
+
+	private static class Node<Key> implements Entry<Key, Object> {
+		private final Key key;
+		private Object value;
+		private int weight;
+		private NodeList<Key> list;
+		private Node<Key> previous;
+		private Node<Key> next;
+
+		public Node(Key key, Object value, int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+
+		@Override
+		public Key getKey() {
+			return key;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	/**
+	 * A {@link NodeList} is a doubly linked list of {@link Node}s, ordered
+	 * from the least to the most recently used, which also sums their
+	 * weights.
+	 */
+	private static class NodeList<Key> {
+		private Node<Key> first;
+		private Node<Key> last;
+		private long weight;
+
+		public void addLast(Node<Key> node) {
+			node.list = this;
+			node.previous = last;
+			node.next = null;
+			if (last == null) {
+				first = node;
+			} else {
+				last.next = node;
+			}
+			last = node;
+			weight += node.weight;
+		}
+
+		public Node<Key> remove(Node<Key> node) {
+			if (node.previous == null) {
+				first = node.next;
+			} else {
+				node.previous.next = node.next;
+			}
+			if (node.next == null) {
+				last = node.previous;
+			} else {
+				node.next.previous = node.previous;
+			}
+			node.previous = null;
+			node.next = null;
+			node.list = null;
+			weight -= node.weight;
+			return node;
+		}
+
+		public void moveToLast(Node<Key> node) {
+			if (node != last) {
+				addLast(remove(node));
+			} else {
+				// already the most recent
+			}
+		}
+	}
+
+	/**
+	 * A {@link FrequencySketch} estimates how often each {@link Key} is used,
+	 * with a count-min sketch of 4-bit counters: each {@link Key} increments
+	 * 4 counters chosen by hashing it, and its frequency is the minimum of
+	 * them, which overestimates it only when all 4 are shared with more
+	 * frequent {@link Key}s. Once the number of increments reaches 10 times
+	 * the number of counters, all the counters are halved, so the old uses
+	 * weigh less than the recent ones.
+	 */
+	private static class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private long[] table = new long[16];
+		private int additions = 0;
+
+		public void ensureCapacity(int size) {
+			if (size > table.length && table.length < 1 << 30) {
+				// the counts are lost, which happens only while filling up
+				table = new long[Integer.highestOneBit(size - 1) << 1];
+				additions = 0;
+			} else {
+				// big enough
+			}
+		}
+
+		public int frequency(Object key) {
+			int hash = spread(key);
+			int start = (hash & 3) << 2;
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		public void increment(Object key) {
+			int hash = spread(key);
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				added |= incrementAt(indexOf(hash, i), start + i);
+			}
+			if (added && ++additions == 10 * table.length) {
+				reset();
+			} else {
+				// not enough additions to age the counters
+			}
+		}
+
+		private boolean incrementAt(int index, int counter) {
+			int offset = counter << 2;
+			long mask = 0xFL << offset;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				return true;
+			} else {
+				// saturated counter
+				return false;
+			}
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			additions /= 2;
+		}
+
+		private int indexOf(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			h += h >>> 32;
+			return (int) h & (table.length - 1);
+		}
+
+		private static int spread(Object key) {
+			int hash = key == null ? 0 : key.hashCode();
+			hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+			hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+			return (hash >>> 16) ^ hash;
+		}
+	}
+}
@@ -0,0 +1,705 @@
+package fr.vergne.data.storage.impl;
+
+import java.io.Closeable;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.vergne.data.access.util.ListenerRegistry;
+import fr.vergne.data.storage.DataStorage;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.impl.BoundedStorage.EvictionCause;
+import fr.vergne.data.storage.impl.BoundedStorage.EvictionListener;
+
+/**
+ * A {@link CachingStorage} is a {@link ModifiableStorage} which keeps in
+ * memory the content of a slower backing {@link ModifiableStorage}, like a
+ * file-based one. It reduces the number of calls to the backing
+ * {@link ModifiableStorage} in both directions:
+ * <ul>
+ * <li>read-through: the values are loaded from the backing
+ * {@link ModifiableStorage} the first time they are requested, then served
+ * from memory. The threads requesting the same {@link Key} at the same time
+ * wait for a single load, and the {@link Key}s missing in a
+ * {@link #getAll(List)} are loaded with a single call to
+ * {@link DataStorage#getAll(List)}.</li>
+ * <li>write-behind: the modifications are applied in memory and the write
+ * methods return immediately. The modified {@link Key}s are written in the
+ * backing {@link ModifiableStorage} later, by a daemon thread, once the
+ * oldest modification has waited for the maximum delay or once the maximum
+ * number of modified {@link Key}s is reached. Only the last value of each
+ * {@link Key} is written, with a single call to
+ * {@link ModifiableStorage#setAll(Iterable)} and a single call to
+ * {@link ModifiableStorage#removeAll(Collection)}. {@link #flush()} writes
+ * them immediately.</li>
+ * </ul>
+ * The values are kept in memory once loaded, including the absence of value,
+ * so the backing {@link ModifiableStorage} should not be modified by other
+ * means while it is used by a {@link CachingStorage}. If a maximum size is
+ * given, the {@link Key}s kept in memory beyond this size are forgotten
+ * following the policy of a {@link BoundedStorage}, and loaded again when
+ * requested. The modified {@link Key}s are never forgotten before to be
+ * written, so they are kept in addition to this size. Without maximum size,
+ * every {@link Key} requested remains in memory. It is called by a
+ * single thread at a time, so it does not need to be thread-safe, while the
+ * {@link CachingStorage} can be used by many threads at the same time.<br/>
+ * <br/>
+ * The {@link OperationListener}s are notified when the values are modified
+ * in memory, like with a {@link ConcurrentStorage}: the writes of a given
+ * {@link Key} are notified in their order, and the old value of a
+ * {@link Key} which has not been loaded yet is loaded before to notify it,
+ * which is done only if some {@link OperationListener}s are registered.
+ * Like with a {@link ConcurrentStorage}, <code>null</code> {@link Key}s are
+ * not supported.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class CachingStorage<Key> implements ModifiableStorage<Key>,
+		ReactiveStorage<Key>, Closeable {
+
+	/**
+	 * The value stored in memory for the {@link Key}s without value, since a
+	 * {@link ConcurrentHashMap} cannot contain <code>null</code>.
+	 */
+	private static final Object ABSENT = new Object();
+	private static final Logger LOGGER = Logger.getLogger(CachingStorage.class
+			.getName());
+
+	private final ModifiableStorage<Key> backing;
+	private final Object backingLock = new Object();
+	private final ConcurrentMap<Key, Object> cache = new ConcurrentHashMap<Key, Object>();
+	private final ConcurrentMap<Key, Load> loads = new ConcurrentHashMap<Key, Load>();
+	private final ConcurrentMap<Key, Object> pending = new ConcurrentHashMap<Key, Object>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final Object[] locks;
+	private final ListenerRegistry<OperationListener<Key>> listeners = new ListenerRegistry<OperationListener<Key>>(
+			OperationListener.class);
+	/**
+	 * The eviction policy of the {@link Key}s in memory and not pending,
+	 * <code>null</code> if they are all kept. It is protected by
+	 * {@link #policyLock}, which the reads only try to acquire, so the uses
+	 * of the {@link Key}s are recorded only when it is not contended.
+	 */
+	private final BoundedStorage<Key> policy;
+	private final Lock policyLock = new ReentrantLock();
+
+	private final long maxDelay;
+	private final int maxBatchSize;
+	/**
+	 * Protects {@link #pendingStart}, {@link #retrying} and {@link #closed},
+	 * and is notified when the flusher has some {@link Key}s to write.
+	 */
+	private final Object flushLock = new Object();
+	private long pendingStart;
+	/**
+	 * Tells that the last flush of the flusher failed, so it waits for the
+	 * delay before to try again, even if enough {@link Key}s are pending.
+	 */
+	private boolean retrying = false;
+	private boolean closed = false;
+	private final Thread flusher;
+	/**
+	 * The failure of the last flush, <code>null</code> if it succeeded.
+	 */
+	private volatile RuntimeException lastFailure = null;
+
+	/**
+	 *
+	 * @param backing
+	 *            the {@link ModifiableStorage} to read and write
+	 * @param maxDelay
+	 *            the maximum time a modification can wait before to be
+	 *            written in the backing {@link ModifiableStorage}
+	 * @param unit
+	 *            the {@link TimeUnit} of the delay
+	 * @param maxBatchSize
+	 *            the number of modified {@link Key}s which triggers a write
+	 *            without waiting for the delay
+	 */
+	public CachingStorage(ModifiableStorage<Key> backing, long maxDelay,
+			TimeUnit unit, int maxBatchSize) {
+		this(backing, maxDelay, unit, maxBatchSize, -1);
+	}
+
+	/**
+	 *
+	 * @param backing
+	 *            the {@link ModifiableStorage} to read and write
+	 * @param maxDelay
+	 *            the maximum time a modification can wait before to be
+	 *            written in the backing {@link ModifiableStorage}
+	 * @param unit
+	 *            the {@link TimeUnit} of the delay
+	 * @param maxBatchSize
+	 *            the number of modified {@link Key}s which triggers a write
+	 *            without waiting for the delay
+	 * @param maximumSize
+	 *            the maximum number of {@link Key}s kept in memory, in
+	 *            addition to the modified ones not written yet, or a negative
+	 *            value to keep them all
+	 */
+	public CachingStorage(ModifiableStorage<Key> backing, long maxDelay,
+			TimeUnit unit, int maxBatchSize, long maximumSize) {
+		if (backing == null) {
+			throw new NullPointerException("No backing storage provided");
+		} else if (maxDelay < 0) {
+			throw new IllegalArgumentException("Negative delay: " + maxDelay);
+		} else if (maxBatchSize < 1) {
+			throw new IllegalArgumentException(
+					"The batch size should be positive: " + maxBatchSize);
+		} else {
+			this.backing = backing;
+			this.maxDelay = unit.toNanos(maxDelay);
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		if (maximumSize < 0) {
+			policy = null;
+		} else {
+			policy = new BoundedStorage<Key>(maximumSize);
+			policy.addOperationListener(new EvictionListener<Key>() {
+
+				@Override
+				public void entrySet(Key key, Object oldValue, Object newValue) {
+					// only the evictions matter
+				}
+
+				@Override
+				public void entryEvicted(Key key, Object value,
+						EvictionCause cause) {
+					forget(key);
+				}
+			});
+		}
+
+		int stripes = 1;
+		while (stripes < 4 * Runtime.getRuntime().availableProcessors()) {
+			stripes <<= 1;
+		}
+		locks = new Object[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new Object();
+		}
+
+		flusher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				flushOnDelay();
+			}
+		}, "CachingStorage flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	private Object getLock(Key key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return locks[hash & (locks.length - 1)];
+	}
+
+	/**
+	 * The {@link Key}s of the backing {@link ModifiableStorage}, updated with
+	 * the modifications not written yet.
+	 */
+	@Override
+	public Set<Key> getKeys() {
+		Set<Key> keys;
+		synchronized (backingLock) {
+			keys = new HashSet<Key>(backing.getKeys());
+		}
+		for (Entry<Key, Object> entry : cache.entrySet()) {
+			if (entry.getValue() == ABSENT) {
+				keys.remove(entry.getKey());
+			} else {
+				keys.add(entry.getKey());
+			}
+		}
+		return Collections.unmodifiableSet(keys);
+	}
+
+	@Override
+	public Object get(Key key) {
+		Object value = cache.get(key);
+		if (value == null) {
+			return getAll(Collections.singletonList(key)).get(0);
+		} else {
+			touch(key);
+			return value == ABSENT ? null : value;
+		}
+	}
+
+	/**
+	 * Record a use of a {@link Key} in memory, if the policy is not used by
+	 * another thread.
+	 */
+	private void touch(Key key) {
+		if (policy == null) {
+			// no eviction
+		} else if (policyLock.tryLock()) {
+			try {
+				policy.get(key);
+			} finally {
+				policyLock.unlock();
+			}
+		} else {
+			// skip this use rather than waiting
+		}
+	}
+
+	/**
+	 * Submit to the policy {@link Key}s which have been loaded or written in
+	 * the backing {@link ModifiableStorage}, which may evict other ones.
+	 */
+	private void admit(Collection<Key> keys) {
+		if (policy == null) {
+			// no eviction
+		} else {
+			policyLock.lock();
+			try {
+				for (Key key : keys) {
+					policy.set(key, Boolean.TRUE);
+				}
+			} finally {
+				policyLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remove from memory a {@link Key} evicted by the policy, unless it has
+	 * been modified and not written yet. The value is removed only if it is
+	 * still the one checked, so a concurrent write is not lost.
+	 */
+	private void forget(Key key) {
+		Object value = cache.get(key);
+		if (value == null || pending.containsKey(key)) {
+			// not in memory or needed until written
+		} else {
+			cache.remove(key, value);
+		}
+	}
+
+	/**
+	 * Return the values of the {@link Key}s, loading the ones not in memory
+	 * with a single call to the backing {@link ModifiableStorage}. The
+	 * {@link Key}s already being loaded by other threads are not loaded
+	 * again: their loads are waited for instead.
+	 *
+	 * @throws StorageException
+	 *             if the load of a {@link Key} fails in another thread
+	 */
+	@Override
+	public List<Object> getAll(List<? extends Key> keys) {
+		Load load = new Load();
+		List<Key> claimed = new ArrayList<Key>();
+		List<Load> awaited = new LinkedList<Load>();
+		for (Key key : keys) {
+			if (cache.containsKey(key)) {
+				// already in memory
+				touch(key);
+			} else {
+				Load existing = loads.putIfAbsent(key, load);
+				if (existing == null) {
+					if (cache.containsKey(key)) {
+						// loaded meanwhile
+						loads.remove(key, load);
+					} else {
+						claimed.add(key);
+					}
+				} else if (existing == load) {
+					// requested several times
+				} else {
+					awaited.add(existing);
+				}
+			}
+		}
+		if (claimed.isEmpty()) {
+			// nothing to load
+		} else {
+			load(claimed, load);
+		}
+		for (Load other : awaited) {
+			other.await();
+		}
+
+		List<Object> values = new ArrayList<Object>(keys.size());
+		for (Key key : keys) {
+			Object value = cache.get(key);
+			if (value == null) {
+				// evicted meanwhile, load it again
+				values.add(get(key));
+			} else {
+				values.add(value == ABSENT ? null : value);
+			}
+		}
+		return values;
+	}
+
+	private void load(List<Key> keys, Load load) {
+		RuntimeException failure = null;
+		try {
+			List<Object> values;
+			synchronized (backingLock) {
+				values = backing.getAll(keys);
+			}
+			Iterator<Object> iterator = values.iterator();
+			for (Key key : keys) {
+				Object value = iterator.next();
+				// keep the values set during the load
+				cache.putIfAbsent(key, value == null ? ABSENT : value);
+			}
+			admit(keys);
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} finally {
+			for (Key key : keys) {
+				loads.remove(key, load);
+			}
+			load.complete(failure);
+		}
+	}
+
+	/**
+	 * Set the value in memory and schedule its write in the backing
+	 * {@link ModifiableStorage}.
+	 */
+	@Override
+	public void set(Key key, Object value) {
+		if (listeners.isEmpty()) {
+			write(key, value);
+		} else {
+			synchronized (getLock(key)) {
+				Object oldValue = get(key);
+				write(key, value);
+				// take the listeners registered while waiting for the lock
+				for (OperationListener<Key> listener : listeners.getSnapshot()) {
+					listener.entrySet(key, oldValue, value);
+				}
+			}
+		}
+	}
+
+	private void write(Key key, Object value) {
+		Object stored = value == null ? ABSENT : value;
+		cache.put(key, stored);
+		if (pending.put(key, stored) == null) {
+			schedule(pendingCount.incrementAndGet());
+		} else {
+			// already scheduled
+		}
+	}
+
+	/**
+	 * Inform the flusher that a {@link Key} has been added to the pending
+	 * ones.
+	 *
+	 * @param count
+	 *            the number of pending {@link Key}s, including the new one
+	 */
+	private void schedule(int count) {
+		if (count == 1 || count == maxBatchSize) {
+			synchronized (flushLock) {
+				if (count == 1) {
+					pendingStart = System.nanoTime();
+				} else {
+					// the delay runs since the first one
+				}
+				flushLock.notifyAll();
+			}
+		} else {
+			// the flusher already waits for the delay or the batch size
+		}
+	}
+
+	@Override
+	public void remove(Key key) {
+		set(key, null);
+	}
+
+	@Override
+	public void setAll(
+			Iterable<? extends Entry<? extends Key, ? extends Object>> entries) {
+		for (Entry<? extends Key, ? extends Object> entry : entries) {
+			set(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends Key> keys) {
+		for (Key key : keys) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public void clear() {
+		removeAll(getKeys());
+	}
+
+	/**
+	 * Iterate over the content of the backing {@link ModifiableStorage},
+	 * after having written in it the pending modifications. The entries
+	 * cannot be modified through the {@link Iterator}.
+	 */
+	@Override
+	public Iterator<Entry<Key, Object>> iterator() {
+		flush();
+		List<Entry<Key, Object>> entries = new LinkedList<Entry<Key, Object>>();
+		synchronized (backingLock) {
+			for (Entry<Key, Object> entry : backing) {
+				entries.add(new SimpleImmutableEntry<Key, Object>(entry));
+			}
+		}
+		return Collections.unmodifiableList(entries).iterator();
+	}
+
+	/**
+	 * Write the pending modifications in the backing
+	 * {@link ModifiableStorage}. The modifications made meanwhile are
+	 * written at the next flush. If the backing {@link ModifiableStorage}
+	 * fails, the modifications remain pending, unless they have been
+	 * replaced meanwhile, and the failure is thrown. It is also available
+	 * through {@link #getLastFailure()} until a flush succeeds.
+	 */
+	public void flush() {
+		synchronized (backingLock) {
+			List<Entry<Key, Object>> values = new LinkedList<Entry<Key, Object>>();
+			List<Key> removed = new LinkedList<Key>();
+			for (Entry<Key, Object> entry : pending.entrySet()) {
+				Key key = entry.getKey();
+				Object value = entry.getValue();
+				// a value replaced meanwhile is written at the next flush
+				if (pending.remove(key, value)) {
+					pendingCount.decrementAndGet();
+					if (value == ABSENT) {
+						removed.add(key);
+					} else {
+						values.add(new SimpleImmutableEntry<Key, Object>(key,
+								value));
+					}
+				} else {
+					// replaced meanwhile
+				}
+			}
+			try {
+				if (values.isEmpty()) {
+					// nothing to set
+				} else {
+					backing.setAll(values);
+				}
+				if (removed.isEmpty()) {
+					// nothing to remove
+				} else {
+					backing.removeAll(removed);
+				}
+				lastFailure = null;
+				if (policy == null) {
+					// no eviction
+				} else {
+					List<Key> written = new ArrayList<Key>(removed);
+					for (Entry<Key, Object> entry : values) {
+						written.add(entry.getKey());
+					}
+					admit(written);
+				}
+			} catch (RuntimeException e) {
+				lastFailure = e;
+				for (Entry<Key, Object> entry : values) {
+					requeue(entry.getKey(), entry.getValue());
+				}
+				for (Key key : removed) {
+					requeue(key, ABSENT);
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void requeue(Key key, Object value) {
+		if (pending.putIfAbsent(key, value) == null) {
+			schedule(pendingCount.incrementAndGet());
+		} else {
+			// replaced meanwhile
+		}
+	}
+
+	/**
+	 * Loop of the daemon thread, which flushes once the oldest pending
+	 * modification has waited for the maximum delay or once enough
+	 * {@link Key}s are pending. If the flush fails, it is tried again after
+	 * the delay, whatever the number of pending {@link Key}s.
+	 */
+	private void flushOnDelay() {
+		while (true) {
+			synchronized (flushLock) {
+				while (!closed && !isFlushNeeded()) {
+					try {
+						if (pendingCount.get() == 0) {
+							flushLock.wait();
+						} else {
+							TimeUnit.NANOSECONDS.timedWait(flushLock,
+									remainingDelay());
+						}
+					} catch (InterruptedException e) {
+						// check again
+					}
+				}
+				if (closed) {
+					return;
+				} else {
+					// modifications to write
+				}
+			}
+			try {
+				flush();
+				synchronized (flushLock) {
+					retrying = false;
+				}
+			} catch (RuntimeException e) {
+				// kept pending, so tried again once the delay is passed
+				LOGGER.log(Level.WARNING, "Cannot write "
+						+ pendingCount.get() + " pending keys", e);
+				synchronized (flushLock) {
+					pendingStart = System.nanoTime();
+					retrying = true;
+				}
+			}
+		}
+	}
+
+	private boolean isFlushNeeded() {
+		int count = pendingCount.get();
+		if (count == 0) {
+			return false;
+		} else if (remainingDelay() <= 0) {
+			return true;
+		} else {
+			return count >= maxBatchSize && !retrying;
+		}
+	}
+
+	private long remainingDelay() {
+		return pendingStart + maxDelay - System.nanoTime();
+	}
+
+	/**
+	 *
+	 * @return the number of modified {@link Key}s not written yet in the
+	 *         backing {@link ModifiableStorage}
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 *
+	 * @return the number of {@link Key}s kept in memory, including the
+	 *         modified ones not written yet and the ones without value
+	 */
+	public int getCachedCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Provide the failure of the last flush, which allows to know that the
+	 * backing {@link ModifiableStorage} fails while the modifications are
+	 * written in the background. The failures of the background flushes are
+	 * also logged.
+	 *
+	 * @return the exception thrown by the backing {@link ModifiableStorage}
+	 *         during the last flush, <code>null</code> if it succeeded or if
+	 *         no flush occurred yet
+	 */
+	public RuntimeException getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Stop the flusher and write the pending modifications in the backing
+	 * {@link ModifiableStorage}. The {@link CachingStorage} can still be
+	 * used, but its modifications are written only by {@link #flush()}.
+	 */
+	@Override
+	public void close() {
+		synchronized (flushLock) {
+			closed = true;
+			flushLock.notifyAll();
+		}
+		flush();
+	}
+
+	@Override
+	public Collection<OperationListener<Key>> getOperationListeners() {
+		return listeners;
+	}
+
+	@Override
+	public void addOperationListener(OperationListener<Key> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeOperationListener(OperationListener<Key> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * A {@link Load} is a load of {@link Key}s in progress, on which the
+	 * threads requesting the same {@link Key}s wait. The values are provided
+	 * through the cache.
+	 */
+	private static class Load {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile RuntimeException failure;
+
+		public void complete(RuntimeException failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+
+		public void await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			} else {
+				// not interrupted
+			}
+			if (failure == null) {
+				// loaded
+			} else {
+				throw new StorageException("Load failed in another thread",
+						failure);
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package fr.vergne.data.storage.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fr.vergne.data.access.util.ListenerRegistry;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+
+/**
+ * A {@link ConcurrentStorage} is a {@link ModifiableStorage} and
+ * {@link ReactiveStorage} which can be read and written by many threads at
+ * the same time, without external locking. The values are stored in a
+ * {@link ConcurrentHashMap}, so the reads never block and the writes on
+ * different {@link Key}s rarely contend.<br/>
+ * <br/>
+ * The {@link OperationListener}s are notified in the thread which writes,
+ * before the write method returns, like with a {@link SimpleStorage}. To
+ * guarantee that they receive the writes of a given {@link Key} in the order
+ * these writes happened, each write and its notification are done while
+ * holding a lock dedicated to this {@link Key}. The locks are striped: a
+ * fixed set of locks is shared by all the {@link Key}s, based on their
+ * {@link Object#hashCode()}, such that the writes of different {@link Key}s
+ * can be notified in parallel. The old value provided to the
+ * {@link OperationListener}s is the one atomically replaced by the write, so
+ * it is always the value set by the previous write of the same {@link Key}.
+ * As long as no {@link OperationListener} has ever been registered, the
+ * writes do not take any lock. Once one has been, they always take it, even
+ * after all the {@link OperationListener}s are removed, such that a write
+ * cannot skip the lock while a notified write of the same {@link Key} is in
+ * progress. Only the writes started before the first registration may still
+ * be done without lock: they are not notified and may end after the first
+ * notified writes.<br/>
+ * <br/>
+ * Because a lock is held during the notification, an
+ * {@link OperationListener} can write in this {@link ConcurrentStorage}, but
+ * it should not wait for another thread which writes in it, otherwise both
+ * threads could wait for each other's lock.<br/>
+ * <br/>
+ * Unlike the {@link SimpleStorage}, <code>null</code> {@link Key}s are not
+ * supported. The {@link #iterator()}, {@link #getKeys()} and {@link #clear()}
+ * are weakly consistent: they reflect the content of this
+ * {@link ConcurrentStorage} at some point during their use, and never throw a
+ * {@link java.util.ConcurrentModificationException}.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class ConcurrentStorage<Key> implements ModifiableStorage<Key>,
+		ReactiveStorage<Key> {
+
+	private final ConcurrentMap<Key, Object> map;
+	private final Object[] locks;
+	private final ListenerRegistry<OperationListener<Key>> listeners = new ListenerRegistry<OperationListener<Key>>(
+			OperationListener.class);
+	/**
+	 * Set once an {@link OperationListener} has been registered, never reset.
+	 */
+	private volatile boolean listened = false;
+
+	/**
+	 * Create a {@link ConcurrentStorage} suited for as many writing threads
+	 * as the number of available processors.
+	 */
+	public ConcurrentStorage() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 *
+	 * @param concurrencyLevel
+	 *            the estimated number of threads writing at the same time,
+	 *            used to size the set of locks
+	 */
+	public ConcurrentStorage(int concurrencyLevel) {
+		if (concurrencyLevel < 1) {
+			throw new IllegalArgumentException(
+					"The concurrency level should be positive: "
+							+ concurrencyLevel);
+		} else {
+			map = new ConcurrentHashMap<Key, Object>(16, 0.75f,
+					concurrencyLevel);
+			int stripes = 1;
+			while (stripes < 4 * concurrencyLevel) {
+				stripes <<= 1;
+			}
+			locks = new Object[stripes];
+			for (int i = 0; i < stripes; i++) {
+				locks[i] = new Object();
+			}
+		}
+	}
+
+	private Object getLock(Key key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return locks[hash & (locks.length - 1)];
+	}
+
+	@Override
+	public Set<Key> getKeys() {
+		return map.keySet();
+	}
+
+	@Override
+	public Object get(Key key) {
+		return map.get(key);
+	}
+
+	@Override
+	public void set(Key key, Object value) {
+		if (!isListened()) {
+			write(key, value);
+		} else {
+			synchronized (getLock(key)) {
+				Object oldValue = write(key, value);
+				// take the listeners registered while waiting for the lock
+				for (OperationListener<Key> listener : listeners.getSnapshot()) {
+					listener.entrySet(key, oldValue, value);
+				}
+			}
+		}
+	}
+
+	private boolean isListened() {
+		if (listened) {
+			return true;
+		} else if (listeners.isEmpty()) {
+			return false;
+		} else {
+			// registered through the collection of listeners
+			listened = true;
+			return true;
+		}
+	}
+
+	private Object write(Key key, Object value) {
+		if (value == null) {
+			return map.remove(key);
+		} else {
+			return map.put(key, value);
+		}
+	}
+
+	@Override
+	public void remove(Key key) {
+		set(key, null);
+	}
+
+	@Override
+	public List<Object> getAll(List<? extends Key> keys) {
+		List<Object> values = new ArrayList<Object>(keys.size());
+		for (Key key : keys) {
+			values.add(get(key));
+		}
+		return values;
+	}
+
+	@Override
+	public void setAll(
+			Iterable<? extends Entry<? extends Key, ? extends Object>> entries) {
+		for (Entry<? extends Key, ? extends Object> entry : entries) {
+			set(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends Key> keys) {
+		for (Key key : keys) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public Iterator<Entry<Key, Object>> iterator() {
+		return map.entrySet().iterator();
+	}
+
+	@Override
+	public void clear() {
+		if (!isListened()) {
+			map.clear();
+		} else {
+			removeAll(map.keySet());
+		}
+	}
+
+	@Override
+	public Collection<OperationListener<Key>> getOperationListeners() {
+		return listeners;
+	}
+
+	@Override
+	public void addOperationListener(OperationListener<Key> listener) {
+		listened = true;
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeOperationListener(OperationListener<Key> listener) {
+		listeners.remove(listener);
+	}
+}
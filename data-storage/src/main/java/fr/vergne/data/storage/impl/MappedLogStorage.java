@@ -0,0 +1,808 @@
+package fr.vergne.data.storage.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import fr.vergne.data.access.util.ListenerRegistry;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codec;
+
+/**
+ * A {@link MappedLogStorage} is a {@link ModifiableStorage} persisted in a
+ * directory. Each modification is appended as a record to a log, made of
+ * segment files of fixed size mapped in memory, so writing a value costs
+ * about as much as copying its bytes. Only the position of the last record of
+ * each {@link Key} is kept in memory, the values being read back from the
+ * mapped segments, and decoded, at each {@link #get(Object)}. The
+ * {@link Key}s and values are translated into bytes by the {@link Codec}s
+ * provided at construction.<br/>
+ * <br/>
+ * When a {@link MappedLogStorage} is created on a directory which already
+ * contains segments, they are scanned to rebuild the index. Each record has
+ * a CRC32 checksum, so a record partially written when the process stopped
+ * is detected: it is discarded with the rest of its segment and, if this
+ * segment is the last one, the next records are written in its place.<br/>
+ * <br/>
+ * The records are in the memory of the operating system as soon as they are
+ * written, so they survive a crash of the process, but they are guaranteed
+ * to be on the disk only once {@link #flush()} has been called, which is
+ * done at each change of segment and by {@link #close()}. Because the
+ * previous records of a {@link Key} remain in the log, it grows with the
+ * modifications: {@link #compact()} rewrites the records still used in new
+ * segments and deletes the old ones.<br/>
+ * <br/>
+ * The segments are unmapped once they are not used anymore, namely when they
+ * are compacted and when the {@link MappedLogStorage} is closed, so their
+ * memory is released and their files can be deleted. The unmapping relies
+ * on internal APIs of the JVM: if they are not available, the mappings are
+ * released by the garbage collector.<br/>
+ * <br/>
+ * Like the {@link SimpleStorage}, a {@link MappedLogStorage} is not
+ * thread-safe and its {@link OperationListener}s are stored in a
+ * {@link ListenerRegistry}. The old values are decoded for the
+ * {@link OperationListener}s only if some are registered.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class MappedLogStorage<Key> implements ModifiableStorage<Key>,
+		ReactiveStorage<Key>, Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final Logger LOGGER = Logger
+			.getLogger(MappedLogStorage.class.getName());
+
+	/*
+	 * A segment starts with a header made of a magic number and the version
+	 * of the format. Then come the records, each made of the length of its
+	 * content, the checksum of its content and the content itself: the type
+	 * of record, the length of the key, the key and, for a SET record, the
+	 * value. The rest of the segment is filled with zeros, so a zero length
+	 * marks the end of the records.
+	 */
+	private static final int MAGIC = 0x4D4C4F47;
+	private static final int VERSION = 1;
+	private static final int SEGMENT_HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+	private static final int CONTENT_HEADER = 5;
+	private static final byte SET = 1;
+	private static final byte REMOVE = 2;
+	private static final Pattern SEGMENT_NAME = Pattern
+			.compile("segment-(\\d+)\\.log");
+
+	private final File directory;
+	private final Codec<Key> keyCodec;
+	private final Codec<Object> valueCodec;
+	private final int segmentSize;
+	/**
+	 * The segments of the log, in the order of their identifiers, which are
+	 * contiguous. The last one is the one written.
+	 */
+	private final List<Segment> segments = new ArrayList<Segment>();
+	/**
+	 * The files of the compacted segments which could not be deleted yet,
+	 * from the oldest to the newest. They are deleted in this order, so the
+	 * files remaining on the disk are always contiguous with the segments.
+	 */
+	private final LinkedList<File> obsoleteFiles = new LinkedList<File>();
+	/**
+	 * The position of the last record of each {@link Key}, made of the
+	 * identifier of its segment (high bits) and its offset in this segment
+	 * (low bits).
+	 */
+	private final Map<Key, Long> index = new HashMap<Key, Long>();
+	/**
+	 * The number of bytes of the records which are not used anymore.
+	 */
+	private long garbageBytes = 0;
+	/**
+	 * The number of bytes discarded when scanning the segments, because of
+	 * records partially written.
+	 */
+	private long discardedBytes = 0;
+	private final CRC32 crc = new CRC32();
+	/**
+	 * The buffer in which the content of the records is prepared, to compute
+	 * its checksum before to copy it in a segment.
+	 */
+	private ByteBuffer scratch = ByteBuffer.allocate(1024);
+	private boolean closed = false;
+	private final ListenerRegistry<OperationListener<Key>> listeners = new ListenerRegistry<OperationListener<Key>>(
+			OperationListener.class);
+
+	/**
+	 * Create a {@link MappedLogStorage} with segments of
+	 * {@link #DEFAULT_SEGMENT_SIZE} bytes.
+	 *
+	 * @see #MappedLogStorage(File, Codec, Codec, int)
+	 */
+	public MappedLogStorage(File directory, Codec<Key> keyCodec,
+			Codec<Object> valueCodec) throws IOException {
+		this(directory, keyCodec, valueCodec, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Create a {@link MappedLogStorage} on a directory, which is created if it
+	 * does not exist. If the directory already contains segments, their
+	 * records are loaded.
+	 *
+	 * @param directory
+	 *            the directory containing the segments
+	 * @param keyCodec
+	 *            the {@link Codec} of the {@link Key}s
+	 * @param valueCodec
+	 *            the {@link Codec} of the values
+	 * @param segmentSize
+	 *            the size of the new segments, in bytes, which bounds the
+	 *            size of a record
+	 * @throws IOException
+	 *             if the segments cannot be created or read
+	 */
+	public MappedLogStorage(File directory, Codec<Key> keyCodec,
+			Codec<Object> valueCodec, int segmentSize) throws IOException {
+		if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER + CONTENT_HEADER) {
+			throw new IllegalArgumentException("Too small segments: "
+					+ segmentSize);
+		} else if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		} else {
+			this.directory = directory;
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			this.segmentSize = segmentSize;
+			load();
+		}
+	}
+
+	/**
+	 * Map the existing segments and rebuild the index from their records.
+	 */
+	private void load() throws IOException {
+		File[] files = directory.listFiles(new FileFilter() {
+
+			@Override
+			public boolean accept(File file) {
+				return SEGMENT_NAME.matcher(file.getName()).matches();
+			}
+		});
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File f1, File f2) {
+				return Integer.compare(idOf(f1), idOf(f2));
+			}
+		});
+		for (File file : files) {
+			int id = idOf(file);
+			if (segments.isEmpty() || id == lastSegment().id + 1) {
+				// a file created but not extended yet is mapped as a new one
+				long size = file.length() < SEGMENT_HEADER ? segmentSize
+						: file.length();
+				Segment segment = new Segment(id, file, map(file, size));
+				segments.add(segment);
+				scan(segment);
+			} else {
+				throw new StorageException("Missing segment before " + file);
+			}
+		}
+		if (segments.isEmpty()) {
+			createSegment(0);
+		} else {
+			// continue the last segment
+		}
+	}
+
+	/**
+	 * Read the records of a segment to update the index. If a record is
+	 * invalid, it and the rest of the segment are erased.
+	 */
+	private void scan(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		int capacity = buffer.capacity();
+		if (buffer.getInt(0) == 0 && buffer.getInt(4) == 0) {
+			// created but not initialised
+			initialise(segment);
+			return;
+		} else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new StorageException("Not a segment of version " + VERSION
+					+ ": " + segment.file);
+		} else {
+			// valid segment
+		}
+
+		int offset = SEGMENT_HEADER;
+		while (offset + RECORD_HEADER <= capacity) {
+			int length = buffer.getInt(offset);
+			if (length == 0) {
+				// end of the records
+				break;
+			} else if (!isValid(segment, offset, length)) {
+				discardedBytes += erase(segment, offset);
+				break;
+			} else {
+				ByteBuffer reader = segment.reader;
+				byte type = reader.get(offset + RECORD_HEADER);
+				int keyLength = reader.getInt(offset + RECORD_HEADER + 1);
+				reader.position(offset + RECORD_HEADER + CONTENT_HEADER);
+				Key key = keyCodec.decode(reader, keyLength);
+				Long previous;
+				if (type == SET) {
+					previous = index.put(key, position(segment.id, offset));
+				} else {
+					previous = index.remove(key);
+					garbageBytes += RECORD_HEADER + length;
+				}
+				if (previous == null) {
+					// no record replaced
+				} else {
+					garbageBytes += recordSize(previous);
+				}
+				offset += RECORD_HEADER + length;
+			}
+		}
+		segment.position = offset;
+	}
+
+	private boolean isValid(Segment segment, int offset, int length) {
+		int capacity = segment.buffer.capacity();
+		if (length < CONTENT_HEADER
+				|| length > capacity - offset - RECORD_HEADER) {
+			return false;
+		} else {
+			ByteBuffer reader = segment.reader;
+			int keyLength = reader.getInt(offset + RECORD_HEADER + 1);
+			byte type = reader.get(offset + RECORD_HEADER);
+			if (keyLength < 0 || keyLength > length - CONTENT_HEADER
+					|| type != SET && type != REMOVE) {
+				return false;
+			} else {
+				reader.position(offset + RECORD_HEADER);
+				return checksum(reader, length) == reader.getInt(offset + 4);
+			}
+		}
+	}
+
+	/**
+	 * Fill a segment with zeros from a given offset.
+	 *
+	 * @return the number of non-zero bytes erased
+	 */
+	private long erase(Segment segment, int offset) {
+		MappedByteBuffer buffer = segment.buffer;
+		long erased = 0;
+		for (int i = offset; i < buffer.capacity(); i++) {
+			if (buffer.get(i) == 0) {
+				// already erased
+			} else {
+				buffer.put(i, (byte) 0);
+				erased++;
+			}
+		}
+		return erased;
+	}
+
+	@Override
+	public Set<Key> getKeys() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	@Override
+	public Object get(Key key) {
+		checkOpen();
+		Long position = index.get(key);
+		return position == null ? null : read(position);
+	}
+
+	@Override
+	public List<Object> getAll(List<? extends Key> keys) {
+		List<Object> values = new ArrayList<Object>(keys.size());
+		for (Key key : keys) {
+			values.add(get(key));
+		}
+		return values;
+	}
+
+	@Override
+	public void set(Key key, Object value) {
+		if (value == null) {
+			remove(key);
+		} else {
+			checkOpen();
+			Long previous = index.get(key);
+			Object oldValue = previous == null || listeners.isEmpty() ? null
+					: read(previous);
+			index.put(key, append(SET, key, value));
+			if (previous == null) {
+				// nothing replaced
+			} else {
+				garbageBytes += recordSize(previous);
+			}
+			notifyListeners(key, oldValue, value);
+		}
+	}
+
+	@Override
+	public void remove(Key key) {
+		checkOpen();
+		Long previous = index.get(key);
+		Object oldValue;
+		if (previous == null) {
+			// nothing to remove
+			oldValue = null;
+		} else {
+			oldValue = listeners.isEmpty() ? null : read(previous);
+			long position = append(REMOVE, key, null);
+			index.remove(key);
+			garbageBytes += recordSize(previous) + recordSize(position);
+		}
+		notifyListeners(key, oldValue, null);
+	}
+
+	@Override
+	public void setAll(
+			Iterable<? extends Entry<? extends Key, ? extends Object>> entries) {
+		for (Entry<? extends Key, ? extends Object> entry : entries) {
+			set(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends Key> keys) {
+		for (Key key : keys) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public void clear() {
+		removeAll(new ArrayList<Key>(index.keySet()));
+	}
+
+	@Override
+	public Iterator<Entry<Key, Object>> iterator() {
+		checkOpen();
+		final Iterator<Entry<Key, Long>> iterator = index.entrySet()
+				.iterator();
+		return new Iterator<Entry<Key, Object>>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Entry<Key, Object> next() {
+				Entry<Key, Long> entry = iterator.next();
+				return new SimpleImmutableEntry<Key, Object>(entry.getKey(),
+						read(entry.getValue()));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Use the storage to remove entries.");
+			}
+		};
+	}
+
+	/**
+	 * Ensure that all the records written are on the disk.
+	 */
+	public void flush() {
+		checkOpen();
+		lastSegment().buffer.force();
+	}
+
+	/**
+	 * Rewrite the records still used in new segments and delete the old
+	 * segments, so the log does not contain the previous values nor the
+	 * removals anymore. The new segments are flushed before the old ones are
+	 * deleted, so a crash during the compaction does not lose any record:
+	 * the remaining old segments are simply read before the new ones.<br/>
+	 * <br/>
+	 * The old segments are dropped and unmapped before their files are
+	 * deleted, from the oldest to the newest. If a file cannot be deleted, it
+	 * and the newer ones are left on the disk, which is safe for the same
+	 * reason, and their deletion is tried again at the next compaction and
+	 * at the closing.
+	 */
+	public void compact() {
+		checkOpen();
+		int oldCount = segments.size();
+		int firstNew = createSegment(lastSegment().id + 1).id;
+		for (Entry<Key, Long> entry : index.entrySet()) {
+			entry.setValue(copy(entry.getValue()));
+		}
+		for (Segment segment : segments) {
+			if (segment.id >= firstNew) {
+				segment.buffer.force();
+			} else {
+				// old segment, to delete
+			}
+		}
+		List<Segment> oldSegments = segments.subList(0, oldCount);
+		List<Segment> dropped = new ArrayList<Segment>(oldSegments);
+		oldSegments.clear();
+		garbageBytes = 0;
+		for (Segment segment : dropped) {
+			unmap(segment.buffer);
+			obsoleteFiles.add(segment.file);
+		}
+		deleteObsoleteFiles();
+	}
+
+	/**
+	 * Delete the files of the compacted segments, from the oldest to the
+	 * newest, until one cannot be deleted.
+	 */
+	private void deleteObsoleteFiles() {
+		while (!obsoleteFiles.isEmpty()) {
+			File file = obsoleteFiles.getFirst();
+			if (file.delete() || !file.exists()) {
+				obsoleteFiles.removeFirst();
+			} else {
+				LOGGER.log(Level.WARNING, "Cannot delete " + file
+						+ ", retried at the next compaction");
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Flush the records and unmap the segments. The {@link MappedLogStorage}
+	 * cannot be used anymore.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			// already closed
+		} else {
+			flush();
+			closed = true;
+			List<Segment> released = new ArrayList<Segment>(segments);
+			segments.clear();
+			index.clear();
+			for (Segment segment : released) {
+				unmap(segment.buffer);
+			}
+			deleteObsoleteFiles();
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of files of compacted segments which could not be
+	 *         deleted yet
+	 */
+	public int getObsoleteFileCount() {
+		return obsoleteFiles.size();
+	}
+
+	/**
+	 *
+	 * @return the number of bytes of the segments used by the records
+	 */
+	public long getLogBytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.position - SEGMENT_HEADER;
+		}
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return the number of bytes of the records which are not used anymore,
+	 *         and which would be freed by {@link #compact()}
+	 */
+	public long getGarbageBytes() {
+		return garbageBytes;
+	}
+
+	/**
+	 *
+	 * @return the number of bytes discarded when loading the segments, because
+	 *         of records partially written
+	 */
+	public long getDiscardedBytes() {
+		return discardedBytes;
+	}
+
+	/**
+	 *
+	 * @return the number of segments of the log
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public Collection<OperationListener<Key>> getOperationListeners() {
+		return listeners;
+	}
+
+	@Override
+	public void addOperationListener(OperationListener<Key> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeOperationListener(OperationListener<Key> listener) {
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners(Key key, Object oldValue, Object newValue) {
+		for (OperationListener<Key> listener : listeners.getSnapshot()) {
+			listener.entrySet(key, oldValue, newValue);
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Storage closed.");
+		} else {
+			// can be used
+		}
+	}
+
+	/**
+	 * Write a record at the end of the log.
+	 *
+	 * @return the position of the record
+	 */
+	private long append(byte type, Key key, Object value) {
+		int keyLength = keyCodec.size(key);
+		int valueLength = type == SET ? valueCodec.size(value) : 0;
+		int length = CONTENT_HEADER + keyLength + valueLength;
+		if (length < 0
+				|| length > segmentSize - SEGMENT_HEADER - RECORD_HEADER) {
+			throw new IllegalArgumentException("Record too big for segments of "
+					+ segmentSize + " bytes: " + key);
+		} else {
+			// record accepted
+		}
+		if (scratch.capacity() < length) {
+			scratch = ByteBuffer.allocate(Math.max(length,
+					2 * scratch.capacity()));
+		} else {
+			// big enough
+		}
+		scratch.clear();
+		scratch.put(type);
+		scratch.putInt(keyLength);
+		keyCodec.encode(key, scratch);
+		if (type == SET) {
+			valueCodec.encode(value, scratch);
+		} else {
+			// no value
+		}
+		if (scratch.position() != length) {
+			throw new IllegalStateException("The codecs have written "
+					+ scratch.position() + " bytes instead of " + length);
+		} else {
+			scratch.flip();
+		}
+		return write(scratch, checksum(scratch, length));
+	}
+
+	/**
+	 * Write the content of a record, with its header, at the end of the log.
+	 * The length is written last, so the record is not considered before to
+	 * be complete.
+	 *
+	 * @return the position of the record
+	 */
+	private long write(ByteBuffer content, int checksum) {
+		int length = content.remaining();
+		Segment segment = lastSegment();
+		if (segment.position + RECORD_HEADER + length > segment.buffer
+				.capacity()) {
+			segment.buffer.force();
+			segment = createSegment(segment.id + 1);
+		} else {
+			// enough space
+		}
+		int offset = segment.position;
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.putInt(offset + 4, checksum);
+		buffer.position(offset + RECORD_HEADER);
+		buffer.put(content);
+		buffer.putInt(offset, length);
+		segment.position = offset + RECORD_HEADER + length;
+		return position(segment.id, offset);
+	}
+
+	/**
+	 * Copy a record at the end of the log.
+	 *
+	 * @return the new position of the record
+	 */
+	private long copy(long position) {
+		Segment segment = segmentOf(position);
+		int offset = offsetOf(position);
+		ByteBuffer reader = segment.reader;
+		int length = reader.getInt(offset);
+		int checksum = reader.getInt(offset + 4);
+		reader.limit(offset + RECORD_HEADER + length);
+		reader.position(offset + RECORD_HEADER);
+		try {
+			return write(reader, checksum);
+		} finally {
+			reader.limit(reader.capacity());
+		}
+	}
+
+	private Object read(long position) {
+		ByteBuffer reader = segmentOf(position).reader;
+		int offset = offsetOf(position);
+		int length = reader.getInt(offset);
+		int keyLength = reader.getInt(offset + RECORD_HEADER + 1);
+		reader.position(offset + RECORD_HEADER + CONTENT_HEADER + keyLength);
+		return valueCodec.decode(reader, length - CONTENT_HEADER - keyLength);
+	}
+
+	private int recordSize(long position) {
+		return RECORD_HEADER
+				+ segmentOf(position).reader.getInt(offsetOf(position));
+	}
+
+	/**
+	 * Compute the checksum of the bytes at the current position of a
+	 * {@link ByteBuffer}, which is advanced only if it has no array.
+	 */
+	private int checksum(ByteBuffer buffer, int length) {
+		crc.reset();
+		if (buffer.hasArray()) {
+			crc.update(buffer.array(),
+					buffer.arrayOffset() + buffer.position(), length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			crc.update(bytes, 0, length);
+		}
+		return (int) crc.getValue();
+	}
+
+	private Segment createSegment(int id) {
+		File file = new File(directory, String.format("segment-%08d.log", id));
+		try {
+			Segment segment = new Segment(id, file, map(file, segmentSize));
+			initialise(segment);
+			segments.add(segment);
+			return segment;
+		} catch (IOException e) {
+			throw new StorageException("Cannot create " + file, e);
+		}
+	}
+
+	private void initialise(Segment segment) {
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, VERSION);
+		segment.position = SEGMENT_HEADER;
+	}
+
+	private Segment lastSegment() {
+		return segments.get(segments.size() - 1);
+	}
+
+	private Segment segmentOf(long position) {
+		return segments.get((int) (position >>> 32) - segments.get(0).id);
+	}
+
+	private static int offsetOf(long position) {
+		return (int) position;
+	}
+
+	private static long position(int segmentId, int offset) {
+		return (long) segmentId << 32 | offset & 0xFFFFFFFFL;
+	}
+
+	private static int idOf(File file) {
+		Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+		matcher.matches();
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	private static MappedByteBuffer map(File file, long size)
+			throws IOException {
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = access.getChannel();
+			return channel.map(MapMode.READ_WRITE, 0, size);
+		} finally {
+			// the mapping remains valid once the file is closed
+			access.close();
+		}
+	}
+
+	/**
+	 * Release the memory mapped by a buffer, which should not be used
+	 * afterwards. The JVM provides no public API for it, so the internal ones
+	 * are used if they are available: {@code Unsafe.invokeCleaner()} since
+	 * Java 9, the cleaner of the buffer before. Otherwise, the mapping is
+	 * released when the buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+					ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			invokeCleaner.invoke(field.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			// before Java 9
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner == null) {
+					// nothing mapped
+				} else {
+					Method clean = cleaner.getClass().getMethod("clean");
+					clean.setAccessible(true);
+					clean.invoke(cleaner);
+				}
+			} catch (Exception e2) {
+				// left to the garbage collector
+			}
+		} catch (Exception e) {
+			// left to the garbage collector
+		}
+	}
+
+	/**
+	 * A {@link Segment} is a file of the log mapped in memory.
+	 */
+	private static class Segment {
+		private final int id;
+		private final File file;
+		private final MappedByteBuffer buffer;
+		/**
+		 * A view of {@link #buffer} used to read, so reading does not change
+		 * the position of {@link #buffer}.
+		 */
+		private final ByteBuffer reader;
+		/**
+		 * The offset at which the next record is written.
+		 */
+		private int position = SEGMENT_HEADER;
+
+		public Segment(int id, File file, MappedByteBuffer buffer) {
+			this.id = id;
+			this.file = file;
+			this.buffer = buffer;
+			this.reader = buffer.duplicate();
+		}
+	}
+}
@@ -2,7 +2,6 @@ package fr.vergne.data.storage.impl;
 
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,13 +9,17 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import fr.vergne.data.access.util.ListenerRegistry;
 import fr.vergne.data.storage.ModifiableStorage;
 import fr.vergne.data.storage.ReactiveStorage;
 
 /**
  * A {@link SimpleStorage} provide a basic implementation of
  * {@link ModifiableStorage}. In order to allow a maximal customization, it also
- * implements {@link ReactiveStorage}.
+ * implements {@link ReactiveStorage}. Its {@link OperationListener}s are
+ * stored in a {@link ListenerRegistry}, so they are notified in their
+ * registration order and they can be added or removed at any time, even
+ * during a notification.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
@@ -25,8 +28,31 @@ import fr.vergne.data.storage.ReactiveStorage;
 public class SimpleStorage<Key> implements ModifiableStorage<Key>,
 		ReactiveStorage<Key> {
 
-	private final Map<Key, Object> map = new HashMap<Key, Object>();
-	private final Set<OperationListener<Key>> listeners = new HashSet<OperationListener<Key>>();
+	private final Map<Key, Object> map;
+	private final ListenerRegistry<OperationListener<Key>> listeners = new ListenerRegistry<OperationListener<Key>>(
+			OperationListener.class);
+
+	public SimpleStorage() {
+		map = new HashMap<Key, Object>();
+	}
+
+	/**
+	 * Create a {@link SimpleStorage} which can contain a given number of
+	 * entries without being resized, which is suited to load many entries at
+	 * once.
+	 *
+	 * @param expectedSize
+	 *            the number of entries expected
+	 */
+	public SimpleStorage(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException(
+					"The expected size should be positive: " + expectedSize);
+		} else {
+			map = new HashMap<Key, Object>((int) Math.min(
+					Integer.MAX_VALUE, (long) (expectedSize / 0.75f) + 1));
+		}
+	}
 
 	@Override
 	public Set<Key> getKeys() {
@@ -46,7 +72,7 @@ public class SimpleStorage<Key> implements ModifiableStorage<Key>,
 		} else {
 			oldValue = map.put(key, value);
 		}
-		for (OperationListener<Key> listener : listeners) {
+		for (OperationListener<Key> listener : listeners.getSnapshot()) {
 			listener.entrySet(key, oldValue, value);
 		}
 	}
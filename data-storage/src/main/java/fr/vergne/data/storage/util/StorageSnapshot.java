@@ -0,0 +1,401 @@
+package fr.vergne.data.storage.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import fr.vergne.data.storage.DataStorage;
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codec;
+import fr.vergne.data.storage.impl.SimpleStorage;
+
+/**
+ * A {@link StorageSnapshot} writes the content of any {@link DataStorage} in
+ * a {@link FileChannel} and restores it into a {@link ModifiableStorage}. The
+ * {@link Key}s and values are translated into bytes by the {@link Codec}s
+ * provided at construction, and go through direct {@link ByteBuffer}s, so
+ * neither the entries nor the bytes are copied in intermediary objects like
+ * with the Java serialization.<br/>
+ * <br/>
+ * A snapshot starts with a header made of a magic number, the version of the
+ * format and the number of entries. The entries follow, grouped in blocks of
+ * about the size given at construction, each block starting with the length
+ * of its content, its number of entries and the CRC32 checksum of its
+ * content. Each entry is made of the length of the {@link Key}, the
+ * {@link Key}, the length of the value and the value. An empty block ends
+ * the snapshot, so a snapshot can be followed by other data in the same
+ * {@link FileChannel}. A snapshot which does not match this format, like a
+ * truncated or corrupted one, is rejected with a {@link StorageException}.
+ * <br/>
+ * <br/>
+ * When restoring, the entries are provided to
+ * {@link ModifiableStorage#setAll(Iterable)} by blocks rather than one at a
+ * time. {@link #restore(FileChannel)} creates a {@link SimpleStorage} sized
+ * for the number of entries of the snapshot, so it is never resized during
+ * the restoration.<br/>
+ * <br/>
+ * A {@link StorageSnapshot} reuses its buffers from one call to the next, so
+ * it is not thread-safe.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class StorageSnapshot<Key> {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	private static final int MAGIC = 0x534E4150;
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final int BLOCK_HEADER = 12;
+	private static final int ENTRY_HEADER = 8;
+
+	private final Codec<Key> keyCodec;
+	private final Codec<Object> valueCodec;
+	private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER);
+	private ByteBuffer block;
+	/**
+	 * The copy of the content of a block on which the checksum is computed,
+	 * {@link CRC32} reading only arrays.
+	 */
+	private byte[] bytes;
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Create a {@link StorageSnapshot} with blocks of
+	 * {@link #DEFAULT_BLOCK_SIZE} bytes.
+	 *
+	 * @see #StorageSnapshot(Codec, Codec, int)
+	 */
+	public StorageSnapshot(Codec<Key> keyCodec, Codec<Object> valueCodec) {
+		this(keyCodec, valueCodec, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 *
+	 * @param keyCodec
+	 *            the {@link Codec} of the {@link Key}s
+	 * @param valueCodec
+	 *            the {@link Codec} of the values
+	 * @param blockSize
+	 *            the size of the blocks, in bytes, which are written at once
+	 *            in the {@link FileChannel}, an entry bigger than that being
+	 *            written alone in a bigger block
+	 */
+	public StorageSnapshot(Codec<Key> keyCodec, Codec<Object> valueCodec,
+			int blockSize) {
+		if (blockSize <= BLOCK_HEADER + ENTRY_HEADER) {
+			throw new IllegalArgumentException("Too small blocks: "
+					+ blockSize);
+		} else {
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			this.block = ByteBuffer.allocateDirect(blockSize);
+			this.bytes = new byte[blockSize];
+		}
+	}
+
+	/**
+	 * Write the entries of a {@link DataStorage} at the current position of a
+	 * {@link FileChannel}, which is then placed after the snapshot. The
+	 * {@link Key}s mapped to <code>null</code> are not written.
+	 *
+	 * @param storage
+	 *            the {@link DataStorage} to write
+	 * @param channel
+	 *            the {@link FileChannel} to write in
+	 * @return the number of entries written
+	 * @throws IOException
+	 *             if the {@link FileChannel} cannot be written
+	 */
+	public long snapshot(DataStorage<Key> storage, FileChannel channel)
+			throws IOException {
+		long start = channel.position();
+		writeHeader(channel, start, -1);
+		channel.position(start + HEADER);
+
+		long total = 0;
+		int count = 0;
+		block.clear();
+		block.position(BLOCK_HEADER);
+		for (Entry<Key, Object> entry : storage) {
+			Object value = entry.getValue();
+			if (value == null) {
+				// no value to write
+			} else {
+				Key key = entry.getKey();
+				int keySize = keyCodec.size(key);
+				int valueSize = valueCodec.size(value);
+				int size = ENTRY_HEADER + keySize + valueSize;
+				if (size > block.remaining()) {
+					if (count > 0) {
+						writeBlock(channel, count);
+						count = 0;
+					} else {
+						// an empty block would mark the end of the snapshot
+					}
+					ensureCapacity(BLOCK_HEADER + size);
+				} else {
+					// enough space in the current block
+				}
+				block.putInt(keySize);
+				keyCodec.encode(key, block);
+				block.putInt(valueSize);
+				valueCodec.encode(value, block);
+				count++;
+				total++;
+			}
+		}
+		if (count > 0) {
+			writeBlock(channel, count);
+		} else {
+			// no entry pending
+		}
+		writeBlock(channel, 0);
+
+		// the count is written last, so an incomplete snapshot is rejected
+		long end = channel.position();
+		writeHeader(channel, start, total);
+		channel.position(end);
+		return total;
+	}
+
+	private void writeHeader(FileChannel channel, long position, long count)
+			throws IOException {
+		header.clear();
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(count);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header, position + header.position());
+		}
+	}
+
+	/**
+	 * Complete the header of the current block, write it in the
+	 * {@link FileChannel} and prepare the next one.
+	 */
+	private void writeBlock(FileChannel channel, int count) throws IOException {
+		int length = block.position() - BLOCK_HEADER;
+		block.flip();
+		block.position(BLOCK_HEADER);
+		block.putInt(0, length);
+		block.putInt(4, count);
+		block.putInt(8, checksum(length));
+		block.position(0);
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+		block.position(BLOCK_HEADER);
+	}
+
+	/**
+	 * Compute the checksum of the bytes between the current position of the
+	 * block and the given length, without moving the position.
+	 */
+	private int checksum(int length) {
+		ByteBuffer content = block.duplicate();
+		content.get(bytes, 0, length);
+		crc.reset();
+		crc.update(bytes, 0, length);
+		return (int) crc.getValue();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (block.capacity() < capacity) {
+			block = ByteBuffer.allocateDirect(capacity);
+			bytes = new byte[capacity];
+			block.position(BLOCK_HEADER);
+		} else {
+			// big enough
+		}
+	}
+
+	/**
+	 * Read a snapshot at the current position of a {@link FileChannel} into
+	 * a new {@link SimpleStorage}, sized for the number of entries of the
+	 * snapshot. The {@link FileChannel} is then placed after the snapshot.
+	 *
+	 * @param channel
+	 *            the {@link FileChannel} to read from
+	 * @return the {@link SimpleStorage} containing the entries of the snapshot
+	 * @throws IOException
+	 *             if the {@link FileChannel} cannot be read
+	 * @throws StorageException
+	 *             if the {@link FileChannel} does not contain a valid
+	 *             snapshot
+	 */
+	public SimpleStorage<Key> restore(FileChannel channel) throws IOException {
+		long count = readHeader(channel);
+		if (count > Integer.MAX_VALUE) {
+			throw new StorageException("Too many entries for a "
+					+ SimpleStorage.class.getSimpleName() + ": " + count);
+		} else {
+			SimpleStorage<Key> storage = new SimpleStorage<Key>((int) count);
+			readEntries(channel, storage, count);
+			return storage;
+		}
+	}
+
+	/**
+	 * Read a snapshot at the current position of a {@link FileChannel} into
+	 * an existing {@link ModifiableStorage}. The entries are set over the
+	 * current content of the {@link ModifiableStorage}, which is not cleared.
+	 * The {@link FileChannel} is then placed after the snapshot.<br/>
+	 * <br/>
+	 * If the {@link ModifiableStorage} is a {@link ReactiveStorage}, its
+	 * {@link OperationListener}s can be removed during the restoration, to
+	 * avoid notifying each entry of an initial load for instance. They are
+	 * added back in the same order once the restoration is finished, even if
+	 * it fails. Because they are removed from the {@link ModifiableStorage}
+	 * itself, they also miss the modifications made meanwhile by other
+	 * threads, so they should be removed only from a {@link ModifiableStorage}
+	 * which is not shared yet.<br/>
+	 * <br/>
+	 * The entries are set block by block, as soon as each block is checked,
+	 * so the snapshot is never entirely in memory. Consequently, if a block
+	 * is corrupted or truncated, the {@link StorageException} is thrown once
+	 * the previous blocks have been set: the {@link ModifiableStorage}
+	 * contains part of the snapshot. To restore all the entries or none,
+	 * restore them first in a new {@link SimpleStorage} with
+	 * {@link #restore(FileChannel)}, then set them all at once.
+	 *
+	 * @param channel
+	 *            the {@link FileChannel} to read from
+	 * @param storage
+	 *            the {@link ModifiableStorage} to fill
+	 * @param notifyListeners
+	 *            <code>true</code> to notify the {@link OperationListener}s
+	 *            of the entries restored, <code>false</code> otherwise
+	 * @return the number of entries restored
+	 * @throws IOException
+	 *             if the {@link FileChannel} cannot be read
+	 * @throws StorageException
+	 *             if the {@link FileChannel} does not contain a valid
+	 *             snapshot
+	 */
+	public long restore(FileChannel channel, ModifiableStorage<Key> storage,
+			boolean notifyListeners) throws IOException {
+		long count = readHeader(channel);
+		if (notifyListeners || !(storage instanceof ReactiveStorage)) {
+			readEntries(channel, storage, count);
+		} else {
+			@SuppressWarnings("unchecked")
+			ReactiveStorage<Key> reactive = (ReactiveStorage<Key>) storage;
+			List<OperationListener<Key>> listeners = new ArrayList<OperationListener<Key>>(
+					reactive.getOperationListeners());
+			for (OperationListener<Key> listener : listeners) {
+				reactive.removeOperationListener(listener);
+			}
+			try {
+				readEntries(channel, storage, count);
+			} finally {
+				for (OperationListener<Key> listener : listeners) {
+					reactive.addOperationListener(listener);
+				}
+			}
+		}
+		return count;
+	}
+
+	private long readHeader(FileChannel channel) throws IOException {
+		header.clear();
+		readFully(channel, header);
+		header.flip();
+		int magic = header.getInt();
+		int version = header.getInt();
+		long count = header.getLong();
+		if (magic != MAGIC || version != VERSION) {
+			throw new StorageException("Not a snapshot of version " + VERSION);
+		} else if (count < 0) {
+			throw new StorageException("Incomplete snapshot");
+		} else {
+			return count;
+		}
+	}
+
+	private void readEntries(FileChannel channel,
+			ModifiableStorage<Key> storage, long expected) throws IOException {
+		List<Entry<Key, Object>> entries = new ArrayList<Entry<Key, Object>>();
+		long total = 0;
+		while (true) {
+			block.clear();
+			block.limit(BLOCK_HEADER);
+			readFully(channel, block);
+			int length = block.getInt(0);
+			int count = block.getInt(4);
+			int checksum = block.getInt(8);
+			if (length == 0 && count == 0) {
+				break;
+			} else if (length < 0 || count <= 0
+					|| count > length / ENTRY_HEADER) {
+				throw new StorageException("Invalid block header");
+			} else if (length > channel.size() - channel.position()) {
+				throw new StorageException("Truncated snapshot");
+			} else {
+				ensureCapacity(BLOCK_HEADER + length);
+				block.clear();
+				block.position(BLOCK_HEADER);
+				block.limit(BLOCK_HEADER + length);
+				readFully(channel, block);
+				block.position(BLOCK_HEADER);
+				if (checksum(length) != checksum) {
+					throw new StorageException("Corrupted block after "
+							+ total + " entries");
+				} else {
+					entries.clear();
+					for (int i = 0; i < count; i++) {
+						Key key = keyCodec.decode(block, readLength(block));
+						Object value = valueCodec.decode(block,
+								readLength(block));
+						entries.add(new SimpleImmutableEntry<Key, Object>(key,
+								value));
+					}
+					if (block.hasRemaining()) {
+						throw new StorageException("Unread bytes in block");
+					} else {
+						storage.setAll(entries);
+						total += count;
+					}
+				}
+			}
+		}
+		if (total != expected) {
+			throw new StorageException(expected + " entries expected, "
+					+ total + " read");
+		} else {
+			// complete snapshot
+		}
+	}
+
+	private int readLength(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new StorageException("Invalid length: " + length);
+		} else {
+			return length;
+		}
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new StorageException("Truncated snapshot");
+			} else {
+				// continue to read
+			}
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package fr.vergne.data.storage.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import fr.vergne.data.storage.ModifiableStorage;
+import fr.vergne.data.storage.ReactiveStorage;
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codec;
+
+/**
+ * A {@link WriteAheadLog} makes the modifications of a
+ * {@link ReactiveStorage} durable. Registered as one of its
+ * {@link OperationListener}s, it appends a record to a file for each
+ * modification, so the content of the {@link ReactiveStorage} can be
+ * rebuilt with {@link #replay(ModifiableStorage)} after a restart. The
+ * {@link Key}s and values are translated into bytes by the {@link Codec}s
+ * provided at construction.<br/>
+ * <br/>
+ * Forcing the records on the disk at each modification would limit the
+ * {@link ReactiveStorage} to a few hundreds of modifications per second, so
+ * the records are grouped: they are accumulated in memory and written, then
+ * forced, together. A group is committed at the latest after the maximum
+ * delay, by a daemon thread of the {@link WriteAheadLog}, or as soon as it
+ * reaches the maximum number of records, by the thread which adds the last
+ * one. Consequently, a modification is guaranteed to be on the disk only
+ * after this delay, or once {@link #sync()} returns.<br/>
+ * <br/>
+ * The file starts with a magic number and the version of the format. Each
+ * record is made of the length of its content, the CRC32 checksum of its
+ * content and the content itself: the type of record (set or remove), the
+ * length of the {@link Key}, the {@link Key} and, for a set, the new value.
+ * A record partially written when the process stopped is detected when the
+ * file is opened again, and it is discarded with the rest of the file.<br/>
+ * <br/>
+ * The file grows with the modifications. Once the content of the
+ * {@link ReactiveStorage} is saved otherwise, for instance with a
+ * {@link StorageSnapshot}, the records can be dropped with {@link #reset()}.
+ * <br/>
+ * <br/>
+ * A {@link WriteAheadLog} can be notified by several threads at once, the
+ * records being written in the order of the notifications.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Key>
+ */
+public class WriteAheadLog<Key> implements OperationListener<Key>, Closeable {
+
+	private static final int MAGIC = 0x57414C47;
+	private static final int VERSION = 1;
+	private static final int FILE_HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+	private static final int CONTENT_HEADER = 5;
+	private static final byte SET = 1;
+	private static final byte REMOVE = 2;
+
+	private final File file;
+	private final RandomAccessFile access;
+	private final FileChannel channel;
+	private final Codec<Key> keyCodec;
+	private final Codec<Object> valueCodec;
+	private final long maxDelay;
+	private final int maxBatchSize;
+	private final CRC32 crc = new CRC32();
+	private final Thread committer;
+
+	/**
+	 * Protects the group of records being accumulated: {@link #batch},
+	 * {@link #batchSize}, {@link #batchStart}, {@link #closed} and
+	 * {@link #failure}.
+	 */
+	private final Object batchLock = new Object();
+	private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+	private int batchSize = 0;
+	private long batchStart;
+	private boolean closed = false;
+	private IOException failure = null;
+
+	/**
+	 * Protects the {@link FileChannel}, so a single group of records is
+	 * written at a time, while the next one is accumulated in
+	 * {@link #batch}.
+	 */
+	private final Object commitLock = new Object();
+	private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+	private long syncCount = 0;
+
+	/**
+	 * Open a {@link WriteAheadLog} on a file, which is created if it does not
+	 * exist. The new records are appended after the ones already in the
+	 * file, which can be read with {@link #replay(ModifiableStorage)}.
+	 *
+	 * @param file
+	 *            the file of the records
+	 * @param keyCodec
+	 *            the {@link Codec} of the {@link Key}s
+	 * @param valueCodec
+	 *            the {@link Codec} of the values
+	 * @param maxDelay
+	 *            the maximum time a record can wait before to be forced on
+	 *            the disk
+	 * @param unit
+	 *            the {@link TimeUnit} of the delay
+	 * @param maxBatchSize
+	 *            the maximum number of records forced on the disk at once
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public WriteAheadLog(File file, Codec<Key> keyCodec,
+			Codec<Object> valueCodec, long maxDelay, TimeUnit unit,
+			int maxBatchSize) throws IOException {
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("Negative delay: " + maxDelay);
+		} else if (maxBatchSize < 1) {
+			throw new IllegalArgumentException(
+					"The batch size should be positive: " + maxBatchSize);
+		} else {
+			this.file = file;
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			this.maxDelay = unit.toNanos(maxDelay);
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		access = new RandomAccessFile(file, "rw");
+		channel = access.getChannel();
+		try {
+			if (channel.size() < FILE_HEADER) {
+				writeHeader();
+			} else {
+				long end = read(null);
+				channel.truncate(end);
+				channel.position(end);
+			}
+		} catch (IOException | RuntimeException e) {
+			access.close();
+			throw e;
+		}
+
+		committer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				commitOnDelay();
+			}
+		}, "WriteAheadLog " + file.getName());
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.flip();
+		channel.truncate(0);
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Add a record for the modification at the end of the current group,
+	 * and commit the group if it is full.
+	 *
+	 * @throws StorageException
+	 *             if a previous group could not be written
+	 * @throws IllegalStateException
+	 *             if the {@link WriteAheadLog} is closed
+	 */
+	@Override
+	public void entrySet(Key key, Object oldValue, Object newValue) {
+		byte type = newValue == null ? REMOVE : SET;
+		boolean full;
+		synchronized (batchLock) {
+			checkUsable();
+			// the codecs are used under the lock, so they can have a state
+			int keyLength = keyCodec.size(key);
+			int valueLength = type == SET ? valueCodec.size(newValue) : 0;
+			int length = CONTENT_HEADER + keyLength + valueLength;
+			if (batch.remaining() < RECORD_HEADER + length) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(
+						2 * batch.capacity(), batch.position() + RECORD_HEADER
+								+ length));
+				batch.flip();
+				bigger.put(batch);
+				batch = bigger;
+			} else {
+				// enough space
+			}
+			int offset = batch.position();
+			batch.position(offset + RECORD_HEADER);
+			batch.put(type);
+			batch.putInt(keyLength);
+			try {
+				keyCodec.encode(key, batch);
+				if (type == SET) {
+					valueCodec.encode(newValue, batch);
+				} else {
+					// no value
+				}
+			} catch (RuntimeException e) {
+				// drop the partial record, the group remains valid
+				batch.position(offset);
+				throw e;
+			}
+			int written = batch.position() - offset - RECORD_HEADER;
+			if (written != length) {
+				batch.position(offset);
+				throw new IllegalStateException("The codecs have written "
+						+ written + " bytes instead of " + length);
+			} else {
+				batch.putInt(offset, length);
+				batch.putInt(offset + 4, checksum(batch.array(),
+						batch.arrayOffset() + offset + RECORD_HEADER, length));
+			}
+
+			batchSize++;
+			if (batchSize == 1) {
+				batchStart = System.nanoTime();
+				batchLock.notifyAll();
+			} else {
+				// the committer already waits for this group
+			}
+			full = batchSize >= maxBatchSize;
+		}
+		if (full) {
+			commit();
+		} else {
+			// committed later
+		}
+	}
+
+	/**
+	 * Write and force on the disk all the records added so far, without
+	 * waiting for the maximum delay.
+	 *
+	 * @throws StorageException
+	 *             if the records cannot be written
+	 */
+	public void sync() {
+		commit();
+		synchronized (batchLock) {
+			if (failure == null) {
+				// all written
+			} else {
+				throw new StorageException("Cannot write in " + file, failure);
+			}
+		}
+	}
+
+	/**
+	 * Write the current group of records and force it on the disk. While it
+	 * is written, the next group is accumulated in the other buffer.
+	 */
+	private void commit() {
+		synchronized (commitLock) {
+			ByteBuffer toWrite;
+			synchronized (batchLock) {
+				if (batchSize == 0 || failure != null || !channel.isOpen()) {
+					return;
+				} else {
+					toWrite = batch;
+					batch = spare;
+					spare = toWrite;
+					batchSize = 0;
+				}
+			}
+			try {
+				toWrite.flip();
+				while (toWrite.hasRemaining()) {
+					channel.write(toWrite);
+				}
+				channel.force(false);
+				syncCount++;
+			} catch (IOException e) {
+				synchronized (batchLock) {
+					failure = e;
+				}
+			} finally {
+				toWrite.clear();
+			}
+		}
+	}
+
+	/**
+	 * Loop of the daemon thread, which commits each group once it has waited
+	 * for the maximum delay, unless it has been committed meanwhile.
+	 */
+	private void commitOnDelay() {
+		while (true) {
+			synchronized (batchLock) {
+				while (!closed && (batchSize == 0 || remainingDelay() > 0)) {
+					try {
+						if (batchSize == 0) {
+							batchLock.wait();
+						} else {
+							long remaining = remainingDelay();
+							TimeUnit.NANOSECONDS.timedWait(batchLock, remaining);
+						}
+					} catch (InterruptedException e) {
+						// check again
+					}
+				}
+				if (closed) {
+					return;
+				} else {
+					// group to commit
+				}
+			}
+			commit();
+		}
+	}
+
+	private long remainingDelay() {
+		return batchStart + maxDelay - System.nanoTime();
+	}
+
+	private void checkUsable() {
+		if (closed) {
+			throw new IllegalStateException("Log closed.");
+		} else if (failure != null) {
+			throw new StorageException("Cannot write in " + file, failure);
+		} else {
+			// can be used
+		}
+	}
+
+	/**
+	 * Apply the records of the file to a {@link ModifiableStorage}, typically
+	 * at startup to restore the content of the {@link ReactiveStorage} to
+	 * log. Only the last record of each {@link Key} is applied, the values
+	 * being provided at once to {@link ModifiableStorage#setAll(Iterable)}
+	 * and the removed {@link Key}s to
+	 * {@link ModifiableStorage#removeAll(java.util.Collection)}. Because it
+	 * modifies the {@link ModifiableStorage}, this {@link WriteAheadLog}
+	 * should be registered to it only after the replay, otherwise the
+	 * records are logged again.
+	 *
+	 * @param storage
+	 *            the {@link ModifiableStorage} to modify
+	 * @return the number of {@link Key}s set or removed
+	 * @throws StorageException
+	 *             if the file cannot be read
+	 */
+	public long replay(ModifiableStorage<Key> storage) {
+		Map<Key, Object> changes = new LinkedHashMap<Key, Object>();
+		synchronized (commitLock) {
+			try {
+				read(changes);
+			} catch (IOException e) {
+				throw new StorageException("Cannot read " + file, e);
+			}
+		}
+
+		List<Entry<Key, Object>> values = new ArrayList<Entry<Key, Object>>();
+		List<Key> removed = new ArrayList<Key>();
+		for (Entry<Key, Object> entry : changes.entrySet()) {
+			if (entry.getValue() == null) {
+				removed.add(entry.getKey());
+			} else {
+				values.add(entry);
+			}
+		}
+		storage.setAll(values);
+		storage.removeAll(removed);
+		return changes.size();
+	}
+
+	/**
+	 * Read the valid records of the file, in the order they were written.
+	 *
+	 * @param changes
+	 *            the {@link Map} in which to store the last value of each
+	 *            {@link Key}, <code>null</code> to only check the records
+	 * @return the offset after the last valid record
+	 */
+	private long read(Map<Key, Object> changes) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new StorageException("Log too big to be read: " + file);
+		} else {
+			// can be mapped at once
+		}
+		ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new StorageException("Not a log of version " + VERSION
+					+ ": " + file);
+		} else {
+			// valid log
+		}
+
+		byte[] bytes = new byte[1024];
+		int offset = FILE_HEADER;
+		while (offset + RECORD_HEADER <= size) {
+			int length = buffer.getInt(offset);
+			if (length < CONTENT_HEADER
+					|| length > size - offset - RECORD_HEADER) {
+				// end of the valid records
+				break;
+			} else {
+				if (bytes.length < length) {
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				} else {
+					// big enough
+				}
+				buffer.position(offset + RECORD_HEADER);
+				buffer.get(bytes, 0, length);
+				byte type = bytes[0];
+				int keyLength = buffer.getInt(offset + RECORD_HEADER + 1);
+				if (checksum(bytes, 0, length) != buffer.getInt(offset + 4)
+						|| type != SET && type != REMOVE || keyLength < 0
+						|| keyLength > length - CONTENT_HEADER) {
+					// torn record
+					break;
+				} else if (changes == null) {
+					// only checked
+				} else {
+					buffer.position(offset + RECORD_HEADER + CONTENT_HEADER);
+					Key key = keyCodec.decode(buffer, keyLength);
+					Object value = null;
+					if (type == SET) {
+						value = valueCodec.decode(buffer, length
+								- CONTENT_HEADER - keyLength);
+					} else {
+						// removed
+					}
+					changes.put(key, value);
+				}
+				offset += RECORD_HEADER + length;
+			}
+		}
+		return offset;
+	}
+
+	private int checksum(byte[] bytes, int offset, int length) {
+		crc.reset();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Drop all the records, including the ones not committed yet. It should
+	 * be called only once the content of the {@link ReactiveStorage} is
+	 * saved otherwise, and before it is modified again, otherwise the
+	 * modifications made meanwhile are lost.
+	 *
+	 * @throws StorageException
+	 *             if the file cannot be written
+	 */
+	public void reset() {
+		synchronized (commitLock) {
+			synchronized (batchLock) {
+				checkUsable();
+				batch.clear();
+				batchSize = 0;
+			}
+			try {
+				writeHeader();
+			} catch (IOException e) {
+				throw new StorageException("Cannot write in " + file, e);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of groups of records forced on the disk so far
+	 */
+	public long getSyncCount() {
+		synchronized (commitLock) {
+			return syncCount;
+		}
+	}
+
+	/**
+	 * Commit the pending records and close the file. The
+	 * {@link WriteAheadLog} should not be notified anymore.
+	 *
+	 * @throws StorageException
+	 *             if the pending records cannot be written
+	 */
+	@Override
+	public void close() {
+		synchronized (batchLock) {
+			if (closed) {
+				return;
+			} else {
+				closed = true;
+				batchLock.notifyAll();
+			}
+		}
+		try {
+			sync();
+		} finally {
+			synchronized (commitLock) {
+				try {
+					access.close();
+				} catch (IOException e) {
+					throw new StorageException("Cannot close " + file, e);
+				}
+			}
+		}
+	}
+}
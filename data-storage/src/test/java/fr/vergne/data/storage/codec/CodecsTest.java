@@ -0,0 +1,100 @@
+package fr.vergne.data.storage.codec;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CodecsTest {
+
+	private static <Value> Value roundTrip(Codec<Value> codec, Value value,
+			ByteBuffer buffer) {
+		buffer.clear();
+		int size = codec.size(value);
+		codec.encode(value, buffer);
+		assertEquals(size, buffer.position());
+		buffer.flip();
+		Value decoded = codec.decode(buffer, size);
+		assertEquals(size, buffer.position());
+		return decoded;
+	}
+
+	@Test
+	public void testString() {
+		for (ByteBuffer buffer : Arrays.asList(ByteBuffer.allocate(100),
+				ByteBuffer.allocateDirect(100))) {
+			for (String value : Arrays.asList("", "abc", "\u00e9t\u00e9",
+					"\u20ac 10", "\ud83d\ude00 smile")) {
+				assertEquals(value, roundTrip(Codecs.STRING, value, buffer));
+				assertEquals(value.getBytes(Charset.forName("UTF-8")).length,
+						Codecs.STRING.size(value));
+			}
+		}
+	}
+
+	@Test
+	public void testUnpairedSurrogateEncodedLikeGetBytes() throws Exception {
+		String value = "a\ud83db";
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		Codecs.STRING.encode(value, buffer);
+		buffer.flip();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		assertArrayEquals(value.getBytes("UTF-8"), bytes);
+	}
+
+	@Test
+	public void testNumbers() {
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		assertEquals(-5, (Object) roundTrip(Codecs.INTEGER, -5, buffer));
+		assertEquals(Long.MAX_VALUE,
+				(Object) roundTrip(Codecs.LONG, Long.MAX_VALUE, buffer));
+	}
+
+	@Test
+	public void testBytes() {
+		byte[] value = { 1, 2, 3 };
+		assertArrayEquals(value,
+				roundTrip(Codecs.BYTES, value, ByteBuffer.allocate(3)));
+	}
+
+	@Test
+	public void testSerializable() {
+		Codec<Object> codec = Codecs.serializable();
+		assertEquals(Arrays.asList(1, "a"),
+				roundTrip(codec, Arrays.asList(1, "a"), ByteBuffer.allocate(500)));
+	}
+
+	@Test
+	public void testSerializableModifiedValueEncodedAgain() {
+		Codec<Object> codec = Codecs.serializable();
+		List<String> value = new ArrayList<String>(Arrays.asList("a"));
+		ByteBuffer buffer = ByteBuffer.allocate(500);
+		assertEquals(Arrays.asList("a"), roundTrip(codec, value, buffer));
+
+		value.add("b");
+		assertEquals(Arrays.asList("a", "b"), roundTrip(codec, value, buffer));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSerializableRejectsOtherObjects() {
+		Codecs.serializable().size(new Object());
+	}
+
+	@Test
+	public void testChecked() {
+		Codec<Object> codec = Codecs.checked(Integer.class, Codecs.INTEGER);
+		assertEquals(3, roundTrip(codec, 3, ByteBuffer.allocate(4)));
+		try {
+			codec.size("a");
+			fail("No exception thrown.");
+		} catch (ClassCastException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package fr.vergne.data.storage.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+import fr.vergne.data.storage.impl.BoundedStorage.EvictionCause;
+import fr.vergne.data.storage.impl.BoundedStorage.EvictionListener;
+import fr.vergne.data.storage.impl.BoundedStorage.Weigher;
+
+public class BoundedStorageTest {
+
+	private static final Weigher<Object> LENGTH = new Weigher<Object>() {
+
+		@Override
+		public int weigh(Object key, Object value) {
+			return ((String) value).length();
+		}
+	};
+
+	@Test
+	public void testSetGetRemove() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10);
+
+		assertEquals(null, storage.get(1));
+		storage.set(1, "a");
+		storage.set(2, "b");
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+
+		storage.set(1, "c");
+		assertEquals("c", storage.get(1));
+		assertEquals(2, storage.getWeight());
+
+		storage.remove(2);
+		assertEquals(null, storage.get(2));
+		storage.set(1, null);
+		assertEquals(null, storage.get(1));
+		assertTrue(storage.getKeys().isEmpty());
+		assertEquals(0, storage.getWeight());
+	}
+
+	@Test
+	public void testBulkOperations() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10);
+		Map<Integer, String> map = new HashMap<Integer, String>();
+		map.put(1, "a");
+		map.put(2, "b");
+		map.put(3, "c");
+
+		storage.setAll(map.entrySet());
+		assertEquals(Arrays.asList("b", null, "a"),
+				storage.getAll(Arrays.asList(2, 4, 1)));
+
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		assertEquals(map, content);
+
+		storage.removeAll(Arrays.asList(1, 3));
+		assertEquals(Arrays.asList(null, "b", null),
+				storage.getAll(Arrays.asList(1, 2, 3)));
+
+		storage.clear();
+		assertTrue(storage.getKeys().isEmpty());
+	}
+
+	@Test
+	public void testMaximumSizeRespected() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(100);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i, "value " + i);
+			assertTrue(storage.getKeys().size() <= 100);
+		}
+		assertEquals(100, storage.getKeys().size());
+		assertEquals(100, storage.getWeight());
+		assertEquals(900, storage.getEvictionCount());
+	}
+
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(100);
+		for (int i = 0; i < 50; i++) {
+			storage.set(i, "hot " + i);
+		}
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 50; i++) {
+				storage.get(i);
+			}
+		}
+
+		// enough cold entries between two uses to evict the hot ones with LRU
+		for (int round = 0; round < 100; round++) {
+			for (int i = 0; i < 100; i++) {
+				storage.set(1000 + 100 * round + i, "cold " + i);
+			}
+			for (int i = 0; i < 50; i++) {
+				assertEquals("hot " + i, storage.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testNewEntryKeptWithSmallMaximum() {
+		for (int maximum = 1; maximum <= 10; maximum++) {
+			BoundedStorage<Integer> storage = new BoundedStorage<Integer>(
+					maximum);
+			for (int i = 0; i < 100; i++) {
+				storage.set(i, "value " + i);
+				assertEquals("value " + i, storage.get(i));
+				assertTrue(storage.getKeys().size() <= maximum);
+			}
+			assertEquals(maximum, storage.getKeys().size());
+		}
+	}
+
+	@Test
+	public void testMaximumWeightRespected() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(20,
+				LENGTH);
+		for (int i = 0; i < 100; i++) {
+			storage.set(i, i % 2 == 0 ? "aaaa" : "bb");
+			assertTrue(storage.getWeight() <= 20);
+		}
+		assertTrue(storage.getWeight() > 10);
+	}
+
+	@Test
+	public void testHeavierEntryEvicted() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10,
+				LENGTH);
+		storage.set(1, "aaaaa");
+		storage.set(2, "bbbbb");
+		assertEquals(10, storage.getWeight());
+
+		storage.set(1, "aaaaaaa");
+		assertTrue(storage.getWeight() <= 10);
+		assertEquals(1, storage.getKeys().size());
+	}
+
+	@Test
+	public void testEntryHeavierThanMaximumEvictedImmediately() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10,
+				LENGTH);
+		final List<String> operations = new LinkedList<String>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				operations.add(key + ": " + oldValue + " -> " + newValue);
+			}
+		});
+
+		storage.set(1, "aaaaaaaaaaaa");
+		assertEquals(null, storage.get(1));
+		assertEquals(0, storage.getWeight());
+		assertEquals(Arrays.asList("1: null -> aaaaaaaaaaaa",
+				"1: aaaaaaaaaaaa -> null"), operations);
+	}
+
+	@Test
+	public void testEvictionsNotified() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(1);
+		final List<String> operations = new LinkedList<String>();
+		final List<String> evictions = new LinkedList<String>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				operations.add(key + ": " + oldValue + " -> " + newValue);
+			}
+		});
+		storage.addOperationListener(new EvictionListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				evictions.add(key + ": " + oldValue + " -> " + newValue);
+			}
+
+			@Override
+			public void entryEvicted(Integer key, Object value,
+					EvictionCause cause) {
+				evictions.add(key + ": " + value + " " + cause);
+			}
+		});
+
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.remove(2);
+		assertEquals(Arrays.asList("1: null -> a", "2: null -> b",
+				"1: a -> null", "2: b -> null"), operations);
+		assertEquals(Arrays.asList("1: null -> a", "2: null -> b",
+				"1: a SIZE", "2: b -> null"), evictions);
+		assertTrue(storage.getKeys().isEmpty());
+	}
+
+	@Test
+	public void testWeightCauseNotified() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(1,
+				LENGTH);
+		final List<EvictionCause> causes = new LinkedList<EvictionCause>();
+		storage.addOperationListener(new EvictionListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				// ignore the explicit operations
+			}
+
+			@Override
+			public void entryEvicted(Integer key, Object value,
+					EvictionCause cause) {
+				causes.add(cause);
+			}
+		});
+
+		storage.set(1, "aa");
+		assertEquals(Arrays.asList(EvictionCause.WEIGHT), causes);
+	}
+
+	@Test
+	public void testZeroMaximumKeepsNothing() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(0);
+		storage.set(1, "a");
+		assertEquals(null, storage.get(1));
+		assertEquals(1, storage.getEvictionCount());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testIteratorRemoveUnsupported() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10);
+		storage.set(1, "a");
+		Iterator<Entry<Integer, Object>> iterator = storage.iterator();
+		iterator.next();
+		iterator.remove();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeWeightRejected() {
+		BoundedStorage<Integer> storage = new BoundedStorage<Integer>(10,
+				new Weigher<Integer>() {
+
+					@Override
+					public int weigh(Integer key, Object value) {
+						return -1;
+					}
+				});
+		storage.set(1, "a");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaximumRejected() {
+		new BoundedStorage<Integer>(-1);
+	}
+}
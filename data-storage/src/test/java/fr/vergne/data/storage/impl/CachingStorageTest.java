@@ -0,0 +1,378 @@
+package fr.vergne.data.storage.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+
+public class CachingStorageTest {
+
+	/**
+	 * A {@link SimpleStorage} which records the calls of the
+	 * {@link CachingStorage}.
+	 */
+	private static class Backing extends SimpleStorage<Integer> {
+		private final List<List<Integer>> loads = new LinkedList<List<Integer>>();
+		private int setAllCount = 0;
+		private int removeAllCount = 0;
+		private CountDownLatch loadGate = new CountDownLatch(0);
+		private boolean failing = false;
+		private volatile boolean broken = false;
+		private volatile int brokenCount = 0;
+
+		@Override
+		public List<Object> getAll(List<? extends Integer> keys) {
+			try {
+				loadGate.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			synchronized (loads) {
+				loads.add(new LinkedList<Integer>(keys));
+			}
+			return super.getAll(keys);
+		}
+
+		@Override
+		public void setAll(
+				Iterable<? extends Entry<? extends Integer, ? extends Object>> entries) {
+			if (failing) {
+				failing = false;
+				throw new RuntimeException("Backing failure");
+			} else if (broken) {
+				brokenCount++;
+				throw new RuntimeException("Backing failure");
+			} else {
+				setAllCount++;
+				super.setAll(entries);
+			}
+		}
+
+		@Override
+		public void removeAll(Collection<? extends Integer> keys) {
+			removeAllCount++;
+			super.removeAll(keys);
+		}
+	}
+
+	private static void waitFor(CachingStorage<Integer> storage, int pending)
+			throws InterruptedException {
+		long limit = System.currentTimeMillis() + 5000;
+		while (storage.getPendingCount() != pending
+				&& System.currentTimeMillis() < limit) {
+			Thread.sleep(1);
+		}
+		assertEquals(pending, storage.getPendingCount());
+	}
+
+	@Test
+	public void testValuesLoadedOnce() {
+		Backing backing = new Backing();
+		backing.set(1, "a");
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		assertEquals("a", storage.get(1));
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(2));
+		assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)),
+				backing.loads);
+		storage.close();
+	}
+
+	@Test
+	public void testMissesLoadedInSingleCall() {
+		Backing backing = new Backing();
+		for (int i = 1; i <= 5; i++) {
+			backing.set(i, "value " + i);
+		}
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		storage.get(1);
+		assertEquals(Arrays.asList("value 1", "value 2", null, "value 4",
+				"value 2"), storage.getAll(Arrays.asList(1, 2, 6, 4, 2)));
+		assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2, 6, 4)),
+				backing.loads);
+		storage.close();
+	}
+
+	@Test
+	public void testConcurrentLoadsCoalesced() throws Exception {
+		final Backing backing = new Backing();
+		backing.set(1, "a");
+		backing.loadGate = new CountDownLatch(1);
+		final CachingStorage<Integer> storage = new CachingStorage<Integer>(
+				backing, 1, TimeUnit.HOURS, 100);
+
+		final List<Object> values = new LinkedList<Object>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					Object value = storage.get(1);
+					synchronized (values) {
+						values.add(value);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		Thread.sleep(100);
+		backing.loadGate.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(Arrays.asList("a", "a", "a", "a"), values);
+		assertEquals(1, backing.loads.size());
+		storage.close();
+	}
+
+	@Test
+	public void testWritesAcknowledgedBeforeBackingWrite() {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		storage.set(1, "a");
+		assertEquals("a", storage.get(1));
+		assertEquals(null, backing.get(1));
+		assertEquals(1, storage.getPendingCount());
+		assertTrue(backing.loads.isEmpty());
+
+		storage.flush();
+		assertEquals("a", backing.get(1));
+		assertEquals(0, storage.getPendingCount());
+		storage.close();
+	}
+
+	@Test
+	public void testWritesCoalesced() {
+		Backing backing = new Backing();
+		backing.set(2, "b");
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		storage.set(1, "a");
+		storage.set(1, "c");
+		storage.set(3, "d");
+		storage.remove(2);
+		storage.remove(4);
+		assertEquals(4, storage.getPendingCount());
+		assertEquals(Arrays.asList(null, null), storage.getAll(Arrays.asList(
+				2, 4)));
+
+		storage.flush();
+		assertEquals(1, backing.setAllCount);
+		assertEquals(1, backing.removeAllCount);
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : backing) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		Map<Integer, Object> expected = new HashMap<Integer, Object>();
+		expected.put(1, "c");
+		expected.put(3, "d");
+		assertEquals(expected, content);
+		storage.close();
+	}
+
+	@Test
+	public void testFlushedWhenBatchFull() throws InterruptedException {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 3);
+
+		storage.set(1, "a");
+		storage.set(2, "b");
+		Thread.sleep(50);
+		assertEquals(2, storage.getPendingCount());
+
+		storage.set(3, "c");
+		waitFor(storage, 0);
+		assertEquals(Arrays.asList("a", "b", "c"),
+				backing.getAll(Arrays.asList(1, 2, 3)));
+		storage.close();
+	}
+
+	@Test
+	public void testFlushedAfterDelay() throws InterruptedException {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				10, TimeUnit.MILLISECONDS, 1000);
+
+		storage.set(1, "a");
+		waitFor(storage, 0);
+		assertEquals("a", backing.get(1));
+		storage.close();
+	}
+
+	@Test
+	public void testFailedFlushKeptPending() {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		storage.set(1, "a");
+		backing.failing = true;
+		try {
+			storage.flush();
+			fail("No exception thrown.");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertEquals(1, storage.getPendingCount());
+
+		storage.flush();
+		assertEquals("a", backing.get(1));
+		storage.close();
+	}
+
+	@Test
+	public void testFailedFlushRetriedAfterDelay() throws InterruptedException {
+		Backing backing = new Backing();
+		backing.broken = true;
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				200, TimeUnit.MILLISECONDS, 1);
+
+		Logger logger = Logger.getLogger(CachingStorage.class.getName());
+		logger.setUseParentHandlers(false);
+		try {
+			storage.set(1, "a");
+			Thread.sleep(500);
+			assertTrue("" + backing.brokenCount, backing.brokenCount >= 2);
+			assertTrue("" + backing.brokenCount, backing.brokenCount <= 4);
+			assertEquals(1, storage.getPendingCount());
+			assertEquals("Backing failure", storage.getLastFailure()
+					.getMessage());
+
+			backing.broken = false;
+			waitFor(storage, 0);
+		} finally {
+			logger.setUseParentHandlers(true);
+		}
+		// wait for the end of the background flush
+		storage.flush();
+		assertEquals("a", backing.get(1));
+		assertNull(storage.getLastFailure());
+		storage.close();
+	}
+
+	@Test
+	public void testListenersNotifiedWithLoadedOldValue() {
+		Backing backing = new Backing();
+		backing.set(1, "a");
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+		final List<String> operations = new LinkedList<String>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				operations.add(key + ": " + oldValue + " -> " + newValue);
+			}
+		});
+
+		storage.set(1, "b");
+		storage.remove(1);
+		assertEquals(Arrays.asList("1: a -> b", "1: b -> null"), operations);
+		storage.close();
+	}
+
+	@Test
+	public void testKeysAndIteratorIncludePendingWrites() {
+		Backing backing = new Backing();
+		backing.set(1, "a");
+		backing.set(2, "b");
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+
+		storage.set(3, "c");
+		storage.remove(1);
+		assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)),
+				storage.getKeys());
+
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		Map<Integer, Object> expected = new HashMap<Integer, Object>();
+		expected.put(2, "b");
+		expected.put(3, "c");
+		assertEquals(expected, content);
+		assertEquals(0, storage.getPendingCount());
+		storage.close();
+	}
+
+	@Test
+	public void testMaximumSizeRespected() {
+		Backing backing = new Backing();
+		for (int i = 0; i < 1000; i++) {
+			backing.set(i, "value " + i);
+		}
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 10000, 100);
+
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(i < 1000 ? "value " + i : null, storage.get(i));
+		}
+		assertTrue(storage.getCachedCount() <= 100);
+
+		assertEquals("value 5", storage.get(5));
+		storage.close();
+	}
+
+	@Test
+	public void testPendingKeysNeverEvicted() {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 10000, 10);
+
+		for (int i = 0; i < 100; i++) {
+			storage.set(i, "value " + i);
+		}
+		for (int i = 100; i < 1000; i++) {
+			storage.get(i);
+		}
+		assertEquals(100, storage.getPendingCount());
+		assertTrue(backing.loads.size() > 0);
+		int loads = backing.loads.size();
+		for (int i = 0; i < 100; i++) {
+			assertEquals("value " + i, storage.get(i));
+		}
+		assertEquals(loads, backing.loads.size());
+
+		storage.flush();
+		assertTrue(storage.getCachedCount() <= 10);
+		for (int i = 0; i < 100; i++) {
+			assertEquals("value " + i, storage.get(i));
+		}
+		storage.close();
+	}
+
+	@Test
+	public void testCloseFlushes() {
+		Backing backing = new Backing();
+		CachingStorage<Integer> storage = new CachingStorage<Integer>(backing,
+				1, TimeUnit.HOURS, 100);
+		storage.set(1, "a");
+		storage.close();
+		assertEquals("a", backing.get(1));
+	}
+}
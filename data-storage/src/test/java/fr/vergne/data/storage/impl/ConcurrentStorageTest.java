@@ -0,0 +1,513 @@
+package fr.vergne.data.storage.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+
+public class ConcurrentStorageTest {
+
+	@Test
+	public void testSetGet() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+
+		assertEquals(null, storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.set(1, "a");
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.set(2, "b");
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.set(3, "c");
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+		assertEquals("c", storage.get(3));
+
+		storage.set(2, "d");
+		assertEquals("a", storage.get(1));
+		assertEquals("d", storage.get(2));
+		assertEquals("c", storage.get(3));
+
+		storage.set(1, null);
+		assertEquals(null, storage.get(1));
+		assertEquals("d", storage.get(2));
+		assertEquals("c", storage.get(3));
+	}
+
+	@Test
+	public void testRemove() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+		assertEquals("c", storage.get(3));
+
+		storage.remove(2);
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals("c", storage.get(3));
+
+		storage.remove(3);
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.remove(2);
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.remove(1);
+		assertEquals(null, storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+
+		storage.remove(4);
+		assertEquals(null, storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals(null, storage.get(3));
+	}
+
+	@Test
+	public void testGetKeys() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+
+		assertEquals(0, storage.getKeys().size());
+
+		storage.set(1, "a");
+		assertEquals(1, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+
+		storage.set(2, "b");
+		assertEquals(2, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertTrue(storage.getKeys().contains(2));
+
+		storage.set(3, "c");
+		assertEquals(3, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertTrue(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+
+		storage.remove(2);
+		assertEquals(2, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertFalse(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+
+		storage.set(1, null);
+		assertEquals(1, storage.getKeys().size());
+		assertFalse(storage.getKeys().contains(1));
+		assertFalse(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+	}
+
+	@Test
+	public void testSetAll() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+
+		Map<Integer, String> map1 = new HashMap<Integer, String>();
+		map1.put(1, "a");
+		map1.put(2, "b");
+		map1.put(3, "c");
+
+		storage.setAll(map1.entrySet());
+		assertEquals(3, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertTrue(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+		assertEquals("c", storage.get(3));
+
+		Map<Integer, String> map2 = new HashMap<Integer, String>();
+		map2.put(1, "d");
+		map2.put(5, "e");
+		map2.put(10, "f");
+
+		storage.setAll(map2.entrySet());
+		assertEquals(5, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertTrue(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+		assertTrue(storage.getKeys().contains(5));
+		assertTrue(storage.getKeys().contains(10));
+		assertEquals("d", storage.get(1));
+		assertEquals("b", storage.get(2));
+		assertEquals("c", storage.get(3));
+		assertEquals("e", storage.get(5));
+		assertEquals("f", storage.get(10));
+	}
+
+	@Test
+	public void testGetAll() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+		storage.set(5, "e");
+		storage.set(10, "f");
+
+		List<Object> list = storage.getAll(Arrays.asList(5, 10, 2));
+		assertEquals("e", list.get(0));
+		assertEquals("f", list.get(1));
+		assertEquals("b", list.get(2));
+	}
+
+	@Test
+	public void testRemoveAll() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+		storage.set(5, "e");
+		storage.set(10, "f");
+
+		storage.removeAll(Arrays.asList(5, 10, 2));
+		assertEquals(2, storage.getKeys().size());
+		assertTrue(storage.getKeys().contains(1));
+		assertFalse(storage.getKeys().contains(2));
+		assertTrue(storage.getKeys().contains(3));
+		assertFalse(storage.getKeys().contains(5));
+		assertFalse(storage.getKeys().contains(10));
+		assertEquals("a", storage.get(1));
+		assertEquals(null, storage.get(2));
+		assertEquals("c", storage.get(3));
+		assertEquals(null, storage.get(5));
+		assertEquals(null, storage.get(10));
+	}
+
+	@Test
+	public void testIterator() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+		storage.set(5, "e");
+		storage.set(10, "f");
+
+		Iterator<Entry<Integer, Object>> iterator = storage.iterator();
+		List<Integer> keys = new LinkedList<Integer>();
+		List<Object> values = new LinkedList<Object>();
+		while (iterator.hasNext()) {
+			Entry<Integer, Object> entry = iterator.next();
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+		}
+
+		assertTrue(storage.getKeys().containsAll(keys));
+		assertTrue(keys.containsAll(storage.getKeys()));
+		assertEquals("" + values, keys.size(), values.size());
+		for (int i = 0; i < keys.size(); i++) {
+			Integer key = keys.get(i);
+			Object value = values.get(i);
+			assertEquals(storage.get(key), value);
+		}
+	}
+
+	@Test
+	public void testClear() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+		storage.set(5, "e");
+		storage.set(10, "f");
+
+		storage.clear();
+		assertEquals(0, storage.getKeys().size());
+		assertNull(storage.get(1));
+		assertNull(storage.get(2));
+		assertNull(storage.get(3));
+		assertNull(storage.get(5));
+		assertNull(storage.get(10));
+	}
+
+	@Test
+	public void testOperationListeners() {
+		final List<Object[]> params = new LinkedList<Object[]>();
+		Comparator<Object[]> paramSorter = new Comparator<Object[]>() {
+
+			@Override
+			public int compare(Object[] o1, Object[] o2) {
+				Integer i1 = (Integer) o1[0];
+				Integer i2 = (Integer) o2[0];
+				return i1.compareTo(i2);
+			}
+		};
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				params.add(new Object[] { key, oldValue, newValue });
+			}
+		});
+
+		params.clear();
+		storage.set(1, "a");
+		assertEquals(1, params.size());
+		assertEquals(1, params.get(0)[0]);
+		assertEquals(null, params.get(0)[1]);
+		assertEquals("a", params.get(0)[2]);
+
+		params.clear();
+		storage.set(2, "b");
+		assertEquals(1, params.size());
+		assertEquals(2, params.get(0)[0]);
+		assertEquals(null, params.get(0)[1]);
+		assertEquals("b", params.get(0)[2]);
+
+		params.clear();
+		storage.set(2, "c");
+		assertEquals(1, params.size());
+		assertEquals(2, params.get(0)[0]);
+		assertEquals("b", params.get(0)[1]);
+		assertEquals("c", params.get(0)[2]);
+
+		params.clear();
+		storage.remove(2);
+		assertEquals(1, params.size());
+		assertEquals(2, params.get(0)[0]);
+		assertEquals("c", params.get(0)[1]);
+		assertEquals(null, params.get(0)[2]);
+
+		params.clear();
+		storage.get(2);
+		assertEquals(0, params.size());
+
+		params.clear();
+		Map<Integer, String> map = new HashMap<Integer, String>();
+		map.put(1, "1");
+		map.put(2, "2");
+		map.put(3, "3");
+		storage.setAll(map.entrySet());
+		assertEquals(3, params.size());
+		Collections.sort(params, paramSorter);
+		assertEquals(1, params.get(0)[0]);
+		assertEquals("a", params.get(0)[1]);
+		assertEquals("1", params.get(0)[2]);
+		assertEquals(2, params.get(1)[0]);
+		assertEquals(null, params.get(1)[1]);
+		assertEquals("2", params.get(1)[2]);
+		assertEquals(3, params.get(2)[0]);
+		assertEquals(null, params.get(2)[1]);
+		assertEquals("3", params.get(2)[2]);
+
+		params.clear();
+		storage.removeAll(Arrays.asList(1, 2));
+		assertEquals(2, params.size());
+		Collections.sort(params, paramSorter);
+		assertEquals(1, params.get(0)[0]);
+		assertEquals("1", params.get(0)[1]);
+		assertEquals(null, params.get(0)[2]);
+		assertEquals(2, params.get(1)[0]);
+		assertEquals("2", params.get(1)[1]);
+		assertEquals(null, params.get(1)[2]);
+
+		params.clear();
+		storage.getAll(Arrays.asList(1, 3));
+		assertEquals(0, params.size());
+	}
+
+	@Test
+	public void testOperationListenersOrderAndRemovalDuringNotification() {
+		final List<Integer> notified = new LinkedList<Integer>();
+		final ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		for (int i = 0; i < 10; i++) {
+			final int id = i;
+			storage.addOperationListener(new OperationListener<Integer>() {
+
+				@Override
+				public void entrySet(Integer key, Object oldValue,
+						Object newValue) {
+					notified.add(id);
+					storage.removeOperationListener(this);
+				}
+			});
+		}
+
+		storage.set(1, "a");
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), notified);
+		assertEquals(0, storage.getOperationListeners().size());
+
+		notified.clear();
+		storage.set(1, "b");
+		assertEquals(0, notified.size());
+	}
+
+	@Test
+	public void testNullKeyException() {
+		ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		try {
+			storage.set(null, "a");
+			fail("No exception thrown");
+		} catch (NullPointerException e) {
+		}
+	}
+
+	@Test
+	public void testInvalidConcurrencyLevelException() {
+		try {
+			new ConcurrentStorage<Integer>(0);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testConcurrentWritesNotifiedInOrderPerKey()
+			throws InterruptedException {
+		final int threadsCount = 8;
+		final int keysCount = 10;
+		final int writesCount = 10000;
+		final ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>(
+				threadsCount);
+		final ConcurrentMap<Integer, List<Object[]>> notifications = new ConcurrentHashMap<Integer, List<Object[]>>();
+		for (int key = 0; key < keysCount; key++) {
+			notifications.put(key, new LinkedList<Object[]>());
+		}
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				/*
+				 * The notifications of a key are sequential, so no need to
+				 * synchronize the list.
+				 */
+				notifications.get(key).add(new Object[] { oldValue, newValue });
+			}
+		});
+
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int t = 0; t < threadsCount; t++) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < writesCount; i++) {
+						int key = (thread + i) % keysCount;
+						if (i % 10 == 0) {
+							storage.remove(key);
+						} else {
+							storage.set(key, thread + ":" + i);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int total = 0;
+		for (int key = 0; key < keysCount; key++) {
+			Object previous = null;
+			for (Object[] notification : notifications.get(key)) {
+				assertEquals(previous, notification[0]);
+				previous = notification[1];
+			}
+			assertEquals(storage.get(key), previous);
+			total += notifications.get(key).size();
+		}
+		assertEquals(threadsCount * writesCount, total);
+	}
+
+	@Test
+	public void testWritesStillLockedAfterListenersRemoved()
+			throws InterruptedException {
+		final ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		final CountDownLatch notifying = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		OperationListener<Integer> listener = new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				notifying.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		storage.addOperationListener(listener);
+		Thread notified = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				storage.set(1, "a");
+			}
+		});
+		notified.start();
+		notifying.await();
+		storage.removeOperationListener(listener);
+
+		Thread unnotified = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				storage.set(1, "b");
+			}
+		});
+		unnotified.start();
+		unnotified.join(100);
+		assertTrue(unnotified.isAlive());
+		assertEquals("a", storage.get(1));
+
+		release.countDown();
+		notified.join();
+		unnotified.join();
+		assertEquals("b", storage.get(1));
+	}
+
+	@Test
+	public void testListenerWritingDuringNotification() {
+		final ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				if (key < 10 && newValue != null) {
+					storage.set(key + 1, newValue);
+				} else {
+					// stop the chain
+				}
+			}
+		});
+
+		storage.set(0, "a");
+		for (int key = 0; key <= 10; key++) {
+			assertEquals("a", storage.get(key));
+		}
+	}
+}
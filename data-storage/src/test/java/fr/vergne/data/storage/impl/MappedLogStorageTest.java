@@ -0,0 +1,278 @@
+package fr.vergne.data.storage.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codecs;
+
+public class MappedLogStorageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MappedLogStorage<Integer> open(File directory, int segmentSize)
+			throws IOException {
+		return new MappedLogStorage<Integer>(directory, Codecs.INTEGER,
+				Codecs.checked(String.class, Codecs.STRING), segmentSize);
+	}
+
+	@Test
+	public void testSetGetRemove() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+
+		assertEquals(null, storage.get(1));
+		storage.set(1, "a");
+		storage.set(2, "b");
+		assertEquals("a", storage.get(1));
+		assertEquals("b", storage.get(2));
+
+		storage.set(1, "c");
+		assertEquals("c", storage.get(1));
+
+		storage.remove(2);
+		assertEquals(null, storage.get(2));
+		storage.set(1, null);
+		assertEquals(null, storage.get(1));
+		assertTrue(storage.getKeys().isEmpty());
+	}
+
+	@Test
+	public void testBulkOperations() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		Map<Integer, String> map = new HashMap<Integer, String>();
+		map.put(1, "a");
+		map.put(2, "b");
+		map.put(3, "c");
+
+		storage.setAll(map.entrySet());
+		assertEquals(Arrays.asList("b", null, "a"),
+				storage.getAll(Arrays.asList(2, 4, 1)));
+
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		assertEquals(map, content);
+
+		storage.removeAll(Arrays.asList(1, 3));
+		assertEquals(Arrays.asList(null, "b", null),
+				storage.getAll(Arrays.asList(1, 2, 3)));
+
+		storage.clear();
+		assertTrue(storage.getKeys().isEmpty());
+	}
+
+	@Test
+	public void testContentRestoredOnReopen() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i % 100, "value " + i);
+		}
+		storage.remove(50);
+		storage.close();
+
+		MappedLogStorage<Integer> reopened = open(folder.getRoot(), 4096);
+		assertTrue(reopened.getSegmentCount() > 1);
+		assertEquals(99, reopened.getKeys().size());
+		assertEquals("value 999", reopened.get(99));
+		assertEquals("value 900", reopened.get(0));
+		assertEquals(null, reopened.get(50));
+		assertEquals(0, reopened.getDiscardedBytes());
+
+		reopened.set(50, "back");
+		reopened.close();
+		assertEquals("back", open(folder.getRoot(), 4096).get(50));
+	}
+
+	@Test
+	public void testTornRecordDiscardedOnReopen() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		storage.set(1, "a");
+		storage.set(2, "b");
+		storage.set(3, "c");
+		storage.close();
+
+		// corrupt the last byte of the last record, as if partially written
+		File segment = folder.getRoot().listFiles()[0];
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			int offset = 8;
+			int lastOffset = offset;
+			while (true) {
+				file.seek(offset);
+				int length = file.readInt();
+				if (length == 0) {
+					break;
+				} else {
+					lastOffset = offset;
+					offset += 8 + length;
+				}
+			}
+			file.seek(offset - 1);
+			file.write('x');
+			assertTrue(lastOffset > 8);
+		} finally {
+			file.close();
+		}
+
+		MappedLogStorage<Integer> reopened = open(folder.getRoot(), 4096);
+		assertEquals("a", reopened.get(1));
+		assertEquals("b", reopened.get(2));
+		assertEquals(null, reopened.get(3));
+		assertTrue(reopened.getDiscardedBytes() > 0);
+
+		// the next records replace the torn one
+		reopened.set(4, "d");
+		reopened.close();
+		MappedLogStorage<Integer> again = open(folder.getRoot(), 4096);
+		assertEquals("d", again.get(4));
+		assertEquals(null, again.get(3));
+		assertEquals(0, again.getDiscardedBytes());
+	}
+
+	@Test
+	public void testCompactionKeepsOnlyLiveRecords() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i % 10, "value " + i);
+		}
+		storage.remove(5);
+		long before = storage.getLogBytes();
+		assertTrue(storage.getGarbageBytes() > 0);
+
+		storage.compact();
+		assertEquals(0, storage.getGarbageBytes());
+		assertTrue(storage.getLogBytes() < before);
+		assertEquals(1, storage.getSegmentCount());
+		assertEquals(1, folder.getRoot().listFiles().length);
+		assertEquals("value 993", storage.get(3));
+		assertEquals(null, storage.get(5));
+
+		storage.set(10, "new");
+		storage.close();
+		MappedLogStorage<Integer> reopened = open(folder.getRoot(), 4096);
+		assertEquals(10, reopened.getKeys().size());
+		assertEquals("value 999", reopened.get(9));
+		assertEquals("new", reopened.get(10));
+		assertEquals(null, reopened.get(5));
+	}
+
+	@Test
+	public void testCompactionContinuesWhenFileNotDeleted() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i % 10, "value " + i);
+		}
+		int oldCount = storage.getSegmentCount();
+		assertTrue(oldCount > 2);
+
+		// a non-empty directory cannot be deleted like a file
+		File first = new File(folder.getRoot(), "segment-00000000.log");
+		assertTrue(first.delete());
+		assertTrue(first.mkdir());
+		assertTrue(new File(first, "blocker").createNewFile());
+
+		Logger logger = Logger.getLogger(MappedLogStorage.class.getName());
+		logger.setUseParentHandlers(false);
+		try {
+			storage.compact();
+		} finally {
+			logger.setUseParentHandlers(true);
+		}
+		assertEquals(1, storage.getSegmentCount());
+		assertEquals(oldCount, storage.getObsoleteFileCount());
+		assertEquals(oldCount + 1, folder.getRoot().listFiles().length);
+		assertEquals("value 993", storage.get(3));
+
+		assertTrue(new File(first, "blocker").delete());
+		storage.set(10, "new");
+		storage.compact();
+		assertEquals(0, storage.getObsoleteFileCount());
+		assertEquals(1, folder.getRoot().listFiles().length);
+
+		storage.close();
+		MappedLogStorage<Integer> reopened = open(folder.getRoot(), 4096);
+		assertEquals(11, reopened.getKeys().size());
+		assertEquals("value 999", reopened.get(9));
+		assertEquals("new", reopened.get(10));
+	}
+
+	@Test
+	public void testOperationListeners() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		final List<String> operations = new LinkedList<String>();
+		storage.addOperationListener(new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				operations.add(key + ": " + oldValue + " -> " + newValue);
+			}
+		});
+
+		storage.set(1, "a");
+		storage.set(1, "b");
+		storage.remove(1);
+		storage.remove(2);
+		assertEquals(Arrays.asList("1: null -> a", "1: a -> b",
+				"1: b -> null", "2: null -> null"), operations);
+	}
+
+	@Test
+	public void testModifiedSerializableValueSetAgain() throws IOException {
+		MappedLogStorage<Integer> storage = new MappedLogStorage<Integer>(
+				folder.getRoot(), Codecs.INTEGER, Codecs.serializable(), 4096);
+		List<String> value = new LinkedList<String>(Arrays.asList("a"));
+		storage.set(1, value);
+		value.add("b");
+		storage.set(1, value);
+		assertEquals(Arrays.asList("a", "b"), storage.get(1));
+		storage.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecordBiggerThanSegmentRejected() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 64);
+		storage.set(1, "this value is longer than what a segment can contain");
+	}
+
+	@Test(expected = ClassCastException.class)
+	public void testValueOfWrongTypeRejected() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		storage.set(1, 2);
+	}
+
+	@Test(expected = StorageException.class)
+	public void testForeignFileRejected() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(
+				folder.getRoot(), "segment-00000000.log"), "rw");
+		try {
+			file.writeInt(123);
+		} finally {
+			file.close();
+		}
+		open(folder.getRoot(), 4096);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedStorageRejectsOperations() throws IOException {
+		MappedLogStorage<Integer> storage = open(folder.getRoot(), 4096);
+		storage.close();
+		storage.get(1);
+	}
+}
@@ -331,4 +331,45 @@ public class SimpleStorageTest {
 		storage.getAll(Arrays.asList(1, 3));
 		assertEquals(0, params.size());
 	}
+
+	@Test
+	public void testOperationListenersOrderAndRemovalDuringNotification() {
+		final List<Integer> notified = new LinkedList<Integer>();
+		final SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		for (int i = 0; i < 10; i++) {
+			final int id = i;
+			storage.addOperationListener(new OperationListener<Integer>() {
+
+				@Override
+				public void entrySet(Integer key, Object oldValue,
+						Object newValue) {
+					notified.add(id);
+					storage.removeOperationListener(this);
+				}
+			});
+		}
+
+		storage.set(1, "a");
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), notified);
+		assertEquals(0, storage.getOperationListeners().size());
+
+		notified.clear();
+		storage.set(1, "b");
+		assertEquals(0, notified.size());
+	}
+
+	@Test
+	public void testPresizedStorage() {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>(1000);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i, "value " + i);
+		}
+		assertEquals(1000, storage.getKeys().size());
+		assertEquals("value 500", storage.get(500));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeExpectedSizeRejected() {
+		new SimpleStorage<Integer>(-1);
+	}
 }
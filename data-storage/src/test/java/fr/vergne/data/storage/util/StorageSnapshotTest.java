@@ -0,0 +1,276 @@
+package fr.vergne.data.storage.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.vergne.data.storage.ReactiveStorage.OperationListener;
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codecs;
+import fr.vergne.data.storage.impl.ConcurrentStorage;
+import fr.vergne.data.storage.impl.SimpleStorage;
+
+public class StorageSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StorageSnapshot<Integer> create(int blockSize) {
+		return new StorageSnapshot<Integer>(Codecs.INTEGER, Codecs.checked(
+				String.class, Codecs.STRING), blockSize);
+	}
+
+	private FileChannel open(File file) throws IOException {
+		return new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	private static Map<Integer, Object> content(Iterable<Entry<Integer, Object>> storage) {
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		return content;
+	}
+
+	@Test
+	public void testSnapshotRestored() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i, "value " + i);
+		}
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+
+		FileChannel channel = open(file);
+		try {
+			assertEquals(1000, snapshot.snapshot(storage, channel));
+		} finally {
+			channel.close();
+		}
+
+		channel = open(file);
+		try {
+			SimpleStorage<Integer> restored = snapshot.restore(channel);
+			assertEquals(content(storage), content(restored));
+			assertEquals(file.length(), channel.position());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testEmptySnapshotRestored() throws IOException {
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(new SimpleStorage<Integer>(), channel);
+			channel.position(0);
+			assertTrue(snapshot.restore(channel).getKeys().isEmpty());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testEntryBiggerThanBlockRestored() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "this value is longer than what a block can contain");
+		storage.set(3, "c");
+		StorageSnapshot<Integer> snapshot = create(32);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(storage, channel);
+			channel.position(0);
+			assertEquals(content(storage), content(snapshot.restore(channel)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testFirstEntryBiggerThanBlockRestored() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		storage.set(1, "this value is longer than what a block can contain");
+		StorageSnapshot<Integer> snapshot = create(32);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			assertEquals(1, snapshot.snapshot(storage, channel));
+			channel.position(0);
+			assertEquals(content(storage), content(snapshot.restore(channel)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testSnapshotsFollowingEachOther() throws IOException {
+		SimpleStorage<Integer> storage1 = new SimpleStorage<Integer>();
+		storage1.set(1, "a");
+		SimpleStorage<Integer> storage2 = new SimpleStorage<Integer>();
+		storage2.set(2, "b");
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(storage1, channel);
+			snapshot.snapshot(storage2, channel);
+			channel.position(0);
+			assertEquals(content(storage1), content(snapshot.restore(channel)));
+			assertEquals(content(storage2), content(snapshot.restore(channel)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testRestoreInExistingStorage() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		storage.set(1, "a");
+		storage.set(2, "b");
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(storage, channel);
+			channel.position(0);
+			ConcurrentStorage<Integer> target = new ConcurrentStorage<Integer>();
+			target.set(2, "x");
+			target.set(3, "c");
+			assertEquals(2, snapshot.restore(channel, target, true));
+			assertEquals(Arrays.asList("a", "b", "c"),
+					target.getAll(Arrays.asList(1, 2, 3)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testListenersNotificationSkippable() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		storage.set(1, "a");
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		final List<String> operations = new LinkedList<String>();
+		OperationListener<Integer> listener = new OperationListener<Integer>() {
+
+			@Override
+			public void entrySet(Integer key, Object oldValue, Object newValue) {
+				operations.add(key + ": " + oldValue + " -> " + newValue);
+			}
+		};
+		try {
+			snapshot.snapshot(storage, channel);
+			SimpleStorage<Integer> target = new SimpleStorage<Integer>();
+			target.addOperationListener(listener);
+
+			channel.position(0);
+			snapshot.restore(channel, target, false);
+			assertEquals(Arrays.asList(), operations);
+			assertEquals("a", target.get(1));
+			assertEquals(Arrays.asList(listener),
+					Arrays.asList(target.getOperationListeners().toArray()));
+
+			target.remove(1);
+			channel.position(0);
+			snapshot.restore(channel, target, true);
+			assertEquals(Arrays.asList("1: a -> null", "1: null -> a"),
+					operations);
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testCorruptedSnapshotRejected() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		for (int i = 0; i < 100; i++) {
+			storage.set(i, "value " + i);
+		}
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(storage, channel);
+		} finally {
+			channel.close();
+		}
+
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.seek(raw.length() / 2);
+			int value = raw.read();
+			raw.seek(raw.length() / 2);
+			raw.write(value + 1);
+		} finally {
+			raw.close();
+		}
+
+		channel = open(file);
+		try {
+			snapshot.restore(channel);
+			fail("No exception thrown.");
+		} catch (StorageException e) {
+			// expected
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testTruncatedSnapshotRejected() throws IOException {
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		for (int i = 0; i < 100; i++) {
+			storage.set(i, "value " + i);
+		}
+		StorageSnapshot<Integer> snapshot = create(100);
+		File file = folder.newFile();
+		FileChannel channel = open(file);
+		try {
+			snapshot.snapshot(storage, channel);
+			channel.truncate(channel.size() - 20);
+			channel.position(0);
+			snapshot.restore(channel);
+			fail("No exception thrown.");
+		} catch (StorageException e) {
+			// expected
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test(expected = StorageException.class)
+	public void testForeignFileRejected() throws IOException {
+		File file = folder.newFile();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.writeLong(123);
+			raw.writeLong(456);
+		} finally {
+			raw.close();
+		}
+		FileChannel channel = open(file);
+		try {
+			create(100).restore(channel);
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package fr.vergne.data.storage.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.vergne.data.storage.StorageException;
+import fr.vergne.data.storage.codec.Codec;
+import fr.vergne.data.storage.codec.Codecs;
+import fr.vergne.data.storage.impl.ConcurrentStorage;
+import fr.vergne.data.storage.impl.SimpleStorage;
+
+public class WriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WriteAheadLog<Integer> open(File file, long maxDelay,
+			int maxBatchSize) throws IOException {
+		return new WriteAheadLog<Integer>(file, Codecs.INTEGER,
+				Codecs.checked(String.class, Codecs.STRING), maxDelay,
+				TimeUnit.MILLISECONDS, maxBatchSize);
+	}
+
+	private static Map<Integer, Object> content(
+			Iterable<Entry<Integer, Object>> storage) {
+		Map<Integer, Object> content = new HashMap<Integer, Object>();
+		for (Entry<Integer, Object> entry : storage) {
+			content.put(entry.getKey(), entry.getValue());
+		}
+		return content;
+	}
+
+	@Test
+	public void testContentReplayed() throws IOException {
+		File file = folder.newFile();
+		SimpleStorage<Integer> storage = new SimpleStorage<Integer>();
+		WriteAheadLog<Integer> log = open(file, 10, 100);
+		storage.addOperationListener(log);
+		for (int i = 0; i < 1000; i++) {
+			storage.set(i % 100, "value " + i);
+		}
+		storage.remove(50);
+		storage.set(60, null);
+		log.close();
+
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		restored.set(50, "old");
+		WriteAheadLog<Integer> reopened = open(file, 10, 100);
+		assertEquals(100, reopened.replay(restored));
+		assertEquals(content(storage), content(restored));
+
+		// the next records are appended
+		restored.addOperationListener(reopened);
+		restored.set(50, "back");
+		reopened.close();
+		SimpleStorage<Integer> again = new SimpleStorage<Integer>();
+		open(file, 10, 100).replay(again);
+		assertEquals(content(restored), content(again));
+	}
+
+	@Test
+	public void testGroupCommittedWhenFull() throws IOException {
+		WriteAheadLog<Integer> log = open(folder.newFile(), 3600000, 10);
+		for (int i = 0; i < 25; i++) {
+			log.entrySet(i, null, "value " + i);
+		}
+		assertEquals(2, log.getSyncCount());
+
+		log.sync();
+		assertEquals(3, log.getSyncCount());
+		log.sync();
+		assertEquals(3, log.getSyncCount());
+		log.close();
+	}
+
+	@Test
+	public void testGroupCommittedAfterDelay() throws Exception {
+		WriteAheadLog<Integer> log = open(folder.newFile(), 10, 1000);
+		log.entrySet(1, null, "a");
+		log.entrySet(2, null, "b");
+		long limit = System.currentTimeMillis() + 5000;
+		while (log.getSyncCount() == 0 && System.currentTimeMillis() < limit) {
+			Thread.sleep(1);
+		}
+		assertEquals(1, log.getSyncCount());
+		log.close();
+	}
+
+	@Test
+	public void testSyncedRecordsReadableWithoutClosing() throws IOException {
+		File file = folder.newFile();
+		WriteAheadLog<Integer> log = open(file, 3600000, 1000);
+		log.entrySet(1, null, "a");
+		log.sync();
+
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		log.replay(restored);
+		assertEquals("a", restored.get(1));
+		log.close();
+	}
+
+	@Test
+	public void testFailingCodecLeavesNoPartialRecord() throws IOException {
+		final Codec<Object> strings = Codecs.checked(String.class,
+				Codecs.STRING);
+		Codec<Object> failing = new Codec<Object>() {
+
+			@Override
+			public int size(Object value) {
+				return strings.size(value);
+			}
+
+			@Override
+			public void encode(Object value, ByteBuffer buffer) {
+				if (value.equals("boom")) {
+					buffer.put((byte) 'b');
+					throw new IllegalArgumentException("Cannot encode");
+				} else {
+					strings.encode(value, buffer);
+				}
+			}
+
+			@Override
+			public Object decode(ByteBuffer buffer, int length) {
+				return strings.decode(buffer, length);
+			}
+		};
+		File file = folder.newFile();
+		WriteAheadLog<Integer> log = new WriteAheadLog<Integer>(file,
+				Codecs.INTEGER, failing, 3600000, TimeUnit.MILLISECONDS, 1000);
+		log.entrySet(1, null, "a");
+		try {
+			log.entrySet(2, null, "boom");
+			fail("No exception thrown");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		log.entrySet(3, null, "b");
+		log.close();
+
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		assertEquals(2, open(file, 10, 100).replay(restored));
+		assertEquals("a", restored.get(1));
+		assertNull(restored.get(2));
+		assertEquals("b", restored.get(3));
+	}
+
+	@Test
+	public void testTornRecordDiscarded() throws IOException {
+		File file = folder.newFile();
+		WriteAheadLog<Integer> log = open(file, 10, 100);
+		log.entrySet(1, null, "a");
+		log.entrySet(2, null, "b");
+		log.close();
+
+		// corrupt the last byte, as if the last record was partially written
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.seek(raw.length() - 1);
+			raw.write('x');
+			raw.write(new byte[] { 0, 0, 0 });
+		} finally {
+			raw.close();
+		}
+
+		WriteAheadLog<Integer> reopened = open(file, 10, 100);
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		reopened.replay(restored);
+		assertEquals("a", restored.get(1));
+		assertEquals(null, restored.get(2));
+
+		// the next records replace the torn one
+		reopened.entrySet(3, null, "c");
+		reopened.close();
+		SimpleStorage<Integer> again = new SimpleStorage<Integer>();
+		open(file, 10, 100).replay(again);
+		assertEquals("a", again.get(1));
+		assertEquals(null, again.get(2));
+		assertEquals("c", again.get(3));
+	}
+
+	@Test
+	public void testResetDropsRecords() throws IOException {
+		File file = folder.newFile();
+		WriteAheadLog<Integer> log = open(file, 10, 100);
+		log.entrySet(1, null, "a");
+		log.sync();
+		log.entrySet(2, null, "b");
+		log.reset();
+		log.entrySet(3, null, "c");
+		log.close();
+
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		open(file, 10, 100).replay(restored);
+		assertEquals(null, restored.get(1));
+		assertEquals(null, restored.get(2));
+		assertEquals("c", restored.get(3));
+	}
+
+	@Test
+	public void testConcurrentWritersReplayed() throws Exception {
+		File file = folder.newFile();
+		final ConcurrentStorage<Integer> storage = new ConcurrentStorage<Integer>();
+		WriteAheadLog<Integer> log = open(file, 1, 50);
+		storage.addOperationListener(log);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						storage.set(i % 200, "value " + offset + " " + i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		log.close();
+
+		SimpleStorage<Integer> restored = new SimpleStorage<Integer>();
+		open(file, 1, 50).replay(restored);
+		assertEquals(content(storage), content(restored));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedLogRejectsRecords() throws IOException {
+		WriteAheadLog<Integer> log = open(folder.newFile(), 10, 100);
+		log.close();
+		log.entrySet(1, null, "a");
+	}
+
+	@Test(expected = StorageException.class)
+	public void testForeignFileRejected() throws IOException {
+		File file = folder.newFile();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.writeLong(123);
+		} finally {
+			raw.close();
+		}
+		open(file, 10, 100);
+	}
+}